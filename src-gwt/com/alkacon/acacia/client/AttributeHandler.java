@@ -28,6 +28,7 @@ import com.alkacon.acacia.client.UndoRedoHandler.ChangeType;
 import com.alkacon.acacia.client.css.I_LayoutBundle;
 import com.alkacon.acacia.client.ui.AttributeValueView;
 import com.alkacon.acacia.client.ui.InlineEntityWidget;
+import com.alkacon.acacia.client.ui.ValuePanel;
 import com.alkacon.acacia.client.widgets.I_FormEditWidget;
 import com.alkacon.acacia.shared.Type;
 import com.alkacon.geranium.client.dnd.DNDHandler;
@@ -82,6 +83,9 @@ public class AttributeHandler extends RootHandler {
     /** The parent attribute handler. */
     private I_AttributeHandler m_parentHandler;
 
+    /** The placeholder widget of an attribute that has not been rendered yet. */
+    private Widget m_placeholder;
+
     /** The single value index. */
     private int m_singleValueIndex;
 
@@ -143,6 +147,16 @@ public class AttributeHandler extends RootHandler {
         return m_resizeHandler;
     }
 
+    /**
+     * Returns the scroll element used for automatic scrolling during drag and drop.<p>
+     * 
+     * @return the scroll element
+     */
+    public static Element getScrollElement() {
+
+        return m_scrollElement;
+    }
+
     /**
      * Returns <code>true</code> if a global widget resize handler is present.<p>
      * 
@@ -173,6 +187,16 @@ public class AttributeHandler extends RootHandler {
         m_scrollElement = scrollElement;
     }
 
+    /**
+     * Returns the entity.<p>
+     * 
+     * @return the entity
+     */
+    public I_Entity getEntity() {
+
+        return m_entity;
+    }
+
     /**
      * Returns the entity id.<p>
      * 
@@ -183,6 +207,17 @@ public class AttributeHandler extends RootHandler {
         return m_entity.getId();
     }
 
+    /**
+     * @see com.alkacon.acacia.client.RootHandler#removeHandlerById(java.lang.String, com.alkacon.acacia.client.AttributeHandler)
+     */
+    @Override
+    public void removeHandlerById(String attributeName, AttributeHandler handler) {
+
+        if (m_parentHandler != null) {
+            m_parentHandler.removeHandlerById(attributeName, handler);
+        }
+    }
+
     /**
      * @see com.alkacon.acacia.client.RootHandler#setHandlerById(java.lang.String, com.alkacon.acacia.client.AttributeHandler)
      */
@@ -212,10 +247,19 @@ public class AttributeHandler extends RootHandler {
                 int valueIndex = -1;
                 if (reference.getElement().getNextSiblingElement() == null) {
                     m_entity.addAttributeValue(m_attributeName, defaultValue);
+                    ChangeTracker.getInstance().recordInsert(
+                        m_entity.getId(),
+                        m_attributeName,
+                        m_entity.getAttribute(m_attributeName).getValueCount() - 1,
+                        defaultValue);
                 } else {
                     valueIndex = reference.getValueIndex() + 1;
                     m_entity.insertAttributeValue(m_attributeName, defaultValue, valueIndex);
-
+                    ChangeTracker.getInstance().recordInsert(
+                        m_entity.getId(),
+                        m_attributeName,
+                        valueIndex,
+                        defaultValue);
                 }
                 AttributeValueView valueWidget = reference;
                 if (reference.hasValue()) {
@@ -266,6 +310,11 @@ public class AttributeHandler extends RootHandler {
                     m_entity.insertAttributeValue(m_attributeName, defaultValue, referenceIndex + 1);
 
                 }
+                ChangeTracker.getInstance().recordInsert(
+                    m_entity.getId(),
+                    m_attributeName,
+                    m_entity.getAttribute(m_attributeName).getValueCount() == 1 ? 0 : referenceIndex + 1,
+                    defaultValue);
             } else {
                 I_Entity value = m_vie.createEntity(null, m_attributeType.getId());
                 if ((attribute == null) || (attribute.getValueCount() == (referenceIndex + 1))) {
@@ -273,6 +322,11 @@ public class AttributeHandler extends RootHandler {
                 } else {
                     m_entity.insertAttributeValue(m_attributeName, value, referenceIndex + 1);
                 }
+                ChangeTracker.getInstance().recordInsert(
+                    m_entity.getId(),
+                    m_attributeName,
+                    m_entity.getAttribute(m_attributeName).getValueCount() == 1 ? 0 : referenceIndex + 1,
+                    value);
                 insertHandlers(referenceIndex + 1);
             }
         }
@@ -334,7 +388,10 @@ public class AttributeHandler extends RootHandler {
      */
     public void changeValue(String value, int valueIndex) {
 
-        m_attributeValueViews.get(valueIndex).getValueWidget().setValue(value, false);
+        // the value widget may not be rendered yet
+        if (hasValueView(valueIndex) && (getValueView(valueIndex).getValueWidget() != null)) {
+            getValueView(valueIndex).getValueWidget().setValue(value, false);
+        }
         changeEntityValue(value, valueIndex);
     }
 
@@ -439,6 +496,29 @@ public class AttributeHandler extends RootHandler {
         return m_widgetService;
     }
 
+    /**
+     * Returns the value view with the given index, according to the current order of the views.<p>
+     * 
+     * @param valueIndex the value index
+     * 
+     * @return the value view
+     */
+    public AttributeValueView getValueView(int valueIndex) {
+
+        FlowPanel parent = (FlowPanel)m_attributeValueViews.get(0).getParent();
+        return (AttributeValueView)parent.getWidget(valueIndex);
+    }
+
+    /**
+     * Returns if the attribute is represented by a placeholder as it has not been rendered yet.<p>
+     * 
+     * @return <code>true</code> if the attribute has not been rendered yet
+     */
+    public boolean hasPlaceholder() {
+
+        return m_placeholder != null;
+    }
+
     /**
      * Return true if there is a single remaining value, which is optional.<p>
      * 
@@ -462,6 +542,59 @@ public class AttributeHandler extends RootHandler {
         return m_attributeValueViews.size() > valueIndex;
     }
 
+    /**
+     * Inserts the given nested entity value at the given index and renders its value view.<p>
+     * 
+     * Used to restore values on undo and redo, requires at least one rendered value view.<p>
+     * 
+     * @param value the value entity
+     * @param valueIndex the value index
+     */
+    public void insertEntityValue(I_Entity value, int valueIndex) {
+
+        FlowPanel parent = (FlowPanel)m_attributeValueViews.get(0).getParent();
+        m_entity.insertAttributeValue(m_attributeName, value, valueIndex);
+        ChangeTracker.getInstance().recordInsert(m_entity.getId(), m_attributeName, valueIndex, value);
+        AttributeValueView valueWidget = new AttributeValueView(
+            this,
+            m_widgetService.getAttributeLabel(m_attributeName),
+            m_widgetService.getAttributeHelp(m_attributeName));
+        Renderer.setAttributeChoice(m_widgetService, valueWidget, getAttributeType());
+        parent.insert(valueWidget, valueIndex);
+        insertHandlers(valueIndex);
+        valueWidget.setValueEntity(m_widgetService.getRendererForAttribute(m_attributeName, getAttributeType()), value);
+        updateButtonVisisbility();
+    }
+
+    /**
+     * Inserts the given simple value at the given index and renders its value view.<p>
+     * 
+     * Used to restore values on undo and redo, requires at least one rendered value view.<p>
+     * 
+     * @param value the value
+     * @param valueIndex the value index
+     */
+    public void insertSimpleValue(String value, int valueIndex) {
+
+        FlowPanel parent = (FlowPanel)m_attributeValueViews.get(0).getParent();
+        m_entity.insertAttributeValue(m_attributeName, value, valueIndex);
+        ChangeTracker.getInstance().recordInsert(m_entity.getId(), m_attributeName, valueIndex, value);
+        AttributeValueView valueWidget = new AttributeValueView(
+            this,
+            m_widgetService.getAttributeLabel(m_attributeName),
+            m_widgetService.getAttributeHelp(m_attributeName));
+        if (m_widgetService.isDisplaySingleLine(m_attributeName)) {
+            valueWidget.setCompactMode(AttributeValueView.COMPACT_MODE_SINGLE_LINE);
+        }
+        parent.insert(valueWidget, valueIndex);
+        valueWidget.setValueWidget(
+            m_widgetService.getAttributeFormWidget(m_attributeName),
+            value,
+            m_widgetService.getDefaultAttributeValue(m_attributeName),
+            true);
+        updateButtonVisisbility();
+    }
+
     /**
      * Returns if this is a choice handler.<p>
      * 
@@ -472,9 +605,27 @@ public class AttributeHandler extends RootHandler {
         return Type.CHOICE_ATTRIBUTE_NAME.equals(m_attributeName);
     }
 
+    /**
+     * Returns if the content of the value view with the given index has not been rendered yet.<p>
+     * 
+     * @param valueIndex the value index
+     * 
+     * @return <code>true</code> if the value content has not been rendered yet
+     */
+    public boolean isValueDeferred(int valueIndex) {
+
+        if (m_attributeValueViews.isEmpty()) {
+            return false;
+        }
+        FlowPanel parent = (FlowPanel)m_attributeValueViews.get(0).getParent();
+        return (valueIndex < parent.getWidgetCount()) && ((AttributeValueView)parent.getWidget(valueIndex)).isDeferred();
+    }
+
     /**
      * Moves the give attribute value from one position to another.<p>
      * 
+     * The value view, its widget and the handlers of nested entities are kept and relocated in place.<p>
+     * 
      * @param valueView the value to move
      * @param currentPosition the current position
      * @param targetPosition the target position
@@ -485,75 +636,22 @@ public class AttributeHandler extends RootHandler {
             return;
         }
         FlowPanel parent = (FlowPanel)valueView.getParent();
-
-        valueView.removeFromParent();
-        m_attributeValueViews.remove(valueView);
-        AttributeValueView valueWidget = null;
-        if (isChoiceHandler()) {
-            removeHandlers(currentPosition);
-            I_Entity value = m_entity.getAttribute(m_attributeName).getComplexValues().get(currentPosition);
-            m_entity.removeAttributeValue(m_attributeName, currentPosition);
-            m_entity.insertAttributeValue(m_attributeName, value, targetPosition);
-            String attributeChoice = getChoiceName(targetPosition);
-            I_Type optionType = getAttributeType().getAttributeType(attributeChoice);
-            valueWidget = new AttributeValueView(
-                this,
-                m_widgetService.getAttributeLabel(attributeChoice),
-                m_widgetService.getAttributeHelp(attributeChoice));
-            if (optionType.isSimpleType() && m_widgetService.isDisplaySingleLine(attributeChoice)) {
-                valueWidget.setCompactMode(AttributeValueView.COMPACT_MODE_SINGLE_LINE);
-            }
-            parent.insert(valueWidget, targetPosition);
-            insertHandlers(targetPosition);
-            if (optionType.isSimpleType()) {
-                valueWidget.setValueWidget(
-                    m_widgetService.getAttributeFormWidget(attributeChoice),
-                    value.getAttribute(attributeChoice).getSimpleValue(),
-                    m_widgetService.getDefaultAttributeValue(attributeChoice),
-                    true);
-            } else {
-                valueWidget.setValueEntity(
-                    m_widgetService.getRendererForAttribute(attributeChoice, getAttributeType()),
-                    value.getAttribute(attributeChoice).getComplexValue());
-            }
-
-            List<ChoiceMenuEntryBean> menuEntries = Renderer.getChoiceEntries(getAttributeType(), true);
-            for (ChoiceMenuEntryBean menuEntry : menuEntries) {
-                valueWidget.addChoice(m_widgetService, menuEntry);
-            }
-        } else if (getAttributeType().isSimpleType()) {
+        if (getAttributeType().isSimpleType()) {
             String value = m_entity.getAttribute(m_attributeName).getSimpleValues().get(currentPosition);
             m_entity.removeAttributeValue(m_attributeName, currentPosition);
             m_entity.insertAttributeValue(m_attributeName, value, targetPosition);
-            valueWidget = new AttributeValueView(
-                this,
-                m_widgetService.getAttributeLabel(m_attributeName),
-                m_widgetService.getAttributeHelp(m_attributeName));
-            if (m_widgetService.isDisplaySingleLine(m_attributeName)) {
-                valueWidget.setCompactMode(AttributeValueView.COMPACT_MODE_SINGLE_LINE);
-            }
-            parent.insert(valueWidget, targetPosition);
-            valueWidget.setValueWidget(
-                m_widgetService.getAttributeFormWidget(m_attributeName),
-                value,
-                m_widgetService.getDefaultAttributeValue(m_attributeName),
-                true);
         } else {
-            removeHandlers(currentPosition);
             I_Entity value = m_entity.getAttribute(m_attributeName).getComplexValues().get(currentPosition);
             m_entity.removeAttributeValue(m_attributeName, currentPosition);
             m_entity.insertAttributeValue(m_attributeName, value, targetPosition);
-            valueWidget = new AttributeValueView(
-                this,
-                m_widgetService.getAttributeLabel(m_attributeName),
-                m_widgetService.getAttributeHelp(m_attributeName));
-            parent.insert(valueWidget, targetPosition);
-            insertHandlers(targetPosition);
-            valueWidget.setValueEntity(
-                m_widgetService.getRendererForAttribute(m_attributeName, getAttributeType()),
-                value);
-
+            moveHandlers(currentPosition, targetPosition);
+        }
+        if (parent instanceof ValuePanel) {
+            ((ValuePanel)parent).moveWidget(valueView, targetPosition);
+        } else {
+            parent.insert(valueView, targetPosition);
         }
+        ChangeTracker.getInstance().recordMove(m_entity.getId(), m_attributeName, currentPosition, targetPosition);
         updateButtonVisisbility();
         UndoRedoHandler handler = UndoRedoHandler.getInstance();
         if (handler.isIntitalized()) {
@@ -675,12 +773,14 @@ public class AttributeHandler extends RootHandler {
                 removeHandlers(0);
             }
             m_entity.removeAttribute(m_attributeName);
+            ChangeTracker.getInstance().recordRemove(m_entity.getId(), m_attributeName, 0);
         } else {
             int index = reference.getValueIndex();
             if (attribute.isComplexValue()) {
                 removeHandlers(index);
             }
             m_entity.removeAttributeValue(m_attributeName, index);
+            ChangeTracker.getInstance().recordRemove(m_entity.getId(), m_attributeName, index);
             reference.removeFromParent();
             m_attributeValueViews.remove(reference);
 
@@ -710,11 +810,13 @@ public class AttributeHandler extends RootHandler {
                 removeHandlers(0);
             }
             m_entity.removeAttribute(m_attributeName);
+            ChangeTracker.getInstance().recordRemove(m_entity.getId(), m_attributeName, 0);
         } else {
             if (attribute.isComplexValue()) {
                 removeHandlers(valueIndex);
             }
             m_entity.removeAttributeValue(m_attributeName, valueIndex);
+            ChangeTracker.getInstance().recordRemove(m_entity.getId(), m_attributeName, valueIndex);
         }
     }
 
@@ -731,16 +833,10 @@ public class AttributeHandler extends RootHandler {
             FlowPanel parent = (FlowPanel)m_attributeValueViews.get(0).getParent();
             AttributeValueView valueView = (AttributeValueView)parent.getWidget(valueIndex);
             valueView.setErrorMessage(message);
-            if (tabbedPanel != null) {
-                int tabIndex = tabbedPanel.getTabIndex(valueView.getElement());
-                if (tabIndex > -1) {
-                    Widget tab = tabbedPanel.getTabWidget(tabIndex);
-                    tab.setTitle("This tab has errors.");
-                    tab.getParent().removeStyleName(I_LayoutBundle.INSTANCE.form().hasWarning());
-                    tab.getParent().addStyleName(I_LayoutBundle.INSTANCE.form().hasError());
-                }
-
-            }
+            markTab(tabbedPanel, valueView.getElement(), true);
+        } else if (m_placeholder != null) {
+            // the attribute is not rendered yet, only mark the tab containing it
+            markTab(tabbedPanel, m_placeholder.getElement(), true);
         }
     }
 
@@ -754,6 +850,16 @@ public class AttributeHandler extends RootHandler {
         m_parentHandler = handler;
     }
 
+    /**
+     * Sets the placeholder widget representing the attribute while it is not rendered, e.g. within a tab not selected yet.<p>
+     * 
+     * @param placeholder the placeholder widget, use <code>null</code> once the attribute values are rendered
+     */
+    public void setPlaceholder(Widget placeholder) {
+
+        m_placeholder = placeholder;
+    }
+
     /**
      * Sets the warning message for the given value index.<p>
      * 
@@ -767,15 +873,10 @@ public class AttributeHandler extends RootHandler {
             FlowPanel parent = (FlowPanel)m_attributeValueViews.get(0).getParent();
             AttributeValueView valueView = (AttributeValueView)parent.getWidget(valueIndex);
             valueView.setWarningMessage(message);
-            if (tabbedPanel != null) {
-                int tabIndex = tabbedPanel.getTabIndex(valueView.getElement());
-                if (tabIndex > -1) {
-                    Widget tab = tabbedPanel.getTabWidget(tabIndex);
-                    tab.setTitle("This tab has warnings.");
-                    tab.getParent().addStyleName(I_LayoutBundle.INSTANCE.form().hasWarning());
-                }
-
-            }
+            markTab(tabbedPanel, valueView.getElement(), false);
+        } else if (m_placeholder != null) {
+            // the attribute is not rendered yet, only mark the tab containing it
+            markTab(tabbedPanel, m_placeholder.getElement(), false);
         }
     }
 
@@ -888,6 +989,7 @@ public class AttributeHandler extends RootHandler {
         }
 
         m_entity.insertAttributeValue(m_attributeName, choiceEntity, valueIndex);
+        ChangeTracker.getInstance().recordInsert(m_entity.getId(), m_attributeName, valueIndex, choiceEntity);
         ((FlowPanel)reference.getParent()).insert(valueWidget, valueIndex);
         insertHandlers(valueWidget.getValueIndex());
 
@@ -952,9 +1054,11 @@ public class AttributeHandler extends RootHandler {
             String attributeName = getChoiceName(valueIndex);
             if (attributeName != null) {
                 choice.setAttributeValue(attributeName, value, 0);
+                ChangeTracker.getInstance().recordValueChange(choice.getId(), attributeName, 0, value);
             }
         } else {
             m_entity.setAttributeValue(m_attributeName, value, valueIndex);
+            ChangeTracker.getInstance().recordValueChange(m_entity.getId(), m_attributeName, valueIndex, value);
         }
     }
 
@@ -1005,9 +1109,15 @@ public class AttributeHandler extends RootHandler {
         int valueIndex = -1;
         if (reference.getElement().getNextSiblingElement() == null) {
             m_entity.addAttributeValue(m_attributeName, value);
+            ChangeTracker.getInstance().recordInsert(
+                m_entity.getId(),
+                m_attributeName,
+                m_entity.getAttribute(m_attributeName).getValueCount() - 1,
+                value);
         } else {
             valueIndex = reference.getValueIndex() + 1;
             m_entity.insertAttributeValue(m_attributeName, value, valueIndex);
+            ChangeTracker.getInstance().recordInsert(m_entity.getId(), m_attributeName, valueIndex, value);
         }
         AttributeValueView valueWidget = reference;
         if (reference.hasValue()) {
@@ -1028,6 +1138,31 @@ public class AttributeHandler extends RootHandler {
         valueWidget.setValueEntity(renderer, value);
     }
 
+    /**
+     * Marks the tab containing the given element as having errors or warnings.<p>
+     * 
+     * @param tabbedPanel the forms tabbed panel, may be <code>null</code>
+     * @param element the element within the tab
+     * @param error <code>true</code> to mark errors, <code>false</code> to mark warnings
+     */
+    private void markTab(TabbedPanel<?> tabbedPanel, Element element, boolean error) {
+
+        if (tabbedPanel != null) {
+            int tabIndex = tabbedPanel.getTabIndex(element);
+            if (tabIndex > -1) {
+                Widget tab = tabbedPanel.getTabWidget(tabIndex);
+                if (error) {
+                    tab.setTitle("This tab has errors.");
+                    tab.getParent().removeStyleName(I_LayoutBundle.INSTANCE.form().hasWarning());
+                    tab.getParent().addStyleName(I_LayoutBundle.INSTANCE.form().hasError());
+                } else {
+                    tab.setTitle("This tab has warnings.");
+                    tab.getParent().addStyleName(I_LayoutBundle.INSTANCE.form().hasWarning());
+                }
+            }
+        }
+    }
+
     /**
      * Creates a list consisting of all but the first element of another list.<p>
      * 
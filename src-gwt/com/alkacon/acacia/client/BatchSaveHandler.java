@@ -0,0 +1,233 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.client;
+
+import com.alkacon.acacia.shared.Entity;
+import com.alkacon.acacia.shared.ValidationResult;
+import com.alkacon.acacia.shared.rpc.I_ContentServiceAsync;
+import com.alkacon.vie.client.I_Vie;
+import com.alkacon.vie.shared.I_Entity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gwt.user.client.Random;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Saves a batch of entities in chunks.<p>
+ * 
+ * The entities are serialized chunk by chunk right before sending, so only the chunks in transit are held in memory. 
+ * Up to {@link #MAX_PENDING_CHUNKS} chunks are sent at once. The server applies the batch once it received all chunks, 
+ * the callback receives the validation result of the complete batch.<p>
+ * 
+ * @see com.alkacon.acacia.shared.rpc.I_ContentService#saveEntityChunk(String, int, int, List)
+ */
+public class BatchSaveHandler {
+
+    /** The number of entities per chunk. */
+    public static final int CHUNK_SIZE = 5;
+
+    /** The maximum number of chunks sent at once. */
+    public static final int MAX_PENDING_CHUNKS = 2;
+
+    /** The base versions by entity id. */
+    private Map<String, String> m_baseVersions;
+
+    /** The batch id. */
+    private String m_batchId;
+
+    /** The callback to execute once the batch is saved. */
+    private AsyncCallback<ValidationResult> m_callback;
+
+    /** The number of chunks. */
+    private int m_chunkCount;
+
+    /** The content versions of the sent entities by entity id. */
+    private Map<String, String> m_contentVersions;
+
+    /** The ids of the entities to save. */
+    private List<String> m_entityIds;
+
+    /** Flag indicating a chunk failed to be sent. */
+    private boolean m_failed;
+
+    /** The index of the next chunk to send. */
+    private int m_nextChunk;
+
+    /** The number of chunks sent but not yet received by the server. */
+    private int m_pendingChunks;
+
+    /** The progress handler, may be <code>null</code>. */
+    private I_SaveProgressHandler m_progressHandler;
+
+    /** The number of chunks received by the server. */
+    private int m_receivedChunks;
+
+    /** The validation result of the batch. */
+    private ValidationResult m_result;
+
+    /** The number of entities received by the server. */
+    private int m_sentCount;
+
+    /** The content service. */
+    private I_ContentServiceAsync m_service;
+
+    /** The VIE instance. */
+    private I_Vie m_vie;
+
+    /**
+     * Constructor.<p>
+     * 
+     * @param service the content service
+     * @param vie the VIE instance
+     * @param entityIds the ids of the entities to save
+     * @param baseVersions the base versions by entity id
+     * @param progressHandler the progress handler, may be <code>null</code>
+     * @param callback the callback to execute once the batch is saved
+     */
+    public BatchSaveHandler(
+        I_ContentServiceAsync service,
+        I_Vie vie,
+        List<String> entityIds,
+        Map<String, String> baseVersions,
+        I_SaveProgressHandler progressHandler,
+        AsyncCallback<ValidationResult> callback) {
+
+        m_service = service;
+        m_vie = vie;
+        m_entityIds = entityIds;
+        m_baseVersions = baseVersions;
+        m_progressHandler = progressHandler;
+        m_callback = callback;
+        m_contentVersions = new HashMap<String, String>();
+        m_chunkCount = Math.max(1, ((entityIds.size() + CHUNK_SIZE) - 1) / CHUNK_SIZE);
+        m_batchId = Long.toString(System.currentTimeMillis(), 36) + "-" + Integer.toString(Random.nextInt(), 36);
+    }
+
+    /**
+     * Returns the content versions of the sent entities, the base versions of the next save once saved.<p>
+     * 
+     * @return the content versions by entity id
+     */
+    public Map<String, String> getContentVersions() {
+
+        return m_contentVersions;
+    }
+
+    /**
+     * Starts sending the chunks.<p>
+     */
+    public void start() {
+
+        sendNextChunks();
+    }
+
+    /**
+     * Handles a chunk received by the server.<p>
+     * 
+     * @param chunkSize the number of entities of the chunk
+     * @param result the validation result, only returned for the chunk completing the batch
+     */
+    void onChunkSaved(int chunkSize, ValidationResult result) {
+
+        if (m_failed) {
+            return;
+        }
+        m_pendingChunks--;
+        m_receivedChunks++;
+        m_sentCount += chunkSize;
+        if (result != null) {
+            m_result = result;
+        }
+        if (m_progressHandler != null) {
+            m_progressHandler.onProgress(m_sentCount, m_entityIds.size());
+        }
+        if (m_receivedChunks == m_chunkCount) {
+            m_callback.onSuccess(m_result);
+        } else {
+            sendNextChunks();
+        }
+    }
+
+    /**
+     * Serializes the entities of the given chunk.<p>
+     * 
+     * @param chunkIndex the chunk index
+     * 
+     * @return the serialized entities
+     */
+    private List<Entity> serializeChunk(int chunkIndex) {
+
+        List<Entity> result = new ArrayList<Entity>();
+        int end = Math.min((chunkIndex + 1) * CHUNK_SIZE, m_entityIds.size());
+        for (int i = chunkIndex * CHUNK_SIZE; i < end; i++) {
+            I_Entity entity = m_vie.getEntity(m_entityIds.get(i));
+            if (entity != null) {
+                Entity serialized = Entity.serializeEntity(entity);
+                serialized.setVersion(m_baseVersions.get(serialized.getId()));
+                m_contentVersions.put(serialized.getId(), serialized.getContentVersion());
+                result.add(serialized);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sends chunks until the maximum number of pending chunks is reached.<p>
+     */
+    private void sendNextChunks() {
+
+        while ((m_pendingChunks < MAX_PENDING_CHUNKS) && (m_nextChunk < m_chunkCount)) {
+            int chunkIndex = m_nextChunk;
+            final int chunkSize = Math.min(CHUNK_SIZE, m_entityIds.size() - (chunkIndex * CHUNK_SIZE));
+            m_nextChunk++;
+            m_pendingChunks++;
+            m_service.saveEntityChunk(
+                m_batchId,
+                chunkIndex,
+                m_chunkCount,
+                serializeChunk(chunkIndex),
+                new AsyncCallback<ValidationResult>() {
+
+                    public void onFailure(Throwable caught) {
+
+                        if (!m_failed) {
+                            m_failed = true;
+                            m_callback.onFailure(caught);
+                        }
+                    }
+
+                    public void onSuccess(ValidationResult result) {
+
+                        onChunkSaved(chunkSize, result);
+                    }
+                });
+        }
+    }
+}
@@ -0,0 +1,634 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.alkacon.acacia.client;
+
+import com.alkacon.acacia.shared.Entity;
+import com.alkacon.acacia.shared.EntityPatch;
+import com.alkacon.acacia.shared.PatchOperation;
+import com.alkacon.vie.client.Vie;
+import com.alkacon.vie.shared.I_Entity;
+import com.alkacon.vie.shared.I_EntityAttribute;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gwt.user.client.Random;
+
+/**
+ * Tracks the changes applied to the edited entities since they were last saved, to allow saving patches instead of the complete entities.<p>
+ * 
+ * Changes are recorded per attribute. Changes that can not be described by single operations 
+ * mark the whole attribute as changed, its current values will be sent on save.<p>
+ * 
+ * Changes are tracked separately for each consumer, so saving and validation may send patches independently.<p>
+ */
+public final class ChangeTracker {
+
+    /**
+     * The changes of one root entity.<p>
+     */
+    private static class EntityChanges {
+
+        /** The changed attributes, that will be sent with all their values, by attribute key. */
+        Map<String, String[]> m_changedAttributes = new LinkedHashMap<String, String[]>();
+
+        /** The single value operations in the order they were applied. */
+        List<Record> m_records = new ArrayList<Record>();
+
+        /** Flag indicating the complete entity needs to be sent. */
+        boolean m_replaced;
+
+        /** The version last saved to the server. */
+        String m_savedVersion;
+
+        /**
+         * Adds the given record.<p>
+         * 
+         * @param record the record
+         */
+        void add(Record record) {
+
+            if (!m_replaced
+                && !m_changedAttributes.containsKey(getAttributeKey(record.m_entityId, record.m_attributeName))) {
+                m_records.add(record);
+            }
+        }
+
+        /**
+         * Records a simple value change. Consecutive changes of the same value are merged.<p>
+         * 
+         * @param entityId the id of the entity holding the attribute
+         * @param attributeName the attribute name
+         * @param index the value index
+         * @param value the new value
+         */
+        void addValueChange(String entityId, String attributeName, int index, String value) {
+
+            int last = m_records.size() - 1;
+            if (last >= 0) {
+                Record previous = m_records.get(last);
+                if ((previous.m_type == PatchOperation.OperationType.set)
+                    && (previous.m_index == index)
+                    && previous.m_entityId.equals(entityId)
+                    && previous.m_attributeName.equals(attributeName)) {
+                    // typing into the same field, keep only the latest value
+                    previous.m_simpleValue = value;
+                    return;
+                }
+            }
+            Record record = new Record(PatchOperation.OperationType.set, entityId, attributeName, index);
+            record.m_simpleValue = value;
+            add(record);
+        }
+
+        /**
+         * Returns if there are no changes.<p>
+         * 
+         * @return <code>true</code> if there are no changes
+         */
+        boolean isEmpty() {
+
+            return !m_replaced && m_records.isEmpty() && m_changedAttributes.isEmpty();
+        }
+
+        /**
+         * Marks an attribute as changed.<p>
+         * 
+         * @param entityId the id of the entity holding the attribute
+         * @param attributeName the attribute name
+         */
+        void markAttributeChanged(String entityId, String attributeName) {
+
+            String key = getAttributeKey(entityId, attributeName);
+            if (!m_changedAttributes.containsKey(key)) {
+                m_changedAttributes.put(key, new String[] {entityId, attributeName});
+                // earlier operations on this attribute are covered by the replacement
+                for (int i = m_records.size() - 1; i >= 0; i--) {
+                    Record record = m_records.get(i);
+                    if (record.m_entityId.equals(entityId) && record.m_attributeName.equals(attributeName)) {
+                        m_records.remove(i);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Removes all changes.<p>
+         */
+        void reset() {
+
+            m_changedAttributes.clear();
+            m_records.clear();
+            m_replaced = false;
+        }
+    }
+
+    /**
+     * A single value operation.<p>
+     */
+    private static class Record {
+
+        /** The attribute name. */
+        String m_attributeName;
+
+        /** The entity id. */
+        String m_entityId;
+
+        /** The inserted entity value. */
+        I_Entity m_entityValue;
+
+        /** The value index. */
+        int m_index;
+
+        /** The simple value. */
+        String m_simpleValue;
+
+        /** The target index of move operations. */
+        int m_targetIndex;
+
+        /** The operation type. */
+        PatchOperation.OperationType m_type;
+
+        /**
+         * Constructor.<p>
+         * 
+         * @param type the operation type
+         * @param entityId the entity id
+         * @param attributeName the attribute name
+         * @param index the value index
+         */
+        Record(PatchOperation.OperationType type, String entityId, String attributeName, int index) {
+
+            m_type = type;
+            m_entityId = entityId;
+            m_attributeName = attributeName;
+            m_index = index;
+        }
+
+        /**
+         * Creates the patch operation for this record.<p>
+         * 
+         * @return the patch operation
+         */
+        PatchOperation toOperation() {
+
+            switch (m_type) {
+                case insert:
+                    if (m_entityValue != null) {
+                        return PatchOperation.createInsert(
+                            m_entityId,
+                            m_attributeName,
+                            m_index,
+                            Entity.serializeEntity(m_entityValue));
+                    }
+                    return PatchOperation.createInsert(m_entityId, m_attributeName, m_index, m_simpleValue);
+                case move:
+                    return PatchOperation.createMove(m_entityId, m_attributeName, m_index, m_targetIndex);
+                case remove:
+                    return PatchOperation.createRemove(m_entityId, m_attributeName, m_index);
+                case set:
+                default:
+                    return PatchOperation.createSet(m_entityId, m_attributeName, m_index, m_simpleValue);
+            }
+        }
+    }
+
+    /** The consumer name for HTML updates. */
+    public static final String CONSUMER_HTML = "html";
+
+    /** The consumer name for the HTML cache keys, only tracked once added, see {@link #addConsumer(String)}. */
+    public static final String CONSUMER_HTML_CACHE = "htmlCache";
+
+    /** The consumer name for the edit journal, only tracked once added, see {@link #addConsumer(String)}. */
+    public static final String CONSUMER_JOURNAL = "journal";
+
+    /** The consumer name for saving. */
+    public static final String CONSUMER_SAVE = "save";
+
+    /** The consumer name for validation. */
+    public static final String CONSUMER_VALIDATION = "validation";
+
+    /** The static instance. */
+    private static ChangeTracker INSTANCE;
+
+    /** The changes by consumer and root entity id. */
+    private Map<String, Map<String, EntityChanges>> m_changes;
+
+    /** The id of the currently edited root entity. */
+    private String m_currentEntityId;
+
+    /** The revision counter, incremented with every recorded change. */
+    private int m_revision;
+
+    /**
+     * Constructor.<p>
+     */
+    private ChangeTracker() {
+
+        m_changes = new HashMap<String, Map<String, EntityChanges>>();
+        m_changes.put(CONSUMER_HTML, new HashMap<String, EntityChanges>());
+        m_changes.put(CONSUMER_SAVE, new HashMap<String, EntityChanges>());
+        m_changes.put(CONSUMER_VALIDATION, new HashMap<String, EntityChanges>());
+    }
+
+    /**
+     * Returns the change tracker instance.<p>
+     * 
+     * @return the change tracker instance
+     */
+    public static ChangeTracker getInstance() {
+
+        if (INSTANCE == null) {
+            INSTANCE = new ChangeTracker();
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the key for the given attribute.<p>
+     * 
+     * @param entityId the entity id
+     * @param attributeName the attribute name
+     * 
+     * @return the attribute key
+     */
+    private static String getAttributeKey(String entityId, String attributeName) {
+
+        return entityId + "/" + attributeName;
+    }
+
+    /**
+     * Adds a consumer, changes are tracked for it from now on.<p>
+     * 
+     * @param consumer the consumer name
+     */
+    public void addConsumer(String consumer) {
+
+        if (!m_changes.containsKey(consumer)) {
+            m_changes.put(consumer, new HashMap<String, EntityChanges>());
+            if (m_currentEntityId != null) {
+                getChanges(consumer, m_currentEntityId);
+            }
+        }
+    }
+
+    /**
+     * Clears all tracked changes and versions.<p>
+     */
+    public void clear() {
+
+        for (Map<String, EntityChanges> changes : m_changes.values()) {
+            changes.clear();
+        }
+        m_currentEntityId = null;
+    }
+
+    /**
+     * Creates the patch containing all changes of the given root entity since the last patch of the given consumer.<p>
+     * 
+     * The tracked changes are reset, call {@link #onPatchFailed(String, String)} in case the patch could not be applied.<p>
+     * 
+     * @param consumer the consumer name
+     * @param entity the root entity
+     * 
+     * @return the patch
+     */
+    public EntityPatch createPatch(String consumer, I_Entity entity) {
+
+        EntityChanges changes = getChanges(consumer, entity.getId());
+        String version = createVersion();
+        EntityPatch result;
+        if (changes.m_replaced || (changes.m_savedVersion == null)) {
+            result = new EntityPatch(Entity.serializeEntity(entity), version);
+        } else {
+            Set<String> coveredIds = new HashSet<String>();
+            List<PatchOperation> operations = new ArrayList<PatchOperation>();
+            for (String[] attribute : changes.m_changedAttributes.values()) {
+                collectEntityIds(attribute[0], attribute[1], coveredIds);
+            }
+            for (Record record : changes.m_records) {
+                if (record.m_entityValue != null) {
+                    collectEntityIds(record.m_entityValue, coveredIds);
+                }
+            }
+            for (String[] attribute : changes.m_changedAttributes.values()) {
+                if (!coveredIds.contains(attribute[0])) {
+                    operations.add(createReplace(attribute[0], attribute[1]));
+                }
+            }
+            for (Record record : changes.m_records) {
+                if (!coveredIds.contains(record.m_entityId)) {
+                    operations.add(record.toOperation());
+                }
+            }
+            result = new EntityPatch(entity.getId(), changes.m_savedVersion, version, operations);
+        }
+        changes.reset();
+        // chain further patches on this version, a failed patch will reset to a complete patch
+        changes.m_savedVersion = version;
+        return result;
+    }
+
+    /**
+     * Returns the current revision. The revision changes with every recorded change.<p>
+     * 
+     * @return the revision
+     */
+    public int getRevision() {
+
+        return m_revision;
+    }
+
+    /**
+     * Returns if there are changes for the given root entity since the last patch of the given consumer.<p>
+     * 
+     * @param consumer the consumer name
+     * @param entityId the root entity id
+     * 
+     * @return <code>true</code> if there are changes
+     */
+    public boolean hasChanges(String consumer, String entityId) {
+
+        EntityChanges changes = m_changes.get(consumer).get(entityId);
+        return (changes != null) && !changes.isEmpty();
+    }
+
+    /**
+     * Sets the currently edited root entity. Changes are recorded for this entity.<p>
+     * 
+     * @param entity the root entity
+     */
+    public void initialize(I_Entity entity) {
+
+        m_currentEntityId = entity.getId();
+        for (String consumer : m_changes.keySet()) {
+            getChanges(consumer, m_currentEntityId);
+        }
+    }
+
+    /**
+     * Marks an attribute as changed, its current values will be sent with the next patch.<p>
+     * 
+     * @param entityId the id of the entity holding the attribute
+     * @param attributeName the attribute name
+     */
+    public void markAttributeChanged(String entityId, String attributeName) {
+
+        for (EntityChanges changes : getCurrentChanges()) {
+            changes.markAttributeChanged(entityId, attributeName);
+        }
+        m_revision++;
+    }
+
+    /**
+     * Marks the given root entity as replaced, the complete entity will be sent on the next save.<p>
+     * 
+     * @param entityId the root entity id
+     */
+    public void markEntityReplaced(String entityId) {
+
+        for (String consumer : m_changes.keySet()) {
+            getChanges(consumer, entityId).m_replaced = true;
+        }
+        m_revision++;
+    }
+
+    /**
+     * Called if the last patch of the given consumer for the given entity could not be applied. 
+     * The complete entity will be sent with the next patch.<p>
+     * 
+     * @param consumer the consumer name
+     * @param entityId the root entity id
+     */
+    public void onPatchFailed(String consumer, String entityId) {
+
+        EntityChanges changes = getChanges(consumer, entityId);
+        changes.m_savedVersion = null;
+        changes.m_replaced = true;
+    }
+
+    /**
+     * Records the insertion of a nested entity value.<p>
+     * 
+     * @param entityId the id of the entity holding the attribute
+     * @param attributeName the attribute name
+     * @param index the value index
+     * @param value the inserted value
+     */
+    public void recordInsert(String entityId, String attributeName, int index, I_Entity value) {
+
+        for (EntityChanges changes : getCurrentChanges()) {
+            Record record = new Record(PatchOperation.OperationType.insert, entityId, attributeName, index);
+            record.m_entityValue = value;
+            changes.add(record);
+        }
+        m_revision++;
+    }
+
+    /**
+     * Records the insertion of a simple value.<p>
+     * 
+     * @param entityId the id of the entity holding the attribute
+     * @param attributeName the attribute name
+     * @param index the value index
+     * @param value the inserted value
+     */
+    public void recordInsert(String entityId, String attributeName, int index, String value) {
+
+        for (EntityChanges changes : getCurrentChanges()) {
+            Record record = new Record(PatchOperation.OperationType.insert, entityId, attributeName, index);
+            record.m_simpleValue = value;
+            changes.add(record);
+        }
+        m_revision++;
+    }
+
+    /**
+     * Records moving a value.<p>
+     * 
+     * @param entityId the id of the entity holding the attribute
+     * @param attributeName the attribute name
+     * @param index the previous value index
+     * @param targetIndex the new value index
+     */
+    public void recordMove(String entityId, String attributeName, int index, int targetIndex) {
+
+        for (EntityChanges changes : getCurrentChanges()) {
+            Record record = new Record(PatchOperation.OperationType.move, entityId, attributeName, index);
+            record.m_targetIndex = targetIndex;
+            changes.add(record);
+        }
+        m_revision++;
+    }
+
+    /**
+     * Records the removal of a value.<p>
+     * 
+     * @param entityId the id of the entity holding the attribute
+     * @param attributeName the attribute name
+     * @param index the value index
+     */
+    public void recordRemove(String entityId, String attributeName, int index) {
+
+        for (EntityChanges changes : getCurrentChanges()) {
+            changes.add(new Record(PatchOperation.OperationType.remove, entityId, attributeName, index));
+        }
+        m_revision++;
+    }
+
+    /**
+     * Records a simple value change.<p>
+     * 
+     * @param entityId the id of the entity holding the attribute
+     * @param attributeName the attribute name
+     * @param index the value index
+     * @param value the new value
+     */
+    public void recordValueChange(String entityId, String attributeName, int index, String value) {
+
+        for (EntityChanges changes : getCurrentChanges()) {
+            changes.addValueChange(entityId, attributeName, index, value);
+        }
+        m_revision++;
+    }
+
+    /**
+     * Collects the ids of the given entity and all its nested entities.<p>
+     * 
+     * @param entity the entity
+     * @param ids the id set to add to
+     */
+    private void collectEntityIds(I_Entity entity, Set<String> ids) {
+
+        ids.add(entity.getId());
+        for (I_EntityAttribute attribute : entity.getAttributes()) {
+            if (attribute.isComplexValue()) {
+                for (I_Entity value : attribute.getComplexValues()) {
+                    collectEntityIds(value, ids);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the ids of all entities nested in the given attribute.<p>
+     * 
+     * @param entityId the id of the entity holding the attribute
+     * @param attributeName the attribute name
+     * @param ids the id set to add to
+     */
+    private void collectEntityIds(String entityId, String attributeName, Set<String> ids) {
+
+        I_Entity entity = Vie.getInstance().getEntity(entityId);
+        if ((entity != null) && entity.hasAttribute(attributeName)) {
+            I_EntityAttribute attribute = entity.getAttribute(attributeName);
+            if (attribute.isComplexValue()) {
+                for (I_Entity value : attribute.getComplexValues()) {
+                    collectEntityIds(value, ids);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates an operation replacing the given attribute with its current values.<p>
+     * 
+     * @param entityId the id of the entity holding the attribute
+     * @param attributeName the attribute name
+     * 
+     * @return the operation
+     */
+    private PatchOperation createReplace(String entityId, String attributeName) {
+
+        I_Entity entity = Vie.getInstance().getEntity(entityId);
+        I_EntityAttribute attribute = entity != null ? entity.getAttribute(attributeName) : null;
+        List<String> simpleValues = null;
+        List<Entity> entityValues = null;
+        if (attribute != null) {
+            if (attribute.isSimpleValue()) {
+                simpleValues = new ArrayList<String>(attribute.getSimpleValues());
+            } else {
+                entityValues = new ArrayList<Entity>();
+                for (I_Entity value : attribute.getComplexValues()) {
+                    entityValues.add(Entity.serializeEntity(value));
+                }
+            }
+        }
+        return PatchOperation.createReplace(entityId, attributeName, simpleValues, entityValues);
+    }
+
+    /**
+     * Creates a new unique version token.<p>
+     * 
+     * @return the version token
+     */
+    private String createVersion() {
+
+        return Long.toString(System.currentTimeMillis(), 36) + "-" + Integer.toString(Random.nextInt(), 36);
+    }
+
+    /**
+     * Returns the changes of the given root entity for the given consumer.<p>
+     * 
+     * @param consumer the consumer name
+     * @param entityId the root entity id
+     * 
+     * @return the changes
+     */
+    private EntityChanges getChanges(String consumer, String entityId) {
+
+        Map<String, EntityChanges> consumerChanges = m_changes.get(consumer);
+        EntityChanges changes = consumerChanges.get(entityId);
+        if (changes == null) {
+            changes = new EntityChanges();
+            consumerChanges.put(entityId, changes);
+        }
+        return changes;
+    }
+
+    /**
+     * Returns the changes of the currently edited root entity for all consumers.<p>
+     * 
+     * @return the changes, empty if no entity is edited
+     */
+    private List<EntityChanges> getCurrentChanges() {
+
+        List<EntityChanges> result = new ArrayList<EntityChanges>();
+        if (m_currentEntityId != null) {
+            for (Map<String, EntityChanges> consumerChanges : m_changes.values()) {
+                EntityChanges changes = consumerChanges.get(m_currentEntityId);
+                if (changes != null) {
+                    result.add(changes);
+                }
+            }
+        }
+        return result;
+    }
+}
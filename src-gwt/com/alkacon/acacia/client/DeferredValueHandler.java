@@ -0,0 +1,250 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.client;
+
+import com.alkacon.acacia.client.ui.AttributeValueView;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.core.client.Scheduler.ScheduledCommand;
+import com.google.gwt.event.logical.shared.ResizeEvent;
+import com.google.gwt.event.logical.shared.ResizeHandler;
+import com.google.gwt.user.client.Element;
+import com.google.gwt.user.client.Window;
+import com.google.gwt.user.client.Window.ScrollEvent;
+import com.google.gwt.user.client.Window.ScrollHandler;
+
+/**
+ * Defers the widget creation of attribute value views until they become visible.<p>
+ * 
+ * Long multi-value attributes only create the value widgets and nested forms of the first values eagerly, 
+ * the content of the following value views is created when scrolled into the visible window of the scroll element 
+ * set on the {@link AttributeHandler}. 
+ * Simple value widgets scrolled far out of the visible window are released again.<p>
+ * 
+ * The value views themselves are kept for every value, so the index based value handling of the 
+ * {@link AttributeHandler} applies unchanged.<p>
+ * 
+ * Each update first reads the positions of all views and then renders or releases them, 
+ * so the layout is computed once per update instead of once per view.<p>
+ */
+public final class DeferredValueHandler implements ScrollHandler, ResizeHandler {
+
+    /** The number of values rendered eagerly for long multi-value attributes. */
+    public static final int EAGER_VALUE_COUNT = 20;
+
+    /** The minimum value count of an attribute to use deferred rendering. */
+    public static final int MIN_VALUE_COUNT = 50;
+
+    /** The distance from the visible window in window heights, beyond which simple value widgets are released. */
+    private static final int RELEASE_DISTANCE = 3;
+
+    /** The visible window margin in window heights, values within the margin get rendered in advance. */
+    private static final double RENDER_MARGIN = 0.5;
+
+    /** The handler instance. */
+    private static DeferredValueHandler INSTANCE;
+
+    /** The scroll element with a registered scroll listener. */
+    private Element m_scrollElement;
+
+    /** Flag indicating an update is scheduled. */
+    private boolean m_updateScheduled;
+
+    /** The value views with deferred rendering. */
+    private List<AttributeValueView> m_views;
+
+    /**
+     * Constructor.<p>
+     */
+    private DeferredValueHandler() {
+
+        m_views = new ArrayList<AttributeValueView>();
+        Window.addWindowScrollHandler(this);
+        Window.addResizeHandler(this);
+    }
+
+    /**
+     * Returns the handler instance.<p>
+     * 
+     * @return the handler instance
+     */
+    public static DeferredValueHandler getInstance() {
+
+        if (INSTANCE == null) {
+            INSTANCE = new DeferredValueHandler();
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Returns if the given element contains the focused element of the document.<p>
+     * 
+     * @param element the element
+     * 
+     * @return <code>true</code> if the given element contains the focused element
+     */
+    private static native boolean hasFocusedElement(Element element) /*-{
+        var active = $doc.activeElement;
+        return active != null && element.contains(active);
+    }-*/;
+
+    /**
+     * Adds a value view with deferred rendering.<p>
+     * 
+     * @param view the value view
+     */
+    public void addView(AttributeValueView view) {
+
+        m_views.add(view);
+        scheduleUpdate();
+    }
+
+    /**
+     * @see com.google.gwt.event.logical.shared.ResizeHandler#onResize(com.google.gwt.event.logical.shared.ResizeEvent)
+     */
+    public void onResize(ResizeEvent event) {
+
+        scheduleUpdate();
+    }
+
+    /**
+     * @see com.google.gwt.user.client.Window.ScrollHandler#onWindowScroll(com.google.gwt.user.client.Window.ScrollEvent)
+     */
+    public void onWindowScroll(ScrollEvent event) {
+
+        scheduleUpdate();
+    }
+
+    /**
+     * Schedules the update of the value views according to the current scroll position.<p>
+     * 
+     * Multiple calls within the same browser event loop will only trigger a single update.<p>
+     */
+    public void scheduleUpdate() {
+
+        ensureScrollListener();
+        if (!m_updateScheduled && !m_views.isEmpty()) {
+            m_updateScheduled = true;
+            Scheduler.get().scheduleDeferred(new ScheduledCommand() {
+
+                /**
+                 * @see com.google.gwt.core.client.Scheduler.ScheduledCommand#execute()
+                 */
+                public void execute() {
+
+                    m_updateScheduled = false;
+                    update();
+                }
+            });
+        }
+    }
+
+    /**
+     * Renders the deferred value views within the visible window and releases the simple value widgets far outside.<p>
+     */
+    void update() {
+
+        int windowTop;
+        int windowHeight;
+        Element scrollElement = AttributeHandler.getScrollElement();
+        if (scrollElement != null) {
+            windowTop = scrollElement.getAbsoluteTop();
+            windowHeight = scrollElement.getClientHeight();
+        } else {
+            windowTop = Window.getScrollTop();
+            windowHeight = Window.getClientHeight();
+        }
+        int margin = (int)(windowHeight * RENDER_MARGIN);
+        int renderTop = windowTop - margin;
+        int renderBottom = windowTop + windowHeight + margin;
+        int releaseTop = windowTop - (RELEASE_DISTANCE * windowHeight);
+        int releaseBottom = windowTop + ((RELEASE_DISTANCE + 1) * windowHeight);
+        // read all positions before changing the DOM, every change invalidates the layout for the following reads
+        List<AttributeValueView> render = new ArrayList<AttributeValueView>();
+        List<AttributeValueView> release = new ArrayList<AttributeValueView>();
+        Iterator<AttributeValueView> it = m_views.iterator();
+        while (it.hasNext()) {
+            AttributeValueView view = it.next();
+            if (!view.isAttached()) {
+                // the view has been removed from the form
+                it.remove();
+                continue;
+            }
+            Element element = view.getElement();
+            int height = element.getOffsetHeight();
+            if (height == 0) {
+                // the view is not displayed, e.g. within a hidden tab
+                continue;
+            }
+            int top = element.getAbsoluteTop();
+            int bottom = top + height;
+            if (view.isDeferred()) {
+                if ((bottom >= renderTop) && (top <= renderBottom)) {
+                    render.add(view);
+                }
+            } else if (((bottom < releaseTop) || (top > releaseBottom)) && !hasFocusedElement(element)) {
+                release.add(view);
+            }
+        }
+        for (AttributeValueView view : render) {
+            view.renderDeferredValue();
+        }
+        for (AttributeValueView view : release) {
+            view.releaseValue();
+        }
+    }
+
+    /**
+     * Ensures the scroll listener is registered on the current scroll element.<p>
+     */
+    private void ensureScrollListener() {
+
+        Element scrollElement = AttributeHandler.getScrollElement();
+        if ((scrollElement != null) && (scrollElement != m_scrollElement)) {
+            m_scrollElement = scrollElement;
+            addScrollListener(scrollElement);
+        }
+    }
+
+    /**
+     * Adds a native scroll listener to the given element.<p>
+     * 
+     * @param element the scroll element
+     */
+    private native void addScrollListener(Element element) /*-{
+        var self = this;
+        element
+                .addEventListener(
+                        "scroll",
+                        $entry(function() {
+                            self.@com.alkacon.acacia.client.DeferredValueHandler::scheduleUpdate()();
+                        }), false);
+    }-*/;
+}
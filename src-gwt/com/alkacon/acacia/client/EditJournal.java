@@ -0,0 +1,328 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.client;
+
+import com.alkacon.acacia.shared.Entity;
+import com.alkacon.acacia.shared.EntityCodec;
+import com.alkacon.acacia.shared.EntityPatch;
+import com.alkacon.vie.shared.I_Entity;
+
+import com.google.gwt.core.client.JavaScriptException;
+import com.google.gwt.storage.client.Storage;
+import com.google.gwt.user.client.Command;
+import com.google.gwt.user.client.Timer;
+import com.google.gwt.user.client.Window;
+import com.google.gwt.user.client.Window.ClosingEvent;
+import com.google.gwt.user.client.Window.ClosingHandler;
+import com.google.gwt.user.client.rpc.InvocationException;
+import com.google.gwt.user.client.rpc.StatusCodeException;
+
+/**
+ * Journals the changes of the edited entity to the browser local storage, so they survive a reload or a lost connection.<p>
+ * 
+ * The changes recorded by the {@link ChangeTracker} are appended every {@link #FLUSH_INTERVAL} milliseconds, 
+ * encoded by the {@link EntityCodec}. The journal of an entity holds the version the changes are based on, 
+ * a complete snapshot of the entity and the patches recorded since. It is compacted to a single snapshot 
+ * when growing too large and removed once the entity is saved.<p>
+ */
+public class EditJournal {
+
+    /** The interval in milliseconds in which recorded changes are appended to the journal. */
+    public static final int FLUSH_INTERVAL = 2000;
+
+    /** The storage key prefix. */
+    private static final String KEY_PREFIX = "acacia.journal.";
+
+    /** The journal size in characters above which the journal is replaced by a snapshot. */
+    private static final int MAX_SIZE = 256 * 1024;
+
+    /** The version the journaled changes are based on. */
+    private String m_baseVersion;
+
+    /** The journaled root entity. */
+    private I_Entity m_entity;
+
+    /** The command to execute once the connection is back. */
+    private Command m_reconnectCommand;
+
+    /** Flag indicating the journal has to be started over with a snapshot, even without new changes. */
+    private boolean m_snapshotRequired;
+
+    /** The local storage. */
+    private Storage m_storage;
+
+    /** The flush timer. */
+    private Timer m_timer;
+
+    /**
+     * Constructor, requires local storage support.<p>
+     * 
+     * @see #isSupported()
+     */
+    public EditJournal() {
+
+        m_storage = Storage.getLocalStorageIfSupported();
+        ChangeTracker.getInstance().addConsumer(ChangeTracker.CONSUMER_JOURNAL);
+        m_timer = new Timer() {
+
+            @Override
+            public void run() {
+
+                flush();
+            }
+        };
+        Window.addWindowClosingHandler(new ClosingHandler() {
+
+            public void onWindowClosing(ClosingEvent event) {
+
+                flush();
+            }
+        });
+        addOnlineListener();
+    }
+
+    /**
+     * Returns if the given RPC failure was caused by a lost connection, rather than by the server.<p>
+     * 
+     * @param caught the RPC failure
+     * 
+     * @return <code>true</code> if the connection was lost
+     */
+    public static boolean isConnectionFailure(Throwable caught) {
+
+        if (caught instanceof StatusCodeException) {
+            return ((StatusCodeException)caught).getStatusCode() == 0;
+        }
+        return caught instanceof InvocationException;
+    }
+
+    /**
+     * Returns if the browser supports the local storage needed by the journal.<p>
+     * 
+     * @return <code>true</code> if the journal is supported
+     */
+    public static boolean isSupported() {
+
+        return Storage.isLocalStorageSupported();
+    }
+
+    /**
+     * Returns the storage key of the given entity.<p>
+     * 
+     * @param entityId the entity id
+     * 
+     * @return the storage key
+     */
+    private static String getKey(String entityId) {
+
+        return KEY_PREFIX + entityId;
+    }
+
+    /**
+     * Removes the journal of the given entity, e.g. once the user chose to drop the changes.<p>
+     * 
+     * @param entityId the entity id
+     */
+    public void discard(String entityId) {
+
+        m_storage.removeItem(getKey(entityId));
+        if (isJournaled(entityId)) {
+            m_snapshotRequired = false;
+        }
+    }
+
+    /**
+     * Appends the changes recorded since the last flush to the journal.<p>
+     * 
+     * Changes are not journaled while attributes of the entity are still loading, so every snapshot is complete.<p>
+     */
+    public void flush() {
+
+        if ((m_entity == null) || !PendingAttributeHandler.getInstance().isComplete()) {
+            return;
+        }
+        ChangeTracker tracker = ChangeTracker.getInstance();
+        if (!m_snapshotRequired && !tracker.hasChanges(ChangeTracker.CONSUMER_JOURNAL, m_entity.getId())) {
+            return;
+        }
+        m_snapshotRequired = false;
+        EntityPatch patch = tracker.createPatch(ChangeTracker.CONSUMER_JOURNAL, m_entity);
+        String key = getKey(m_entity.getId());
+        String journal = m_storage.getItem(key);
+        if (patch.isComplete() || (journal == null) || (journal.length() > MAX_SIZE)) {
+            // start over with a snapshot, it includes the changes of the patch
+            journal = EntityCodec.encodeJournal(m_baseVersion, patch.isComplete() ? patch : new EntityPatch(
+                Entity.serializeEntity(m_entity),
+                patch.getVersion()));
+        } else {
+            journal = EntityCodec.appendJournal(journal, patch);
+        }
+        try {
+            m_storage.setItem(key, journal);
+        } catch (JavaScriptException e) {
+            // the storage quota is exceeded, try again with a snapshot on the next flush
+            m_storage.removeItem(key);
+            m_snapshotRequired = true;
+        }
+    }
+
+    /**
+     * Returns if there is a journal for the given entity.<p>
+     * 
+     * @param entityId the entity id
+     * 
+     * @return <code>true</code> if there is a journal
+     */
+    public boolean hasJournal(String entityId) {
+
+        return m_storage.getItem(getKey(entityId)) != null;
+    }
+
+    /**
+     * Called once the given entity was saved. Removes the journal, as the changes are persisted.<p>
+     * 
+     * @param entityId the entity id
+     * @param baseVersion the base version of the next save
+     * @param changed <code>true</code> if the entity was changed after sending it to the server
+     */
+    public void onSaved(String entityId, String baseVersion, boolean changed) {
+
+        m_storage.removeItem(getKey(entityId));
+        if (isJournaled(entityId)) {
+            m_baseVersion = baseVersion;
+            if (changed) {
+                // the changes made during the save may already have been flushed to the removed journal
+                m_snapshotRequired = true;
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Replays the journal of the given entity.<p>
+     * 
+     * The version of the returned entity is the version the journaled changes are based on. 
+     * In case it differs from the current server version, the entity has been changed concurrently 
+     * and saving it will merge the changes or report the conflicts.<p>
+     * 
+     * @param entityId the entity id
+     * 
+     * @return the entity including the journaled changes, <code>null</code> if there is no journal
+     */
+    public Entity restore(String entityId) {
+
+        String journal = m_storage.getItem(getKey(entityId));
+        if (journal == null) {
+            return null;
+        }
+        Entity result = null;
+        try {
+            result = EntityCodec.decodeJournal(journal);
+        } catch (RuntimeException e) {
+            // the journal is damaged, e.g. by a write interrupted by closing the browser
+            m_storage.removeItem(getKey(entityId));
+            result = null;
+        }
+        return result;
+    }
+
+    /**
+     * Sets the command to execute once the connection is back, e.g. to repeat a failed save.<p>
+     * 
+     * @param command the command
+     */
+    public void setReconnectCommand(Command command) {
+
+        m_reconnectCommand = command;
+    }
+
+    /**
+     * Starts journaling the changes of the given entity.<p>
+     * 
+     * @param entity the root entity
+     * @param baseVersion the version the changes are based on, <code>null</code> for new entities
+     */
+    public void start(I_Entity entity, String baseVersion) {
+
+        if (!isJournaled(entity.getId())) {
+            flush();
+        }
+        m_entity = entity;
+        m_baseVersion = baseVersion;
+        m_snapshotRequired = false;
+        m_timer.scheduleRepeating(FLUSH_INTERVAL);
+    }
+
+    /**
+     * Appends the pending changes and stops journaling.<p>
+     */
+    public void stop() {
+
+        flush();
+        m_timer.cancel();
+        m_entity = null;
+        m_reconnectCommand = null;
+    }
+
+    /**
+     * Adds a native listener executing the reconnect command once the browser is online again.<p>
+     */
+    private native void addOnlineListener() /*-{
+        var self = this;
+        if ($wnd.addEventListener) {
+            $wnd
+                    .addEventListener(
+                            "online",
+                            $entry(function() {
+                                self.@com.alkacon.acacia.client.EditJournal::onOnline()();
+                            }), false);
+        }
+    }-*/;
+
+    /**
+     * Returns if the given entity is currently journaled.<p>
+     * 
+     * @param entityId the entity id
+     * 
+     * @return <code>true</code> if the entity is currently journaled
+     */
+    private boolean isJournaled(String entityId) {
+
+        return (m_entity != null) && m_entity.getId().equals(entityId);
+    }
+
+    /**
+     * Executes the reconnect command once the browser is online again.<p>
+     */
+    private void onOnline() {
+
+        Command command = m_reconnectCommand;
+        m_reconnectCommand = null;
+        if (command != null) {
+            command.execute();
+        }
+    }
+}
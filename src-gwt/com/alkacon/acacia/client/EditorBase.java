@@ -32,8 +32,11 @@ import com.alkacon.acacia.client.widgets.StringWidget;
 import com.alkacon.acacia.client.widgets.TinyMCEWidget;
 import com.alkacon.acacia.shared.ContentDefinition;
 import com.alkacon.acacia.shared.EntityHtml;
+import com.alkacon.acacia.shared.EntityPatch;
+import com.alkacon.acacia.shared.PatchOperation;
 import com.alkacon.acacia.shared.TabInfo;
 import com.alkacon.acacia.shared.ValidationResult;
+import com.alkacon.acacia.shared.VersionConflictException;
 import com.alkacon.acacia.shared.rpc.I_ContentServiceAsync;
 import com.alkacon.geranium.client.ui.TabbedPanel;
 import com.alkacon.geranium.client.ui.css.I_ImageBundle;
@@ -42,10 +45,14 @@ import com.alkacon.vie.client.Entity;
 import com.alkacon.vie.client.I_Vie;
 import com.alkacon.vie.client.Vie;
 import com.alkacon.vie.shared.I_Entity;
+import com.alkacon.vie.shared.I_EntityAttribute;
 import com.alkacon.vie.shared.I_Type;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.gwt.event.dom.client.ClickHandler;
@@ -87,6 +94,9 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
     /** Message constant for key in the resource bundle. */
     public static final String GUI_VIEW_MOVE_UP_0 = "GUI_VIEW_MOVE_UP_0"; //Move up
 
+    /** The number of pending attributes loaded per request. */
+    private static final int PENDING_CHUNK_SIZE = 5;
+
     /** The localized dictionary. */
     private static Dictionary m_dictionary;
 
@@ -96,21 +106,36 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
     /** The VIE instance. */
     protected I_Vie m_vie;
 
+    /** The edit journal, only set if enabled. */
+    private EditJournal m_editJournal;
+
     /** The in-line edit overlay hiding other content. */
     private InlineEditOverlay m_editOverlay;
 
     /** The edited entity. */
     private Entity m_entity;
 
+    /** The base versions of the edited entities by entity id, sent with saves to merge concurrent changes. */
+    private Map<String, String> m_entityVersions;
+
     /** The form panel. */
     private FlowPanel m_formPanel;
 
     /** The tab panel if tabs are used. */
     private TabbedPanel<?> m_formTabs;
 
+    /** The cache of rendered entity HTML. */
+    private EntityHtmlCache m_htmlCache;
+
+    /** The serialized copy of the edited entity, kept up to date with change tracker patches to derive the HTML cache keys. */
+    private com.alkacon.acacia.shared.Entity m_htmlState;
+
     /** The root attribute handler. */
     private RootHandler m_rootHandler;
 
+    /** The cached types and attribute configurations. */
+    private SchemaCache m_schemaCache;
+
     /** The content service instance. */
     private I_ContentServiceAsync m_service;
 
@@ -174,6 +199,9 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
         m_widgetService.addRenderer(new NativeComplexWidgetRenderer());
         m_validationHandler = new ValidationHandler();
         m_validationHandler.setContentService(m_service);
+        m_htmlCache = new EntityHtmlCache();
+        m_schemaCache = new SchemaCache();
+        m_entityVersions = new HashMap<String, String>();
     }
 
     /**
@@ -230,6 +258,12 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
     public void destroyForm(boolean clearEntities) {
 
         ValueFocusHandler.getInstance().destroy();
+        PendingAttributeHandler.getInstance().clear();
+        m_htmlCache.clear();
+        m_htmlState = null;
+        if (m_editJournal != null) {
+            m_editJournal.stop();
+        }
         if (clearEntities) {
             m_vie.clearEntities();
         }
@@ -245,6 +279,32 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
         return (Entity)m_vie.getEntity(m_entityId);
     }
 
+    /**
+     * Returns the edit journal.<p>
+     * 
+     * The journal is kept when the form is destroyed without saving, call {@link EditJournal#discard(String)} 
+     * in case the user chose to drop the changes.<p>
+     * 
+     * @return the edit journal, <code>null</code> if not enabled or not supported by the browser
+     */
+    public EditJournal getEditJournal() {
+
+        if ((m_editJournal == null) && isEditJournalEnabled() && EditJournal.isSupported()) {
+            m_editJournal = new EditJournal();
+        }
+        return m_editJournal;
+    }
+
+    /**
+     * Returns the cache of rendered entity HTML, providing the hit and miss counters.<p>
+     * 
+     * @return the HTML cache
+     */
+    public EntityHtmlCache getHtmlCache() {
+
+        return m_htmlCache;
+    }
+
     /**
      * Returns the content service instance.<p>
      * 
@@ -258,6 +318,9 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
     /**
      * Loads the content definition for the given entity and executes the callback on success.<p>
      * 
+     * With paged loading enabled, the callback is executed once the initial part of the content is registered,
+     * the pending attributes are loaded in the background afterwards.<p>
+     * 
      * @param entityId the entity id
      * @param callback the callback
      */
@@ -274,23 +337,67 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
 
                 registerContentDefinition(result);
                 callback.execute();
+                if (!PendingAttributeHandler.getInstance().isComplete()) {
+                    loadPendingAttributes();
+                }
             }
         };
-        getService().loadContentDefinition(entityId, asyncCallback);
+        if (isPagedLoadingEnabled()) {
+            getService().loadInitialContentDefinition(entityId, m_schemaCache.getVersions(), asyncCallback);
+        } else if (isSchemaCacheEnabled()) {
+            getService().loadContentDefinition(entityId, m_schemaCache.getVersions(), asyncCallback);
+        } else {
+            getService().loadContentDefinition(entityId, asyncCallback);
+        }
     }
 
     /**
      * Registers the types and entities of the given content definition.<p>
      * 
+     * Types and attribute configurations already registered in the same schema version are not registered again,
+     * a schema omitted by the server is restored from the schema cache. 
+     * With the edit journal enabled, changes journaled but not saved in a previous session are restored.<p>
+     * 
      * @param definition the content definition
      */
     public void registerContentDefinition(ContentDefinition definition) {
 
-        m_widgetService.addConfigurations(definition.getConfigurations());
-        I_Type baseType = definition.getTypes().get(definition.getEntityTypeName());
-        m_vie.registerTypes(baseType, definition.getTypes());
-        m_vie.registerTypes(baseType, definition.getTypes());
-        m_vie.registerEntity(definition.getEntity());
+        if (!m_schemaCache.update(definition)) {
+            m_widgetService.addConfigurations(definition.getConfigurations());
+            I_Type baseType = definition.getTypes().get(definition.getEntityTypeName());
+            m_vie.registerTypes(baseType, definition.getTypes());
+            if (isLocalValidationEnabled()) {
+                m_validationHandler.addLocalValidationSchema(definition.getTypes(), definition.getConfigurations());
+            }
+        }
+        String entityId = definition.getEntityId();
+        com.alkacon.acacia.shared.Entity entity = definition.getEntity();
+        String version = definition.getVersion();
+        List<String> pendingAttributes = definition.getPendingAttributes();
+        EditJournal journal = getEditJournal();
+        com.alkacon.acacia.shared.Entity restored = journal != null ? journal.restore(entityId) : null;
+        if (restored != null) {
+            if (restored.getContentVersion().equals(entity.getContentVersion())) {
+                journal.discard(entityId);
+                restored = null;
+            } else {
+                // journal snapshots are complete, and the journaled changes are based on the journaled version
+                entity = restored;
+                version = restored.getVersion();
+                pendingAttributes = Collections.emptyList();
+            }
+        }
+        m_vie.registerEntity(entity);
+        if (version != null) {
+            m_entityVersions.put(entityId, version);
+        }
+        PendingAttributeHandler.getInstance().initialize(entityId, pendingAttributes);
+        if (restored != null) {
+            boolean changedOnServer = version == null
+            ? definition.getVersion() != null
+            : !version.equals(definition.getVersion());
+            onJournalRestored(entityId, changedOnServer);
+        }
     }
 
     /**
@@ -316,6 +423,8 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
         if (entity != null) {
             boolean initUndo = (m_entity == null) || !entity.getId().equals(m_entity.getId());
             m_entity = entity;
+            ChangeTracker.getInstance().initialize(m_entity);
+            startEditJournal();
             I_Type type = m_vie.getType(m_entity.getTypeName());
             m_formPanel = new FlowPanel();
             context.add(m_formPanel);
@@ -333,6 +442,7 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
                 m_formPanel,
                 m_rootHandler,
                 0);
+            m_validationHandler.setIncrementalValidation(isIncrementalValidationEnabled());
             m_validationHandler.registerEntity(m_entity);
             m_validationHandler.setRootHandler(m_rootHandler);
             m_validationHandler.setFormTabPanel(m_formTabs);
@@ -355,6 +465,8 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
         if (entity != null) {
             boolean initUndo = (m_entity == null) || !entity.getId().equals(m_entity.getId());
             m_entity = entity;
+            ChangeTracker.getInstance().initialize(m_entity);
+            startEditJournal();
             I_Type type = m_vie.getType(m_entity.getTypeName());
             m_formPanel = new FlowPanel();
             context.add(m_formPanel);
@@ -369,6 +481,7 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
             m_formTabs = null;
             m_tabInfos = null;
             m_validationHandler.setContentService(m_service);
+            m_validationHandler.setIncrementalValidation(isIncrementalValidationEnabled());
             m_validationHandler.registerEntity(m_entity);
             m_validationHandler.setRootHandler(m_rootHandler);
             m_validationHandler.setFormTabPanel(null);
@@ -388,8 +501,11 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
 
         m_entity = (Entity)m_vie.getEntity(entityId);
         if (m_entity != null) {
+            ChangeTracker.getInstance().initialize(m_entity);
+            startEditJournal();
             m_rootHandler = new RootHandler();
             m_validationHandler.setContentService(m_service);
+            m_validationHandler.setIncrementalValidation(isIncrementalValidationEnabled());
             m_validationHandler.registerEntity(m_entity);
             m_validationHandler.setRootHandler(m_rootHandler);
             I_Type type = m_vie.getType(m_entity.getTypeName());
@@ -408,6 +524,7 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
 
         m_validationHandler.setPaused(true, m_entity);
         m_vie.changeEntityContentValues(m_entity, newContent);
+        ChangeTracker.getInstance().markEntityReplaced(m_entity.getId());
         I_Type type = m_vie.getType(m_entity.getTypeName());
         if ((m_tabInfos != null) && !m_tabInfos.isEmpty()) {
             int currentTab = m_formTabs.getSelectedIndex();
@@ -419,6 +536,7 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
                 m_formPanel,
                 m_rootHandler,
                 0);
+            m_validationHandler.setFormTabPanel(m_formTabs);
             m_formTabs.selectTab(currentTab);
         } else {
             m_formPanel.clear();
@@ -436,19 +554,29 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
      * @param callback the call back command
      */
     public void saveEntities(
-        List<com.alkacon.acacia.shared.Entity> entities,
+        final List<com.alkacon.acacia.shared.Entity> entities,
         final boolean clearOnSuccess,
         final Command callback) {
 
+        for (com.alkacon.acacia.shared.Entity entity : entities) {
+            entity.setVersion(m_entityVersions.get(entity.getId()));
+        }
         AsyncCallback<ValidationResult> asyncCallback = new AsyncCallback<ValidationResult>() {
 
             public void onFailure(Throwable caught) {
 
-                onRpcError(caught);
+                onSaveFailure(caught, new Command() {
+
+                    public void execute() {
+
+                        saveEntities(entities, clearOnSuccess, callback);
+                    }
+                });
             }
 
             public void onSuccess(ValidationResult result) {
 
+                onEntitiesSaved(entities, result);
                 callback.execute();
                 if ((result != null) && result.hasErrors()) {
                     //   ValidationHandler.getInstance().displayErrors(null, result)
@@ -470,6 +598,52 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
      */
     public void saveEntities(Set<String> entityIds, boolean clearOnSuccess, Command callback) {
 
+        saveEntities(entityIds, clearOnSuccess, callback, null);
+    }
+
+    /**
+     * Saves the given entities.<p>
+     * 
+     * Unless incremental saving is enabled, more than {@link BatchSaveHandler#CHUNK_SIZE} entities 
+     * or entities saved with a progress handler are sent in chunks by the {@link BatchSaveHandler}.<p>
+     * 
+     * @param entityIds the entity ids
+     * @param clearOnSuccess <code>true</code> to clear all entities from VIE on success
+     * @param callback the callback executed on success
+     * @param progressHandler the progress handler, may be <code>null</code>
+     */
+    public void saveEntities(
+        final Set<String> entityIds,
+        final boolean clearOnSuccess,
+        final Command callback,
+        final I_SaveProgressHandler progressHandler) {
+
+        if (!PendingAttributeHandler.getInstance().isComplete()) {
+            // saving before all attributes are loaded would drop the pending values
+            PendingAttributeHandler.getInstance().executeWhenComplete(new Command() {
+
+                public void execute() {
+
+                    saveEntities(entityIds, clearOnSuccess, callback, progressHandler);
+                }
+            });
+            return;
+        }
+        if (isIncrementalSaveEnabled()) {
+            List<I_Entity> entities = new ArrayList<I_Entity>();
+            for (String entityId : entityIds) {
+                I_Entity entity = m_vie.getEntity(entityId);
+                if (entity != null) {
+                    entities.add(entity);
+                }
+            }
+            saveEntityPatches(entities, clearOnSuccess, callback);
+            return;
+        }
+        if ((progressHandler != null) || (entityIds.size() > BatchSaveHandler.CHUNK_SIZE)) {
+            saveEntityChunks(new ArrayList<String>(entityIds), clearOnSuccess, callback, progressHandler);
+            return;
+        }
         List<com.alkacon.acacia.shared.Entity> entities = new ArrayList<com.alkacon.acacia.shared.Entity>();
         for (String entityId : entityIds) {
             I_Entity entity = m_vie.getEntity(entityId);
@@ -487,24 +661,48 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
      * @param clearOnSuccess <code>true</code> to clear all entities from VIE on success
      * @param callback the callback executed on success
      */
-    public void saveEntity(I_Entity entity, final boolean clearOnSuccess, final Command callback) {
+    public void saveEntity(final I_Entity entity, final boolean clearOnSuccess, final Command callback) {
+
+        if (!PendingAttributeHandler.getInstance().isComplete()) {
+            // saving before all attributes are loaded would drop the pending values
+            PendingAttributeHandler.getInstance().executeWhenComplete(new Command() {
 
+                public void execute() {
+
+                    saveEntity(entity, clearOnSuccess, callback);
+                }
+            });
+            return;
+        }
+        if (isIncrementalSaveEnabled()) {
+            saveEntityPatches(Collections.singletonList(entity), clearOnSuccess, callback);
+            return;
+        }
+        final com.alkacon.acacia.shared.Entity serialized = com.alkacon.acacia.shared.Entity.serializeEntity(entity);
+        serialized.setVersion(m_entityVersions.get(serialized.getId()));
         AsyncCallback<ValidationResult> asyncCallback = new AsyncCallback<ValidationResult>() {
 
             public void onFailure(Throwable caught) {
 
-                onRpcError(caught);
+                onSaveFailure(caught, new Command() {
+
+                    public void execute() {
+
+                        saveEntity(entity, clearOnSuccess, callback);
+                    }
+                });
             }
 
             public void onSuccess(ValidationResult result) {
 
+                onEntitiesSaved(Collections.singletonList(serialized), result);
                 callback.execute();
                 if (clearOnSuccess) {
                     destroyForm(true);
                 }
             }
         };
-        getService().saveEntity(com.alkacon.acacia.shared.Entity.serializeEntity(entity), asyncCallback);
+        getService().saveEntity(serialized, asyncCallback);
     }
 
     /**
@@ -537,6 +735,18 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
     */
     public void updateHtml(final I_InlineFormParent formParent, final Command onSuccess) {
 
+        com.alkacon.acacia.shared.Entity entity = getHtmlState(getCurrentEntity());
+        final String cacheKey = EntityHtmlCache.getKey(
+            entity.getContentHash(),
+            getContextUri(),
+            getHtmlContextInfo(),
+            null);
+        EntityHtml cached = m_htmlCache.get(cacheKey);
+        if (cached != null) {
+            formParent.replaceHtml(cached.getHtmlContent());
+            onSuccess.execute();
+            return;
+        }
         AsyncCallback<EntityHtml> callback = new AsyncCallback<EntityHtml>() {
 
             public void onFailure(Throwable caught) {
@@ -546,12 +756,63 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
 
             public void onSuccess(EntityHtml result) {
 
+                m_htmlCache.put(cacheKey, result);
                 formParent.replaceHtml(result.getHtmlContent());
                 onSuccess.execute();
             }
         };
-        getService().updateEntityHtml(
-            com.alkacon.acacia.shared.Entity.serializeEntity(getCurrentEntity()),
+        getService().updateEntityHtml(entity, getContextUri(), getHtmlContextInfo(), callback);
+    }
+
+    /**
+     * @see com.alkacon.acacia.client.I_InlineHtmlUpdateHandler#updateHtmlFragment(com.alkacon.acacia.client.I_InlineFormParent, com.alkacon.vie.shared.I_Entity, java.lang.String, com.google.gwt.user.client.Command)
+     */
+    public void updateHtmlFragment(
+        final I_InlineFormParent formParent,
+        final I_Entity parentEntity,
+        final String attributeName,
+        final Command onSuccess) {
+
+        if (!isFragmentHtmlUpdateEnabled()) {
+            updateHtml(formParent, onSuccess);
+            return;
+        }
+        final I_Entity entity = getCurrentEntity();
+        final String cacheKey = EntityHtmlCache.getKey(
+            getHtmlState(entity).getContentHash(),
+            getContextUri(),
+            getHtmlContextInfo(),
+            parentEntity.getId() + "/" + attributeName);
+        EntityHtml cached = m_htmlCache.get(cacheKey);
+        if (cached != null) {
+            replaceHtmlFragments(formParent, parentEntity, attributeName, cached, onSuccess);
+            return;
+        }
+        final ChangeTracker tracker = ChangeTracker.getInstance();
+        final EntityPatch patch = tracker.createPatch(ChangeTracker.CONSUMER_HTML, entity);
+        AsyncCallback<EntityHtml> callback = new AsyncCallback<EntityHtml>() {
+
+            public void onFailure(Throwable caught) {
+
+                tracker.onPatchFailed(ChangeTracker.CONSUMER_HTML, entity.getId());
+                if ((caught instanceof VersionConflictException) && !patch.isComplete()) {
+                    // the server state does not match, send the complete entity
+                    updateHtmlFragment(formParent, parentEntity, attributeName, onSuccess);
+                } else {
+                    onRpcError(caught);
+                }
+            }
+
+            public void onSuccess(EntityHtml result) {
+
+                m_htmlCache.put(cacheKey, result);
+                replaceHtmlFragments(formParent, parentEntity, attributeName, result, onSuccess);
+            }
+        };
+        getService().updateEntityHtmlFragment(
+            patch,
+            parentEntity.getId(),
+            attributeName,
             getContextUri(),
             getHtmlContextInfo(),
             callback);
@@ -595,6 +856,103 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
         return "";
     }
 
+    /**
+     * Returns if the changes of the edited entity should be journaled to the browser local storage, 
+     * to restore them after a reload and to repeat saves failed due to a lost connection.<p>
+     * 
+     * Override to enable the edit journal.<p>
+     * 
+     * @return <code>true</code> if the edit journal is enabled
+     * 
+     * @see EditJournal
+     */
+    protected boolean isEditJournalEnabled() {
+
+        return false;
+    }
+
+    /**
+     * Returns if only the elements of the changed attribute should be updated during inline editing, instead of the complete HTML.<p>
+     * Requires the content service to implement {@link com.alkacon.acacia.shared.rpc.I_ContentService#updateEntityHtmlFragment(EntityPatch, String, String, String, String)}.<p>
+     * 
+     * Override to enable fragment HTML updates.<p>
+     * 
+     * @return <code>true</code> if fragment HTML updates are enabled
+     */
+    protected boolean isFragmentHtmlUpdateEnabled() {
+
+        return false;
+    }
+
+    /**
+     * Returns if only the changes since the last save should be sent to the server when saving entities.<p>
+     * Requires the content service to implement {@link com.alkacon.acacia.shared.rpc.I_ContentService#saveEntityPatches(List)}.<p>
+     * 
+     * Override to enable incremental saving.<p>
+     * 
+     * @return <code>true</code> if incremental saving is enabled
+     */
+    protected boolean isIncrementalSaveEnabled() {
+
+        return false;
+    }
+
+    /**
+     * Returns if only the changes since the last validation should be sent to the server when validating entities.<p>
+     * Requires the content service to implement {@link com.alkacon.acacia.shared.rpc.I_ContentService#validateEntityPatch(EntityPatch)}.<p>
+     * 
+     * Override to enable incremental validation.<p>
+     * 
+     * @return <code>true</code> if incremental validation is enabled
+     */
+    protected boolean isIncrementalValidationEnabled() {
+
+        return false;
+    }
+
+    /**
+     * Returns if the schema constraints and the validation rules of the attribute configurations should be evaluated on the client.<p>
+     * The server is only consulted for entities passing these checks and having attributes flagged for server validation.<p>
+     * 
+     * Override to enable local validation.<p>
+     * 
+     * @return <code>true</code> if local validation is enabled
+     * 
+     * @see com.alkacon.acacia.shared.EntityValidator
+     */
+    protected boolean isLocalValidationEnabled() {
+
+        return false;
+    }
+
+    /**
+     * Returns if the content should be loaded in parts, starting with the attributes of the first tab.<p>
+     * Requires the content service to implement {@link com.alkacon.acacia.shared.rpc.I_ContentService#loadInitialContentDefinition(String, java.util.Map)}
+     * and {@link com.alkacon.acacia.shared.rpc.I_ContentService#loadEntityAttributes(String, List)}.<p>
+     * 
+     * Override to enable paged loading.<p>
+     * 
+     * @return <code>true</code> if paged loading is enabled
+     */
+    protected boolean isPagedLoadingEnabled() {
+
+        return false;
+    }
+
+    /**
+     * Returns if types and attribute configurations should only be loaded if not already held in the current version.<p>
+     * Requires the content service to implement {@link com.alkacon.acacia.shared.rpc.I_ContentService#loadContentDefinition(String, java.util.Map)}.
+     * Paged loading always uses the schema cache.<p>
+     * 
+     * Override to enable the schema cache.<p>
+     * 
+     * @return <code>true</code> if the schema cache is enabled
+     */
+    protected boolean isSchemaCacheEnabled() {
+
+        return false;
+    }
+
     /**
      * Returns the validation handler.<p>
      * 
@@ -626,6 +984,21 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
         m_editOverlay = InlineEditOverlay.addOverlayForElement(element);
     }
 
+    /**
+     * Called when changes not saved in a previous session have been restored from the edit journal.<p>
+     * 
+     * Override to notify the user, e.g. to offer dropping the changes with {@link EditJournal#discard(String)}. 
+     * In case the entity has been changed on the server in the meantime, saving it merges the changes 
+     * or reports the conflicts.<p>
+     * 
+     * @param entityId the entity id
+     * @param changedOnServer <code>true</code> if the entity has been changed on the server since the journaled version
+     */
+    protected void onJournalRestored(String entityId, boolean changedOnServer) {
+
+        // doing nothing
+    }
+
     /**
      * Handles RPC errors.<p>
      * 
@@ -656,4 +1029,361 @@ public class EditorBase implements I_InlineHtmlUpdateHandler {
             m_editOverlay.updatePosition();
         }
     }
+
+    /**
+     * Adds the values of the given attribute of the loaded entity to the registered entity.<p>
+     * 
+     * @param entity the registered entity
+     * @param loaded the loaded entity
+     * @param attributeName the attribute name
+     */
+    private void addLoadedValues(I_Entity entity, com.alkacon.acacia.shared.Entity loaded, String attributeName) {
+
+        I_EntityAttribute attribute = loaded.getAttribute(attributeName);
+        if (attribute == null) {
+            return;
+        }
+        if (attribute.isSimpleValue()) {
+            for (String value : attribute.getSimpleValues()) {
+                entity.addAttributeValue(attributeName, value);
+            }
+        } else {
+            for (I_Entity value : attribute.getComplexValues()) {
+                entity.addAttributeValue(attributeName, m_vie.registerEntity(value));
+            }
+        }
+    }
+
+    /**
+     * Creates the patch to save an entity, complete patches carry the base version to merge concurrent changes.<p>
+     * 
+     * @param entity the entity
+     * 
+     * @return the patch
+     */
+    private EntityPatch createSavePatch(I_Entity entity) {
+
+        EntityPatch result = ChangeTracker.getInstance().createPatch(ChangeTracker.CONSUMER_SAVE, entity);
+        if (result.isComplete()) {
+            result.getEntity().setVersion(m_entityVersions.get(entity.getId()));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the serialized state of the given entity used to derive the HTML cache keys.<p>
+     * 
+     * The state is serialized once and then updated with the changes recorded by the change tracker since the last call.
+     * The content hash of the state caches the hashes of all unchanged nested entities,
+     * so deriving a cache key only costs the recorded changes instead of a complete serialization.<p>
+     * 
+     * @param entity the edited root entity
+     * 
+     * @return the serialized state, not to be modified
+     */
+    private com.alkacon.acacia.shared.Entity getHtmlState(I_Entity entity) {
+
+        ChangeTracker tracker = ChangeTracker.getInstance();
+        tracker.addConsumer(ChangeTracker.CONSUMER_HTML_CACHE);
+        if ((m_htmlState == null) || !m_htmlState.getId().equals(entity.getId())) {
+            tracker.onPatchFailed(ChangeTracker.CONSUMER_HTML_CACHE, entity.getId());
+        }
+        EntityPatch patch = tracker.createPatch(ChangeTracker.CONSUMER_HTML_CACHE, entity);
+        if (patch.isComplete()) {
+            m_htmlState = patch.getEntity();
+        } else {
+            try {
+                for (PatchOperation operation : patch.getOperations()) {
+                    operation.apply(m_htmlState);
+                }
+            } catch (IllegalStateException e) {
+                // the recorded changes do not match the state, start over with the complete entity
+                m_htmlState = com.alkacon.acacia.shared.Entity.serializeEntity(entity);
+            }
+        }
+        return m_htmlState;
+    }
+
+    /**
+     * Loads the next chunk of pending attributes.<p>
+     * 
+     * @param entityId the root entity id
+     */
+    private void loadNextPendingAttributes(final String entityId) {
+
+        List<String> pending = PendingAttributeHandler.getInstance().getPendingAttributes();
+        if (pending.isEmpty() || !entityId.equals(PendingAttributeHandler.getInstance().getEntityId())) {
+            return;
+        }
+        final List<String> attributeNames = new ArrayList<String>(pending.subList(
+            0,
+            Math.min(PENDING_CHUNK_SIZE, pending.size())));
+        getService().loadEntityAttributes(
+            entityId,
+            attributeNames,
+            new AsyncCallback<com.alkacon.acacia.shared.Entity>() {
+
+                public void onFailure(Throwable caught) {
+
+                    onRpcError(caught);
+                }
+
+                public void onSuccess(com.alkacon.acacia.shared.Entity result) {
+
+                    I_Entity entity = m_vie.getEntity(entityId);
+                    if ((entity == null) || !entityId.equals(PendingAttributeHandler.getInstance().getEntityId())) {
+                        // the content has been closed in the meantime
+                        return;
+                    }
+                    for (String attributeName : attributeNames) {
+                        addLoadedValues(entity, result, attributeName);
+                        PendingAttributeHandler.getInstance().setLoaded(attributeName);
+                    }
+                    loadNextPendingAttributes(entityId);
+                }
+            });
+    }
+
+    /**
+     * Loads the pending attributes of the current content in chunks and renders them once loaded.<p>
+     * 
+     * Validation is paused during loading. As values loaded later can not be restored by undo, 
+     * the undo history is reset once all attributes are loaded.<p>
+     */
+    private void loadPendingAttributes() {
+
+        final String entityId = PendingAttributeHandler.getInstance().getEntityId();
+        m_validationHandler.setPaused(true, m_vie.getEntity(entityId));
+        PendingAttributeHandler.getInstance().executeWhenComplete(new Command() {
+
+            public void execute() {
+
+                if ((m_entity != null) && entityId.equals(m_entity.getId())) {
+                    UndoRedoHandler.getInstance().initialize(m_entity, EditorBase.this, m_rootHandler);
+                }
+                m_validationHandler.setPaused(false, m_vie.getEntity(entityId));
+            }
+        });
+        loadNextPendingAttributes(entityId);
+    }
+
+    /**
+     * Updates the base versions of the saved entities and displays the conflicts of entities not saved.<p>
+     * 
+     * @param entities the saved entities
+     * @param result the validation result
+     */
+    private void onEntitiesSaved(List<com.alkacon.acacia.shared.Entity> entities, ValidationResult result) {
+
+        Map<String, String> contentVersions = new HashMap<String, String>();
+        for (com.alkacon.acacia.shared.Entity entity : entities) {
+            contentVersions.put(entity.getId(), entity.getContentVersion());
+        }
+        onEntitiesSaved(contentVersions, result);
+    }
+
+    /**
+     * Updates the base versions of the saved entities and displays the conflicts of entities not saved.<p>
+     * 
+     * @param contentVersions the content versions of the saved entities by entity id
+     * @param result the validation result
+     */
+    private void onEntitiesSaved(Map<String, String> contentVersions, ValidationResult result) {
+
+        for (Map.Entry<String, String> entry : contentVersions.entrySet()) {
+            String entityId = entry.getKey();
+            if ((result == null) || !result.hasErrors(entityId)) {
+                // the server keeps the saved content as base of the next save, even if it was merged with concurrent changes
+                m_entityVersions.put(entityId, entry.getValue());
+                if (m_editJournal != null) {
+                    I_Entity entity = m_vie.getEntity(entityId);
+                    m_editJournal.onSaved(
+                        entityId,
+                        entry.getValue(),
+                        (entity != null)
+                            && !entry.getValue().equals(
+                                com.alkacon.acacia.shared.Entity.serializeEntity(entity).getContentVersion()));
+                }
+            } else if (result.hasConflicts(entityId)) {
+                m_validationHandler.displayValidation(entityId, result);
+            }
+        }
+    }
+
+    /**
+     * Handles a failed save. In case the connection was lost, the save is repeated once it is back.<p>
+     * 
+     * @param caught the error caught from the RPC
+     * @param retry the command repeating the save
+     */
+    private void onSaveFailure(Throwable caught, Command retry) {
+
+        if ((m_editJournal != null) && EditJournal.isConnectionFailure(caught)) {
+            // the changes are kept by the journal in the meantime
+            m_editJournal.setReconnectCommand(retry);
+        }
+        onRpcError(caught);
+    }
+
+    /**
+     * Replaces the elements of the given attribute with the HTML fragments.<p>
+     * In case the fragments do not match the present elements, the complete HTML is updated.<p>
+     * 
+     * @param formParent the form parent
+     * @param parentEntity the entity holding the attribute
+     * @param attributeName the attribute name
+     * @param html the HTML fragments
+     * @param onSuccess the callback to execute on success
+     */
+    private void replaceHtmlFragments(
+        I_InlineFormParent formParent,
+        I_Entity parentEntity,
+        String attributeName,
+        EntityHtml html,
+        Command onSuccess) {
+
+        List<com.google.gwt.dom.client.Element> elements = m_vie.getAttributeElements(
+            parentEntity,
+            attributeName,
+            formParent.getElement());
+        List<String> fragments = html.getFragments();
+        if ((fragments == null) || (fragments.size() != elements.size())) {
+            // the element structure has changed, replace the complete HTML
+            updateHtml(formParent, onSuccess);
+        } else {
+            for (int i = 0; i < fragments.size(); i++) {
+                formParent.replaceElement(elements.get(i), fragments.get(i));
+            }
+            onSuccess.execute();
+        }
+    }
+
+    /**
+     * Saves the given entities in chunks.<p>
+     * 
+     * @param entityIds the entity ids
+     * @param clearOnSuccess <code>true</code> to clear all entities from VIE on success
+     * @param callback the callback executed on success
+     * @param progressHandler the progress handler, may be <code>null</code>
+     */
+    private void saveEntityChunks(
+        final List<String> entityIds,
+        final boolean clearOnSuccess,
+        final Command callback,
+        final I_SaveProgressHandler progressHandler) {
+
+        final BatchSaveHandler[] handler = new BatchSaveHandler[1];
+        handler[0] = new BatchSaveHandler(
+            getService(),
+            m_vie,
+            entityIds,
+            m_entityVersions,
+            progressHandler,
+            new AsyncCallback<ValidationResult>() {
+
+                public void onFailure(Throwable caught) {
+
+                    onSaveFailure(caught, new Command() {
+
+                        public void execute() {
+
+                            saveEntityChunks(entityIds, clearOnSuccess, callback, progressHandler);
+                        }
+                    });
+                }
+
+                public void onSuccess(ValidationResult result) {
+
+                    onEntitiesSaved(handler[0].getContentVersions(), result);
+                    callback.execute();
+                    if (clearOnSuccess) {
+                        destroyForm(true);
+                    }
+                }
+            });
+        handler[0].start();
+    }
+
+    /**
+     * Saves the changes of the given entities as patches.<p>
+     * Entities the server could not apply the patch to, because it no longer knows the patch base version, are sent again completely.<p>
+     * 
+     * @param entities the entities to save
+     * @param clearOnSuccess <code>true</code> to clear all entities from VIE on success
+     * @param callback the callback executed on success
+     */
+    private void saveEntityPatches(
+        final List<I_Entity> entities,
+        final boolean clearOnSuccess,
+        final Command callback) {
+
+        final ChangeTracker tracker = ChangeTracker.getInstance();
+        final List<EntityPatch> patches = new ArrayList<EntityPatch>();
+        for (I_Entity entity : entities) {
+            patches.add(createSavePatch(entity));
+        }
+        getService().saveEntityPatches(patches, new AsyncCallback<ValidationResult>() {
+
+            public void onFailure(Throwable caught) {
+
+                // it is not known which patches have been applied, so send the complete entities next time
+                for (I_Entity entity : entities) {
+                    tracker.onPatchFailed(ChangeTracker.CONSUMER_SAVE, entity.getId());
+                }
+                onSaveFailure(caught, new Command() {
+
+                    public void execute() {
+
+                        saveEntityPatches(entities, clearOnSuccess, callback);
+                    }
+                });
+            }
+
+            public void onSuccess(ValidationResult result) {
+
+                List<I_Entity> unknownBase = new ArrayList<I_Entity>();
+                for (int i = 0; i < patches.size(); i++) {
+                    String entityId = patches.get(i).getEntityId();
+                    if ((result == null) || (!result.hasErrors(entityId) && !result.hasConflicts(entityId))) {
+                        m_entityVersions.put(entityId, patches.get(i).getVersion());
+                        if (m_editJournal != null) {
+                            m_editJournal.onSaved(
+                                entityId,
+                                patches.get(i).getVersion(),
+                                tracker.hasChanges(ChangeTracker.CONSUMER_SAVE, entityId));
+                        }
+                        continue;
+                    }
+                    // the entity has not been saved, the next patch has to carry the complete entity
+                    tracker.onPatchFailed(ChangeTracker.CONSUMER_SAVE, entityId);
+                    if (!result.hasErrors(entityId)) {
+                        // a conflict without errors means the server does not know the patch base version
+                        unknownBase.add(entities.get(i));
+                    } else if (result.hasConflicts(entityId)) {
+                        m_validationHandler.displayValidation(entityId, result);
+                    }
+                }
+                if (!unknownBase.isEmpty()) {
+                    // complete entities are merged with the last saved version, they never fail this way again
+                    saveEntityPatches(unknownBase, clearOnSuccess, callback);
+                    return;
+                }
+                callback.execute();
+                if (clearOnSuccess) {
+                    destroyForm(true);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts journaling the changes of the edited entity, if the edit journal is enabled.<p>
+     */
+    private void startEditJournal() {
+
+        EditJournal journal = getEditJournal();
+        if (journal != null) {
+            journal.start(m_entity, m_entityVersions.get(m_entity.getId()));
+        }
+    }
 }
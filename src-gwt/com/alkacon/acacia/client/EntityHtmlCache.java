@@ -0,0 +1,182 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.client;
+
+import com.alkacon.acacia.shared.EntityHtml;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of entity HTML representations, keyed by the entity content hash and the HTML context.<p>
+ * 
+ * Used to avoid repeated server round trips when the edited entity returns to a previously rendered state,
+ * for example when toggling a value or using undo and redo.<p>
+ */
+public class EntityHtmlCache {
+
+    /** The default maximum number of cached entries. */
+    public static final int DEFAULT_MAX_SIZE = 32;
+
+    /** The cached HTML by key. */
+    private Map<String, EntityHtml> m_entries;
+
+    /** The number of cache hits. */
+    private int m_hitCount;
+
+    /** The maximum number of cached entries. */
+    private int m_maxSize;
+
+    /** The number of cache misses. */
+    private int m_missCount;
+
+    /**
+     * Constructor.<p>
+     */
+    public EntityHtmlCache() {
+
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructor.<p>
+     * 
+     * @param maxSize the maximum number of cached entries
+     */
+    @SuppressWarnings("serial")
+    public EntityHtmlCache(int maxSize) {
+
+        m_maxSize = maxSize;
+        m_entries = new LinkedHashMap<String, EntityHtml>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, EntityHtml> eldest) {
+
+                return size() > m_maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache key for the given entity state and HTML context.<p>
+     * 
+     * @param contentHash the entity content hash
+     * @param contextUri the context URI
+     * @param htmlContextInfo the HTML context info
+     * @param fragmentInfo additional information identifying the rendered fragment, <code>null</code> for the complete HTML
+     * 
+     * @return the cache key
+     */
+    public static String getKey(long contentHash, String contextUri, String htmlContextInfo, String fragmentInfo) {
+
+        StringBuffer key = new StringBuffer();
+        key.append(contentHash).append('|').append(contextUri).append('|').append(htmlContextInfo);
+        if (fragmentInfo != null) {
+            key.append('|').append(fragmentInfo);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Removes all cached entries and resets the counters.<p>
+     */
+    public void clear() {
+
+        m_entries.clear();
+        m_hitCount = 0;
+        m_missCount = 0;
+    }
+
+    /**
+     * Returns the cached HTML for the given key and counts the hit or miss.<p>
+     * 
+     * @param key the cache key
+     * 
+     * @return the cached HTML, <code>null</code> if not cached
+     */
+    public EntityHtml get(String key) {
+
+        EntityHtml result = m_entries.get(key);
+        if (result != null) {
+            m_hitCount++;
+        } else {
+            m_missCount++;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of cache hits.<p>
+     * 
+     * @return the number of cache hits
+     */
+    public int getHitCount() {
+
+        return m_hitCount;
+    }
+
+    /**
+     * Returns the ratio of cache hits to all lookups.<p>
+     * 
+     * @return the hit rate between <code>0</code> and <code>1</code>
+     */
+    public double getHitRate() {
+
+        int lookups = m_hitCount + m_missCount;
+        return lookups > 0 ? (double)m_hitCount / lookups : 0;
+    }
+
+    /**
+     * Returns the number of cache misses.<p>
+     * 
+     * @return the number of cache misses
+     */
+    public int getMissCount() {
+
+        return m_missCount;
+    }
+
+    /**
+     * Returns the number of cached entries.<p>
+     * 
+     * @return the number of cached entries
+     */
+    public int getSize() {
+
+        return m_entries.size();
+    }
+
+    /**
+     * Caches the given HTML.<p>
+     * 
+     * @param key the cache key
+     * @param html the HTML
+     */
+    public void put(String key, EntityHtml html) {
+
+        m_entries.put(key, html);
+    }
+}
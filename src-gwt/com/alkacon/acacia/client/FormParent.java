@@ -85,6 +85,23 @@ public class FormParent extends ComplexPanel implements I_InlineFormParent {
         m_widget.onBrowserEvent(event);
     }
 
+    /**
+     * @see com.alkacon.acacia.client.I_InlineFormParent#replaceElement(com.google.gwt.dom.client.Element, java.lang.String)
+     */
+    public void replaceElement(com.google.gwt.dom.client.Element element, String html) {
+
+        // detach the children within the replaced element
+        for (int i = getChildren().size() - 1; i >= 0; i--) {
+            Widget child = getChildren().get(i);
+            if (element.isOrHasChild(child.getElement())) {
+                child.removeFromParent();
+            }
+        }
+        Element tempDiv = DOM.createDiv();
+        tempDiv.setInnerHTML(html);
+        element.getParentElement().replaceChild(tempDiv.getFirstChildElement(), element);
+    }
+
     /**
      * @see com.alkacon.acacia.client.I_InlineFormParent#replaceHtml(java.lang.String)
      */
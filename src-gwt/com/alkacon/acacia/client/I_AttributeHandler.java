@@ -56,6 +56,22 @@ public interface I_AttributeHandler {
      */
     void insertHandlers(int index);
 
+    /**
+     * Moves the handler map from one value index to another, keeping the handlers of the moved value.<p>
+     * 
+     * @param currentIndex the current value index
+     * @param targetIndex the target value index
+     */
+    void moveHandlers(int currentIndex, int targetIndex);
+
+    /**
+     * Removes the handler from the by id lookup, in case it is still registered for the given attribute.<p>
+     * 
+     * @param attributeName the attribute name
+     * @param handler the handler
+     */
+    void removeHandlerById(String attributeName, AttributeHandler handler);
+
     /**
      * Removes the handlers at the given index.<p>
      * 
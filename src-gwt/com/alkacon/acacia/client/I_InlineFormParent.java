@@ -54,4 +54,13 @@ public interface I_InlineFormParent {
      */
     void replaceHtml(String html);
 
+    /**
+     * Replaces the given descendant element with the element described by the given HTML.<p>
+     * Child widgets within the replaced element will be detached.<p>
+     * 
+     * @param element the element to replace
+     * @param html the HTML of the new element
+     */
+    void replaceElement(com.google.gwt.dom.client.Element element, String html);
+
 }
@@ -24,6 +24,8 @@
 
 package com.alkacon.acacia.client;
 
+import com.alkacon.vie.shared.I_Entity;
+
 import com.google.gwt.user.client.Command;
 
 /**
@@ -45,4 +47,19 @@ public interface I_InlineHtmlUpdateHandler {
      * @param onSuccess the callback to execute on success
      */
     void updateHtml(I_InlineFormParent formParent, Command onSuccess);
+
+    /**
+     * Updates only the HTML elements representing the values of the given attribute according to the currently edited entity data.<p>
+     * Falls back to updating the complete HTML, in case the attribute elements can not be updated separately.<p>
+     * 
+     * @param formParent the form parent
+     * @param parentEntity the entity holding the attribute
+     * @param attributeName the attribute name
+     * @param onSuccess the callback to execute on success
+     */
+    void updateHtmlFragment(
+        I_InlineFormParent formParent,
+        I_Entity parentEntity,
+        String attributeName,
+        Command onSuccess);
 }
@@ -0,0 +1,199 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gwt.user.client.Command;
+
+/**
+ * Keeps track of the root entity attributes with values not loaded yet.<p>
+ * 
+ * The renderer displays placeholders for pending attributes and registers commands to render them once loaded.<p>
+ * 
+ * @see com.alkacon.acacia.shared.ContentDefinition#getPendingAttributes()
+ */
+public final class PendingAttributeHandler {
+
+    /** The handler instance. */
+    private static PendingAttributeHandler INSTANCE;
+
+    /** The commands to execute once all attributes are loaded. */
+    private List<Command> m_completeCommands;
+
+    /** The root entity id. */
+    private String m_entityId;
+
+    /** The render commands by pending attribute name. */
+    private Map<String, List<Command>> m_pendingAttributes;
+
+    /**
+     * Constructor.<p>
+     */
+    private PendingAttributeHandler() {
+
+        m_completeCommands = new ArrayList<Command>();
+        m_pendingAttributes = new LinkedHashMap<String, List<Command>>();
+    }
+
+    /**
+     * Returns the handler instance.<p>
+     * 
+     * @return the handler instance
+     */
+    public static PendingAttributeHandler getInstance() {
+
+        if (INSTANCE == null) {
+            INSTANCE = new PendingAttributeHandler();
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Adds a command to render the given pending attribute once it is loaded.<p>
+     * 
+     * @param attributeName the attribute name
+     * @param command the render command
+     */
+    public void addRenderCommand(String attributeName, Command command) {
+
+        List<Command> commands = m_pendingAttributes.get(attributeName);
+        if (commands != null) {
+            commands.add(command);
+        } else {
+            command.execute();
+        }
+    }
+
+    /**
+     * Removes all pending attributes and commands.<p>
+     */
+    public void clear() {
+
+        m_entityId = null;
+        m_pendingAttributes.clear();
+        m_completeCommands.clear();
+    }
+
+    /**
+     * Executes the given command once all attributes are loaded, or immediately if nothing is pending.<p>
+     * 
+     * @param command the command
+     */
+    public void executeWhenComplete(Command command) {
+
+        if (isComplete()) {
+            command.execute();
+        } else {
+            m_completeCommands.add(command);
+        }
+    }
+
+    /**
+     * Returns the root entity id.<p>
+     * 
+     * @return the root entity id
+     */
+    public String getEntityId() {
+
+        return m_entityId;
+    }
+
+    /**
+     * Returns the names of the pending attributes.<p>
+     * 
+     * @return the pending attribute names
+     */
+    public List<String> getPendingAttributes() {
+
+        return new ArrayList<String>(m_pendingAttributes.keySet());
+    }
+
+    /**
+     * Sets the pending attributes of the given root entity.<p>
+     * 
+     * @param entityId the root entity id
+     * @param attributeNames the names of the attributes not loaded yet
+     */
+    public void initialize(String entityId, List<String> attributeNames) {
+
+        clear();
+        m_entityId = entityId;
+        for (String attributeName : attributeNames) {
+            m_pendingAttributes.put(attributeName, new ArrayList<Command>());
+        }
+    }
+
+    /**
+     * Returns if all attributes are loaded.<p>
+     * 
+     * @return <code>true</code> if no attribute is pending
+     */
+    public boolean isComplete() {
+
+        return m_pendingAttributes.isEmpty();
+    }
+
+    /**
+     * Returns if the values of the given attribute are not loaded yet.<p>
+     * 
+     * @param entityId the id of the entity holding the attribute
+     * @param attributeName the attribute name
+     * 
+     * @return <code>true</code> if the attribute is pending
+     */
+    public boolean isPending(String entityId, String attributeName) {
+
+        return (m_entityId != null) && m_entityId.equals(entityId) && m_pendingAttributes.containsKey(attributeName);
+    }
+
+    /**
+     * Marks the given attribute as loaded and executes its render commands.<p>
+     * 
+     * Once no attribute is pending anymore, the commands waiting for completion are executed.<p>
+     * 
+     * @param attributeName the attribute name
+     */
+    public void setLoaded(String attributeName) {
+
+        List<Command> commands = m_pendingAttributes.remove(attributeName);
+        if (commands != null) {
+            for (Command command : commands) {
+                command.execute();
+            }
+            if (isComplete()) {
+                List<Command> completeCommands = new ArrayList<Command>(m_completeCommands);
+                m_completeCommands.clear();
+                for (Command command : completeCommands) {
+                    command.execute();
+                }
+            }
+        }
+    }
+}
@@ -40,8 +40,11 @@ import com.alkacon.vie.shared.I_Entity;
 import com.alkacon.vie.shared.I_EntityAttribute;
 import com.alkacon.vie.shared.I_Type;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import com.google.gwt.core.client.Scheduler;
 import com.google.gwt.core.client.Scheduler.RepeatingCommand;
@@ -55,6 +58,7 @@ import com.google.gwt.event.logical.shared.SelectionEvent;
 import com.google.gwt.event.logical.shared.SelectionHandler;
 import com.google.gwt.event.logical.shared.ValueChangeEvent;
 import com.google.gwt.event.logical.shared.ValueChangeHandler;
+import com.google.gwt.user.client.Command;
 import com.google.gwt.user.client.ui.FlowPanel;
 import com.google.gwt.user.client.ui.Panel;
 import com.google.gwt.user.client.ui.Widget;
@@ -64,6 +68,45 @@ import com.google.gwt.user.client.ui.Widget;
  */
 public class Renderer implements I_EntityRenderer {
 
+    /**
+     * Renders the content of a tab on its first selection.<p>
+     */
+    protected class LazyTabHandler implements SelectionHandler<Integer> {
+
+        /** The render commands of the tabs not rendered yet by tab index. */
+        private Map<Integer, ScheduledCommand> m_pendingTabs;
+
+        /**
+         * Constructor.<p>
+         */
+        LazyTabHandler() {
+
+            m_pendingTabs = new HashMap<Integer, ScheduledCommand>();
+        }
+
+        /**
+         * Adds the render command of a tab not rendered yet.<p>
+         * 
+         * @param tabIndex the tab index
+         * @param renderCommand the command rendering the tab content
+         */
+        public void addPendingTab(int tabIndex, ScheduledCommand renderCommand) {
+
+            m_pendingTabs.put(Integer.valueOf(tabIndex), renderCommand);
+        }
+
+        /**
+         * @see com.google.gwt.event.logical.shared.SelectionHandler#onSelection(com.google.gwt.event.logical.shared.SelectionEvent)
+         */
+        public void onSelection(SelectionEvent<Integer> event) {
+
+            ScheduledCommand renderCommand = m_pendingTabs.remove(event.getSelectedItem());
+            if (renderCommand != null) {
+                renderCommand.execute();
+            }
+        }
+    }
+
     /**
      * Calls resize on tab selection on the tabs child hierarchy.<p> 
      */
@@ -97,6 +140,8 @@ public class Renderer implements I_EntityRenderer {
                             ((I_HasResizeOnShow)w).resizeOnShow();
                         }
                     }
+                    // render the deferred values now visible
+                    DeferredValueHandler.getInstance().scheduleUpdate();
                 }
             });
 
@@ -253,6 +298,63 @@ public class Renderer implements I_EntityRenderer {
         return rootEntry.getChildren();
     }
 
+    /**
+     * Renders the attribute values of a tab into the placeholder elements created for them.<p>
+     * 
+     * @param entity the entity
+     * @param tabPanel the tab panel
+     * @param handlers the attribute handlers of the tab
+     * @param attributeElements the attribute parent elements, <code>null</code> for collapsed attributes
+     */
+    private void renderTabContent(
+        I_Entity entity,
+        FlowPanel tabPanel,
+        List<AttributeHandler> handlers,
+        List<ValuePanel> attributeElements) {
+
+        I_Type entityType = m_vie.getType(entity.getTypeName());
+        AttributeValueView lastCompactView = null;
+        for (int i = 0; i < handlers.size(); i++) {
+            AttributeHandler handler = handlers.get(i);
+            handler.setPlaceholder(null);
+            String attributeName = handler.getAttributeName();
+            I_Type attributeType = entityType.getAttributeType(attributeName);
+            // read the attribute now, as it may have been changed since the tab structure was created
+            I_EntityAttribute attribute = entity.getAttribute(attributeName);
+            ValuePanel attributeElement = attributeElements.get(i);
+            if ((attributeElement != null)
+                && PendingAttributeHandler.getInstance().isPending(entity.getId(), attributeName)) {
+                if (lastCompactView != null) {
+                    lastCompactView.setCompactMode(AttributeValueView.COMPACT_MODE_WIDE);
+                    lastCompactView = null;
+                }
+                renderPendingAttribute(entity, handler, attributeElement);
+                continue;
+            }
+            if (attributeElement == null) {
+                if (attribute != null) {
+                    I_EntityRenderer renderer = m_widgetService.getRendererForAttribute(attributeName, attributeType);
+                    renderer.renderForm(attribute.getComplexValue(), tabPanel, handler, 0);
+                }
+            } else {
+                lastCompactView = renderAttribute(
+                    entityType,
+                    attributeType,
+                    attribute,
+                    handler,
+                    attributeElement,
+                    attributeName,
+                    lastCompactView);
+            }
+            handler.updateButtonVisisbility();
+        }
+        if (lastCompactView != null) {
+            // previous widget was set to first column mode,
+            // revert that as no following widget will occupy the second column
+            lastCompactView.setCompactMode(AttributeValueView.COMPACT_MODE_WIDE);
+        }
+    }
+
     /**
      * Sets the attribute choices if present.<p>
      * 
@@ -415,18 +517,26 @@ public class Renderer implements I_EntityRenderer {
             AttributeHandler.setResizeHandler(tabSizeHandler);
             tabbedPanel.addSelectionHandler(new TabSelectionHandler(tabbedPanel));
             tabbedPanel.getElement().getStyle().setBorderWidth(0, Unit.PX);
+            LazyTabHandler lazyTabHandler = new LazyTabHandler();
+            tabbedPanel.addSelectionHandler(lazyTabHandler);
             Iterator<TabInfo> tabIt = tabInfos.iterator();
             TabInfo currentTab = tabIt.next();
             TabInfo nextTab = tabIt.next();
             FlowPanel tabPanel = createTab();
             tabbedPanel.addNamed(tabPanel, currentTab.getTabName(), currentTab.getTabId());
+            int tabIndex = 0;
             I_Type entityType = m_vie.getType(entity.getTypeName());
             List<String> attributeNames = entityType.getAttributeNames();
-            AttributeValueView lastCompactView = null;
+            List<AttributeHandler> tabHandlers = new ArrayList<AttributeHandler>();
+            List<ValuePanel> tabElements = new ArrayList<ValuePanel>();
             boolean collapsed = currentTab.isCollapsed()
                 && ((nextTab != null) && attributeNames.get(1).endsWith("/" + nextTab.getStartName()));
             for (final String attributeName : attributeNames) {
                 if ((nextTab != null) && attributeName.endsWith("/" + nextTab.getStartName())) {
+                    addTabContent(lazyTabHandler, tabIndex, entity, tabPanel, tabHandlers, tabElements);
+                    tabIndex++;
+                    tabHandlers = new ArrayList<AttributeHandler>();
+                    tabElements = new ArrayList<ValuePanel>();
                     currentTab = nextTab;
                     nextTab = tabIt.hasNext() ? tabIt.next() : null;
                     tabPanel = createTab();
@@ -438,47 +548,36 @@ public class Renderer implements I_EntityRenderer {
                             || ((nextTab != null) && attributeNames.get(currentIndex + 1).endsWith(
                                 "/" + nextTab.getStartName()));
                     }
-                    if (lastCompactView != null) {
-                        // previous widget was set to first column mode,
-                        // revert that as no following widget will occupy the second column
-                        lastCompactView.setCompactMode(AttributeValueView.COMPACT_MODE_WIDE);
-                    }
                 }
+                // handlers are registered for all tabs, so validation messages may be assigned before a tab is rendered
                 AttributeHandler handler = new AttributeHandler(m_vie, entity, attributeName, m_widgetService);
                 parentHandler.setHandler(attributeIndex, attributeName, handler);
                 I_Type attributeType = entityType.getAttributeType(attributeName);
                 int minOccurrence = entityType.getAttributeMinOccurrence(attributeName);
                 I_EntityAttribute attribute = entity.getAttribute(attributeName);
+                tabHandlers.add(handler);
                 // only single complex values may be collapsed
                 if (collapsed
                     && (attribute != null)
                     && !attributeType.isSimpleType()
                     && (minOccurrence == 1)
                     && (entityType.getAttributeMaxOccurrence(attributeName) == 1)) {
-                    I_EntityRenderer renderer = m_widgetService.getRendererForAttribute(attributeName, attributeType);
-                    renderer.renderForm(attribute.getComplexValue(), tabPanel, handler, 0);
+                    // the collapsed value will be rendered directly into the tab
+                    tabElements.add(null);
+                    handler.setPlaceholder(tabPanel);
                 } else {
                     ValuePanel attributeElement = new ValuePanel();
                     tabPanel.add(attributeElement);
-                    if ((attribute == null) && (minOccurrence > 0)) {
-                        attribute = createEmptyAttribute(entity, attributeName, minOccurrence);
+                    if ((attribute == null)
+                        && (minOccurrence > 0)
+                        && !PendingAttributeHandler.getInstance().isPending(entity.getId(), attributeName)) {
+                        createEmptyAttribute(entity, attributeName, minOccurrence);
                     }
-                    lastCompactView = renderAttribute(
-                        entityType,
-                        attributeType,
-                        attribute,
-                        handler,
-                        attributeElement,
-                        attributeName,
-                        lastCompactView);
+                    tabElements.add(attributeElement);
+                    handler.setPlaceholder(attributeElement);
                 }
-                handler.updateButtonVisisbility();
-            }
-            if (lastCompactView != null) {
-                // previous widget was set to first column mode,
-                // revert that as no following widget will occupy the second column
-                lastCompactView.setCompactMode(AttributeValueView.COMPACT_MODE_WIDE);
             }
+            addTabContent(lazyTabHandler, tabIndex, entity, tabPanel, tabHandlers, tabElements);
             context.add(tabbedPanel);
             return tabbedPanel;
         }
@@ -674,9 +773,83 @@ public class Renderer implements I_EntityRenderer {
             }
             result = parentEntity.getAttribute(attributeName);
         }
+        if (minOccurrence > 0) {
+            ChangeTracker.getInstance().markAttributeChanged(parentEntity.getId(), attributeName);
+        }
         return result;
     }
 
+    /**
+     * Renders the content of the given tab, immediately in case of the first tab, on first selection otherwise.<p>
+     * 
+     * @param lazyTabHandler the lazy tab handler
+     * @param tabIndex the tab index
+     * @param entity the entity
+     * @param tabPanel the tab panel
+     * @param handlers the attribute handlers of the tab
+     * @param attributeElements the attribute parent elements, <code>null</code> for collapsed attributes
+     */
+    private void addTabContent(
+        LazyTabHandler lazyTabHandler,
+        int tabIndex,
+        final I_Entity entity,
+        final FlowPanel tabPanel,
+        final List<AttributeHandler> handlers,
+        final List<ValuePanel> attributeElements) {
+
+        if (tabIndex == 0) {
+            renderTabContent(entity, tabPanel, handlers, attributeElements);
+        } else {
+            lazyTabHandler.addPendingTab(tabIndex, new ScheduledCommand() {
+
+                public void execute() {
+
+                    renderTabContent(entity, tabPanel, handlers, attributeElements);
+                }
+            });
+        }
+    }
+
+    /**
+     * Creates the command rendering the content of a value view with deferred rendering.<p>
+     * 
+     * The value is read from the entity when the command is executed, as it may have changed in the meantime.<p>
+     * 
+     * @param valueView the value view
+     * @param attributeName the attribute name
+     * @param renderer the entity renderer for complex values, <code>null</code> for simple values
+     * 
+     * @return the render command
+     */
+    private ScheduledCommand createDeferredValue(
+        final AttributeValueView valueView,
+        final String attributeName,
+        final I_EntityRenderer renderer) {
+
+        return new ScheduledCommand() {
+
+            /**
+             * @see com.google.gwt.core.client.Scheduler.ScheduledCommand#execute()
+             */
+            public void execute() {
+
+                I_EntityAttribute attribute = valueView.getHandler().getEntity().getAttribute(attributeName);
+                int valueIndex = valueView.getValueIndex();
+                if ((attribute != null) && (valueIndex < attribute.getValueCount())) {
+                    if (renderer == null) {
+                        valueView.setValueWidget(
+                            m_widgetService.getAttributeFormWidget(attributeName),
+                            attribute.getSimpleValues().get(valueIndex),
+                            m_widgetService.getDefaultAttributeValue(attributeName),
+                            true);
+                    } else {
+                        valueView.setValueEntity(renderer, attribute.getComplexValues().get(valueIndex));
+                    }
+                }
+            }
+        };
+    }
+
     /** 
      * Creates a tab.<p>
      * 
@@ -718,6 +891,11 @@ public class Renderer implements I_EntityRenderer {
         String help = m_widgetService.getAttributeHelp(attributeName);
         if (attribute != null) {
             I_EntityRenderer renderer = m_widgetService.getRendererForAttribute(attributeName, attributeType);
+            // for long value lists only the first values are rendered eagerly, the others once they become visible
+            int eagerCount = attribute.getValueCount();
+            if (eagerCount >= DeferredValueHandler.MIN_VALUE_COUNT) {
+                eagerCount = DeferredValueHandler.EAGER_VALUE_COUNT;
+            }
             for (int i = 0; i < attribute.getValueCount(); i++) {
                 AttributeValueView valueWidget = new AttributeValueView(handler, label, help);
                 if (attributeType.isChoice() && (entityType.getAttributeMaxOccurrence(attributeName) == 1)) {
@@ -725,11 +903,15 @@ public class Renderer implements I_EntityRenderer {
                 }
                 attributeElement.add(valueWidget);
                 if (attribute.isSimpleValue()) {
-                    valueWidget.setValueWidget(
-                        m_widgetService.getAttributeFormWidget(attributeName),
-                        attribute.getSimpleValues().get(i),
-                        m_widgetService.getDefaultAttributeValue(attributeName),
-                        true);
+                    if (i < eagerCount) {
+                        valueWidget.setValueWidget(
+                            m_widgetService.getAttributeFormWidget(attributeName),
+                            attribute.getSimpleValues().get(i),
+                            m_widgetService.getDefaultAttributeValue(attributeName),
+                            true);
+                    } else {
+                        valueWidget.setDeferredValue(createDeferredValue(valueWidget, attributeName, null), true);
+                    }
                     // check for compact view setting
                     if (m_widgetService.isDisplayCompact(attributeName)) {
                         // widget should be displayed in compact view, using only 50% of the available width
@@ -754,7 +936,11 @@ public class Renderer implements I_EntityRenderer {
                         }
                     }
                 } else {
-                    valueWidget.setValueEntity(renderer, attribute.getComplexValues().get(i));
+                    if (i < eagerCount) {
+                        valueWidget.setValueEntity(renderer, attribute.getComplexValues().get(i));
+                    } else {
+                        valueWidget.setDeferredValue(createDeferredValue(valueWidget, attributeName, renderer), false);
+                    }
                     if (lastCompactView != null) {
                         // previous widget was set to first column mode,
                         // revert that as the current widget will be displayed in a new line
@@ -817,6 +1003,54 @@ public class Renderer implements I_EntityRenderer {
         return lastCompactView;
     }
 
+    /**
+     * Renders a placeholder for an attribute with values not loaded yet, which is replaced by the attribute values once loaded.<p>
+     * 
+     * @param entity the entity containing the attribute
+     * @param handler the attribute handler
+     * @param attributeElement the attribute parent element
+     */
+    private void renderPendingAttribute(
+        final I_Entity entity,
+        final AttributeHandler handler,
+        final ValuePanel attributeElement) {
+
+        final String attributeName = handler.getAttributeName();
+        final FlowPanel loadingPlaceholder = new FlowPanel();
+        loadingPlaceholder.addStyleName(I_LayoutBundle.INSTANCE.form().loadingPlaceholder());
+        attributeElement.add(loadingPlaceholder);
+        handler.setPlaceholder(attributeElement);
+        PendingAttributeHandler.getInstance().addRenderCommand(attributeName, new Command() {
+
+            /**
+             * @see com.google.gwt.user.client.Command#execute()
+             */
+            public void execute() {
+
+                loadingPlaceholder.removeFromParent();
+                handler.setPlaceholder(null);
+                I_Type entityType = m_vie.getType(entity.getTypeName());
+                I_EntityAttribute attribute = entity.getAttribute(attributeName);
+                int minOccurrence = entityType.getAttributeMinOccurrence(attributeName);
+                if ((attribute == null) && (minOccurrence > 0)) {
+                    attribute = createEmptyAttribute(entity, attributeName, minOccurrence);
+                }
+                AttributeValueView compactView = renderAttribute(
+                    entityType,
+                    entityType.getAttributeType(attributeName),
+                    attribute,
+                    handler,
+                    attributeElement,
+                    attributeName,
+                    null);
+                if (compactView != null) {
+                    compactView.setCompactMode(AttributeValueView.COMPACT_MODE_WIDE);
+                }
+                handler.updateButtonVisisbility();
+            }
+        });
+    }
+
     /**
      * Sets the attribute choices if present.<p>
      * 
@@ -24,25 +24,29 @@
 
 package com.alkacon.acacia.client;
 
-import com.alkacon.acacia.shared.ContentDefinition;
+import com.alkacon.acacia.shared.AttributePath;
 import com.alkacon.acacia.shared.Type;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 
 /**
  * The root attribute handler.<p>
  */
 public class RootHandler implements I_AttributeHandler {
 
-    /** The attribute handler by id. */
-    private Map<String, AttributeHandler> m_handlerById;
+    /** The attribute handlers by entity id and attribute name. */
+    private Map<String, Map<String, AttributeHandler>> m_handlerById;
 
     /** The sub handlers. */
     private List<Map<String, AttributeHandler>> m_handlers;
 
+    /** The sub handlers by simple attribute name, also containing the full attribute names. */
+    private List<Map<String, AttributeHandler>> m_handlersBySimpleName;
+
     /**
      * Constructor.<p>
      */
@@ -50,7 +54,21 @@ public class RootHandler implements I_AttributeHandler {
 
         m_handlers = new ArrayList<Map<String, AttributeHandler>>();
         m_handlers.add(new HashMap<String, AttributeHandler>());
-        m_handlerById = new HashMap<String, AttributeHandler>();
+        m_handlersBySimpleName = new ArrayList<Map<String, AttributeHandler>>();
+        m_handlersBySimpleName.add(new HashMap<String, AttributeHandler>());
+        m_handlerById = new HashMap<String, Map<String, AttributeHandler>>();
+    }
+
+    /**
+     * Returns the simple name of the given attribute, the part following the last slash.<p>
+     * 
+     * @param attributeName the attribute name
+     * 
+     * @return the simple name
+     */
+    private static String getSimpleName(String attributeName) {
+
+        return attributeName.substring(attributeName.lastIndexOf('/') + 1);
     }
 
     /**
@@ -66,6 +84,8 @@ public class RootHandler implements I_AttributeHandler {
         }
         m_handlers.clear();
         m_handlers.add(new HashMap<String, AttributeHandler>());
+        m_handlersBySimpleName.clear();
+        m_handlersBySimpleName.add(new HashMap<String, AttributeHandler>());
         m_handlerById.clear();
     }
 
@@ -85,12 +105,8 @@ public class RootHandler implements I_AttributeHandler {
      */
     public AttributeHandler getChildHandlerBySimpleName(String name, int index) {
 
-        if (m_handlers.size() > index) {
-            for (String attributeName : m_handlers.get(index).keySet()) {
-                if (attributeName.equals(name) || attributeName.endsWith(name)) {
-                    return m_handlers.get(index).get(attributeName);
-                }
-            }
+        if (m_handlersBySimpleName.size() > index) {
+            return m_handlersBySimpleName.get(index).get(name);
         }
         return null;
     }
@@ -105,24 +121,25 @@ public class RootHandler implements I_AttributeHandler {
      */
     public AttributeHandler getHandlerById(String entityId, String attributeName) {
 
-        return m_handlerById.get(entityId + "/" + attributeName);
+        Map<String, AttributeHandler> handlers = m_handlerById.get(entityId);
+        return handlers != null ? handlers.get(attributeName) : null;
     }
 
     /**
      * Returns the attribute handler for the given path.<p>
      * 
-     * @param pathNames the path names
+     * @param path the attribute path
      * 
      * @return the attribute handler
      */
-    public AttributeHandler getHandlerByPath(String[] pathNames) {
+    public AttributeHandler getHandlerByPath(AttributePath path) {
 
         I_AttributeHandler handler = this;
         int index = 0;
-        for (int i = 0; i < pathNames.length; i++) {
-            String attributeName = pathNames[i];
-            int nextIndex = ContentDefinition.extractIndex(attributeName);
-            attributeName = ContentDefinition.removeIndex(attributeName);
+        for (int i = 0; (i < path.getElementCount()) && (handler != null); i++) {
+            // the parsed path elements are cached by the path, so no strings are created here
+            String attributeName = path.getName(i);
+            int nextIndex = path.getIndex(i);
             if ((handler instanceof AttributeHandler) && ((AttributeHandler)handler).getAttributeType().isChoice()) {
                 // in case of a choice attribute, skip to the next level
                 attributeName = Type.CHOICE_ATTRIBUTE_NAME;
@@ -133,24 +150,39 @@ public class RootHandler implements I_AttributeHandler {
         return (AttributeHandler)handler;
     }
 
+    /**
+     * Returns the attribute handler for the given path.<p>
+     * 
+     * @param pathNames the path names
+     * 
+     * @return the attribute handler
+     */
+    public AttributeHandler getHandlerByPath(String[] pathNames) {
+
+        // the path is only used for this lookup, so don't intern it
+        return getHandlerByPath(AttributePath.create(pathNames));
+    }
+
     /**
      * Returns the attribute handler to the given simple path.<p>
      * 
-     * @param pathNames the simple path elements
+     * Other than with {@link #getHandlerByPath(AttributePath)}, the value indexes of simple paths are one based.<p>
+     * 
+     * @param path the simple path
      * 
      * @return the attribute handler
      */
-    public AttributeHandler getHandlersBySimplePath(String[] pathNames) {
+    public AttributeHandler getHandlersBySimplePath(AttributePath path) {
 
         I_AttributeHandler handler = this;
         int index = 0;
-        for (int i = 0; i < pathNames.length; i++) {
-            String attributeName = pathNames[i];
-            int nextIndex = ContentDefinition.extractIndex(attributeName);
+        for (int i = 0; (i < path.getElementCount()) && (handler != null); i++) {
+            // the parsed path elements are cached by the path, so no strings are created here
+            String attributeName = path.getName(i);
+            int nextIndex = path.getIndex(i);
             if (nextIndex > 0) {
                 nextIndex--;
             }
-            attributeName = ContentDefinition.removeIndex(attributeName);
             if ((handler instanceof AttributeHandler) && ((AttributeHandler)handler).getAttributeType().isChoice()) {
                 // in case of a choice attribute, skip to the next level
                 attributeName = Type.CHOICE_ATTRIBUTE_NAME;
@@ -161,6 +193,19 @@ public class RootHandler implements I_AttributeHandler {
         return (AttributeHandler)handler;
     }
 
+    /**
+     * Returns the attribute handler to the given simple path.<p>
+     * 
+     * @param pathNames the simple path elements
+     * 
+     * @return the attribute handler
+     */
+    public AttributeHandler getHandlersBySimplePath(String[] pathNames) {
+
+        // the path is only used for this lookup, so don't intern it
+        return getHandlersBySimplePath(AttributePath.create(pathNames));
+    }
+
     /**
      * @see com.alkacon.acacia.client.I_AttributeHandler#insertHandlers(int)
      */
@@ -168,17 +213,44 @@ public class RootHandler implements I_AttributeHandler {
 
         if (index <= m_handlers.size()) {
             m_handlers.add(index, new HashMap<String, AttributeHandler>());
+            m_handlersBySimpleName.add(index, new HashMap<String, AttributeHandler>());
         } else {
             throw new IndexOutOfBoundsException("index of " + index + " too big, current size: " + m_handlers.size());
         }
     }
 
+    /**
+     * @see com.alkacon.acacia.client.I_AttributeHandler#moveHandlers(int, int)
+     */
+    public void moveHandlers(int currentIndex, int targetIndex) {
+
+        // the moved handlers keep their entities, so their by id registrations stay valid
+        m_handlers.add(targetIndex, m_handlers.remove(currentIndex));
+        m_handlersBySimpleName.add(targetIndex, m_handlersBySimpleName.remove(currentIndex));
+    }
+
+    /**
+     * @see com.alkacon.acacia.client.I_AttributeHandler#removeHandlerById(java.lang.String, com.alkacon.acacia.client.AttributeHandler)
+     */
+    public void removeHandlerById(String attributeName, AttributeHandler handler) {
+
+        Map<String, AttributeHandler> handlers = m_handlerById.get(handler.getEntityId());
+        if ((handlers != null) && (handlers.get(attributeName) == handler)) {
+            handlers.remove(attributeName);
+            if (handlers.isEmpty()) {
+                m_handlerById.remove(handler.getEntityId());
+            }
+        }
+    }
+
     /**
      * @see com.alkacon.acacia.client.I_AttributeHandler#removeHandlers(int)
      */
     public void removeHandlers(int index) {
 
-        m_handlers.remove(index);
+        Map<String, AttributeHandler> removed = m_handlers.remove(index);
+        m_handlersBySimpleName.remove(index);
+        removeHandlersById(removed);
     }
 
     /**
@@ -187,6 +259,13 @@ public class RootHandler implements I_AttributeHandler {
     public void setHandler(int index, String attributeName, AttributeHandler handler) {
 
         m_handlers.get(index).put(attributeName, handler);
+        Map<String, AttributeHandler> bySimpleName = m_handlersBySimpleName.get(index);
+        bySimpleName.put(attributeName, handler);
+        String simpleName = getSimpleName(attributeName);
+        if (!bySimpleName.containsKey(simpleName)) {
+            // keep the first handler registered for an ambiguous simple name
+            bySimpleName.put(simpleName, handler);
+        }
         handler.setParentHandler(this);
         setHandlerById(attributeName, handler);
     }
@@ -196,7 +275,12 @@ public class RootHandler implements I_AttributeHandler {
      */
     public void setHandlerById(String attributeName, AttributeHandler handler) {
 
-        m_handlerById.put(handler.getEntityId() + "/" + attributeName, handler);
+        Map<String, AttributeHandler> handlers = m_handlerById.get(handler.getEntityId());
+        if (handlers == null) {
+            handlers = new HashMap<String, AttributeHandler>();
+            m_handlerById.put(handler.getEntityId(), handlers);
+        }
+        handlers.put(attributeName, handler);
     }
 
     /**
@@ -208,12 +292,29 @@ public class RootHandler implements I_AttributeHandler {
 
         if (count == 0) {
             m_handlers.clear();
+            m_handlersBySimpleName.clear();
         } else {
             while (m_handlers.size() < count) {
                 m_handlers.add(new HashMap<String, AttributeHandler>());
+                m_handlersBySimpleName.add(new HashMap<String, AttributeHandler>());
             }
         }
         m_handlerById.clear();
     }
 
+    /**
+     * Removes the given handlers and all their descendant handlers from the by id lookup.<p>
+     * 
+     * @param handlers the handlers by attribute name
+     */
+    private void removeHandlersById(Map<String, AttributeHandler> handlers) {
+
+        for (Entry<String, AttributeHandler> entry : handlers.entrySet()) {
+            AttributeHandler handler = entry.getValue();
+            removeHandlerById(entry.getKey(), handler);
+            for (Map<String, AttributeHandler> children : ((RootHandler)handler).m_handlers) {
+                removeHandlersById(children);
+            }
+        }
+    }
 }
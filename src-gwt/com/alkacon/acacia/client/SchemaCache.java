@@ -0,0 +1,121 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.client;
+
+import com.alkacon.acacia.shared.AttributeConfiguration;
+import com.alkacon.acacia.shared.ContentDefinition;
+import com.alkacon.vie.shared.I_Type;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches the types and attribute configurations of content definitions by entity type name, 
+ * so they only need to be transferred and registered once per version.<p>
+ * 
+ * @see ContentDefinition#omitKnownSchema(Map)
+ */
+public class SchemaCache {
+
+    /**
+     * The types and attribute configurations of one entity type.<p>
+     */
+    private static final class Schema {
+
+        /** The attribute configurations. */
+        Map<String, AttributeConfiguration> m_configurations;
+
+        /** The types. */
+        Map<String, I_Type> m_types;
+
+        /** The schema version. */
+        String m_version;
+    }
+
+    /** The cached schemas by entity type name. */
+    private Map<String, Schema> m_schemas;
+
+    /**
+     * Constructor.<p>
+     */
+    public SchemaCache() {
+
+        m_schemas = new HashMap<String, Schema>();
+    }
+
+    /**
+     * Removes all cached schemas.<p>
+     */
+    public void clear() {
+
+        m_schemas.clear();
+    }
+
+    /**
+     * Returns the versions of the cached schemas by entity type name.<p>
+     * 
+     * @return the schema versions
+     */
+    public Map<String, String> getVersions() {
+
+        Map<String, String> result = new HashMap<String, String>();
+        for (Map.Entry<String, Schema> entry : m_schemas.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().m_version);
+        }
+        return result;
+    }
+
+    /**
+     * Adds the schema of the given definition to the cache, 
+     * or restores the types and attribute configurations of a definition with omitted schema.<p>
+     * 
+     * @param definition the content definition
+     * 
+     * @return <code>true</code> if the schema was already cached in the version of the definition, 
+     *         so it does not need to be registered again
+     */
+    public boolean update(ContentDefinition definition) {
+
+        String typeName = definition.getEntityTypeName();
+        Schema schema = m_schemas.get(typeName);
+        boolean cached = (schema != null)
+            && (definition.getSchemaVersion() != null)
+            && definition.getSchemaVersion().equals(schema.m_version);
+        if (definition.isSchemaOmitted()) {
+            if (!cached) {
+                throw new IllegalStateException("The schema of type " + typeName + " was omitted but is not cached.");
+            }
+            definition.setSchema(schema.m_types, schema.m_configurations);
+        } else if (!cached && (definition.getSchemaVersion() != null)) {
+            schema = new Schema();
+            schema.m_configurations = definition.getConfigurations();
+            schema.m_types = definition.getTypes();
+            schema.m_version = definition.getSchemaVersion();
+            m_schemas.put(typeName, schema);
+        }
+        return cached;
+    }
+}
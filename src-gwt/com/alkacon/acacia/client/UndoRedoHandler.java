@@ -25,9 +25,15 @@
 package com.alkacon.acacia.client;
 
 import com.alkacon.acacia.client.UndoRedoHandler.UndoRedoState;
-import com.alkacon.acacia.shared.Entity;
+import com.alkacon.acacia.shared.PersistentEntity;
+import com.alkacon.vie.client.Vie;
 import com.alkacon.vie.shared.I_Entity;
+import com.alkacon.vie.shared.I_EntityAttribute;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Stack;
 
 import com.google.gwt.event.logical.shared.HasValueChangeHandlers;
@@ -70,16 +76,46 @@ public class UndoRedoHandler implements HasValueChangeHandlers<UndoRedoState> {
         /** Indicating if there are changes to be undone. */
         private boolean m_hasUndo;
 
+        /** The estimated memory use of the history in bytes. */
+        private long m_historyBytes;
+
+        /** The number of history entries. */
+        private int m_historySize;
+
         /**
          * Constructor.<p>
          * 
          * @param hasUndo if there are changes to be undone
          * @param hasRedo if there are changes to be re done
+         * @param historySize the number of history entries
+         * @param historyBytes the estimated memory use of the history in bytes
          */
-        UndoRedoState(boolean hasUndo, boolean hasRedo) {
+        UndoRedoState(boolean hasUndo, boolean hasRedo, int historySize, long historyBytes) {
 
             m_hasUndo = hasUndo;
             m_hasRedo = hasRedo;
+            m_historySize = historySize;
+            m_historyBytes = historyBytes;
+        }
+
+        /**
+         * Returns the estimated memory use of the undo and redo history in bytes.<p>
+         * 
+         * @return the estimated memory use
+         */
+        public long getHistoryBytes() {
+
+            return m_historyBytes;
+        }
+
+        /**
+         * Returns the number of entries in the undo and redo history.<p>
+         * 
+         * @return the number of history entries
+         */
+        public int getHistorySize() {
+
+            return m_historySize;
         }
 
         /**
@@ -103,42 +139,307 @@ public class UndoRedoHandler implements HasValueChangeHandlers<UndoRedoState> {
         }
     }
 
+    /**
+     * The state of a single attribute, used to describe attribute level changes.<p>
+     * 
+     * Nested entity values are kept as persistent snapshots, so unchanged values are shared with the editor state.<p>
+     */
+    private static class AttributeState {
+
+        /** The nested entity values. */
+        private List<PersistentEntity> m_entityValues;
+
+        /** The estimated memory use of the data not shared with other states. */
+        private long m_estimatedSize;
+
+        /** The simple values. */
+        private List<String> m_simpleValues;
+
+        /**
+         * Constructor.<p>
+         * 
+         * @param simpleValues the simple values
+         * @param entityValues the nested entity values
+         */
+        AttributeState(List<String> simpleValues, List<PersistentEntity> entityValues) {
+
+            m_simpleValues = simpleValues;
+            m_entityValues = entityValues;
+            m_estimatedSize = ENTRY_SIZE;
+            if (simpleValues != null) {
+                for (String value : simpleValues) {
+                    m_estimatedSize += estimateSize(value);
+                }
+            } else if (entityValues != null) {
+                m_estimatedSize += entityValues.size() * REFERENCE_SIZE;
+            }
+        }
+
+        /**
+         * Reads the attribute state from the editor state.<p>
+         * 
+         * @param attribute the attribute of the editor state, may be <code>null</code>
+         * 
+         * @return the attribute state
+         */
+        static AttributeState fromState(I_EntityAttribute attribute) {
+
+            if (attribute == null) {
+                return new AttributeState(null, null);
+            }
+            if (attribute.isSimpleValue()) {
+                return new AttributeState(new ArrayList<String>(attribute.getSimpleValues()), null);
+            }
+            List<PersistentEntity> values = new ArrayList<PersistentEntity>();
+            for (I_Entity value : attribute.getComplexValues()) {
+                values.add(((PersistentEntity)value).snapshot());
+            }
+            return new AttributeState(null, values);
+        }
+
+        /**
+         * Reads the attribute state from the edited entity.<p>
+         * 
+         * Nested entities with an id already present in the previous state are not copied again, 
+         * except the value at the given index, which may have been changed.<p>
+         * 
+         * @param attribute the attribute of the edited entity, may be <code>null</code>
+         * @param previous the previous attribute state
+         * @param changedIndex the index of the changed value or <code>-1</code>
+         * 
+         * @return the attribute state
+         */
+        static AttributeState fromEntity(I_EntityAttribute attribute, AttributeState previous, int changedIndex) {
+
+            if (attribute == null) {
+                return new AttributeState(null, null);
+            }
+            if (attribute.isSimpleValue()) {
+                return new AttributeState(new ArrayList<String>(attribute.getSimpleValues()), null);
+            }
+            Map<String, PersistentEntity> known = new HashMap<String, PersistentEntity>();
+            if (previous.m_entityValues != null) {
+                for (PersistentEntity value : previous.m_entityValues) {
+                    known.put(value.getId(), value);
+                }
+            }
+            List<PersistentEntity> values = new ArrayList<PersistentEntity>();
+            List<I_Entity> complexValues = attribute.getComplexValues();
+            long copiedSize = 0;
+            for (int i = 0; i < complexValues.size(); i++) {
+                I_Entity value = complexValues.get(i);
+                PersistentEntity knownValue = known.get(value.getId());
+                if ((knownValue != null) && (i != changedIndex)) {
+                    values.add(knownValue);
+                } else {
+                    values.add(PersistentEntity.create(value));
+                    copiedSize += estimateSize(value);
+                }
+            }
+            AttributeState result = new AttributeState(null, values);
+            result.m_estimatedSize += copiedSize;
+            return result;
+        }
+
+        /**
+         * Returns the attribute values, nested entity snapshots or simple values.<p>
+         * 
+         * @return the values or <code>null</code> if the attribute is not set
+         */
+        List<?> getValues() {
+
+            return m_entityValues != null ? m_entityValues : m_simpleValues;
+        }
+
+        /**
+         * Applies this state to the given attribute of the given entity.<p>
+         * 
+         * @param entity the entity
+         * @param attributeName the attribute name
+         */
+        void apply(PersistentEntity entity, String attributeName) {
+
+            if (m_entityValues != null) {
+                entity.setEntityValues(attributeName, m_entityValues);
+            } else {
+                entity.setSimpleValues(attributeName, m_simpleValues);
+            }
+        }
+
+        /**
+         * Returns if this state equals the given state.<p>
+         * 
+         * @param other the other state
+         * 
+         * @return <code>true</code> if the states are equal
+         */
+        boolean isEqual(AttributeState other) {
+
+            if (m_entityValues != null) {
+                return m_entityValues.equals(other.m_entityValues);
+            }
+            if (m_simpleValues != null) {
+                return m_simpleValues.equals(other.m_simpleValues);
+            }
+            return (other.m_simpleValues == null) && (other.m_entityValues == null);
+        }
+    }
+
     /**
      * Representing a change stack entry.<p>
+     * 
+     * A change either describes a simple value change, the insertion or removal of a single simple value, 
+     * a change of a whole attribute, or a full state transition in case the changed entity could not be resolved.<p>
      */
     private class Change {
 
+        /** The state after the change, set for full state transitions and checkpoints. */
+        private PersistentEntity m_after;
+
         /** The attribute name. */
         private String m_attributeName;
 
-        /** The entity data. */
-        private Entity m_entityData;
+        /** The state before the change, only set for full state transitions. */
+        private PersistentEntity m_before;
 
         /** The entity id. */
         private String m_entityId;
 
+        /** The estimated memory use of this change in bytes. */
+        private long m_estimatedSize;
+
+        /** Indicates a single simple value is inserted or removed at the value index. */
+        private boolean m_insertOrRemove;
+
+        /** The new attribute state. */
+        private AttributeState m_newState;
+
+        /** The new simple value. */
+        private String m_newValue;
+
+        /** The previous attribute state. */
+        private AttributeState m_oldState;
+
+        /** The previous simple value. */
+        private String m_oldValue;
+
+        /** The time the change was last updated. */
+        private long m_timestamp;
+
         /** The change type. */
         private ChangeType m_type;
 
         /** The value index. */
         private int m_valueIndex;
 
+        /**
+         * Constructor for attribute changes.<p>
+         * 
+         * @param entityId the entity id
+         * @param attributeName the attribute name
+         * @param valueIndex the value index
+         * @param type the change type
+         * @param oldState the previous attribute state
+         * @param newState the new attribute state
+         */
+        Change(
+            String entityId,
+            String attributeName,
+            int valueIndex,
+            ChangeType type,
+            AttributeState oldState,
+            AttributeState newState) {
+
+            this(entityId, attributeName, valueIndex, type);
+            m_oldState = oldState;
+            m_newState = newState;
+            m_estimatedSize += oldState.m_estimatedSize + newState.m_estimatedSize;
+        }
+
+        /**
+         * Constructor for full state transitions.<p>
+         * 
+         * @param entityId the entity id
+         * @param attributeName the attribute name
+         * @param valueIndex the value index
+         * @param type the change type
+         * @param before the state before the change
+         * @param after the state after the change
+         */
+        Change(
+            String entityId,
+            String attributeName,
+            int valueIndex,
+            ChangeType type,
+            PersistentEntity before,
+            PersistentEntity after) {
+
+            this(entityId, attributeName, valueIndex, type);
+            m_before = before;
+            m_after = after;
+            m_estimatedSize += estimateSize(after);
+        }
+
+        /**
+         * Constructor for inserting or removing a single simple value.<p>
+         * 
+         * The value missing on one side of the change is <code>null</code>.<p>
+         * 
+         * @param entityId the entity id
+         * @param attributeName the attribute name
+         * @param valueIndex the index of the inserted or removed value
+         * @param type the change type
+         * @param oldValue the removed value or <code>null</code>
+         * @param newValue the inserted value or <code>null</code>
+         */
+        Change(
+            String entityId,
+            String attributeName,
+            int valueIndex,
+            ChangeType type,
+            String oldValue,
+            String newValue) {
+
+            this(entityId, attributeName, valueIndex, type);
+            m_oldValue = oldValue;
+            m_newValue = newValue;
+            m_insertOrRemove = true;
+            m_estimatedSize += estimateSize(oldValue) + estimateSize(newValue);
+        }
+
+        /**
+         * Constructor for simple value changes.<p>
+         * 
+         * @param entityId the entity id
+         * @param attributeName the attribute name
+         * @param valueIndex the value index
+         * @param oldValue the previous value
+         * @param newValue the new value
+         */
+        Change(String entityId, String attributeName, int valueIndex, String oldValue, String newValue) {
+
+            this(entityId, attributeName, valueIndex, ChangeType.value);
+            m_oldValue = oldValue;
+            m_newValue = newValue;
+            m_estimatedSize += estimateSize(oldValue) + estimateSize(newValue);
+        }
+
         /**
          * Constructor.<p>
          * 
-         * @param entityData the chane entity data
          * @param entityId the entity id
          * @param attributeName the attribute name
          * @param valueIndex the value index
          * @param type the change type
          */
-        Change(Entity entityData, String entityId, String attributeName, int valueIndex, ChangeType type) {
+        private Change(String entityId, String attributeName, int valueIndex, ChangeType type) {
 
             m_entityId = entityId;
             m_attributeName = attributeName;
             m_valueIndex = valueIndex;
             m_type = type;
-            m_entityData = entityData;
+            m_estimatedSize = ENTRY_SIZE;
+            m_timestamp = System.currentTimeMillis();
         }
 
         /**
@@ -152,13 +453,25 @@ public class UndoRedoHandler implements HasValueChangeHandlers<UndoRedoState> {
         }
 
         /**
-         * Returns the change entity data.<p>
+         * Returns the attribute state before or after this change, only available for attribute changes.<p>
+         * 
+         * @param after <code>true</code> to get the state after the change
+         * 
+         * @return the attribute state or <code>null</code>
+         */
+        public AttributeState getAttributeState(boolean after) {
+
+            return after ? m_newState : m_oldState;
+        }
+
+        /**
+         * Returns the checkpoint state after this change, if available.<p>
          * 
-         * @return the change entity data
+         * @return the state after this change or <code>null</code>
          */
-        public Entity getEntityData() {
+        public PersistentEntity getCheckpoint() {
 
-            return m_entityData;
+            return m_after;
         }
 
         /**
@@ -171,6 +484,30 @@ public class UndoRedoHandler implements HasValueChangeHandlers<UndoRedoState> {
             return m_entityId;
         }
 
+        /**
+         * Returns the estimated memory use of this change in bytes.<p>
+         * 
+         * @return the estimated memory use
+         */
+        public long getEstimatedSize() {
+
+            return m_estimatedSize;
+        }
+
+        /**
+         * Returns the simple value of this change.<p>
+         * 
+         * For insertions and removals, this is <code>null</code> on the side the value is missing.<p>
+         * 
+         * @param undo <code>true</code> to get the value before the change
+         * 
+         * @return the value
+         */
+        public String getSimpleValue(boolean undo) {
+
+            return undo ? m_oldValue : m_newValue;
+        }
+
         /**
          * The change type.<p>
          * 
@@ -190,13 +527,142 @@ public class UndoRedoHandler implements HasValueChangeHandlers<UndoRedoState> {
 
             return m_valueIndex;
         }
+
+        /**
+         * Returns the time this change was last updated.<p>
+         * 
+         * @return the time stamp
+         */
+        public long getTimestamp() {
+
+            return m_timestamp;
+        }
+
+        /**
+         * Returns if the given change may be merged into this change.<p>
+         * 
+         * That is the case for simple value changes of the same value within the coalescing interval.<p>
+         * 
+         * @param change the following change
+         * @param interval the coalescing interval in milliseconds
+         * 
+         * @return <code>true</code> if the given change may be merged into this change
+         */
+        public boolean canCoalesce(Change change, int interval) {
+
+            return isSimpleValueChange()
+                && change.isSimpleValueChange()
+                && (m_after == null)
+                && m_entityId.equals(change.m_entityId)
+                && m_attributeName.equals(change.m_attributeName)
+                && (m_valueIndex == change.m_valueIndex)
+                && ((change.m_timestamp - m_timestamp) <= interval);
+        }
+
+        /**
+         * Returns if this change inserts or removes a single simple value.<p>
+         * 
+         * @return <code>true</code> if this change inserts or removes a single simple value
+         */
+        public boolean isInsertOrRemove() {
+
+            return m_insertOrRemove;
+        }
+
+        /**
+         * Returns if this change is a simple value change.<p>
+         * 
+         * @return <code>true</code> if this change is a simple value change
+         */
+        public boolean isSimpleValueChange() {
+
+            return (m_before == null) && (m_oldState == null) && !m_insertOrRemove;
+        }
+
+        /**
+         * Applies this change or its inverse to the given editor state.<p>
+         * 
+         * @param state the editor state
+         * @param undo <code>true</code> to apply the inverse change
+         * 
+         * @return the resulting editor state
+         */
+        PersistentEntity apply(PersistentEntity state, boolean undo) {
+
+            if (m_before != null) {
+                return undo ? m_before.snapshot() : m_after.snapshot();
+            }
+            PersistentEntity entity = state.getEntityById(m_entityId);
+            if (entity == null) {
+                throw new IllegalStateException("Entity " + m_entityId + " not found in the undo state.");
+            }
+            if (isSimpleValueChange()) {
+                entity.setAttributeValue(m_attributeName, getSimpleValue(undo), m_valueIndex);
+            } else if (m_insertOrRemove) {
+                String value = getSimpleValue(undo);
+                if (value != null) {
+                    entity.insertAttributeValue(m_attributeName, value, m_valueIndex);
+                } else {
+                    entity.removeAttributeValue(m_attributeName, m_valueIndex);
+                }
+            } else {
+                (undo ? m_oldState : m_newState).apply(entity, m_attributeName);
+            }
+            return state;
+        }
+
+        /**
+         * Merges the given following change into this change.<p>
+         * 
+         * @param change the following change
+         */
+        void coalesce(Change change) {
+
+            m_estimatedSize += estimateSize(change.m_newValue) - estimateSize(m_newValue);
+            m_newValue = change.m_newValue;
+            m_timestamp = change.m_timestamp;
+        }
+
+        /**
+         * Stores the given state as checkpoint after this change.<p>
+         * 
+         * @param checkpoint the checkpoint state
+         */
+        void setCheckpoint(PersistentEntity checkpoint) {
+
+            m_after = checkpoint;
+        }
     }
 
+    /** The number of changes after which a checkpoint of the complete state is stored. */
+    private static final int CHECKPOINT_INTERVAL = 50;
+
+    /** The default interval in milliseconds within which value changes are merged. */
+    private static final int DEFAULT_COALESCING_INTERVAL = 1000;
+
+    /** The default maximum estimated memory use of the history in bytes. */
+    private static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+    /** The default maximum number of history entries. */
+    private static final int DEFAULT_MAX_ENTRIES = 500;
+
+    /** The estimated memory overhead of a history entry. */
+    static final long ENTRY_SIZE = 64;
+
+    /** The estimated memory use of an object reference. */
+    static final long REFERENCE_SIZE = 8;
+
     /** The static instance. */
     private static UndoRedoHandler INSTANCE;
 
-    /** The current data state. */
-    private Change m_current;
+    /** Flag indicating a change is applied to the form, changes reported meanwhile are ignored. */
+    private boolean m_applyingChange;
+
+    /** The number of recorded changes, used to place checkpoints. */
+    private int m_changeCount;
+
+    /** The interval in milliseconds within which value changes are merged. */
+    private int m_coalescingInterval;
 
     /** The editor instance. */
     private EditorBase m_editor;
@@ -207,12 +673,27 @@ public class UndoRedoHandler implements HasValueChangeHandlers<UndoRedoState> {
     /** The event bus. */
     private SimpleEventBus m_eventBus;
 
+    /** The estimated memory use of the history in bytes. */
+    private long m_historyBytes;
+
+    /** The state before the oldest change in the undo stack. */
+    private PersistentEntity m_initialState;
+
+    /** The maximum estimated memory use of the history in bytes. */
+    private long m_maxBytes;
+
+    /** The maximum number of history entries. */
+    private int m_maxEntries;
+
     /** The redo stack. */
     private Stack<Change> m_redo;
 
     /** The root attribute handler. */
     private RootHandler m_rootHandler;
 
+    /** The current editor state. */
+    private PersistentEntity m_state;
+
     /** The undo stack. */
     private Stack<Change> m_undo;
 
@@ -223,6 +704,9 @@ public class UndoRedoHandler implements HasValueChangeHandlers<UndoRedoState> {
 
         m_undo = new Stack<Change>();
         m_redo = new Stack<Change>();
+        m_maxEntries = DEFAULT_MAX_ENTRIES;
+        m_maxBytes = DEFAULT_MAX_BYTES;
+        m_coalescingInterval = DEFAULT_COALESCING_INTERVAL;
     }
 
     /**
@@ -248,11 +732,28 @@ public class UndoRedoHandler implements HasValueChangeHandlers<UndoRedoState> {
      */
     public void addChange(String valuePath, String attributeName, int valueIndex, ChangeType changeType) {
 
-        Entity currentData = Entity.serializeEntity(m_entity);
-        if (!currentData.equals(m_current.getEntityData())) {
-            m_undo.push(m_current);
-            m_current = new Change(currentData, valuePath, attributeName, valueIndex, changeType);
-            m_redo.clear();
+        if (m_applyingChange) {
+            // the change is caused by undo or redo and already part of the recorded state
+            return;
+        }
+        Change change = createChange(valuePath, attributeName, valueIndex, changeType);
+        if (change != null) {
+            boolean hadRedo = hasRedo();
+            clearRedo();
+            if (!hadRedo && !m_undo.isEmpty() && m_undo.peek().canCoalesce(change, m_coalescingInterval)) {
+                Change previous = m_undo.peek();
+                m_historyBytes -= previous.getEstimatedSize();
+                previous.coalesce(change);
+                m_historyBytes += previous.getEstimatedSize();
+            } else {
+                m_changeCount++;
+                if ((m_changeCount % CHECKPOINT_INTERVAL) == 0) {
+                    change.setCheckpoint(m_state.snapshot());
+                }
+                m_undo.push(change);
+                m_historyBytes += change.getEstimatedSize();
+                trimHistory();
+            }
             fireStateChange();
         }
     }
@@ -272,9 +773,12 @@ public class UndoRedoHandler implements HasValueChangeHandlers<UndoRedoState> {
 
         m_undo.clear();
         m_redo.clear();
+        m_historyBytes = 0;
         m_entity = null;
         m_editor = null;
         m_rootHandler = null;
+        m_state = null;
+        m_initialState = null;
     }
 
     /**
@@ -316,10 +820,13 @@ public class UndoRedoHandler implements HasValueChangeHandlers<UndoRedoState> {
 
         m_undo.clear();
         m_redo.clear();
+        m_historyBytes = 0;
         m_entity = entity;
         m_editor = editor;
         m_rootHandler = rootHandler;
-        m_current = new Change(Entity.serializeEntity(m_entity), null, null, 0, null);
+        m_changeCount = 0;
+        m_state = PersistentEntity.create(m_entity);
+        m_initialState = m_state.snapshot();
         fireStateChange();
     }
 
@@ -333,20 +840,46 @@ public class UndoRedoHandler implements HasValueChangeHandlers<UndoRedoState> {
         return m_entity != null;
     }
 
+    /**
+     * Sets the interval within which consecutive changes of the same simple value are merged into one history entry.<p>
+     * 
+     * @param interval the interval in milliseconds, use <code>0</code> to disable merging
+     */
+    public void setCoalescingInterval(int interval) {
+
+        m_coalescingInterval = interval;
+    }
+
+    /**
+     * Sets the history limits. The oldest changes are dropped once one of the limits is exceeded.<p>
+     * 
+     * @param maxEntries the maximum number of history entries
+     * @param maxBytes the maximum estimated memory use of the history in bytes
+     */
+    public void setHistoryLimits(int maxEntries, long maxBytes) {
+
+        m_maxEntries = maxEntries;
+        m_maxBytes = maxBytes;
+        if (isIntitalized()) {
+            trimHistory();
+            fireStateChange();
+        }
+    }
+
     /**
      * Re-applies the latest state in the redo stack.<p>
      */
     public void redo() {
 
         if (!m_redo.isEmpty()) {
-            m_undo.push(m_current);
-            m_current = m_redo.pop();
-            changeEntityContentValues(
-                m_current.getEntityData(),
-                m_current.getEntityId(),
-                m_current.getAttributeName(),
-                m_current.getValueIndex(),
-                m_current.getType());
+            Change change = m_redo.pop();
+            if (change.getCheckpoint() != null) {
+                m_state = change.getCheckpoint().snapshot();
+            } else {
+                m_state = change.apply(m_state, false);
+            }
+            m_undo.push(change);
+            changeEntityContentValues(change, false);
             fireStateChange();
         }
     }
@@ -357,13 +890,16 @@ public class UndoRedoHandler implements HasValueChangeHandlers<UndoRedoState> {
     public void undo() {
 
         if (hasUndo()) {
-            ChangeType type = m_current.getType();
-            String entityId = m_current.getEntityId();
-            String attributeName = m_current.getAttributeName();
-            int valueIndex = m_current.getValueIndex();
-            m_redo.push(m_current);
-            m_current = m_undo.pop();
-            changeEntityContentValues(m_current.getEntityData(), entityId, attributeName, valueIndex, type);
+            Change change = m_undo.pop();
+            if (m_undo.isEmpty()) {
+                m_state = m_initialState.snapshot();
+            } else if (m_undo.peek().getCheckpoint() != null) {
+                m_state = m_undo.peek().getCheckpoint().snapshot();
+            } else {
+                m_state = change.apply(m_state, true);
+            }
+            m_redo.push(change);
+            changeEntityContentValues(change, true);
             fireStateChange();
         }
     }
@@ -382,36 +918,206 @@ public class UndoRedoHandler implements HasValueChangeHandlers<UndoRedoState> {
     }
 
     /**
-     * Sets the editor to the given state.<p>
+     * Sets the editor to the current state after undoing or redoing the given change.<p>
      * 
-     * @param newContent the state content
-     * @param entityId the value path elements
-     * @param attributeName the attribute name
-     * @param valueIndex the value index
-     * @param type the change type
+     * @param change the change
+     * @param undo <code>true</code> if the change was undone
      */
-    private void changeEntityContentValues(
-        Entity newContent,
-        String entityId,
-        String attributeName,
-        int valueIndex,
-        ChangeType type) {
+    private void changeEntityContentValues(Change change, boolean undo) {
 
-        switch (type) {
+        switch (change.getType()) {
             case value:
-                AttributeHandler handler = m_rootHandler.getHandlerById(entityId, attributeName);
-                Entity entity = newContent.getEntityById(entityId);
-                if ((entity != null) && (entity.getAttribute(attributeName) != null)) {
-                    String value = entity.getAttribute(attributeName).getSimpleValues().get(valueIndex);
-                    if ((handler != null) && handler.hasValueView(valueIndex) && (value != null)) {
-                        handler.changeValue(value, valueIndex);
+                if (change.isSimpleValueChange()) {
+                    AttributeHandler handler = m_rootHandler.getHandlerById(
+                        change.getEntityId(),
+                        change.getAttributeName());
+                    String value = change.getSimpleValue(undo);
+                    if ((handler != null) && handler.hasValueView(change.getValueIndex()) && (value != null)) {
+                        handler.changeValue(value, change.getValueIndex());
                         break;
                     }
                 }
                 //$FALL-THROUGH$
             default:
-                m_editor.rerenderForm(newContent);
+                if (!patchForm(change, undo)) {
+                    m_editor.rerenderForm(m_state.snapshot());
+                }
+        }
+    }
+
+    /**
+     * Estimates the memory use of the given entity in bytes.<p>
+     * 
+     * @param entity the entity
+     * 
+     * @return the estimated memory use
+     */
+    static long estimateSize(I_Entity entity) {
+
+        long result = ENTRY_SIZE;
+        for (I_EntityAttribute attribute : entity.getAttributes()) {
+            result += ENTRY_SIZE;
+            if (attribute.isSimpleValue()) {
+                for (String value : attribute.getSimpleValues()) {
+                    result += estimateSize(value);
+                }
+            } else {
+                for (I_Entity value : attribute.getComplexValues()) {
+                    result += estimateSize(value);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Estimates the memory use of the given string in bytes.<p>
+     * 
+     * @param value the string, may be <code>null</code>
+     * 
+     * @return the estimated memory use
+     */
+    static long estimateSize(String value) {
+
+        return value == null ? 0 : REFERENCE_SIZE + (2 * value.length());
+    }
+
+    /**
+     * Returns the index of the single value moved between the given lists.<p>
+     * 
+     * @param from the values before the move
+     * @param to the values after the move
+     * 
+     * @return the previous and the new position of the moved value, or <code>null</code> if the lists differ otherwise
+     */
+    static int[] findMovedValue(List<?> from, List<?> to) {
+
+        if (from.size() != to.size()) {
+            return null;
+        }
+        int first = 0;
+        while ((first < from.size()) && from.get(first).equals(to.get(first))) {
+            first++;
         }
+        if (first == from.size()) {
+            return null;
+        }
+        int last = from.size() - 1;
+        while (from.get(last).equals(to.get(last))) {
+            last--;
+        }
+        if (from.get(first).equals(to.get(last))
+            && from.subList(first + 1, last + 1).equals(to.subList(first, last))) {
+            // moved down
+            return new int[] {first, last};
+        }
+        if (from.get(last).equals(to.get(first))
+            && from.subList(first, last).equals(to.subList(first + 1, last + 1))) {
+            // moved up
+            return new int[] {last, first};
+        }
+        return null;
+    }
+
+    /**
+     * Returns the index of the single value removed from the first list to get the second list.<p>
+     * 
+     * @param from the values before the removal
+     * @param to the values after the removal
+     * 
+     * @return the index of the removed value or <code>-1</code> if the lists differ otherwise
+     */
+    static int findRemovedValue(List<?> from, List<?> to) {
+
+        if (from.size() != (to.size() + 1)) {
+            return -1;
+        }
+        int index = 0;
+        while ((index < to.size()) && from.get(index).equals(to.get(index))) {
+            index++;
+        }
+        return from.subList(index + 1, from.size()).equals(to.subList(index, to.size())) ? index : -1;
+    }
+
+    /**
+     * Clears the redo stack.<p>
+     */
+    private void clearRedo() {
+
+        for (Change change : m_redo) {
+            m_historyBytes -= change.getEstimatedSize();
+        }
+        m_redo.clear();
+    }
+
+    /**
+     * Records the given change in the editor state and returns the matching change stack entry.<p>
+     * 
+     * @param entityId the id of the changed entity
+     * @param attributeName the attribute name
+     * @param valueIndex the value index
+     * @param changeType the change type
+     * 
+     * @return the change entry or <code>null</code> if nothing has changed
+     */
+    private Change createChange(String entityId, String attributeName, int valueIndex, ChangeType changeType) {
+
+        I_Entity entity = m_entity.getId().equals(entityId) ? m_entity : Vie.getInstance().getEntity(entityId);
+        PersistentEntity stateEntity = m_state.getEntityById(entityId);
+        if ((entity == null) || (stateEntity == null)) {
+            // the changed entity is not part of the recorded state, compare the complete state
+            PersistentEntity before = m_state.snapshot();
+            m_state = PersistentEntity.create(m_entity);
+            PersistentEntity after = m_state.snapshot();
+            if (before.equals(after)) {
+                return null;
+            }
+            return new Change(entityId, attributeName, valueIndex, changeType, before, after);
+        }
+        I_EntityAttribute attribute = entity.getAttribute(attributeName);
+        I_EntityAttribute stateAttribute = stateEntity.getAttribute(attributeName);
+        if ((changeType == ChangeType.value)
+            && (attribute != null)
+            && attribute.isSimpleValue()
+            && (stateAttribute != null)
+            && stateAttribute.isSimpleValue()
+            && (attribute.getValueCount() == stateAttribute.getValueCount())
+            && (valueIndex < attribute.getValueCount())) {
+            String oldValue = stateAttribute.getSimpleValues().get(valueIndex);
+            String newValue = attribute.getSimpleValues().get(valueIndex);
+            if (newValue.equals(oldValue)) {
+                return null;
+            }
+            stateEntity.setAttributeValue(attributeName, newValue, valueIndex);
+            return new Change(entityId, attributeName, valueIndex, oldValue, newValue);
+        }
+        List<String> oldValues = getSimpleValues(stateAttribute);
+        List<String> newValues = getSimpleValues(attribute);
+        if ((oldValues != null) && (newValues != null)) {
+            // record a single inserted or removed value instead of copying the complete value list
+            int index = findRemovedValue(oldValues, newValues);
+            if (index > -1) {
+                String oldValue = oldValues.get(index);
+                stateEntity.removeAttributeValue(attributeName, index);
+                return new Change(entityId, attributeName, index, changeType, oldValue, null);
+            }
+            index = findRemovedValue(newValues, oldValues);
+            if (index > -1) {
+                String newValue = newValues.get(index);
+                stateEntity.insertAttributeValue(attributeName, newValue, index);
+                return new Change(entityId, attributeName, index, changeType, null, newValue);
+            }
+        }
+        AttributeState oldState = AttributeState.fromState(stateAttribute);
+        AttributeState newState = AttributeState.fromEntity(
+            attribute,
+            oldState,
+            changeType == ChangeType.value ? valueIndex : -1);
+        if (newState.isEqual(oldState)) {
+            return null;
+        }
+        newState.apply(stateEntity, attributeName);
+        return new Change(entityId, attributeName, valueIndex, changeType, oldState, newState);
     }
 
     /**
@@ -432,6 +1138,170 @@ public class UndoRedoHandler implements HasValueChangeHandlers<UndoRedoState> {
      */
     private void fireStateChange() {
 
-        ValueChangeEvent.fire(this, new UndoRedoState(hasUndo(), hasRedo()));
+        ValueChangeEvent.fire(this, new UndoRedoState(
+            hasUndo(),
+            hasRedo(),
+            m_undo.size() + m_redo.size(),
+            m_historyBytes));
+    }
+
+    /**
+     * Returns the attribute handler to patch the form for the given change.<p>
+     * 
+     * @param change the change
+     * 
+     * @return the attribute handler or <code>null</code> if the attribute values need to be re-rendered
+     */
+    private AttributeHandler getPatchHandler(Change change) {
+
+        AttributeHandler handler = m_rootHandler.getHandlerById(change.getEntityId(), change.getAttributeName());
+        if ((handler == null) || handler.isChoiceHandler() || handler.hasPlaceholder() || !handler.hasValueView(0)) {
+            return null;
+        }
+        return handler;
+    }
+
+    /**
+     * Returns the simple values of the given attribute.<p>
+     * 
+     * @param attribute the attribute, may be <code>null</code>
+     * 
+     * @return the simple values, an empty list for a missing attribute and <code>null</code> for nested entity values
+     */
+    private List<String> getSimpleValues(I_EntityAttribute attribute) {
+
+        if (attribute == null) {
+            return new ArrayList<String>();
+        }
+        return attribute.isSimpleValue() ? attribute.getSimpleValues() : null;
+    }
+
+    /**
+     * Returns the keys identifying the values of the given attribute state, the entity ids for nested entities.<p>
+     * 
+     * @param state the attribute state
+     * 
+     * @return the value keys
+     */
+    private List<?> getValueKeys(AttributeState state) {
+
+        if (state.m_entityValues == null) {
+            return state.m_simpleValues;
+        }
+        List<String> result = new ArrayList<String>();
+        for (PersistentEntity value : state.m_entityValues) {
+            result.add(value.getId());
+        }
+        return result;
+    }
+
+    /**
+     * Applies the given attribute change to the form by inserting, removing or moving a single value view.<p>
+     * 
+     * This keeps the widgets of all other values, instead of re-rendering the complete form.<p>
+     * 
+     * @param change the change
+     * @param undo <code>true</code> if the change was undone
+     * 
+     * @return <code>false</code> if the change can not be applied incrementally
+     */
+    private boolean patchForm(Change change, boolean undo) {
+
+        if (change.isInsertOrRemove()) {
+            return patchSimpleValue(change, undo);
+        }
+        AttributeState source = change.getAttributeState(undo);
+        AttributeState target = change.getAttributeState(!undo);
+        if ((source == null) || (source.getValues() == null) || (target.getValues() == null)) {
+            // full state transitions and adding or removing the attribute itself require re-rendering
+            return false;
+        }
+        AttributeHandler handler = getPatchHandler(change);
+        if (handler == null) {
+            return false;
+        }
+        List<?> from = getValueKeys(source);
+        List<?> to = getValueKeys(target);
+        m_applyingChange = true;
+        try {
+            int index = findRemovedValue(from, to);
+            if (index > -1) {
+                handler.removeAttributeValue(handler.getValueView(index));
+                return true;
+            }
+            index = findRemovedValue(to, from);
+            if (index > -1) {
+                Object value = target.getValues().get(index);
+                if (value instanceof PersistentEntity) {
+                    handler.insertEntityValue(Vie.getInstance().registerEntity((PersistentEntity)value), index);
+                } else {
+                    handler.insertSimpleValue((String)value, index);
+                }
+                return true;
+            }
+            int[] move = findMovedValue(from, to);
+            if (move != null) {
+                handler.moveAttributeValue(handler.getValueView(move[0]), move[0], move[1]);
+                return true;
+            }
+        } finally {
+            m_applyingChange = false;
+        }
+        return false;
+    }
+
+    /**
+     * Applies the given single simple value insertion or removal to the form by inserting or removing the value view.<p>
+     * 
+     * @param change the change
+     * @param undo <code>true</code> if the change was undone
+     * 
+     * @return <code>false</code> if the change can not be applied incrementally
+     */
+    private boolean patchSimpleValue(Change change, boolean undo) {
+
+        AttributeHandler handler = getPatchHandler(change);
+        if (handler == null) {
+            return false;
+        }
+        String value = change.getSimpleValue(undo);
+        if ((value == null)
+            && !m_state.getEntityById(change.getEntityId()).hasAttribute(change.getAttributeName())) {
+            // removing the attribute itself requires re-rendering
+            return false;
+        }
+        m_applyingChange = true;
+        try {
+            if (value != null) {
+                handler.insertSimpleValue(value, change.getValueIndex());
+            } else {
+                handler.removeAttributeValue(handler.getValueView(change.getValueIndex()));
+            }
+        } finally {
+            m_applyingChange = false;
+        }
+        return true;
+    }
+
+    /**
+     * Drops the oldest changes until the history limits are met.<p>
+     * 
+     * The dropped changes are applied to the initial state, so the remaining changes can still be undone.<p>
+     */
+    private void trimHistory() {
+
+        while (!m_redo.isEmpty()
+            && (((m_undo.size() + m_redo.size()) > m_maxEntries) || (m_historyBytes > m_maxBytes))) {
+            m_historyBytes -= m_redo.remove(0).getEstimatedSize();
+        }
+        while ((m_undo.size() > 1) && ((m_undo.size() > m_maxEntries) || (m_historyBytes > m_maxBytes))) {
+            Change oldest = m_undo.remove(0);
+            m_historyBytes -= oldest.getEstimatedSize();
+            if (oldest.getCheckpoint() != null) {
+                m_initialState = oldest.getCheckpoint().snapshot();
+            } else {
+                m_initialState = oldest.apply(m_initialState.snapshot(), false).snapshot();
+            }
+        }
     }
 }
@@ -24,17 +24,31 @@
 
 package com.alkacon.acacia.client;
 
+import com.alkacon.acacia.shared.AttributeConfiguration;
+import com.alkacon.acacia.shared.AttributePath;
 import com.alkacon.acacia.shared.ContentDefinition;
 import com.alkacon.acacia.shared.Entity;
+import com.alkacon.acacia.shared.EntityPatch;
+import com.alkacon.acacia.shared.EntityValidator;
 import com.alkacon.acacia.shared.ValidationResult;
+import com.alkacon.acacia.shared.VersionConflictException;
 import com.alkacon.acacia.shared.rpc.I_ContentServiceAsync;
 import com.alkacon.geranium.client.ui.TabbedPanel;
 import com.alkacon.vie.shared.I_Entity;
+import com.alkacon.vie.shared.I_Type;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
+import com.google.gwt.core.client.Duration;
 import com.google.gwt.event.logical.shared.HasValueChangeHandlers;
+import com.google.gwt.event.logical.shared.SelectionEvent;
+import com.google.gwt.event.logical.shared.SelectionHandler;
 import com.google.gwt.event.logical.shared.ValueChangeEvent;
 import com.google.gwt.event.logical.shared.ValueChangeHandler;
 import com.google.gwt.event.shared.EventHandler;
@@ -49,44 +63,24 @@ import com.google.gwt.user.client.rpc.AsyncCallback;
  */
 public final class ValidationHandler implements ValueChangeHandler<I_Entity>, HasValueChangeHandlers<ValidationContext> {
 
-    /**
-     * The validation timer.<p>
-     */
-    protected class ValidationTimer extends Timer {
-
-        /** The entity to validate. */
-        private I_Entity m_entity;
-
-        /**
-         * Constructor.<p>
-         * 
-         * @param entity the entity to validate
-         */
-        protected ValidationTimer(I_Entity entity) {
-
-            m_entity = entity;
-        }
+    /** The default maximum delay between the last change and the validation in milliseconds. */
+    public static final int DEFAULT_MAX_DELAY = 2000;
 
-        /**
-         * @see com.google.gwt.user.client.Timer#run()
-         */
-        @Override
-        public void run() {
-
-            validate(m_entity);
-            m_validationTimer = null;
-        }
-    }
+    /** The default minimum delay between the last change and the validation in milliseconds. */
+    public static final int DEFAULT_MIN_DELAY = 300;
 
     /** Flag indicating the a validation call is running. */
     boolean m_validating;
 
-    /** The current validation timer instance. */
-    Timer m_validationTimer;
+    /** The average round trip time of the validation requests in milliseconds. */
+    private double m_averageRoundTrip;
 
     /** The content service use for validation. */
     private I_ContentServiceAsync m_contentService;
 
+    /** The entities changed since the last validation request by entity id. */
+    private Map<String, I_Entity> m_dirtyEntities;
+
     /** The event bus. */
     private SimpleEventBus m_eventBus;
 
@@ -96,15 +90,81 @@ public final class ValidationHandler implements ValueChangeHandler<I_Entity>, Ha
     /** The handler registration. */
     private HandlerRegistration m_handlerRegistration;
 
+    /** Flag indicating only the changes since the last validation should be sent. */
+    private boolean m_incremental;
+
+    /** The id of the entity the last validation result belongs to. */
+    private String m_lastEntityId;
+
+    /** The last validation result, displayed again when tabs get rendered. */
+    private ValidationResult m_lastResult;
+
+    /** The validator evaluating the schema constraints on the client. */
+    private EntityValidator m_localValidator;
+
+    /** The maximum delay between the last change and the validation in milliseconds. */
+    private int m_maxDelay;
+
+    /** The minimum delay between the last change and the validation in milliseconds. */
+    private int m_minDelay;
+
     /** Indicates validation is paused. */
     private boolean m_paused;
 
     /** The root attribute handler. */
     private RootHandler m_rootHandler;
 
+    /** The sequence number of the last validation request, responses to other requests are dropped. */
+    private int m_sequence;
+
+    /** The tab selection handler registration. */
+    private HandlerRegistration m_tabSelectionRegistration;
+
     /** The validation context. */
     private ValidationContext m_validationContext;
 
+    /** The timer triggering the validation after the last change. */
+    private Timer m_validationTimer;
+
+    /**
+     * Constructor.<p>
+     */
+    public ValidationHandler() {
+
+        m_dirtyEntities = new LinkedHashMap<String, I_Entity>();
+        m_minDelay = DEFAULT_MIN_DELAY;
+        m_maxDelay = DEFAULT_MAX_DELAY;
+        m_validationTimer = new Timer() {
+
+            /**
+             * @see com.google.gwt.user.client.Timer#run()
+             */
+            @Override
+            public void run() {
+
+                validateDirtyEntities();
+            }
+        };
+    }
+
+    /**
+     * Adds types and attribute configurations to evaluate on the client.<p>
+     * 
+     * Entities violating the schema constraints are not sent to the server, 
+     * neither are entities without rules only the server can evaluate.<p>
+     * 
+     * @param types the types by type name
+     * @param configurations the attribute configurations by attribute name
+     */
+    public void addLocalValidationSchema(Map<String, I_Type> types, Map<String, AttributeConfiguration> configurations) {
+
+        if (m_localValidator == null) {
+            m_localValidator = new EntityValidator(types, configurations);
+        } else {
+            m_localValidator.addSchema(types, configurations);
+        }
+    }
+
     /**
      * @see com.google.gwt.event.logical.shared.HasValueChangeHandlers#addValueChangeHandler(com.google.gwt.event.logical.shared.ValueChangeHandler)
      */
@@ -118,10 +178,16 @@ public final class ValidationHandler implements ValueChangeHandler<I_Entity>, Ha
      */
     public void destroy() {
 
+        cancelValidation();
+        m_dirtyEntities.clear();
         if (m_handlerRegistration != null) {
             m_handlerRegistration.removeHandler();
             m_handlerRegistration = null;
         }
+        if (m_tabSelectionRegistration != null) {
+            m_tabSelectionRegistration.removeHandler();
+            m_tabSelectionRegistration = null;
+        }
     }
 
     /**
@@ -132,44 +198,15 @@ public final class ValidationHandler implements ValueChangeHandler<I_Entity>, Ha
      */
     public void displayValidation(String entityId, ValidationResult validationResult) {
 
-        if (m_formTabPanel != null) {
-            AttributeHandler.clearErrorStyles(m_formTabPanel);
-        }
-        if (validationResult.hasWarnings(entityId)) {
-            for (Entry<String[], String> warning : validationResult.getWarnings(entityId).entrySet()) {
-                String[] pathElements = warning.getKey();
-                // check if there are no errors for this attribute
-                if (!validationResult.hasErrors(entityId)
-                    || !validationResult.getErrors(entityId).containsKey(pathElements)) {
-                    AttributeHandler handler = m_rootHandler.getHandlerByPath(pathElements);
-                    if (handler != null) {
-                        String attributeName = pathElements[pathElements.length - 1];
-                        handler.setWarningMessage(
-                            ContentDefinition.extractIndex(attributeName),
-                            warning.getValue(),
-                            m_formTabPanel);
-                    }
-                }
-            }
-        }
+        m_lastEntityId = entityId;
+        m_lastResult = validationResult;
+        showValidationMessages(entityId, validationResult);
         if (validationResult.hasErrors(entityId)) {
-            for (Entry<String[], String> error : validationResult.getErrors(entityId).entrySet()) {
-                String[] pathElements = error.getKey();
-                AttributeHandler handler = m_rootHandler.getHandlerByPath(pathElements);
-                if (handler != null) {
-                    String attributeName = pathElements[pathElements.length - 1];
-                    handler.setErrorMessage(
-                        ContentDefinition.extractIndex(attributeName),
-                        error.getValue(),
-                        m_formTabPanel);
-                }
-            }
             m_validationContext.addInvalidEntity(entityId);
         } else {
             m_validationContext.addValidEntity(entityId);
         }
         ValueChangeEvent.fire(this, m_validationContext);
-        m_validating = false;
     }
 
     /**
@@ -185,12 +222,10 @@ public final class ValidationHandler implements ValueChangeHandler<I_Entity>, Ha
      */
     public void onValueChange(final ValueChangeEvent<I_Entity> event) {
 
+        I_Entity entity = event.getValue();
+        m_dirtyEntities.put(entity.getId(), entity);
         if (!m_paused) {
-            if (m_validationTimer != null) {
-                m_validationTimer.cancel();
-            }
-            m_validationTimer = new ValidationTimer(event.getValue());
-            m_validationTimer.schedule(300);
+            scheduleValidation();
         }
     }
 
@@ -225,6 +260,21 @@ public final class ValidationHandler implements ValueChangeHandler<I_Entity>, Ha
         m_contentService = contentService;
     }
 
+    /**
+     * Sets the delay between the last change and the validation.<p>
+     * 
+     * Within these bounds, the delay adapts to the average round trip time of the validation requests, 
+     * so slow validations are not triggered more often than they can be answered.<p>
+     * 
+     * @param minDelay the minimum delay in milliseconds
+     * @param maxDelay the maximum delay in milliseconds
+     */
+    public void setDelay(int minDelay, int maxDelay) {
+
+        m_minDelay = minDelay;
+        m_maxDelay = Math.max(minDelay, maxDelay);
+    }
+
     /**
      * Sets the form tabbed panel.<p>
      * 
@@ -232,7 +282,33 @@ public final class ValidationHandler implements ValueChangeHandler<I_Entity>, Ha
      */
     public void setFormTabPanel(TabbedPanel<?> tabPanel) {
 
+        if (m_tabSelectionRegistration != null) {
+            m_tabSelectionRegistration.removeHandler();
+            m_tabSelectionRegistration = null;
+        }
         m_formTabPanel = tabPanel;
+        if (m_formTabPanel != null) {
+            // tabs are rendered on first selection, display the messages for the newly rendered attributes
+            m_tabSelectionRegistration = m_formTabPanel.addSelectionHandler(new SelectionHandler<Integer>() {
+
+                public void onSelection(SelectionEvent<Integer> event) {
+
+                    if ((m_lastResult != null) && (m_rootHandler != null)) {
+                        showValidationMessages(m_lastEntityId, m_lastResult);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Sets if only the changes since the last validation should be sent to the server.<p>
+     * 
+     * @param incremental <code>true</code> to enable incremental validation
+     */
+    public void setIncrementalValidation(boolean incremental) {
+
+        m_incremental = incremental;
     }
 
     /**
@@ -246,15 +322,11 @@ public final class ValidationHandler implements ValueChangeHandler<I_Entity>, Ha
         if (paused != m_paused) {
             m_paused = paused;
             if (m_paused) {
-                if (m_validationTimer != null) {
-                    m_validationTimer.cancel();
-                    m_validationTimer = null;
-                }
+                cancelValidation();
             } else {
-                m_validationTimer = new ValidationTimer(entity);
-                m_validationTimer.schedule(300);
+                m_dirtyEntities.put(entity.getId(), entity);
+                scheduleValidation();
             }
-
         }
     }
 
@@ -282,31 +354,177 @@ public final class ValidationHandler implements ValueChangeHandler<I_Entity>, Ha
     }
 
     /**
-     * Validates the given entity.<p>
+     * Validates the given entity together with all other changed entities without further delay.<p>
+     * 
+     * In case a validation request is running, the entity is validated once it returns.<p>
      * 
      * @param entity the entity
      */
-    protected void validate(final I_Entity entity) {
+    protected void validate(I_Entity entity) {
 
-        if (!m_validating) {
-            m_validating = true;
-            m_contentService.validateEntities(
-                Collections.singletonList(Entity.serializeEntity(entity)),
-                new AsyncCallback<ValidationResult>() {
+        m_dirtyEntities.put(entity.getId(), entity);
+        m_validationTimer.cancel();
+        validateDirtyEntities();
+    }
 
-                    public void onFailure(Throwable caught) {
+    /**
+     * Handles the response to a validation request.<p>
+     * 
+     * Responses to requests started before the last cancellation are dropped, 
+     * as are the results of entities changed again while the request was running.
+     * Entities changed in the meantime are validated afterwards.<p>
+     * 
+     * @param sequence the request sequence number
+     * @param start the request start time
+     * @param entities the validated entities
+     * @param result the validation result, <code>null</code> if the request failed
+     */
+    void onValidated(int sequence, double start, List<I_Entity> entities, ValidationResult result) {
 
-                        // can be ignored
-                    }
+        if (sequence != m_sequence) {
+            return;
+        }
+        m_validating = false;
+        double roundTrip = Duration.currentTimeMillis() - start;
+        m_averageRoundTrip = m_averageRoundTrip == 0 ? roundTrip : ((m_averageRoundTrip * 3) + roundTrip) / 4;
+        if (result != null) {
+            for (I_Entity entity : entities) {
+                if (!m_dirtyEntities.containsKey(entity.getId())) {
+                    displayValidation(entity.getId(), result);
+                }
+            }
+        }
+        if (!m_paused && !m_dirtyEntities.isEmpty()) {
+            // trailing validation of the changes made while the request was running
+            scheduleValidation();
+        }
+    }
 
-                    public void onSuccess(ValidationResult result) {
+    /**
+     * Shows the validation messages within the form.<p>
+     * 
+     * @param entityId the entity id
+     * @param validationResult the validation result
+     */
+    void showValidationMessages(String entityId, ValidationResult validationResult) {
 
-                        displayValidation(entity.getId(), result);
-                    }
-                });
+        if (m_formTabPanel != null) {
+            AttributeHandler.clearErrorStyles(m_formTabPanel);
+        }
+        if (validationResult.hasWarnings(entityId)) {
+            for (Entry<AttributePath, String> warning : validationResult.getWarnings(entityId).entrySet()) {
+                AttributePath path = warning.getKey();
+                // check if there are no errors for this attribute
+                if (!validationResult.hasErrors(entityId) || !validationResult.getErrors(entityId).containsKey(path)) {
+                    showMessage(path, warning.getValue(), false);
+                }
+            }
+        }
+        if (validationResult.hasErrors(entityId)) {
+            for (Entry<AttributePath, String> error : validationResult.getErrors(entityId).entrySet()) {
+                showMessage(error.getKey(), error.getValue(), true);
+            }
         }
     }
 
+    /**
+     * Validates all changed entities with a single request.<p>
+     */
+    void validateDirtyEntities() {
+
+        if (m_paused || m_validating || m_dirtyEntities.isEmpty()) {
+            return;
+        }
+        final List<I_Entity> entities = new ArrayList<I_Entity>(m_dirtyEntities.values());
+        m_dirtyEntities.clear();
+        if (m_localValidator != null) {
+            Iterator<I_Entity> it = entities.iterator();
+            while (it.hasNext()) {
+                I_Entity entity = it.next();
+                ValidationResult result = m_localValidator.validate(entity);
+                if (result.hasErrors(entity.getId()) || !m_localValidator.isServerValidationRequired(entity.getTypeName())) {
+                    // the server is only consulted for entities passing the local checks and having server side rules
+                    displayValidation(entity.getId(), result);
+                    it.remove();
+                }
+            }
+            if (entities.isEmpty()) {
+                return;
+            }
+        }
+        m_validating = true;
+        m_sequence++;
+        final int sequence = m_sequence;
+        final double start = Duration.currentTimeMillis();
+        if (m_incremental) {
+            validatePatch(entities.get(0), sequence, start, entities);
+            return;
+        }
+        List<Entity> serialized = new ArrayList<Entity>(entities.size());
+        for (I_Entity entity : entities) {
+            serialized.add(Entity.serializeEntity(entity));
+        }
+        m_contentService.validateEntities(serialized, new AsyncCallback<ValidationResult>() {
+
+            public void onFailure(Throwable caught) {
+
+                // can be ignored
+                onValidated(sequence, start, entities, null);
+            }
+
+            public void onSuccess(ValidationResult result) {
+
+                onValidated(sequence, start, entities, result);
+            }
+        });
+    }
+
+    /**
+     * Validates the given entity by sending the changes since the last validation.<p>
+     * In case the server does not know the base version, the complete entity is sent.<p>
+     * 
+     * Patches only cover a single entity, so the entities of a batch are validated one after the other.<p>
+     * 
+     * @param entity the entity
+     * @param sequence the request sequence number
+     * @param start the request start time
+     * @param entities the entities of the batch, the given entity being the first not validated yet
+     */
+    void validatePatch(final I_Entity entity, final int sequence, final double start, final List<I_Entity> entities) {
+
+        final ChangeTracker tracker = ChangeTracker.getInstance();
+        final EntityPatch patch = tracker.createPatch(ChangeTracker.CONSUMER_VALIDATION, entity);
+        m_contentService.validateEntityPatch(patch, new AsyncCallback<ValidationResult>() {
+
+            public void onFailure(Throwable caught) {
+
+                tracker.onPatchFailed(ChangeTracker.CONSUMER_VALIDATION, entity.getId());
+                if ((caught instanceof VersionConflictException) && !patch.isComplete() && (sequence == m_sequence)) {
+                    // the server state does not match, send the complete entity
+                    validatePatch(entity, sequence, start, entities);
+                } else {
+                    // can be ignored
+                    onPatchValidated(entity, sequence, start, entities, null);
+                }
+            }
+
+            public void onSuccess(ValidationResult result) {
+
+                onPatchValidated(entity, sequence, start, entities, result);
+            }
+        });
+    }
+
+    /**
+     * Cancels the scheduled validation and drops the response of a running request.<p>
+     */
+    private void cancelValidation() {
+
+        m_validationTimer.cancel();
+        m_sequence++;
+        m_validating = false;
+    }
+
     /**
      * Lazy initializing the handler manager.<p>
      * 
@@ -319,4 +537,83 @@ public final class ValidationHandler implements ValueChangeHandler<I_Entity>, Ha
         }
         return m_eventBus;
     }
+
+    /**
+     * Handles the response to the validation of a single entity patch and continues with the next entity of the batch.<p>
+     * 
+     * @param entity the validated entity
+     * @param sequence the request sequence number
+     * @param start the request start time
+     * @param entities the entities of the batch
+     * @param result the validation result, <code>null</code> if the request failed
+     */
+    private void onPatchValidated(
+        I_Entity entity,
+        int sequence,
+        double start,
+        List<I_Entity> entities,
+        ValidationResult result) {
+
+        if (sequence != m_sequence) {
+            return;
+        }
+        if ((result != null) && !m_dirtyEntities.containsKey(entity.getId())) {
+            displayValidation(entity.getId(), result);
+        }
+        int index = entities.indexOf(entity) + 1;
+        if (index < entities.size()) {
+            validatePatch(entities.get(index), sequence, start, entities);
+        } else {
+            onValidated(sequence, start, Collections.<I_Entity> emptyList(), null);
+        }
+    }
+
+    /**
+     * Schedules the validation of the changed entities after the current delay.<p>
+     * 
+     * Further changes within the delay postpone the validation. While a request is running, 
+     * the validation is scheduled once the response arrives.<p>
+     */
+    private void scheduleValidation() {
+
+        if (!m_validating) {
+            int delay = Math.max(m_minDelay, Math.min(m_maxDelay, (int)m_averageRoundTrip));
+            m_validationTimer.schedule(delay);
+        }
+    }
+
+    /**
+     * Shows a validation message for the given attribute path.<p>
+     * 
+     * Attributes within tabs or values not rendered yet have no nested handlers,
+     * in this case the message is shown at the closest value view or tab representing them.<p>
+     * 
+     * @param path the attribute path
+     * @param message the message
+     * @param error <code>true</code> for error messages, <code>false</code> for warnings
+     */
+    private void showMessage(AttributePath path, String message, boolean error) {
+
+        AttributeHandler handler = m_rootHandler.getHandlerByPath(path);
+        int valueIndex = ContentDefinition.extractIndex(path.getLastElement());
+        for (int count = path.getElementCount() - 1; (handler == null) && (count > 0); count--) {
+            AttributeHandler ancestorHandler = m_rootHandler.getHandlerByPath(path.getPrefix(count));
+            if (ancestorHandler != null) {
+                int ancestorIndex = ContentDefinition.extractIndex(path.getElement(count - 1));
+                if (!ancestorHandler.hasPlaceholder() && !ancestorHandler.isValueDeferred(ancestorIndex)) {
+                    // the ancestor value is rendered, so there is no handler for the path
+                    break;
+                }
+                handler = ancestorHandler;
+                valueIndex = ancestorIndex;
+            }
+        }
+        if (handler != null) {
+            if (error) {
+                handler.setErrorMessage(valueIndex, message, m_formTabPanel);
+            } else {
+                handler.setWarningMessage(valueIndex, message, m_formTabPanel);
+            }
+        }
+    }
 }
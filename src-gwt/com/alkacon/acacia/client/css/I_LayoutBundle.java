@@ -273,6 +273,13 @@ public interface I_LayoutBundle extends com.alkacon.geranium.client.ui.css.I_Lay
           */
         String input();
 
+        /**
+         * Returns the loading placeholder CSS class name.<p>
+         * 
+         * @return the loading placeholder CSS class name
+         */
+        String loadingPlaceholder();
+
         /** 
          * Returns the move handle CSS class name.<p>
          * 
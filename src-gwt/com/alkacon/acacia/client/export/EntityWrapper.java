@@ -24,6 +24,7 @@
 
 package com.alkacon.acacia.client.export;
 
+import com.alkacon.acacia.client.ChangeTracker;
 import com.alkacon.vie.shared.I_Entity;
 
 import org.timepedia.exporter.client.Export;
@@ -66,6 +67,7 @@ public class EntityWrapper implements Exportable {
     public void addAttributeValueEntity(String attributeName, EntityWrapper value) {
 
         m_entity.addAttributeValue(attributeName, value.getEntity());
+        ChangeTracker.getInstance().markAttributeChanged(m_entity.getId(), attributeName);
     }
 
     /**
@@ -77,6 +79,7 @@ public class EntityWrapper implements Exportable {
     public void addAttributeValueString(String attributeName, String value) {
 
         m_entity.addAttributeValue(attributeName, value);
+        ChangeTracker.getInstance().markAttributeChanged(m_entity.getId(), attributeName);
     }
 
     /**
@@ -151,6 +154,7 @@ public class EntityWrapper implements Exportable {
     public void insertAttributeValueEntity(String attributeName, EntityWrapper value, int index) {
 
         m_entity.insertAttributeValue(attributeName, value.getEntity(), index);
+        ChangeTracker.getInstance().markAttributeChanged(m_entity.getId(), attributeName);
     }
 
     /**
@@ -163,6 +167,7 @@ public class EntityWrapper implements Exportable {
     public void insertAttributeValueString(String attributeName, String value, int index) {
 
         m_entity.insertAttributeValue(attributeName, value, index);
+        ChangeTracker.getInstance().markAttributeChanged(m_entity.getId(), attributeName);
     }
 
     /**
@@ -173,6 +178,7 @@ public class EntityWrapper implements Exportable {
     public void removeAttribute(String attributeName) {
 
         m_entity.removeAttribute(attributeName);
+        ChangeTracker.getInstance().markAttributeChanged(m_entity.getId(), attributeName);
     }
 
     /**
@@ -183,6 +189,7 @@ public class EntityWrapper implements Exportable {
     public void removeAttributeSilent(String attributeName) {
 
         m_entity.removeAttributeSilent(attributeName);
+        ChangeTracker.getInstance().markAttributeChanged(m_entity.getId(), attributeName);
     }
 
     /**
@@ -194,6 +201,7 @@ public class EntityWrapper implements Exportable {
     public void removeAttributeValue(String attributeName, int index) {
 
         m_entity.removeAttributeValue(attributeName, index);
+        ChangeTracker.getInstance().markAttributeChanged(m_entity.getId(), attributeName);
     }
 
     /**
@@ -205,17 +213,20 @@ public class EntityWrapper implements Exportable {
     public void setAttributeValueEntity(String attributeName, EntityWrapper value) {
 
         m_entity.setAttributeValue(attributeName, value.getEntity());
+        ChangeTracker.getInstance().markAttributeChanged(m_entity.getId(), attributeName);
     }
 
     /**
     public void setAttributeValueEntity(String attributeName, EntityWrapper value, int index) {
 
         m_entity.setAttributeValue(attributeName, value.getEntity(), index);
+        ChangeTracker.getInstance().markAttributeChanged(m_entity.getId(), attributeName);
     }
 
     public void setAttributeValueString(String attributeName, String value) {
 
         m_entity.setAttributeValue(attributeName, value);
+        ChangeTracker.getInstance().markAttributeChanged(m_entity.getId(), attributeName);
     }
 
     /**
@@ -228,6 +239,7 @@ public class EntityWrapper implements Exportable {
     public void setAttributeValueString(String attributeName, String value, int index) {
 
         m_entity.setAttributeValue(attributeName, value, index);
+        ChangeTracker.getInstance().markAttributeChanged(m_entity.getId(), attributeName);
     }
 
     /**
@@ -27,6 +27,7 @@ package com.alkacon.acacia.client.ui;
 import com.alkacon.acacia.client.AttributeHandler;
 import com.alkacon.acacia.client.ButtonBarHandler;
 import com.alkacon.acacia.client.ChoiceMenuEntryBean;
+import com.alkacon.acacia.client.DeferredValueHandler;
 import com.alkacon.acacia.client.EditorBase;
 import com.alkacon.acacia.client.I_EntityRenderer;
 import com.alkacon.acacia.client.I_WidgetService;
@@ -163,6 +164,9 @@ implements I_Draggable, I_HasResizeOnShow, HasMouseOverHandlers, HasMouseOutHand
     /** The wide compact view mode. */
     public static final int COMPACT_MODE_WIDE = 0;
 
+    /** The height of a value view with deferred content in pixel. */
+    public static final int DEFERRED_VALUE_HEIGHT = 30;
+
     /** The UI binder instance. */
     private static AttributeValueUiBinder uiBinder = GWT.create(AttributeValueUiBinder.class);
 
@@ -229,6 +233,9 @@ implements I_Draggable, I_HasResizeOnShow, HasMouseOverHandlers, HasMouseOutHand
     /** The default widget value. */
     private String m_defaultValue;
 
+    /** The command rendering the value content, set for values rendered only when visible. */
+    private ScheduledCommand m_deferredValue;
+
     /** Flag indicating if drag and drop is enabled for this attribute. */
     private boolean m_dragEnabled;
 
@@ -250,6 +257,9 @@ implements I_Draggable, I_HasResizeOnShow, HasMouseOverHandlers, HasMouseOutHand
     /** Flag indicating this is a representing an attribute choice value. */
     private boolean m_isChoice;
 
+    /** Flag indicating the value content is not rendered currently. */
+    private boolean m_isDeferred;
+
     /** Flag indicating that this view represents a simple value. */
     private boolean m_isSimpleValue;
 
@@ -468,6 +478,16 @@ implements I_Draggable, I_HasResizeOnShow, HasMouseOverHandlers, HasMouseOutHand
         m_buttonBar.getElement().getStyle().setDisplay(Display.NONE);
     }
 
+    /**
+     * Returns if the value content is not rendered currently.<p>
+     * 
+     * @return <code>true</code> if the value content is not rendered currently
+     */
+    public boolean isDeferred() {
+
+        return m_isDeferred;
+    }
+
     /**
      * Returns if drag and drop is enabled for this attribute.<p>
      * 
@@ -512,6 +532,29 @@ implements I_Draggable, I_HasResizeOnShow, HasMouseOverHandlers, HasMouseOutHand
         // nothing to do
     }
 
+    /**
+     * Releases the value widget of a simple value with deferred rendering to reduce the number of live widgets.<p>
+     * 
+     * The value widget will be rendered again from the current entity data once the view becomes visible.<p>
+     * 
+     * @return <code>true</code> if the value widget was released
+     */
+    public boolean releaseValue() {
+
+        if (m_isDeferred || !m_isSimpleValue || (m_deferredValue == null) || (m_widget == null)) {
+            return false;
+        }
+        // keep the current height to avoid scroll position jumps
+        int height = m_widgetHolder.getOffsetHeight();
+        m_widgetHolder.clear();
+        m_widget = null;
+        m_isDeferred = true;
+        if (height > 0) {
+            m_widgetHolder.getElement().getStyle().setHeight(height, Unit.PX);
+        }
+        return true;
+    }
+
     /**
      * Removes any present error message.<p>
      */
@@ -531,6 +574,7 @@ implements I_Draggable, I_HasResizeOnShow, HasMouseOverHandlers, HasMouseOutHand
      */
     public void removeValue() {
 
+        renderDeferredValue();
         if (!isSimpleValue()) {
             m_hasValue = false;
             m_widgetHolder.clear();
@@ -544,6 +588,20 @@ implements I_Draggable, I_HasResizeOnShow, HasMouseOverHandlers, HasMouseOutHand
         removeValidationMessage();
     }
 
+    /**
+     * Renders the value content if it has been deferred.<p>
+     */
+    public void renderDeferredValue() {
+
+        if (m_isDeferred) {
+            m_isDeferred = false;
+            m_widgetHolder.getElement().getStyle().clearHeight();
+            // the value is present in the entity, reset the flag to allow setting the value widget
+            m_hasValue = false;
+            m_deferredValue.execute();
+        }
+    }
+
     /**
     * @see com.alkacon.geranium.client.I_HasResizeOnShow#resizeOnShow()
     */
@@ -605,6 +663,26 @@ implements I_Draggable, I_HasResizeOnShow, HasMouseOverHandlers, HasMouseOutHand
         updateWidth();
     }
 
+    /**
+     * Sets the command rendering the value content, to be executed once the view becomes visible.<p>
+     * 
+     * @param renderCommand the command rendering the value content
+     * @param simpleValue <code>true</code> if the view represents a simple value
+     */
+    public void setDeferredValue(ScheduledCommand renderCommand, boolean simpleValue) {
+
+        if (m_hasValue) {
+            throw new RuntimeException("Value has already been set");
+        }
+        m_deferredValue = renderCommand;
+        m_isDeferred = true;
+        m_hasValue = true;
+        m_isSimpleValue = simpleValue;
+        m_widgetHolder.getElement().getStyle().setHeight(DEFERRED_VALUE_HEIGHT, Unit.PX);
+        removeStyleName(formCss().emptyValue());
+        DeferredValueHandler.getInstance().addView(this);
+    }
+
     /**
      * Shows a validation error message.<p>
      * 
@@ -215,6 +215,9 @@ public class InlineEntityWidget extends Composite {
     /** The reference DOM element, will be highlighted during editing. */
     private Element m_referenceElement;
 
+    /** Flag indicating attribute values have been added or removed since the last complete HTML update. */
+    private boolean m_requireFullUpdate;
+
     /** Flag indicating it is required to open the edit popup aftera HTML update. */
     private boolean m_requireShowPopup;
 
@@ -405,6 +408,7 @@ public class InlineEntityWidget extends Composite {
         m_attributeHandler.addNewAttributeValue(m_attributeIndex);
         m_requireShowPopup = true;
         m_attributeIndex += 1;
+        m_requireFullUpdate = true;
         runHtmlUpdate();
     }
 
@@ -488,6 +492,7 @@ public class InlineEntityWidget extends Composite {
     void onRemoveClick(ClickEvent event) {
 
         m_attributeHandler.removeAttributeValue(m_attributeIndex);
+        m_requireFullUpdate = true;
         runHtmlUpdate();
     }
 
@@ -536,13 +541,24 @@ public class InlineEntityWidget extends Composite {
             m_updateTimer.schedule(50);
         } else {
             m_runningUpdate = true;
-            m_htmlUpdateHandler.updateHtml(m_formParent, new Command() {
+            Command afterUpdate = new Command() {
 
                 public void execute() {
 
                     afterHtmlUpdate();
                 }
-            });
+            };
+            if (m_requireFullUpdate) {
+                m_requireFullUpdate = false;
+                m_htmlUpdateHandler.updateHtml(m_formParent, afterUpdate);
+            } else {
+                // only the value elements of the edited attribute have changed
+                m_htmlUpdateHandler.updateHtmlFragment(
+                    m_formParent,
+                    m_parentEntity,
+                    m_attributeHandler.getAttributeName(),
+                    afterUpdate);
+            }
         }
     }
 
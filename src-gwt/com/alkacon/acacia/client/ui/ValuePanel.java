@@ -35,6 +35,7 @@ import com.alkacon.geranium.client.util.DomUtil;
 import com.google.gwt.dom.client.Element;
 import com.google.gwt.user.client.ui.FlowPanel;
 import com.google.gwt.user.client.ui.Widget;
+import com.google.gwt.user.client.ui.WidgetCollection;
 
 /**
  * The attribute values panel.<p>
@@ -92,6 +93,29 @@ public class ValuePanel extends FlowPanel implements I_DropTarget, I_HasResizeOn
         repositionPlaceholder(x, y, orientation);
     }
 
+    /**
+     * Moves the given child widget to the target position without detaching it, 
+     * so widget state and editor instances are kept.<p>
+     * 
+     * @param widget the child widget to move
+     * @param targetIndex the target position
+     */
+    public void moveWidget(Widget widget, int targetIndex) {
+
+        WidgetCollection children = getChildren();
+        int currentIndex = children.indexOf(widget);
+        if ((currentIndex < 0) || (currentIndex == targetIndex)) {
+            return;
+        }
+        children.remove(currentIndex);
+        children.insert(widget, targetIndex);
+        if ((targetIndex + 1) < children.size()) {
+            getElement().insertBefore(widget.getElement(), children.get(targetIndex + 1).getElement());
+        } else {
+            getElement().appendChild(widget.getElement());
+        }
+    }
+
     /**
      * @see com.alkacon.geranium.client.dnd.I_DropTarget#onDrop(com.alkacon.geranium.client.dnd.I_Draggable)
      */
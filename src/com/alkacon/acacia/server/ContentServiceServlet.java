@@ -0,0 +1,824 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.server;
+
+import com.alkacon.acacia.shared.AttributePath;
+import com.alkacon.acacia.shared.ContentDefinition;
+import com.alkacon.acacia.shared.Entity;
+import com.alkacon.acacia.shared.EntityHtml;
+import com.alkacon.acacia.shared.EntityPatch;
+import com.alkacon.acacia.shared.EntityValidator;
+import com.alkacon.acacia.shared.ValidationResult;
+import com.alkacon.acacia.shared.VersionConflictException;
+import com.alkacon.acacia.shared.rpc.I_ContentService;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+
+import com.google.gwt.user.server.rpc.RemoteServiceServlet;
+
+/**
+ * Reference implementation of the content service, persisting the entities to an {@link I_EntityStore}.<p>
+ * 
+ * Saves use optimistic concurrency: entities sent with the base version they were loaded in are merged with concurrent 
+ * changes, see {@link EntityMerger}. Changes to the same attribute are returned as conflicts, the entity is not saved in this case.
+ * Saves hold no locks, the store replaces versions atomically. Only the patch validation and rendering of the same entity 
+ * are serialized. Batch saves are staged in an {@link EntityBatch} until complete. Entities are validated with the {@link EntityValidator} and the optional {@link ValidationPipeline}, 
+ * evaluating the validators of an {@link I_ValidatorProvider}. Override {@link #validate(Entity)} to add further rules.
+ * The HTML for the inline editing is rendered as plain RDFa annotated elements by the {@link EntityHtmlRenderer}, 
+ * override {@link #renderEntityHtml(Entity, String, String)} and 
+ * {@link #renderAttributeHtml(Entity, String, String, String, String)} to render the actual page content.<p>
+ * 
+ * When deployed through the web.xml, the servlet is configured by the init parameters 
+ * <code>schemaProvider</code>, the class name of the {@link I_SchemaProvider} implementation, 
+ * the optional <code>storeDirectory</code> and the optional <code>validatorProvider</code>, the class name of the 
+ * {@link I_ValidatorProvider} implementation. Without store directory the entities are kept in memory.<p>
+ */
+public class ContentServiceServlet extends RemoteServiceServlet implements I_ContentService {
+
+    /** The init parameter holding the class name of the schema provider. */
+    public static final String PARAM_SCHEMA_PROVIDER = "schemaProvider";
+
+    /** The init parameter holding the directory of the file entity store. */
+    public static final String PARAM_STORE_DIRECTORY = "storeDirectory";
+
+    /** The init parameter holding the class name of the validator provider. */
+    public static final String PARAM_VALIDATOR_PROVIDER = "validatorProvider";
+
+    /** The time in milliseconds after which incomplete batches are dropped. */
+    private static final long BATCH_TIMEOUT = 10 * 60 * 1000L;
+
+    /** The number of entity locks, requests for entities sharing a lock are serialized. */
+    private static final int LOCK_COUNT = 1024;
+
+    /** The maximum number of chunks of a batch. */
+    private static final int MAX_BATCH_CHUNKS = 1000;
+
+    /** The maximum number of incomplete batches. */
+    private static final int MAX_BATCHES = 256;
+
+    /** The maximum number of kept validated and rendered entity versions, the least recently used are dropped. */
+    private static final int MAX_KEPT_ENTITIES = 1024;
+
+    /** The serial version id. */
+    private static final long serialVersionUID = -3524651187245519802L;
+
+    /** The incomplete batches by batch id. */
+    private ConcurrentMap<String, EntityBatch> m_batches;
+
+    /** The entity locks. */
+    private ReentrantLock[] m_locks;
+
+    /** The last rendered entity versions by client session and entity id. */
+    private Map<String, StoredEntity> m_renderedEntities;
+
+    /** The schema provider. */
+    private I_SchemaProvider m_schemaProvider;
+
+    /** The entity store. */
+    private I_EntityStore m_store;
+
+    /** The last validated entity versions by client session and entity id. */
+    private Map<String, StoredEntity> m_validatedEntities;
+
+    /** The executor of the validation pipeline. */
+    private ExecutorService m_validationExecutor;
+
+    /** The validation pipeline evaluating the validators of the validator provider. */
+    private ValidationPipeline m_validationPipeline;
+
+    /** The validators of each thread by type name and schema version, the validators are not thread safe. */
+    private ThreadLocal<Map<String, EntityValidator>> m_validators;
+
+    /**
+     * Constructor used by the servlet container, the store and schema provider are configured by the init parameters.<p>
+     */
+    public ContentServiceServlet() {
+
+        m_locks = new ReentrantLock[LOCK_COUNT];
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            m_locks[i] = new ReentrantLock();
+        }
+        m_batches = new ConcurrentHashMap<String, EntityBatch>();
+        m_renderedEntities = createEntityCache();
+        m_validatedEntities = createEntityCache();
+        m_validators = new ThreadLocal<Map<String, EntityValidator>>() {
+
+            @Override
+            protected Map<String, EntityValidator> initialValue() {
+
+                return new HashMap<String, EntityValidator>();
+            }
+        };
+    }
+
+    /**
+     * Constructor.<p>
+     * 
+     * @param store the entity store
+     * @param schemaProvider the schema provider
+     */
+    public ContentServiceServlet(I_EntityStore store, I_SchemaProvider schemaProvider) {
+
+        this();
+        m_store = store;
+        m_schemaProvider = schemaProvider;
+    }
+
+    /**
+     * Constructor.<p>
+     * 
+     * @param store the entity store
+     * @param schemaProvider the schema provider
+     * @param validatorProvider the validator provider
+     */
+    public ContentServiceServlet(
+        I_EntityStore store,
+        I_SchemaProvider schemaProvider,
+        I_ValidatorProvider validatorProvider) {
+
+        this(store, schemaProvider);
+        initValidationPipeline(validatorProvider);
+    }
+
+    /**
+     * Creates a synchronized map keeping the most recently used entity versions.<p>
+     * 
+     * @return the map
+     */
+    @SuppressWarnings("serial")
+    private static Map<String, StoredEntity> createEntityCache() {
+
+        return Collections.synchronizedMap(new LinkedHashMap<String, StoredEntity>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, StoredEntity> eldest) {
+
+                return size() > MAX_KEPT_ENTITIES;
+            }
+        });
+    }
+
+    /**
+     * @see javax.servlet.GenericServlet#destroy()
+     */
+    @Override
+    public void destroy() {
+
+        if (m_validationExecutor != null) {
+            m_validationExecutor.shutdown();
+        }
+        super.destroy();
+    }
+
+    /**
+     * @see javax.servlet.GenericServlet#init()
+     */
+    @Override
+    public void init() throws ServletException {
+
+        super.init();
+        if (m_schemaProvider == null) {
+            String className = getInitParameter(PARAM_SCHEMA_PROVIDER);
+            if (className == null) {
+                throw new ServletException("Missing init parameter " + PARAM_SCHEMA_PROVIDER);
+            }
+            try {
+                m_schemaProvider = (I_SchemaProvider)Class.forName(className).newInstance();
+            } catch (Exception e) {
+                throw new ServletException("Can not create the schema provider " + className, e);
+            }
+        }
+        if (m_store == null) {
+            String directory = getInitParameter(PARAM_STORE_DIRECTORY);
+            try {
+                m_store = directory != null ? new FileEntityStore(new File(directory)) : new MemoryEntityStore();
+            } catch (Exception e) {
+                throw new ServletException("Can not create the entity store in " + directory, e);
+            }
+        }
+        if (m_validationPipeline == null) {
+            String className = getInitParameter(PARAM_VALIDATOR_PROVIDER);
+            if (className != null) {
+                try {
+                    initValidationPipeline((I_ValidatorProvider)Class.forName(className).newInstance());
+                } catch (Exception e) {
+                    throw new ServletException("Can not create the validator provider " + className, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentService#loadContentDefinition(java.lang.String)
+     */
+    public ContentDefinition loadContentDefinition(String entityId) throws Exception {
+
+        return createDefinition(readEntity(entityId));
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentService#loadContentDefinition(java.lang.String, java.util.Map)
+     */
+    public ContentDefinition loadContentDefinition(String entityId, Map<String, String> schemaVersions)
+    throws Exception {
+
+        return loadContentDefinition(entityId).omitKnownSchema(schemaVersions);
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentService#loadEntityAttributes(java.lang.String, java.util.List)
+     */
+    public Entity loadEntityAttributes(String entityId, List<String> attributeNames) throws Exception {
+
+        return readEntity(entityId).createSubset(attributeNames);
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentService#loadInitialContentDefinition(java.lang.String, java.util.Map)
+     */
+    public ContentDefinition loadInitialContentDefinition(String entityId, Map<String, String> schemaVersions)
+    throws Exception {
+
+        return loadContentDefinition(entityId).createInitialDefinition().omitKnownSchema(schemaVersions);
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentService#saveEntities(java.util.List)
+     */
+    public ValidationResult saveEntities(List<Entity> entities) throws Exception {
+
+        ValidationResult result = null;
+        for (Entity entity : entities) {
+            result = merge(result, saveEntity(entity));
+        }
+        return result;
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentService#saveEntity(com.alkacon.acacia.shared.Entity)
+     */
+    public ValidationResult saveEntity(Entity entity) throws Exception {
+
+        return save(entity, entity.getContentVersion());
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentService#saveEntityChunk(java.lang.String, int, int, java.util.List)
+     */
+    public ValidationResult saveEntityChunk(String batchId, int chunkIndex, int chunkCount, List<Entity> entities)
+    throws Exception {
+
+        if ((chunkCount < 1) || (chunkCount > MAX_BATCH_CHUNKS) || (chunkIndex < 0) || (chunkIndex >= chunkCount)) {
+            throw new Exception("Invalid chunk " + chunkIndex + " of " + chunkCount + " for batch " + batchId);
+        }
+        EntityBatch batch = m_batches.get(batchId);
+        if (batch == null) {
+            if (m_batches.size() >= MAX_BATCHES) {
+                removeExpiredBatches();
+                if (m_batches.size() >= MAX_BATCHES) {
+                    throw new Exception("Too many pending batches");
+                }
+            }
+            batch = new EntityBatch(chunkCount);
+            EntityBatch previous = m_batches.putIfAbsent(batchId, batch);
+            if (previous != null) {
+                batch = previous;
+            }
+        }
+        if (batch.getChunkCount() != chunkCount) {
+            throw new Exception("Invalid chunk " + chunkIndex + " of " + chunkCount + " for batch " + batchId);
+        }
+        if (!batch.addChunk(chunkIndex, entities)) {
+            return null;
+        }
+        m_batches.remove(batchId);
+        ValidationResult result = null;
+        for (String encoded : batch.getEncodedEntities()) {
+            // decoding one entity at a time keeps only the entity being saved in memory
+            StoredEntity stored = StoredEntity.decode(encoded);
+            Entity entity = stored.getEntity();
+            entity.setVersion(stored.getVersion());
+            try {
+                result = merge(result, saveEntity(entity));
+            } catch (Exception e) {
+                result = merge(result, createFailure(entity, e));
+            }
+        }
+        return result != null ? result : merge(null, null);
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentService#saveEntityPatches(java.util.List)
+     */
+    public ValidationResult saveEntityPatches(List<EntityPatch> patches) throws Exception {
+
+        ValidationResult result = null;
+        for (EntityPatch patch : patches) {
+            Entity entity = patch.getEntity();
+            if (!patch.isComplete()) {
+                StoredEntity base = m_store.readVersion(patch.getEntityId(), patch.getBaseVersion());
+                try {
+                    entity = patch.apply(base != null ? base.getEntity() : null, base != null ? base.getVersion() : null);
+                } catch (VersionConflictException e) {
+                    // the base version is no longer kept, the client will send the complete entity to be merged
+                    result = merge(result, createConflict(patch.getEntityId()));
+                    continue;
+                }
+                // the patched base version may be outdated, saving it merges the concurrent changes
+                entity.setVersion(patch.getBaseVersion());
+            }
+            try {
+                result = merge(result, save(entity, patch.getVersion()));
+            } catch (Exception e) {
+                // other entities may have been saved already, so report the failure instead of throwing
+                result = merge(result, createFailure(entity, e));
+            }
+        }
+        return result != null ? result : merge(null, null);
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentService#updateEntityHtml(com.alkacon.acacia.shared.Entity, java.lang.String, java.lang.String)
+     */
+    public EntityHtml updateEntityHtml(Entity entity, String contextUri, String htmlContextInfo) throws Exception {
+
+        return new EntityHtml(renderEntityHtml(entity, contextUri, htmlContextInfo), validate(entity));
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentService#updateEntityHtmlFragment(com.alkacon.acacia.shared.EntityPatch, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+     */
+    public EntityHtml updateEntityHtmlFragment(
+        EntityPatch patch,
+        String entityId,
+        String attributeName,
+        String contextUri,
+        String htmlContextInfo) throws Exception {
+
+        ReentrantLock lock = getLock(patch.getEntityId());
+        lock.lock();
+        try {
+            Entity entity = applyPatch(m_renderedEntities, patch);
+            return new EntityHtml(
+                renderAttributeHtml(entity, entityId, attributeName, contextUri, htmlContextInfo),
+                validate(entity));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentService#validateEntities(java.util.List)
+     */
+    public ValidationResult validateEntities(List<Entity> changedEntities) {
+
+        ValidationResult result = null;
+        for (Entity entity : changedEntities) {
+            result = merge(result, validate(entity));
+        }
+        return result != null ? result : merge(null, null);
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentService#validateEntityPatch(com.alkacon.acacia.shared.EntityPatch)
+     */
+    public ValidationResult validateEntityPatch(EntityPatch patch) throws Exception {
+
+        ReentrantLock lock = getLock(patch.getEntityId());
+        lock.lock();
+        try {
+            return validate(applyPatch(m_validatedEntities, patch));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the message reported for attributes changed concurrently by another user.<p>
+     * 
+     * Override to provide localized messages.<p>
+     * 
+     * @return the conflict message
+     */
+    protected String getConflictMessage() {
+
+        return "Changed concurrently by another user.";
+    }
+
+    /**
+     * Returns the schema provider.<p>
+     * 
+     * @return the schema provider
+     */
+    protected I_SchemaProvider getSchemaProvider() {
+
+        return m_schemaProvider;
+    }
+
+    /**
+     * Returns the entity store.<p>
+     * 
+     * @return the entity store
+     */
+    protected I_EntityStore getStore() {
+
+        return m_store;
+    }
+
+    /**
+     * Renders the HTML elements representing the values of a single attribute.<p>
+     * 
+     * Renders one RDFa annotated element per value using the {@link EntityHtmlRenderer}, 
+     * override to render the actual page content.<p>
+     * 
+     * @param entity the root entity
+     * @param entityId the id of the entity holding the attribute, may be a nested entity
+     * @param attributeName the attribute name
+     * @param contextUri the context URI
+     * @param htmlContextInfo information about the HTML context
+     * 
+     * @return the HTML fragments, one for each RDFa annotated element of the attribute in document order
+     * 
+     * @throws Exception if rendering fails
+     */
+    protected List<String> renderAttributeHtml(
+        Entity entity,
+        String entityId,
+        String attributeName,
+        String contextUri,
+        String htmlContextInfo) throws Exception {
+
+        return EntityHtmlRenderer.renderAttribute(entity, entityId, attributeName);
+    }
+
+    /**
+     * Renders the HTML representation of an entity.<p>
+     * 
+     * Renders the RDFa annotated entity values using the {@link EntityHtmlRenderer}, 
+     * override to render the actual page content.<p>
+     * 
+     * @param entity the entity
+     * @param contextUri the context URI
+     * @param htmlContextInfo information about the HTML context
+     * 
+     * @return the HTML
+     * 
+     * @throws Exception if rendering fails
+     */
+    protected String renderEntityHtml(Entity entity, String contextUri, String htmlContextInfo) throws Exception {
+
+        return EntityHtmlRenderer.renderEntity(entity);
+    }
+
+    /**
+     * Validates the given entity.<p>
+     * 
+     * Evaluates the rules of the content definition and the validators of the validator provider. 
+     * Override to add further rules only the server can evaluate, the ones flagged by 
+     * {@link com.alkacon.acacia.shared.AttributeConfiguration#isServerValidation()}.<p>
+     * 
+     * @param entity the entity
+     * 
+     * @return the validation result
+     */
+    protected ValidationResult validate(Entity entity) {
+
+        Map<String, EntityValidator> validators = m_validators.get();
+        try {
+            ContentDefinition schema = getSchema(entity.getTypeName());
+            String key = entity.getTypeName() + "|" + schema.getSchemaVersion();
+            EntityValidator validator = validators.get(key);
+            if (validator == null) {
+                validator = new EntityValidator(schema.getTypes(), schema.getConfigurations());
+                validators.put(key, validator);
+            }
+            ValidationResult result = validator.validate(entity);
+            if (m_validationPipeline != null) {
+                result = merge(result, m_validationPipeline.validate(entity, schema.getTypes()));
+            }
+            return result;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Applies a patch to the entity version kept in the given map for the requesting client and keeps the resulting version.<p>
+     * 
+     * Has to be called holding the entity lock.<p>
+     * 
+     * @param entities the entity versions by client session and entity id
+     * @param patch the patch
+     * 
+     * @return the resulting entity
+     * 
+     * @throws Exception if the patch does not match the kept version
+     */
+    private Entity applyPatch(Map<String, StoredEntity> entities, EntityPatch patch) throws Exception {
+
+        String key = getClientKey(patch.getEntityId());
+        // the kept entity is changed in place, so it is dropped until the patch succeeded
+        StoredEntity base = entities.remove(key);
+        Entity entity = patch.apply(base != null ? base.getEntity() : null, base != null ? base.getVersion() : null);
+        entities.put(key, new StoredEntity(entity, patch.getVersion()));
+        return entity;
+    }
+
+    /**
+     * Creates the validation result reporting an entity patch which could not be applied, because its base version is not known.<p>
+     * 
+     * @param entityId the entity id
+     * 
+     * @return the validation result, listing the entity as conflict without any errors
+     */
+    private ValidationResult createConflict(String entityId) {
+
+        return new ValidationResult(
+            new HashMap<String, Map<AttributePath, String>>(),
+            new HashMap<String, Map<AttributePath, String>>(),
+            Collections.singleton(entityId));
+    }
+
+    /**
+     * Creates the content definition of the given entity.<p>
+     * 
+     * @param entity the entity
+     * 
+     * @return the content definition
+     * 
+     * @throws Exception if there is no schema for the entity type
+     */
+    private ContentDefinition createDefinition(Entity entity) throws Exception {
+
+        ContentDefinition schema = getSchema(entity.getTypeName());
+        ContentDefinition result = new ContentDefinition(
+            entity,
+            schema.getConfigurations(),
+            schema.getTypes(),
+            schema.getTabInfos(),
+            schema.isGroupOptionalFields(),
+            schema.getLocale());
+        result.setSchemaVersion(schema.getSchemaVersion());
+        return result;
+    }
+
+    /**
+     * Creates the validation result reporting an entity which could not be saved.<p>
+     * 
+     * The message is attached to the first attribute of the entity.<p>
+     * 
+     * @param entity the entity
+     * @param e the cause
+     * 
+     * @return the validation result
+     */
+    private ValidationResult createFailure(Entity entity, Exception e) {
+
+        String element = entity.getAttributes().isEmpty()
+        ? entity.getTypeName()
+        : entity.getAttributes().get(0).getAttributeName() + "[0]";
+        Map<AttributePath, String> messages = new LinkedHashMap<AttributePath, String>();
+        messages.put(AttributePath.valueOf(element), e.getMessage() != null ? e.getMessage() : e.toString());
+        Map<String, Map<AttributePath, String>> errors = new HashMap<String, Map<AttributePath, String>>();
+        errors.put(entity.getId(), messages);
+        return new ValidationResult(errors, new HashMap<String, Map<AttributePath, String>>());
+    }
+
+    /**
+     * Returns the key of the given entity for the requesting client.<p>
+     * 
+     * Clients are told apart by their HTTP session. Without request, for example when called directly, the entity id is used.<p>
+     * 
+     * @param entityId the entity id
+     * 
+     * @return the key
+     */
+    private String getClientKey(String entityId) {
+
+        HttpServletRequest request = getThreadLocalRequest();
+        return request != null ? request.getSession().getId() + "|" + entityId : entityId;
+    }
+
+    /**
+     * Returns the lock of the given entity.<p>
+     * 
+     * @param entityId the entity id
+     * 
+     * @return the lock
+     */
+    private ReentrantLock getLock(String entityId) {
+
+        return m_locks[(entityId.hashCode() & Integer.MAX_VALUE) % LOCK_COUNT];
+    }
+
+    /**
+     * Returns the schema of the given entity type, with the schema version set.<p>
+     * 
+     * @param entityTypeName the entity type name
+     * 
+     * @return the schema
+     * 
+     * @throws Exception if there is no schema for the given type
+     */
+    private ContentDefinition getSchema(String entityTypeName) throws Exception {
+
+        ContentDefinition schema = m_schemaProvider.getSchema(entityTypeName);
+        if (schema.getSchemaVersion() == null) {
+            // computing the version again in a concurrent request yields the same value
+            schema.setSchemaVersion(ContentDefinition.computeSchemaVersion(schema.getTypes(), schema.getConfigurations()));
+        }
+        return schema;
+    }
+
+    /**
+     * Creates the validation pipeline with an executor of daemon threads, one per processor.<p>
+     * 
+     * @param validatorProvider the validator provider
+     */
+    private void initValidationPipeline(I_ValidatorProvider validatorProvider) {
+
+        m_validationExecutor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactory() {
+
+                public Thread newThread(Runnable runnable) {
+
+                    Thread thread = new Thread(runnable, "acacia-validation");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        m_validationPipeline = new ValidationPipeline(validatorProvider, m_validationExecutor);
+    }
+
+    /**
+     * Merges two validation results.<p>
+     * 
+     * @param result the first result, may be <code>null</code>
+     * @param other the second result, may be <code>null</code>
+     * 
+     * @return the merged result
+     */
+    private ValidationResult merge(ValidationResult result, ValidationResult other) {
+
+        Map<String, Map<AttributePath, String>> errors = new HashMap<String, Map<AttributePath, String>>();
+        Map<String, Map<AttributePath, String>> warnings = new HashMap<String, Map<AttributePath, String>>();
+        Set<String> conflicts = new HashSet<String>();
+        for (ValidationResult part : new ValidationResult[] {result, other}) {
+            if (part != null) {
+                if (part.getErrors() != null) {
+                    errors.putAll(part.getErrors());
+                }
+                if (part.getWarnings() != null) {
+                    warnings.putAll(part.getWarnings());
+                }
+                conflicts.addAll(part.getConflicts());
+            }
+        }
+        return new ValidationResult(errors, warnings, conflicts);
+    }
+
+    /**
+     * Reads the given entity from the store.<p>
+     * 
+     * @param entityId the entity id
+     * 
+     * @return the entity, with the stored version set as base version
+     * 
+     * @throws Exception if there is no entity with the given id
+     */
+    private Entity readEntity(String entityId) throws Exception {
+
+        StoredEntity stored = m_store.read(entityId);
+        if (stored == null) {
+            throw new Exception("There is no entity with the id " + entityId);
+        }
+        stored.getEntity().setVersion(stored.getVersion());
+        return stored.getEntity();
+    }
+
+    /**
+     * Drops the batches which did not receive a chunk within the batch timeout.<p>
+     */
+    private void removeExpiredBatches() {
+
+        Iterator<EntityBatch> it = m_batches.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().isExpired(BATCH_TIMEOUT)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Saves an entity, merging it with concurrent changes.<p>
+     * 
+     * Entities without base version replace the stored entity.<p>
+     * 
+     * @param entity the entity to save
+     * @param version the version to store the entity in, the client will use it as base version of the next save
+     * 
+     * @return the validation result, including the conflicts
+     * 
+     * @throws Exception if something goes wrong
+     */
+    private ValidationResult save(Entity entity, String version) throws Exception {
+
+        String entityId = entity.getId();
+        while (true) {
+            StoredEntity current = m_store.read(entityId);
+            String currentVersion = current != null ? current.getVersion() : null;
+            Entity result = entity;
+            String resultVersion = version;
+            if ((entity.getVersion() != null)
+                && (current != null)
+                && !entity.getVersion().equals(currentVersion)
+                && !version.equals(currentVersion)) {
+                StoredEntity base = m_store.readVersion(entityId, entity.getVersion());
+                List<AttributePath> conflicts = new ArrayList<AttributePath>();
+                result = EntityMerger.merge(base != null ? base.getEntity() : null, entity, current.getEntity(), conflicts);
+                if (!conflicts.isEmpty()) {
+                    Map<AttributePath, String> messages = new LinkedHashMap<AttributePath, String>();
+                    for (AttributePath path : conflicts) {
+                        messages.put(path, getConflictMessage());
+                    }
+                    Map<String, Map<AttributePath, String>> errors = new HashMap<String, Map<AttributePath, String>>();
+                    errors.put(entityId, messages);
+                    return new ValidationResult(
+                        errors,
+                        new HashMap<String, Map<AttributePath, String>>(),
+                        Collections.singleton(entityId));
+                }
+                resultVersion = result.getContentVersion();
+            }
+            ValidationResult validation = validate(result);
+            if (validation.hasErrors(entityId)) {
+                return validation;
+            }
+            if (write(new StoredEntity(result, resultVersion), currentVersion)) {
+                if (result != entity) {
+                    // the version saved by the client is the base of its next save
+                    m_store.keepVersion(new StoredEntity(entity, version));
+                }
+                return validation;
+            }
+            // another save got in between, merge again
+        }
+    }
+
+    /**
+     * Writes an entity to the store, if the current version matches the expected version.<p>
+     * 
+     * @param entity the entity
+     * @param expectedVersion the expected current version
+     * 
+     * @return <code>true</code> if the entity was written
+     * 
+     * @throws Exception if writing fails
+     */
+    private boolean write(StoredEntity entity, String expectedVersion) throws Exception {
+
+        return m_store.write(entity, expectedVersion);
+    }
+}
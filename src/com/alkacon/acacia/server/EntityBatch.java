@@ -0,0 +1,127 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.server;
+
+import com.alkacon.acacia.shared.Entity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The entities of a batch save received so far.<p>
+ * 
+ * The client sends the entities of a batch in chunks, possibly several at once and in any order. 
+ * The chunks are kept encoded, which is far more compact than the entity objects, 
+ * until all of them have been received and the batch is applied.<p>
+ */
+public class EntityBatch {
+
+    /** The encoded entities of each chunk, <code>null</code> for chunks not received yet. */
+    private String[][] m_chunks;
+
+    /** The time of the last received chunk. */
+    private long m_lastModified;
+
+    /** The number of received chunks. */
+    private int m_receivedCount;
+
+    /**
+     * Constructor.<p>
+     * 
+     * @param chunkCount the number of chunks
+     */
+    public EntityBatch(int chunkCount) {
+
+        m_chunks = new String[chunkCount][];
+        m_lastModified = System.currentTimeMillis();
+    }
+
+    /**
+     * Adds a chunk of entities, each entity keeping its base version.<p>
+     * 
+     * Chunks received again, e.g. because a request was repeated, are ignored.<p>
+     * 
+     * @param chunkIndex the chunk index
+     * @param entities the entities
+     * 
+     * @return <code>true</code> if this was the last missing chunk, this is returned to exactly one caller
+     */
+    public synchronized boolean addChunk(int chunkIndex, List<Entity> entities) {
+
+        m_lastModified = System.currentTimeMillis();
+        if (m_chunks[chunkIndex] != null) {
+            return false;
+        }
+        String[] encoded = new String[entities.size()];
+        for (int i = 0; i < encoded.length; i++) {
+            Entity entity = entities.get(i);
+            encoded[i] = new StoredEntity(entity, entity.getVersion()).encode();
+        }
+        m_chunks[chunkIndex] = encoded;
+        m_receivedCount++;
+        return m_receivedCount == m_chunks.length;
+    }
+
+    /**
+     * Returns the number of chunks.<p>
+     * 
+     * @return the number of chunks
+     */
+    public int getChunkCount() {
+
+        return m_chunks.length;
+    }
+
+    /**
+     * Returns the encoded entities of all chunks in chunk order.<p>
+     * 
+     * @return the encoded entities, see {@link StoredEntity#decode(String)}
+     */
+    public synchronized List<String> getEncodedEntities() {
+
+        List<String> result = new ArrayList<String>();
+        for (String[] chunk : m_chunks) {
+            if (chunk != null) {
+                for (String encoded : chunk) {
+                    result.add(encoded);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns if no chunk has been received for longer than the given time.<p>
+     * 
+     * @param timeout the timeout in milliseconds
+     * 
+     * @return <code>true</code> if the batch expired
+     */
+    public synchronized boolean isExpired(long timeout) {
+
+        return (System.currentTimeMillis() - m_lastModified) > timeout;
+    }
+}
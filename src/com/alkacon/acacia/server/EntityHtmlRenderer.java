@@ -0,0 +1,164 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.server;
+
+import com.alkacon.acacia.shared.Entity;
+import com.alkacon.vie.shared.I_EntityAttribute;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Default HTML rendering of entities for the inline editing, annotating the entity values with RDFa.<p>
+ * 
+ * Entities are rendered as <code>div</code> elements with <code>about</code> and <code>typeof</code> attributes,
+ * each attribute value as a <code>div</code> element with a <code>property</code> attribute, 
+ * containing either the escaped simple value or the rendered nested entity.
+ * This matches the elements the client looks up for an attribute, so attribute fragments can replace them one by one.<p>
+ */
+public final class EntityHtmlRenderer {
+
+    /**
+     * Hidden constructor.<p>
+     */
+    private EntityHtmlRenderer() {
+
+        // nothing to do
+    }
+
+    /**
+     * Renders the HTML fragments of the values of a single attribute.<p>
+     * 
+     * @param entity the root entity
+     * @param entityId the id of the entity holding the attribute, may be a nested entity
+     * @param attributeName the attribute name
+     * 
+     * @return the HTML fragments, one for each attribute value, empty if the entity or attribute does not exist
+     */
+    public static List<String> renderAttribute(Entity entity, String entityId, String attributeName) {
+
+        Entity parent = entity.getEntityById(entityId);
+        I_EntityAttribute attribute = parent != null ? parent.getAttribute(attributeName) : null;
+        if (attribute == null) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<String>(attribute.getValueCount());
+        for (int i = 0; i < attribute.getValueCount(); i++) {
+            StringBuffer html = new StringBuffer();
+            appendValue(html, attribute, i);
+            result.add(html.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Renders the HTML of an entity including all nested entities.<p>
+     * 
+     * @param entity the entity
+     * 
+     * @return the HTML
+     */
+    public static String renderEntity(Entity entity) {
+
+        StringBuffer html = new StringBuffer();
+        appendEntity(html, entity);
+        return html.toString();
+    }
+
+    /**
+     * Appends the HTML of an entity.<p>
+     * 
+     * @param html the HTML to append to
+     * @param entity the entity
+     */
+    private static void appendEntity(StringBuffer html, Entity entity) {
+
+        html.append("<div about=\"");
+        appendEscaped(html, entity.getId());
+        html.append("\" typeof=\"");
+        appendEscaped(html, entity.getTypeName());
+        html.append("\">");
+        for (I_EntityAttribute attribute : entity.getAttributes()) {
+            for (int i = 0; i < attribute.getValueCount(); i++) {
+                appendValue(html, attribute, i);
+            }
+        }
+        html.append("</div>");
+    }
+
+    /**
+     * Appends the given text, escaping the HTML special characters.<p>
+     * 
+     * @param html the HTML to append to
+     * @param text the text
+     */
+    private static void appendEscaped(StringBuffer html, String text) {
+
+        if (text == null) {
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<':
+                    html.append("&lt;");
+                    break;
+                case '>':
+                    html.append("&gt;");
+                    break;
+                case '&':
+                    html.append("&amp;");
+                    break;
+                case '"':
+                    html.append("&quot;");
+                    break;
+                default:
+                    html.append(c);
+            }
+        }
+    }
+
+    /**
+     * Appends the HTML of an attribute value.<p>
+     * 
+     * @param html the HTML to append to
+     * @param attribute the attribute
+     * @param index the value index
+     */
+    private static void appendValue(StringBuffer html, I_EntityAttribute attribute, int index) {
+
+        html.append("<div property=\"");
+        appendEscaped(html, attribute.getAttributeName());
+        html.append("\">");
+        if (attribute.isSimpleValue()) {
+            appendEscaped(html, attribute.getSimpleValues().get(index));
+        } else {
+            appendEntity(html, (Entity)attribute.getComplexValues().get(index));
+        }
+        html.append("</div>");
+    }
+}
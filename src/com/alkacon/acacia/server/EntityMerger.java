@@ -0,0 +1,207 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.server;
+
+import com.alkacon.acacia.shared.AttributePath;
+import com.alkacon.acacia.shared.Entity;
+import com.alkacon.vie.shared.I_Entity;
+import com.alkacon.vie.shared.I_EntityAttribute;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Three-way merge of entities changed concurrently.<p>
+ * 
+ * Attribute values changed in only one of the entities are taken from that entity. 
+ * Nested entities present with the same ids in all three entities are merged recursively, 
+ * so different attributes of the same nested entity may be changed concurrently.
+ * Attributes changed differently in both entities are conflicts.<p>
+ */
+public final class EntityMerger {
+
+    /**
+     * Hidden constructor.<p>
+     */
+    private EntityMerger() {
+
+        // nothing to do
+    }
+
+    /**
+     * Merges two entities derived from the same base entity.<p>
+     * 
+     * Without base entity, all attributes with different values are conflicts.
+     * Conflicting attributes are taken from the first entity.<p>
+     * 
+     * @param base the common base entity, may be <code>null</code> if not known
+     * @param mine the first changed entity
+     * @param theirs the second changed entity
+     * @param conflicts the list to add the paths of conflicting attributes to
+     * 
+     * @return the merged entity, sharing no nested entities with the given entities
+     */
+    public static Entity merge(Entity base, Entity mine, Entity theirs, List<AttributePath> conflicts) {
+
+        return merge(base, mine, theirs, new ArrayList<String>(), conflicts);
+    }
+
+    /**
+     * Adds copies of the values of an attribute to the result entity.<p>
+     * 
+     * @param source the entity to copy from
+     * @param attributeName the attribute name
+     * @param result the result entity
+     */
+    private static void copyValues(Entity source, String attributeName, Entity result) {
+
+        I_EntityAttribute attribute = source.getAttribute(attributeName);
+        if (attribute == null) {
+            return;
+        }
+        if (attribute.isSimpleValue()) {
+            for (String value : attribute.getSimpleValues()) {
+                result.addAttributeValue(attributeName, value);
+            }
+        } else {
+            for (I_Entity value : attribute.getComplexValues()) {
+                result.addAttributeValue(attributeName, ((Entity)value).createCopy());
+            }
+        }
+    }
+
+    /**
+     * Returns the values of an attribute in a comparable form, the simple values or the content hashes of the nested entities.<p>
+     * 
+     * @param entity the entity
+     * @param attributeName the attribute name
+     * 
+     * @return the values, empty if the entity has no such attribute
+     */
+    private static List<Object> getValues(Entity entity, String attributeName) {
+
+        List<Object> result = new ArrayList<Object>();
+        I_EntityAttribute attribute = entity.getAttribute(attributeName);
+        if (attribute != null) {
+            if (attribute.isSimpleValue()) {
+                result.addAll(attribute.getSimpleValues());
+            } else {
+                for (I_Entity value : attribute.getComplexValues()) {
+                    result.add(Long.valueOf(((Entity)value).getContentHash()));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns if the given entities hold the same nested entity ids in the same order for the given attribute.<p>
+     * 
+     * @param base the base entity
+     * @param mine the first changed entity
+     * @param theirs the second changed entity
+     * @param attributeName the attribute name
+     * 
+     * @return <code>true</code> if the nested entities can be merged one by one
+     */
+    private static boolean hasSameEntities(Entity base, Entity mine, Entity theirs, String attributeName) {
+
+        int count = base.getValueCount(attributeName);
+        if ((count == 0) || (mine.getValueCount(attributeName) != count) || (theirs.getValueCount(attributeName) != count)) {
+            return false;
+        }
+        I_EntityAttribute attribute = base.getAttribute(attributeName);
+        if (attribute.isSimpleValue() || mine.getAttribute(attributeName).isSimpleValue()) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            String id = base.getComplexValue(attributeName, i).getId();
+            if (!id.equals(mine.getComplexValue(attributeName, i).getId())
+                || !id.equals(theirs.getComplexValue(attributeName, i).getId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Merges two entities derived from the same base entity.<p>
+     * 
+     * @param base the common base entity, may be <code>null</code>
+     * @param mine the first changed entity
+     * @param theirs the second changed entity
+     * @param prefix the path elements of the merged entities
+     * @param conflicts the list to add the paths of conflicting attributes to
+     * 
+     * @return the merged entity
+     */
+    private static Entity merge(
+        Entity base,
+        Entity mine,
+        Entity theirs,
+        List<String> prefix,
+        List<AttributePath> conflicts) {
+
+        Entity result = new Entity(mine.getId(), mine.getTypeName());
+        Set<String> attributeNames = new LinkedHashSet<String>();
+        for (Entity entity : new Entity[] {mine, theirs, base}) {
+            if (entity != null) {
+                for (I_EntityAttribute attribute : entity.getAttributes()) {
+                    attributeNames.add(attribute.getAttributeName());
+                }
+            }
+        }
+        for (String attributeName : attributeNames) {
+            List<Object> myValues = getValues(mine, attributeName);
+            List<Object> theirValues = getValues(theirs, attributeName);
+            List<Object> baseValues = base != null ? getValues(base, attributeName) : null;
+            if (myValues.equals(theirValues) || theirValues.equals(baseValues)) {
+                copyValues(mine, attributeName, result);
+            } else if (myValues.equals(baseValues)) {
+                copyValues(theirs, attributeName, result);
+            } else if ((base != null) && hasSameEntities(base, mine, theirs, attributeName)) {
+                for (int i = 0; i < base.getValueCount(attributeName); i++) {
+                    prefix.add(attributeName + "[" + i + "]");
+                    result.addAttributeValue(attributeName, merge(
+                        base.getComplexValue(attributeName, i),
+                        mine.getComplexValue(attributeName, i),
+                        theirs.getComplexValue(attributeName, i),
+                        prefix,
+                        conflicts));
+                    prefix.remove(prefix.size() - 1);
+                }
+            } else {
+                String[] elements = prefix.toArray(new String[prefix.size() + 1]);
+                elements[prefix.size()] = attributeName + "[0]";
+                conflicts.add(AttributePath.valueOf(elements));
+                copyValues(mine, attributeName, result);
+            }
+        }
+        return result;
+    }
+}
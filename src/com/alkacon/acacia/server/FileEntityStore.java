@@ -0,0 +1,322 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Entity store keeping each entity in a file of a directory.<p>
+ * 
+ * The file names are the URL encoded entity ids. The current and previous versions of an entity are also kept 
+ * in a sub directory of each entity, named by the URL encoded versions. Files are written to a temporary file first 
+ * and renamed afterwards, so reads need no locking and never see partially written entities.
+ * Writes lock only the written entity while comparing and replacing the version.<p>
+ */
+public class FileEntityStore implements I_EntityStore {
+
+    /** The file encoding. */
+    private static final String ENCODING = "UTF-8";
+
+    /** The number of previous versions kept per entity. */
+    private static final int KEPT_VERSIONS = 16;
+
+    /** The number of entity locks. */
+    private static final int LOCK_COUNT = 256;
+
+    /** The file name suffix. */
+    private static final String SUFFIX = ".entity";
+
+    /** The suffix of the version directories. */
+    private static final String VERSIONS_SUFFIX = ".versions";
+
+    /** The directory. */
+    private File m_directory;
+
+    /** The entity locks. */
+    private ReentrantLock[] m_locks;
+
+    /**
+     * Constructor.<p>
+     * 
+     * @param directory the directory to store the entity files in, will be created if necessary
+     * 
+     * @throws IOException if the directory can not be created
+     */
+    public FileEntityStore(File directory) throws IOException {
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create the entity directory " + directory.getAbsolutePath());
+        }
+        m_directory = directory;
+        m_locks = new ReentrantLock[LOCK_COUNT];
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            m_locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @see com.alkacon.acacia.server.I_EntityStore#keepVersion(com.alkacon.acacia.server.StoredEntity)
+     */
+    public void keepVersion(StoredEntity entity) throws IOException {
+
+        String id = entity.getEntity().getId();
+        if (entity.getVersion() == null) {
+            return;
+        }
+        ReentrantLock lock = getLock(id);
+        lock.lock();
+        try {
+            if (getFile(id).isFile()) {
+                writeVersion(id, entity.getVersion(), entity.encode());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @see com.alkacon.acacia.server.I_EntityStore#read(java.lang.String)
+     */
+    public StoredEntity read(String entityId) throws IOException {
+
+        File file = getFile(entityId);
+        return file.isFile() ? StoredEntity.decode(readFile(file)) : null;
+    }
+
+    /**
+     * @see com.alkacon.acacia.server.I_EntityStore#readVersion(java.lang.String, java.lang.String)
+     */
+    public StoredEntity readVersion(String entityId, String version) throws IOException {
+
+        if (version == null) {
+            return null;
+        }
+        File file = new File(getVersionDirectory(entityId), encode(version) + SUFFIX);
+        if (file.isFile()) {
+            return StoredEntity.decode(readFile(file));
+        }
+        // versions with the same modification time as the current may have been pruned
+        StoredEntity current = read(entityId);
+        return (current != null) && version.equals(current.getVersion()) ? current : null;
+    }
+
+    /**
+     * @see com.alkacon.acacia.server.I_EntityStore#write(com.alkacon.acacia.server.StoredEntity, java.lang.String)
+     */
+    public boolean write(StoredEntity entity, String expectedVersion) throws IOException {
+
+        String id = entity.getEntity().getId();
+        File file = getFile(id);
+        ReentrantLock lock = getLock(id);
+        lock.lock();
+        try {
+            String currentVersion = file.isFile() ? readCurrentVersion(file) : null;
+            if (!StoredEntity.isSameVersion(expectedVersion, currentVersion)) {
+                return false;
+            }
+            String data = entity.encode();
+            if (entity.getVersion() != null) {
+                writeVersion(id, entity.getVersion(), data);
+            }
+            writeFile(file, data);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * URL encodes the given name.<p>
+     * 
+     * @param name the name
+     * 
+     * @return the encoded name
+     */
+    private String encode(String name) {
+
+        try {
+            return URLEncoder.encode(name, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the file of the current version of the given entity.<p>
+     * 
+     * @param entityId the entity id
+     * 
+     * @return the file
+     */
+    private File getFile(String entityId) {
+
+        return new File(m_directory, encode(entityId) + SUFFIX);
+    }
+
+    /**
+     * Returns the lock of the given entity.<p>
+     * 
+     * @param entityId the entity id
+     * 
+     * @return the lock
+     */
+    private ReentrantLock getLock(String entityId) {
+
+        return m_locks[(entityId.hashCode() & Integer.MAX_VALUE) % LOCK_COUNT];
+    }
+
+    /**
+     * Returns the directory of the versions of the given entity.<p>
+     * 
+     * @param entityId the entity id
+     * 
+     * @return the directory
+     */
+    private File getVersionDirectory(String entityId) {
+
+        return new File(m_directory, encode(entityId) + VERSIONS_SUFFIX);
+    }
+
+    /**
+     * Reads the version of an entity file without reading the entity.<p>
+     * 
+     * @param file the file
+     * 
+     * @return the version
+     * 
+     * @throws IOException if reading fails
+     */
+    private String readCurrentVersion(File file) throws IOException {
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+        try {
+            String version = reader.readLine();
+            return (version != null) && (version.length() > 0) ? version : null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads a file.<p>
+     * 
+     * @param file the file
+     * 
+     * @return the file content
+     * 
+     * @throws IOException if reading fails
+     */
+    private String readFile(File file) throws IOException {
+
+        StringBuilder data = new StringBuilder((int)file.length());
+        Reader reader = new InputStreamReader(new FileInputStream(file), ENCODING);
+        try {
+            char[] buffer = new char[8192];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                data.append(buffer, 0, count);
+            }
+        } finally {
+            reader.close();
+        }
+        return data.toString();
+    }
+
+    /**
+     * Writes a file, using a temporary file renamed afterwards.<p>
+     * 
+     * @param file the file
+     * @param data the file content
+     * 
+     * @throws IOException if writing fails
+     */
+    private void writeFile(File file, String data) throws IOException {
+
+        File temp = File.createTempFile("entity", ".tmp", file.getParentFile());
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(temp), ENCODING);
+            try {
+                writer.write(data);
+            } finally {
+                writer.close();
+            }
+            // renaming fails on some platforms if the target exists
+            if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+                throw new IOException("Can not write the entity file " + file.getAbsolutePath());
+            }
+        } finally {
+            if (temp.exists()) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes a version of an entity to its version directory and removes the oldest versions.<p>
+     * 
+     * @param entityId the entity id
+     * @param version the version
+     * @param data the encoded entity
+     * 
+     * @throws IOException if writing fails
+     */
+    private void writeVersion(String entityId, String version, String data) throws IOException {
+
+        File directory = getVersionDirectory(entityId);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create the version directory " + directory.getAbsolutePath());
+        }
+        writeFile(new File(directory, encode(version) + SUFFIX), data);
+        File[] versions = directory.listFiles();
+        if (versions.length > (KEPT_VERSIONS + 1)) {
+            Arrays.sort(versions, new Comparator<File>() {
+
+                public int compare(File file, File other) {
+
+                    long difference = file.lastModified() - other.lastModified();
+                    return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+                }
+            });
+            for (int i = 0; i < (versions.length - KEPT_VERSIONS - 1); i++) {
+                versions[i].delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.server;
+
+import com.alkacon.acacia.shared.Entity;
+
+/**
+ * Validates the simple values of an attribute on the server.<p>
+ * 
+ * Validators are called in parallel for different entities, so implementations have to be thread safe.
+ * Results are memoized by the content hash of the validated entity, so validators may only depend on 
+ * the given entity including its nested entities.<p>
+ * 
+ * @see I_ValidatorProvider
+ */
+public interface I_AttributeValidator {
+
+    /**
+     * Returns if violations of this validator are reported as warnings instead of errors.<p>
+     * 
+     * @return <code>true</code> for warnings
+     */
+    boolean isWarning();
+
+    /**
+     * Validates an attribute value.<p>
+     * 
+     * @param entity the entity holding the attribute
+     * @param attributeName the attribute name
+     * @param value the value
+     * 
+     * @return the message, <code>null</code> if the value is valid
+     */
+    String validate(Entity entity, String attributeName, String value);
+}
@@ -0,0 +1,91 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.server;
+
+/**
+ * Persists the entities edited through the {@link ContentServiceServlet}.<p>
+ * 
+ * Besides the current version, stores keep a few previous versions of each entity, 
+ * used as the common base when merging concurrent changes.<p>
+ * 
+ * Implementations have to be thread safe and must allow concurrent access to different entities. 
+ * Concurrent writes of the same entity are detected by comparing the expected version on write.<p>
+ */
+public interface I_EntityStore {
+
+    /**
+     * Keeps the given entity version without making it the current version.<p>
+     * 
+     * Used to keep the version saved by a client when it was merged with concurrent changes, 
+     * so it can serve as base version of the next save of that client.
+     * Nothing is kept if there is no current version of the entity.<p>
+     * 
+     * @param entity the entity and its version
+     * 
+     * @throws Exception if writing the entity fails
+     */
+    void keepVersion(StoredEntity entity) throws Exception;
+
+    /**
+     * Reads the current version of the entity with the given id.<p>
+     * 
+     * The returned entity may be changed by the caller, so implementations must not return shared instances.<p>
+     * 
+     * @param entityId the entity id
+     * 
+     * @return the stored entity, <code>null</code> if there is no entity with the given id
+     * 
+     * @throws Exception if reading the entity fails
+     */
+    StoredEntity read(String entityId) throws Exception;
+
+    /**
+     * Reads the given version of an entity, either the current or a kept previous version.<p>
+     * 
+     * @param entityId the entity id
+     * @param version the version
+     * 
+     * @return the stored entity, <code>null</code> if the version is not kept
+     * 
+     * @throws Exception if reading the entity fails
+     */
+    StoredEntity readVersion(String entityId, String version) throws Exception;
+
+    /**
+     * Writes the given entity as the new current version, if the current version matches the expected version.<p>
+     * 
+     * The check and the write have to be atomic. The replaced version is kept as previous version.<p>
+     * 
+     * @param entity the entity and its version
+     * @param expectedVersion the expected current version, <code>null</code> if there should be no entity 
+     *        or the current entity has no version
+     * 
+     * @return <code>true</code> if the entity was written, <code>false</code> if the current version did not match
+     * 
+     * @throws Exception if writing the entity fails
+     */
+    boolean write(StoredEntity entity, String expectedVersion) throws Exception;
+}
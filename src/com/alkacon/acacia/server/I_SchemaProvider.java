@@ -0,0 +1,48 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.server;
+
+import com.alkacon.acacia.shared.ContentDefinition;
+
+/**
+ * Provides the types, attribute configurations and tab informations of the entities edited through the {@link ContentServiceServlet}.<p>
+ */
+public interface I_SchemaProvider {
+
+    /**
+     * Returns the schema of entities of the given type.<p>
+     * 
+     * The returned definition holds the types, attribute configurations, tab informations and locale, but no entity.
+     * It is called for every request, so implementations should cache the definitions.<p>
+     * 
+     * @param entityTypeName the entity type name
+     * 
+     * @return the schema
+     * 
+     * @throws Exception if there is no schema for the given type
+     */
+    ContentDefinition getSchema(String entityTypeName) throws Exception;
+}
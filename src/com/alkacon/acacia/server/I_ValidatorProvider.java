@@ -0,0 +1,46 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.server;
+
+import java.util.List;
+
+/**
+ * Provides the server side validators of the attributes of each type.<p>
+ * 
+ * The validators of a type are requested once and kept by the {@link ValidationPipeline}.<p>
+ */
+public interface I_ValidatorProvider {
+
+    /**
+     * Returns the validators of an attribute.<p>
+     * 
+     * @param typeName the type name
+     * @param attributeName the attribute name, as returned by {@link com.alkacon.vie.shared.I_Type#getAttributeNames()}
+     * 
+     * @return the validators, may be empty or <code>null</code>
+     */
+    List<I_AttributeValidator> getValidators(String typeName, String attributeName);
+}
@@ -0,0 +1,149 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Entity store keeping the entities in memory.<p>
+ * 
+ * The entities are kept encoded, so every read returns a private copy and the memory footprint stays small.
+ * The versions of an entity are replaced atomically without locking.<p>
+ */
+public class MemoryEntityStore implements I_EntityStore {
+
+    /** The number of previous versions kept per entity. */
+    private static final int KEPT_VERSIONS = 16;
+
+    /** The encoded versions by entity id, the current version first. */
+    private ConcurrentMap<String, String[]> m_entities;
+
+    /**
+     * Constructor.<p>
+     */
+    public MemoryEntityStore() {
+
+        m_entities = new ConcurrentHashMap<String, String[]>();
+    }
+
+    /**
+     * @see com.alkacon.acacia.server.I_EntityStore#keepVersion(com.alkacon.acacia.server.StoredEntity)
+     */
+    public void keepVersion(StoredEntity entity) {
+
+        String id = entity.getEntity().getId();
+        String data = entity.encode();
+        while (true) {
+            String[] versions = m_entities.get(id);
+            if ((versions == null) || (indexOf(versions, entity.getVersion()) >= 0)) {
+                return;
+            }
+            if (m_entities.replace(id, versions, insert(versions, 1, data))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @see com.alkacon.acacia.server.I_EntityStore#read(java.lang.String)
+     */
+    public StoredEntity read(String entityId) {
+
+        String[] versions = m_entities.get(entityId);
+        return versions != null ? StoredEntity.decode(versions[0]) : null;
+    }
+
+    /**
+     * @see com.alkacon.acacia.server.I_EntityStore#readVersion(java.lang.String, java.lang.String)
+     */
+    public StoredEntity readVersion(String entityId, String version) {
+
+        String[] versions = m_entities.get(entityId);
+        int index = versions != null ? indexOf(versions, version) : -1;
+        return index >= 0 ? StoredEntity.decode(versions[index]) : null;
+    }
+
+    /**
+     * @see com.alkacon.acacia.server.I_EntityStore#write(com.alkacon.acacia.server.StoredEntity, java.lang.String)
+     */
+    public boolean write(StoredEntity entity, String expectedVersion) {
+
+        String id = entity.getEntity().getId();
+        String data = entity.encode();
+        while (true) {
+            String[] versions = m_entities.get(id);
+            String currentVersion = versions != null ? StoredEntity.decodeVersion(versions[0]) : null;
+            if (!StoredEntity.isSameVersion(expectedVersion, currentVersion)) {
+                return false;
+            }
+            // retry if the versions were changed in between, e.g. by keeping a version
+            if (versions == null
+                ? m_entities.putIfAbsent(id, new String[] {data}) == null
+                : m_entities.replace(id, versions, insert(versions, 0, data))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the given version.<p>
+     * 
+     * @param versions the encoded versions
+     * @param version the version to look up
+     * 
+     * @return the index, <code>-1</code> if not found
+     */
+    private int indexOf(String[] versions, String version) {
+
+        if (version != null) {
+            for (int i = 0; i < versions.length; i++) {
+                if (version.equals(StoredEntity.decodeVersion(versions[i]))) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a copy of the given versions with the data inserted at the given index, dropping the oldest versions.<p>
+     * 
+     * @param versions the encoded versions
+     * @param index the insert index
+     * @param data the encoded version to insert
+     * 
+     * @return the new versions
+     */
+    private String[] insert(String[] versions, int index, String data) {
+
+        String[] result = new String[Math.min(versions.length + 1, KEPT_VERSIONS + 1)];
+        System.arraycopy(versions, 0, result, 0, index);
+        result[index] = data;
+        System.arraycopy(versions, index, result, index + 1, result.length - index - 1);
+        return result;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.server;
+
+import com.alkacon.acacia.shared.Entity;
+import com.alkacon.acacia.shared.EntityCodec;
+
+/**
+ * An entity together with the version it was stored in.<p>
+ * 
+ * The versions are the tokens assigned by the client to its entity patches, 
+ * or the content versions of entities saved completely.<p>
+ * 
+ * @see Entity#getContentVersion()
+ */
+public class StoredEntity {
+
+    /** The entity. */
+    private Entity m_entity;
+
+    /** The version. */
+    private String m_version;
+
+    /**
+     * Constructor.<p>
+     * 
+     * @param entity the entity
+     * @param version the version, may be <code>null</code>
+     */
+    public StoredEntity(Entity entity, String version) {
+
+        m_entity = entity;
+        m_version = version;
+    }
+
+    /**
+     * Decodes a stored entity.<p>
+     * 
+     * @param data the data created by {@link #encode()}
+     * 
+     * @return the stored entity
+     */
+    public static StoredEntity decode(String data) {
+
+        return new StoredEntity(EntityCodec.decodeEntity(data.substring(data.indexOf('\n') + 1)), decodeVersion(data));
+    }
+
+    /**
+     * Decodes only the version of a stored entity.<p>
+     * 
+     * @param data the data created by {@link #encode()}
+     * 
+     * @return the version, <code>null</code> if the entity was stored without version
+     */
+    public static String decodeVersion(String data) {
+
+        int separator = data.indexOf('\n');
+        return separator > 0 ? data.substring(0, separator) : null;
+    }
+
+    /**
+     * Returns if the given versions are equal.<p>
+     * 
+     * @param version the first version, may be <code>null</code>
+     * @param other the second version, may be <code>null</code>
+     * 
+     * @return <code>true</code> if the versions are equal
+     */
+    public static boolean isSameVersion(String version, String other) {
+
+        return version == null ? other == null : version.equals(other);
+    }
+
+    /**
+     * Encodes this stored entity, the version on the first line followed by the compact entity encoding.<p>
+     * 
+     * @return the encoded data
+     * 
+     * @see EntityCodec#encode(Entity)
+     */
+    public String encode() {
+
+        return (m_version != null ? m_version : "") + "\n" + EntityCodec.encode(m_entity);
+    }
+
+    /**
+     * Returns the entity.<p>
+     * 
+     * @return the entity
+     */
+    public Entity getEntity() {
+
+        return m_entity;
+    }
+
+    /**
+     * Returns the version.<p>
+     * 
+     * @return the version, <code>null</code> if the entity was saved completely
+     */
+    public String getVersion() {
+
+        return m_version;
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.server;
+
+import com.alkacon.acacia.shared.AttributePath;
+import com.alkacon.acacia.shared.Entity;
+import com.alkacon.acacia.shared.ValidationResult;
+import com.alkacon.vie.shared.I_EntityAttribute;
+import com.alkacon.vie.shared.I_Type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates the server side attribute validators of entities.<p>
+ * 
+ * The validators of each type are requested once from the {@link I_ValidatorProvider}.
+ * The nested entities of the root entity are validated in parallel on the given executor, 
+ * the request thread validates the root entity itself and the last nested entity meanwhile.
+ * The results of each entity are memoized by its id and content hash, so unchanged entities are not validated again.<p>
+ */
+public class ValidationPipeline {
+
+    /**
+     * The validators of a type and the memoized results of entities of this type.<p>
+     */
+    private static final class CompiledType {
+
+        /** The memoized results by entity id and content hash. */
+        ConcurrentMap<ResultKey, Messages> m_results;
+
+        /** The type the validators were compiled for. */
+        I_Type m_type;
+
+        /** The validators by attribute name, only containing attributes with validators. */
+        Map<String, I_AttributeValidator[]> m_validators;
+
+        /**
+         * Constructor.<p>
+         * 
+         * @param type the type
+         * @param validators the validators by attribute name
+         */
+        CompiledType(I_Type type, Map<String, I_AttributeValidator[]> validators) {
+
+            m_type = type;
+            m_validators = validators;
+            m_results = new ConcurrentHashMap<ResultKey, Messages>();
+        }
+    }
+
+    /**
+     * A validation message.<p>
+     */
+    private static final class Message {
+
+        /** The path of the validated value, relative to the entity holding the message. */
+        final AttributePath m_path;
+
+        /** The message text. */
+        final String m_text;
+
+        /**
+         * Constructor.<p>
+         * 
+         * @param path the path of the validated value
+         * @param text the message text
+         */
+        Message(AttributePath path, String text) {
+
+            m_path = path;
+            m_text = text;
+        }
+    }
+
+    /**
+     * The messages of an entity and its nested entities, with paths relative to the entity.<p>
+     */
+    private static final class Messages {
+
+        /** The error messages. */
+        List<Message> m_errors = new ArrayList<Message>();
+
+        /** The warning messages. */
+        List<Message> m_warnings = new ArrayList<Message>();
+
+        /**
+         * Adds the messages of a nested entity.<p>
+         * 
+         * @param element the path element of the nested entity
+         * @param nested the messages of the nested entity
+         */
+        void addNested(String element, Messages nested) {
+
+            addNested(m_errors, element, nested.m_errors);
+            addNested(m_warnings, element, nested.m_warnings);
+        }
+
+        /**
+         * Adds nested messages, prefixing their paths with the given element.<p>
+         * 
+         * @param target the messages to add to
+         * @param element the path element
+         * @param nested the nested messages
+         */
+        private void addNested(List<Message> target, String element, List<Message> nested) {
+
+            for (Message message : nested) {
+                String[] prefixed = new String[message.m_path.getElementCount() + 1];
+                prefixed[0] = element;
+                for (int i = 1; i < prefixed.length; i++) {
+                    prefixed[i] = message.m_path.getElement(i - 1);
+                }
+                target.add(new Message(AttributePath.create(prefixed), message.m_text));
+            }
+        }
+    }
+
+    /**
+     * The key of a memoized result, the entity id and content hash.<p>
+     */
+    private static final class ResultKey {
+
+        /** The entity id. */
+        private final String m_entityId;
+
+        /** The entity content hash. */
+        private final long m_hash;
+
+        /**
+         * Constructor.<p>
+         * 
+         * @param entity the entity
+         */
+        ResultKey(Entity entity) {
+
+            m_entityId = entity.getId();
+            m_hash = entity.getContentHash();
+        }
+
+        /**
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj) {
+
+            if (obj instanceof ResultKey) {
+                ResultKey other = (ResultKey)obj;
+                return (m_hash == other.m_hash)
+                    && ((m_entityId == null) ? (other.m_entityId == null) : m_entityId.equals(other.m_entityId));
+            }
+            return false;
+        }
+
+        /**
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+
+            return (31 * (int)(m_hash ^ (m_hash >>> 32))) + ((m_entityId != null) ? m_entityId.hashCode() : 0);
+        }
+    }
+
+    /** The maximum number of memoized results per type, the results are dropped when exceeded. */
+    private static final int MAX_RESULTS = 10000;
+
+    /** The compiled types by type name. */
+    private ConcurrentMap<String, CompiledType> m_compiledTypes;
+
+    /** The executor for validating nested entities in parallel. */
+    private ExecutorService m_executor;
+
+    /** The validator provider. */
+    private I_ValidatorProvider m_provider;
+
+    /**
+     * Constructor.<p>
+     * 
+     * @param provider the validator provider
+     * @param executor the executor for validating nested entities in parallel, <code>null</code> to validate in the calling thread
+     */
+    public ValidationPipeline(I_ValidatorProvider provider, ExecutorService executor) {
+
+        m_provider = provider;
+        m_executor = executor;
+        m_compiledTypes = new ConcurrentHashMap<String, CompiledType>();
+    }
+
+    /**
+     * Drops the compiled validators and memoized results, e.g. after the validators changed.<p>
+     */
+    public void clear() {
+
+        m_compiledTypes.clear();
+    }
+
+    /**
+     * Validates an entity and its nested entities.<p>
+     * 
+     * The validators are compiled again and the memoized results dropped whenever another type instance is passed 
+     * for a type name, so the schema provider should cache its types.<p>
+     * 
+     * @param entity the root entity
+     * @param types the types by type name
+     * 
+     * @return the validation result with the messages keyed by the root entity id
+     * 
+     * @throws Exception if a validator fails
+     */
+    public ValidationResult validate(Entity entity, Map<String, I_Type> types) throws Exception {
+
+        Messages messages = validate(entity, types, true);
+        Map<String, Map<AttributePath, String>> errors = new HashMap<String, Map<AttributePath, String>>();
+        Map<String, Map<AttributePath, String>> warnings = new HashMap<String, Map<AttributePath, String>>();
+        if (!messages.m_errors.isEmpty()) {
+            errors.put(entity.getId(), toMap(messages.m_errors));
+        }
+        if (!messages.m_warnings.isEmpty()) {
+            warnings.put(entity.getId(), toMap(messages.m_warnings));
+        }
+        return new ValidationResult(errors, warnings);
+    }
+
+    /**
+     * Returns the compiled validators of the given type.<p>
+     * 
+     * @param type the type
+     * 
+     * @return the compiled type
+     */
+    private CompiledType getCompiledType(I_Type type) {
+
+        CompiledType result = m_compiledTypes.get(type.getId());
+        if ((result == null) || (result.m_type != type)) {
+            Map<String, I_AttributeValidator[]> validators = new HashMap<String, I_AttributeValidator[]>();
+            for (String attributeName : type.getAttributeNames()) {
+                List<I_AttributeValidator> attributeValidators = m_provider.getValidators(type.getId(), attributeName);
+                if ((attributeValidators != null) && !attributeValidators.isEmpty()) {
+                    validators.put(
+                        attributeName,
+                        attributeValidators.toArray(new I_AttributeValidator[attributeValidators.size()]));
+                }
+            }
+            // replacing a concurrently compiled type only drops its memoized results
+            result = new CompiledType(type, validators);
+            m_compiledTypes.put(type.getId(), result);
+        }
+        return result;
+    }
+
+    /**
+     * Converts messages to a map by attribute path.<p>
+     * 
+     * @param messages the messages
+     * 
+     * @return the messages by attribute path
+     */
+    private Map<AttributePath, String> toMap(List<Message> messages) {
+
+        Map<AttributePath, String> result = new LinkedHashMap<AttributePath, String>();
+        for (Message message : messages) {
+            if (!result.containsKey(message.m_path)) {
+                result.put(message.m_path, message.m_text);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Validates an entity and its nested entities.<p>
+     * 
+     * @param entity the entity
+     * @param types the types by type name
+     * @param parallel <code>true</code> to validate the nested entities in parallel
+     * 
+     * @return the messages
+     * 
+     * @throws Exception if a validator fails
+     */
+    private Messages validate(Entity entity, final Map<String, I_Type> types, boolean parallel) throws Exception {
+
+        I_Type type = types.get(entity.getTypeName());
+        if (type == null) {
+            return new Messages();
+        }
+        CompiledType compiled = getCompiledType(type);
+        ResultKey key = new ResultKey(entity);
+        Messages result = compiled.m_results.get(key);
+        if (result != null) {
+            return result;
+        }
+        result = new Messages();
+        List<String> nestedElements = new ArrayList<String>();
+        List<Entity> nestedEntities = new ArrayList<Entity>();
+        for (I_EntityAttribute attribute : entity.getAttributes()) {
+            String attributeName = attribute.getAttributeName();
+            if (attribute.isSimpleValue()) {
+                I_AttributeValidator[] validators = compiled.m_validators.get(attributeName);
+                if (validators == null) {
+                    continue;
+                }
+                List<String> values = attribute.getSimpleValues();
+                for (int i = 0; i < values.size(); i++) {
+                    for (I_AttributeValidator validator : validators) {
+                        String message = validator.validate(entity, attributeName, values.get(i));
+                        if (message != null) {
+                            (validator.isWarning() ? result.m_warnings : result.m_errors).add(new Message(
+                                AttributePath.create(attributeName + "[" + i + "]"),
+                                message));
+                        }
+                    }
+                }
+            } else {
+                for (int i = 0; i < attribute.getValueCount(); i++) {
+                    nestedElements.add(attributeName + "[" + i + "]");
+                    nestedEntities.add(entity.getComplexValue(attributeName, i));
+                }
+            }
+        }
+        if (parallel && (m_executor != null) && (nestedEntities.size() > 1)) {
+            // only the nested entities of the root are forked, so executor threads never wait for each other
+            List<Future<Messages>> futures = new ArrayList<Future<Messages>>();
+            for (int i = 0; i < (nestedEntities.size() - 1); i++) {
+                final Entity nested = nestedEntities.get(i);
+                futures.add(m_executor.submit(new Callable<Messages>() {
+
+                    public Messages call() throws Exception {
+
+                        return validate(nested, types, false);
+                    }
+                }));
+            }
+            Messages last = validate(nestedEntities.get(nestedEntities.size() - 1), types, false);
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    result.addNested(nestedElements.get(i), futures.get(i).get());
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+                }
+            }
+            result.addNested(nestedElements.get(nestedElements.size() - 1), last);
+        } else {
+            for (int i = 0; i < nestedEntities.size(); i++) {
+                result.addNested(nestedElements.get(i), validate(nestedEntities.get(i), types, false));
+            }
+        }
+        if (compiled.m_results.size() >= MAX_RESULTS) {
+            compiled.m_results.clear();
+        }
+        compiled.m_results.put(key, result);
+        return result;
+    }
+}
@@ -43,6 +43,15 @@ public class AttributeConfiguration implements IsSerializable {
     /** The attribute label. */
     private String m_label;
 
+    /** Indicates the attribute has validation rules only the server can evaluate. */
+    private boolean m_serverValidation;
+
+    /** The error message displayed for values not matching the validation rule. */
+    private String m_validationError;
+
+    /** The regular expression attribute values have to match. */
+    private String m_validationRule;
+
     /** The widget configuration. */
     private String m_widgetConfig;
 
@@ -153,6 +162,58 @@ public class AttributeConfiguration implements IsSerializable {
         return "singleline".equals(m_displayType);
     }
 
+    /**
+     * Returns the error message displayed for values not matching the validation rule.<p>
+     * 
+     * @return the validation error message
+     */
+    public String getValidationError() {
+
+        return m_validationError;
+    }
+
+    /**
+     * Returns the regular expression attribute values have to match.<p>
+     * 
+     * @return the validation rule, <code>null</code> if not set
+     */
+    public String getValidationRule() {
+
+        return m_validationRule;
+    }
+
+    /**
+     * Returns if the attribute has validation rules only the server can evaluate.<p>
+     * 
+     * @return <code>true</code> if the attribute requires server side validation
+     */
+    public boolean isServerValidation() {
+
+        return m_serverValidation;
+    }
+
+    /**
+     * Sets if the attribute has validation rules only the server can evaluate.<p>
+     * 
+     * @param serverValidation <code>true</code> if the attribute requires server side validation
+     */
+    public void setServerValidation(boolean serverValidation) {
+
+        m_serverValidation = serverValidation;
+    }
+
+    /**
+     * Sets the regular expression attribute values have to match, evaluated on the client.<p>
+     * 
+     * @param validationRule the regular expression
+     * @param validationError the error message displayed for values not matching
+     */
+    public void setValidation(String validationRule, String validationError) {
+
+        m_validationRule = validationRule;
+        m_validationError = validationError;
+    }
+
     /**
      * Sets the widget display type.<p>
      * 
@@ -0,0 +1,342 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.alkacon.acacia.shared;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Immutable path to an attribute value, consisting of attribute names with optional value index suffixes like <code>Title[1]</code>.<p>
+ * 
+ * Paths have value semantics and compute their hash code, attribute names and value indexes on construction,
+ * so they can be used as map keys and shared between threads.
+ * Use {@link #valueOf(String[])} to get interned instances.<p>
+ * 
+ * Attribute names may contain the {@link #SEPARATOR} themselves, like <code>http:opencms/title</code>.
+ * The string representation therefore escapes separator and {@link #ESCAPE} characters within the path elements,
+ * so that {@link #parse(String)} restores the original elements of any {@link #toString()} result.<p>
+ */
+public final class AttributePath implements Serializable {
+
+    /** The escape character used by the string representation. */
+    public static final char ESCAPE = '\\';
+
+    /** The path element separator used by the string representation. */
+    public static final char SEPARATOR = '/';
+
+    /** The maximum number of interned paths, the least recently used path is evicted when exceeding this size. */
+    private static final int MAX_POOL_SIZE = 10000;
+
+    /** The interned paths in access order. */
+    private static final Map<AttributePath, AttributePath> POOL = new LinkedHashMap<AttributePath, AttributePath>(
+        16,
+        0.75f,
+        true) {
+
+        /** The serial version id. */
+        private static final long serialVersionUID = -2811406151371425846L;
+
+        /**
+         * @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
+         */
+        @Override
+        protected boolean removeEldestEntry(Entry<AttributePath, AttributePath> eldest) {
+
+            return size() > MAX_POOL_SIZE;
+        }
+    };
+
+    /** The serial version id. */
+    private static final long serialVersionUID = 3040232542698547453L;
+
+    /** The path elements. */
+    private final String[] m_elements;
+
+    /** The hash code. */
+    private final transient int m_hashCode;
+
+    /** The value indexes of the path elements. */
+    private final transient int[] m_indexes;
+
+    /** The attribute names of the path elements, without value index suffix. */
+    private final transient String[] m_names;
+
+    /**
+     * Constructor.<p>
+     * 
+     * Splits the path elements into attribute names and value indexes, see {@link ContentDefinition#extractIndex(String)}.<p>
+     * 
+     * @param elements the path elements
+     */
+    private AttributePath(String[] elements) {
+
+        m_elements = elements;
+        m_hashCode = Arrays.hashCode(elements);
+        m_indexes = new int[elements.length];
+        m_names = new String[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            m_indexes[i] = ContentDefinition.extractIndex(elements[i]);
+            m_names[i] = ContentDefinition.removeIndex(elements[i]);
+        }
+    }
+
+    /**
+     * Returns a new path for the given path elements without interning it.<p>
+     * 
+     * Use this for paths only needed for a single lookup, to avoid the pool access of {@link #valueOf(String[])}.<p>
+     * 
+     * @param elements the path elements, the array is copied
+     * 
+     * @return the path
+     */
+    public static AttributePath create(String... elements) {
+
+        return new AttributePath(copy(elements));
+    }
+
+    /**
+     * Parses the given string representation as created by {@link #toString()}.<p>
+     * 
+     * Path elements are split at unescaped {@link #SEPARATOR} characters, 
+     * any character following the {@link #ESCAPE} character is taken literally.<p>
+     * 
+     * @param path the string representation
+     * 
+     * @return the interned path
+     */
+    public static AttributePath parse(String path) {
+
+        List<String> elements = new ArrayList<String>();
+        StringBuffer element = new StringBuffer();
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if ((c == ESCAPE) && (i + 1 < path.length())) {
+                i++;
+                element.append(path.charAt(i));
+            } else if (c == SEPARATOR) {
+                elements.add(element.toString());
+                element.setLength(0);
+            } else {
+                element.append(c);
+            }
+        }
+        elements.add(element.toString());
+        return valueOf(elements.toArray(new String[elements.size()]));
+    }
+
+    /**
+     * Returns the interned path for the given path elements.<p>
+     * 
+     * @param elements the path elements, the array is copied
+     * 
+     * @return the interned path
+     */
+    public static AttributePath valueOf(String... elements) {
+
+        AttributePath path = new AttributePath(copy(elements));
+        synchronized (POOL) {
+            AttributePath result = POOL.get(path);
+            if (result == null) {
+                POOL.put(path, path);
+                result = path;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Copies the given array.<p>
+     * 
+     * @param elements the array to copy
+     * 
+     * @return the copy
+     */
+    private static String[] copy(String[] elements) {
+
+        String[] result = new String[elements.length];
+        System.arraycopy(elements, 0, result, 0, elements.length);
+        return result;
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+
+        if (obj == this) {
+            return true;
+        }
+        if (obj instanceof AttributePath) {
+            AttributePath other = (AttributePath)obj;
+            return (m_hashCode == other.m_hashCode) && Arrays.equals(m_elements, other.m_elements);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the path element at the given position.<p>
+     * 
+     * @param index the element position
+     * 
+     * @return the path element
+     */
+    public String getElement(int index) {
+
+        return m_elements[index];
+    }
+
+    /**
+     * Returns the number of path elements.<p>
+     * 
+     * @return the number of path elements
+     */
+    public int getElementCount() {
+
+        return m_elements.length;
+    }
+
+    /**
+     * Returns a copy of the path elements.<p>
+     * 
+     * @return the path elements
+     */
+    public String[] getElements() {
+
+        return copy(m_elements);
+    }
+
+    /**
+     * Returns the value index of the path element at the given position, see {@link ContentDefinition#extractIndex(String)}.<p>
+     * 
+     * @param index the element position
+     * 
+     * @return the value index, <code>0</code> if the element has no index suffix
+     */
+    public int getIndex(int index) {
+
+        return m_indexes[index];
+    }
+
+    /**
+     * Returns the last path element.<p>
+     * 
+     * @return the last path element
+     */
+    public String getLastElement() {
+
+        return m_elements[m_elements.length - 1];
+    }
+
+    /**
+     * Returns the attribute name of the path element at the given position, without the value index suffix.<p>
+     * 
+     * @param index the element position
+     * 
+     * @return the attribute name
+     */
+    public String getName(int index) {
+
+        return m_names[index];
+    }
+
+    /**
+     * Returns the path consisting of the given number of leading path elements.<p>
+     * 
+     * @param elementCount the number of path elements
+     * 
+     * @return the prefix path
+     */
+    public AttributePath getPrefix(int elementCount) {
+
+        if (elementCount == m_elements.length) {
+            return this;
+        }
+        String[] elements = new String[elementCount];
+        System.arraycopy(m_elements, 0, elements, 0, elementCount);
+        return valueOf(elements);
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+
+        return m_hashCode;
+    }
+
+    /**
+     * Returns the interned instance of this path.<p>
+     * 
+     * @return the interned path
+     */
+    public AttributePath intern() {
+
+        return valueOf(m_elements);
+    }
+
+    /**
+     * Returns the string representation, joining the path elements with {@link #SEPARATOR}.<p>
+     * 
+     * Separator and escape characters within the path elements are prefixed with {@link #ESCAPE}.<p>
+     * 
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+
+        StringBuffer result = new StringBuffer();
+        for (int i = 0; i < m_elements.length; i++) {
+            if (i > 0) {
+                result.append(SEPARATOR);
+            }
+            String element = m_elements[i];
+            for (int j = 0; j < element.length(); j++) {
+                char c = element.charAt(j);
+                if ((c == SEPARATOR) || (c == ESCAPE)) {
+                    result.append(ESCAPE);
+                }
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Restores the hash code, attribute names and value indexes of a deserialized path.<p>
+     * 
+     * @return the restored path
+     */
+    private Object readResolve() {
+
+        return new AttributePath(m_elements);
+    }
+}
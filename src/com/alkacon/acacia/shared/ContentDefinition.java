@@ -26,6 +26,8 @@ package com.alkacon.acacia.shared;
 
 import com.alkacon.vie.shared.I_Type;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -48,6 +50,12 @@ public class ContentDefinition implements IsSerializable {
     /** The content locale. */
     private String m_locale;
 
+    /** The names of the root entity attributes with values not contained in the entity yet. */
+    private List<String> m_pendingAttributes;
+
+    /** The version of the types and attribute configurations. */
+    private String m_schemaVersion;
+
     /** The tab information beans. */
     private List<TabInfo> m_tabInfos;
 
@@ -111,6 +119,48 @@ public class ContentDefinition implements IsSerializable {
         return index;
     }
 
+    /**
+     * Computes a version of the given types and attribute configurations, which changes with any of their properties.<p>
+     * 
+     * @param types the types
+     * @param configurations the attribute configurations
+     * 
+     * @return the schema version
+     */
+    public static String computeSchemaVersion(Map<String, I_Type> types, Map<String, AttributeConfiguration> configurations) {
+
+        long hash = Entity.HASH_OFFSET;
+        List<String> typeNames = new ArrayList<String>(types.keySet());
+        Collections.sort(typeNames);
+        for (String typeName : typeNames) {
+            I_Type type = types.get(typeName);
+            hash = Entity.mix(Entity.hash(hash, typeName), type.getChoiceMaxOccurrence());
+            for (String attributeName : type.getAttributeNames()) {
+                hash = Entity.hash(Entity.hash(hash, attributeName), type.getAttributeTypeName(attributeName));
+                hash = Entity.mix(hash, type.getAttributeMinOccurrence(attributeName));
+                hash = Entity.mix(hash, type.getAttributeMaxOccurrence(attributeName));
+            }
+        }
+        if (configurations != null) {
+            List<String> attributeNames = new ArrayList<String>(configurations.keySet());
+            Collections.sort(attributeNames);
+            for (String attributeName : attributeNames) {
+                AttributeConfiguration configuration = configurations.get(attributeName);
+                hash = Entity.hash(hash, attributeName);
+                hash = Entity.hash(hash, configuration.getLabel());
+                hash = Entity.hash(hash, configuration.getHelp());
+                hash = Entity.hash(hash, configuration.getWidgetName());
+                hash = Entity.hash(hash, configuration.getWidgetConfig());
+                hash = Entity.hash(hash, configuration.getDefaultValue());
+                hash = Entity.hash(hash, configuration.getDisplayType());
+                hash = Entity.hash(hash, configuration.getValidationRule());
+                hash = Entity.hash(hash, configuration.getValidationError());
+                hash = Entity.mix(hash, configuration.isServerValidation() ? 1 : 0);
+            }
+        }
+        return Long.toString(hash, 36);
+    }
+
     /**
      * Removes an attribute index suffix from the given attribute name.<p>
      * 
@@ -126,6 +176,49 @@ public class ContentDefinition implements IsSerializable {
         return attributeName;
     }
 
+    /**
+     * Creates a definition for the initial display of the content.<p>
+     * 
+     * The entity of the returned definition only contains the values of the attributes displayed on the first tab,
+     * all other attributes having values are listed as pending attributes, 
+     * to be loaded with {@link com.alkacon.acacia.shared.rpc.I_ContentService#loadEntityAttributes(String, List)}.
+     * Definitions without tabs are returned unchanged.<p>
+     * 
+     * @return the definition for the initial display
+     */
+    public ContentDefinition createInitialDefinition() {
+
+        if ((m_tabInfos == null) || (m_tabInfos.size() < 2)) {
+            return this;
+        }
+        List<String> attributeNames = m_types.get(getEntityTypeName()).getAttributeNames();
+        String secondTabStart = "/" + m_tabInfos.get(1).getStartName();
+        List<String> firstTab = new ArrayList<String>();
+        List<String> pending = new ArrayList<String>();
+        for (String attributeName : attributeNames) {
+            if (!pending.isEmpty() || attributeName.endsWith(secondTabStart)) {
+                if (m_entity.hasAttribute(attributeName)) {
+                    pending.add(attributeName);
+                }
+            } else {
+                firstTab.add(attributeName);
+            }
+        }
+        if (pending.isEmpty()) {
+            return this;
+        }
+        ContentDefinition result = new ContentDefinition(
+            m_entity.createSubset(firstTab),
+            m_configurations,
+            m_types,
+            m_tabInfos,
+            m_groupOptionalFields,
+            m_locale);
+        result.m_pendingAttributes = pending;
+        result.m_schemaVersion = m_schemaVersion;
+        return result;
+    }
+
     /**
      * Returns the attribute configurations.<p>
      *
@@ -176,6 +269,29 @@ public class ContentDefinition implements IsSerializable {
         return m_locale;
     }
 
+    /**
+     * Returns the names of the root entity attributes with values not contained in the entity yet.<p>
+     *
+     * @return the pending attribute names
+     */
+    public List<String> getPendingAttributes() {
+
+        if (m_pendingAttributes == null) {
+            return Collections.emptyList();
+        }
+        return m_pendingAttributes;
+    }
+
+    /**
+     * Returns the version of the types and attribute configurations.<p>
+     *
+     * @return the schema version, <code>null</code> if not versioned
+     */
+    public String getSchemaVersion() {
+
+        return m_schemaVersion;
+    }
+
     /**
      * Returns the tab information beans.<p>
      *
@@ -196,6 +312,18 @@ public class ContentDefinition implements IsSerializable {
         return m_types;
     }
 
+    /**
+     * Returns the version of the stored entity, to be sent as base version when saving.<p>
+     * 
+     * @return the entity version
+     * 
+     * @see Entity#getVersion()
+     */
+    public String getVersion() {
+
+        return m_entity != null ? m_entity.getVersion() : null;
+    }
+
     /**
      * Returns if optional fields should be grouped together.<p>
      * 
@@ -205,4 +333,77 @@ public class ContentDefinition implements IsSerializable {
 
         return m_groupOptionalFields;
     }
+
+    /**
+     * Returns if the types and attribute configurations have been left out, as the client already holds them.<p>
+     * 
+     * @return <code>true</code> if the schema has been left out
+     * 
+     * @see #omitKnownSchema(Map)
+     */
+    public boolean isSchemaOmitted() {
+
+        return m_types == null;
+    }
+
+    /**
+     * Returns a definition without types and attribute configurations, in case the client already holds them in the current version.<p>
+     * 
+     * The schema version is computed if not set yet.<p>
+     * 
+     * @param schemaVersions the schema versions held by the client by entity type name
+     * 
+     * @return the definition to send to the client
+     */
+    public ContentDefinition omitKnownSchema(Map<String, String> schemaVersions) {
+
+        if (m_schemaVersion == null) {
+            m_schemaVersion = computeSchemaVersion(m_types, m_configurations);
+        }
+        if ((schemaVersions == null) || !m_schemaVersion.equals(schemaVersions.get(getEntityTypeName()))) {
+            return this;
+        }
+        ContentDefinition result = new ContentDefinition(
+            m_entity,
+            null,
+            null,
+            m_tabInfos,
+            m_groupOptionalFields,
+            m_locale);
+        result.m_pendingAttributes = m_pendingAttributes;
+        result.m_schemaVersion = m_schemaVersion;
+        return result;
+    }
+
+    /**
+     * Sets the names of the root entity attributes with values not contained in the entity yet.<p>
+     *
+     * @param pendingAttributes the pending attribute names
+     */
+    public void setPendingAttributes(List<String> pendingAttributes) {
+
+        m_pendingAttributes = pendingAttributes;
+    }
+
+    /**
+     * Sets the types and attribute configurations, used to restore a schema left out by the server.<p>
+     * 
+     * @param types the types
+     * @param configurations the attribute configurations
+     */
+    public void setSchema(Map<String, I_Type> types, Map<String, AttributeConfiguration> configurations) {
+
+        m_types = types;
+        m_configurations = configurations;
+    }
+
+    /**
+     * Sets the version of the types and attribute configurations.<p>
+     * 
+     * @param schemaVersion the schema version
+     */
+    public void setSchemaVersion(String schemaVersion) {
+
+        m_schemaVersion = schemaVersion;
+    }
 }
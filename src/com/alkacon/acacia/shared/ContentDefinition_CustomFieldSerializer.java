@@ -0,0 +1,116 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.shared;
+
+import com.google.gwt.user.client.rpc.CustomFieldSerializer;
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.client.rpc.SerializationStreamReader;
+import com.google.gwt.user.client.rpc.SerializationStreamWriter;
+
+/**
+ * GWT-RPC field serializer writing a content definition in the compact {@link EntityCodec} format.<p>
+ */
+public final class ContentDefinition_CustomFieldSerializer extends CustomFieldSerializer<ContentDefinition> {
+
+    /**
+     * Nothing to do, all fields are read on instantiation.<p>
+     * 
+     * @param streamReader the stream reader
+     * @param instance the instance
+     */
+    @SuppressWarnings("unused")
+    public static void deserialize(SerializationStreamReader streamReader, ContentDefinition instance) {
+
+        // nothing to do
+    }
+
+    /**
+     * Reads the content definition from the stream.<p>
+     * 
+     * @param streamReader the stream reader
+     * 
+     * @return the content definition
+     * 
+     * @throws SerializationException if reading the stream fails or it holds no valid encoded content definition
+     */
+    public static ContentDefinition instantiate(SerializationStreamReader streamReader) throws SerializationException {
+
+        try {
+            return EntityCodec.decodeContentDefinition(streamReader.readString());
+        } catch (IllegalArgumentException e) {
+            throw new SerializationException("Invalid encoded content definition.", e);
+        }
+    }
+
+    /**
+     * Writes the content definition to the stream.<p>
+     * 
+     * @param streamWriter the stream writer
+     * @param instance the content definition
+     * 
+     * @throws SerializationException if writing the stream fails
+     */
+    public static void serialize(SerializationStreamWriter streamWriter, ContentDefinition instance) throws SerializationException {
+
+        streamWriter.writeString(EntityCodec.encode(instance));
+    }
+
+    /**
+     * @see com.google.gwt.user.client.rpc.CustomFieldSerializer#deserializeInstance(com.google.gwt.user.client.rpc.SerializationStreamReader, java.lang.Object)
+     */
+    @Override
+    public void deserializeInstance(SerializationStreamReader streamReader, ContentDefinition instance) {
+
+        deserialize(streamReader, instance);
+    }
+
+    /**
+     * @see com.google.gwt.user.client.rpc.CustomFieldSerializer#hasCustomInstantiateInstance()
+     */
+    @Override
+    public boolean hasCustomInstantiateInstance() {
+
+        return true;
+    }
+
+    /**
+     * @see com.google.gwt.user.client.rpc.CustomFieldSerializer#instantiateInstance(com.google.gwt.user.client.rpc.SerializationStreamReader)
+     */
+    @Override
+    public ContentDefinition instantiateInstance(SerializationStreamReader streamReader) throws SerializationException {
+
+        return instantiate(streamReader);
+    }
+
+    /**
+     * @see com.google.gwt.user.client.rpc.CustomFieldSerializer#serializeInstance(com.google.gwt.user.client.rpc.SerializationStreamWriter, java.lang.Object)
+     */
+    @Override
+    public void serializeInstance(SerializationStreamWriter streamWriter, ContentDefinition instance) throws SerializationException {
+
+        serialize(streamWriter, instance);
+    }
+}
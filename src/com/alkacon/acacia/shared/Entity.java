@@ -29,30 +29,60 @@ import com.alkacon.vie.shared.I_EntityAttribute;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 
 /**
  * Serializable entity implementation.<p>
  */
 public class Entity implements I_Entity, Serializable {
 
+    /** The FNV-1a 64 bit offset basis used for content hashes. */
+    static final long HASH_OFFSET = 0xcbf29ce484222325L;
+
+    /** The FNV-1a 64 bit prime used for content hashes. */
+    private static final long HASH_PRIME = 0x100000001b3L;
+
     /** The serial version id. */
     private static final long serialVersionUID = -6933931178070025267L;
 
+    /** The cached list of all attribute views. */
+    private transient List<I_EntityAttribute> m_attributeList;
+
+    /** The cached attribute views by attribute name. */
+    private transient Map<String, EntityAttribute> m_attributeViews;
+
+    /** The cached hash of the complete content including the nested entities, <code>0</code> if not computed. */
+    private transient long m_contentHash;
+
     /** The entity attribute values. */
     private Map<String, List<Entity>> m_entityAttributes;
 
+    /** The index of this and all nested entities by id, only maintained for root entities, <code>null</code> if not built yet. */
+    private transient Map<String, Entity> m_entityIndex;
+
     /** The entity id. */
     private String m_id;
 
+    /** The cached hash of the id, type name and attributes not including the nested entities, <code>0</code> if not computed. */
+    private transient long m_localHash;
+
+    /** The parent entity, <code>null</code> for root entities. */
+    private transient Entity m_parent;
+
     /** The simple attribute values. */
     private Map<String, List<String>> m_simpleAttributes;
 
     /** The type name. */
     private String m_typeName;
 
+    /** The version of the stored entity this entity is based on, only used for root entities. */
+    private String m_version;
+
     /**
      * Constructor.<p>
      * 
@@ -75,6 +105,19 @@ public class Entity implements I_Entity, Serializable {
         m_entityAttributes = new HashMap<String, List<Entity>>();
     }
 
+    /**
+     * Returns the value of a simple attribute for the given path or <code>null</code>, if the value does not exist.<p>
+     * 
+     * @param entity the entity to get the value from
+     * @param path the attribute path
+     * 
+     * @return the value
+     */
+    public static String getValueForPath(I_Entity entity, AttributePath path) {
+
+        return getValueForPath(entity, path, 0);
+    }
+
     /**
      * Returns the value of a simple attribute for the given path or <code>null</code>, if the value does not exist.<p>
      * 
@@ -85,32 +128,10 @@ public class Entity implements I_Entity, Serializable {
      */
     public static String getValueForPath(I_Entity entity, String[] pathElements) {
 
-        String result = null;
-        if ((pathElements != null) && (pathElements.length >= 1)) {
-            String attributeName = pathElements[0];
-            int index = ContentDefinition.extractIndex(attributeName);
-            if (index > 0) {
-                index--;
-            }
-            attributeName = entity.getTypeName() + "/" + ContentDefinition.removeIndex(attributeName);
-            I_EntityAttribute attribute = entity.getAttribute(attributeName);
-            if (!((attribute == null) || (attribute.isComplexValue() && (pathElements.length == 1)))) {
-                if (attribute.isSimpleValue()) {
-                    if ((pathElements.length == 1) && (attribute.getValueCount() > 0)) {
-                        List<String> values = attribute.getSimpleValues();
-                        result = values.get(index);
-                    }
-                } else if (attribute.getValueCount() > (index)) {
-                    String[] childPathElements = new String[pathElements.length - 1];
-                    for (int i = 1; i < pathElements.length; i++) {
-                        childPathElements[i - 1] = pathElements[i];
-                    }
-                    List<I_Entity> values = attribute.getComplexValues();
-                    result = getValueForPath(values.get(index), childPathElements);
-                }
-            }
+        if ((pathElements == null) || (pathElements.length == 0)) {
+            return null;
         }
-        return result;
+        return getValueForPath(entity, AttributePath.valueOf(pathElements), 0);
     }
 
     /**
@@ -166,6 +187,84 @@ public class Entity implements I_Entity, Serializable {
         return result;
     }
 
+    /**
+     * Returns the value of a simple attribute for the given path, starting at the given path element.<p>
+     * 
+     * @param entity the entity to get the value from
+     * @param path the attribute path
+     * @param offset the position of the path element addressing an attribute of the given entity
+     * 
+     * @return the value or <code>null</code>, if the value does not exist
+     */
+    private static String getValueForPath(I_Entity entity, AttributePath path, int offset) {
+
+        String result = null;
+        boolean isLast = offset == (path.getElementCount() - 1);
+        int index = path.getIndex(offset);
+        if (index > 0) {
+            index--;
+        }
+        String attributeName = entity.getTypeName() + "/" + path.getName(offset);
+        if (entity instanceof Entity) {
+            // use the direct accessors avoiding attribute views
+            Entity serializable = (Entity)entity;
+            if (serializable.m_simpleAttributes.containsKey(attributeName)) {
+                return isLast ? serializable.getSimpleValue(attributeName, index) : null;
+            }
+            Entity value = isLast ? null : serializable.getComplexValue(attributeName, index);
+            return value != null ? getValueForPath(value, path, offset + 1) : null;
+        }
+        I_EntityAttribute attribute = entity.getAttribute(attributeName);
+        if (!((attribute == null) || (attribute.isComplexValue() && isLast))) {
+            if (attribute.isSimpleValue()) {
+                if (isLast && (attribute.getValueCount() > 0)) {
+                    List<String> values = attribute.getSimpleValues();
+                    result = values.get(index);
+                }
+            } else if (attribute.getValueCount() > (index)) {
+                List<I_Entity> values = attribute.getComplexValues();
+                result = getValueForPath(values.get(index), path, offset + 1);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the given string to the given FNV-1a hash.<p>
+     * 
+     * @param hash the hash
+     * @param value the string, may be <code>null</code>
+     * 
+     * @return the resulting hash
+     */
+    static long hash(long hash, String value) {
+
+        if (value == null) {
+            return mix(hash, 0);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * HASH_PRIME;
+        }
+        // add the length, so consecutive strings can not be shifted into each other
+        return mix(hash, value.length());
+    }
+
+    /**
+     * Adds the given value to the given FNV-1a hash.<p>
+     * 
+     * @param hash the hash
+     * @param value the value
+     * 
+     * @return the resulting hash
+     */
+    static long mix(long hash, long value) {
+
+        for (int i = 0; i < 64; i += 16) {
+            hash = (hash ^ ((value >>> i) & 0xffff)) * HASH_PRIME;
+        }
+        return hash;
+    }
+
     /**
      * @see com.alkacon.vie.shared.I_Entity#addAttributeValue(java.lang.String, com.alkacon.vie.shared.I_Entity)
      */
@@ -177,6 +276,7 @@ public class Entity implements I_Entity, Serializable {
         if (!(value instanceof Entity)) {
             value = transformToSerializableEntity(value);
         }
+        onAttributeChange(attributeName);
         if (m_entityAttributes.containsKey(attributeName)) {
             m_entityAttributes.get(attributeName).add((Entity)value);
         } else {
@@ -184,6 +284,7 @@ public class Entity implements I_Entity, Serializable {
             values.add((Entity)value);
             m_entityAttributes.put(attributeName, values);
         }
+        adoptValue((Entity)value);
     }
 
     /**
@@ -194,6 +295,7 @@ public class Entity implements I_Entity, Serializable {
         if (m_entityAttributes.containsKey(attributeName)) {
             throw new RuntimeException("Attribute already exists with a entity type value.");
         }
+        onAttributeChange(attributeName);
         if (m_simpleAttributes.containsKey(attributeName)) {
             m_simpleAttributes.get(attributeName).add(value);
         } else {
@@ -203,22 +305,47 @@ public class Entity implements I_Entity, Serializable {
         }
     }
 
+    /**
+     * Creates a deep copy of this entity, keeping the ids of this entity and all nested entities and the version.<p>
+     * 
+     * @return the copy
+     */
+    public Entity createCopy() {
+
+        Entity result = copy(m_id, true);
+        result.m_version = m_version;
+        return result;
+    }
+
     /**
      * @see com.alkacon.vie.shared.I_Entity#createDeepCopy(java.lang.String)
      */
     public Entity createDeepCopy(String entityId) {
 
-        Entity result = new Entity(entityId, getTypeName());
-        for (I_EntityAttribute attribute : getAttributes()) {
-            if (attribute.isSimpleValue()) {
-                List<String> values = attribute.getSimpleValues();
-                for (String value : values) {
-                    result.addAttributeValue(attribute.getAttributeName(), value);
+        return copy(entityId, false);
+    }
+
+    /**
+     * Creates a copy of this entity containing only the values of the given attributes.<p>
+     * 
+     * Like with {@link #createCopy()}, the nested entities keep their ids.<p>
+     * 
+     * @param attributeNames the names of the attributes to copy
+     * 
+     * @return the copy
+     */
+    public Entity createSubset(Collection<String> attributeNames) {
+
+        Entity result = new Entity(getId(), getTypeName());
+        result.m_version = m_version;
+        for (String attributeName : attributeNames) {
+            if (m_simpleAttributes.containsKey(attributeName)) {
+                for (String value : m_simpleAttributes.get(attributeName)) {
+                    result.addAttributeValue(attributeName, value);
                 }
-            } else {
-                List<I_Entity> values = attribute.getComplexValues();
-                for (I_Entity value : values) {
-                    result.addAttributeValue(attribute.getAttributeName(), value.createDeepCopy(null));
+            } else if (m_entityAttributes.containsKey(attributeName)) {
+                for (Entity value : m_entityAttributes.get(attributeName)) {
+                    result.addAttributeValue(attributeName, value.createCopy());
                 }
             }
         }
@@ -261,13 +388,25 @@ public class Entity implements I_Entity, Serializable {
      */
     public I_EntityAttribute getAttribute(String attributeName) {
 
-        if (m_simpleAttributes.containsKey(attributeName)) {
-            return EntityAttribute.createSimpleAttribute(attributeName, m_simpleAttributes.get(attributeName));
+        if (m_attributeViews == null) {
+            m_attributeViews = new HashMap<String, EntityAttribute>();
         }
-        if (m_entityAttributes.containsKey(attributeName)) {
-            return EntityAttribute.createEntityAttribute(attributeName, m_entityAttributes.get(attributeName));
+        EntityAttribute result = m_attributeViews.get(attributeName);
+        if (result == null) {
+            // the views are backed by the value lists, so they stay valid until the attribute changes
+            List<String> simpleValues = m_simpleAttributes.get(attributeName);
+            if (simpleValues != null) {
+                result = EntityAttribute.createSimpleAttribute(attributeName, simpleValues);
+            } else {
+                List<Entity> entityValues = m_entityAttributes.get(attributeName);
+                if (entityValues == null) {
+                    return null;
+                }
+                result = EntityAttribute.createEntityAttribute(attributeName, entityValues);
+            }
+            m_attributeViews.put(attributeName, result);
         }
-        return null;
+        return result;
     }
 
     /**
@@ -275,40 +414,118 @@ public class Entity implements I_Entity, Serializable {
      */
     public List<I_EntityAttribute> getAttributes() {
 
-        List<I_EntityAttribute> result = new ArrayList<I_EntityAttribute>();
-        for (String name : m_simpleAttributes.keySet()) {
-            result.add(getAttribute(name));
+        if (m_attributeList == null) {
+            List<I_EntityAttribute> result = new ArrayList<I_EntityAttribute>(
+                m_simpleAttributes.size() + m_entityAttributes.size());
+            for (String name : m_simpleAttributes.keySet()) {
+                result.add(getAttribute(name));
+            }
+            for (String name : m_entityAttributes.keySet()) {
+                result.add(getAttribute(name));
+            }
+            m_attributeList = Collections.unmodifiableList(result);
         }
-        for (String name : m_entityAttributes.keySet()) {
-            result.add(getAttribute(name));
+        return m_attributeList;
+    }
+
+    /**
+     * Returns the nested entity value of the given attribute at the given index.<p>
+     * 
+     * @param attributeName the attribute name
+     * @param index the value index
+     * 
+     * @return the value or <code>null</code>, if the value does not exist
+     */
+    public Entity getComplexValue(String attributeName, int index) {
+
+        List<Entity> values = m_entityAttributes.get(attributeName);
+        return (values != null) && (index < values.size()) ? values.get(index) : null;
+    }
+
+    /**
+     * Returns a 64 bit hash of the entity content, including the id, type name and all nested entities.<p>
+     * 
+     * The hash is independent of the attribute order and stable across JVM and client side code, 
+     * so it may be used to identify entity states. 
+     * Both the hash of the attributes holding simple values and the hash of the complete subtree are cached per entity.
+     * A change resets the subtree hashes of the changed entity and its ancestors, 
+     * so after a change only the entities on the path to the root need to be hashed again.<p>
+     * 
+     * @return the content hash
+     */
+    public long getContentHash() {
+
+        if (m_contentHash != 0) {
+            return m_contentHash;
         }
-        return result;
+        if (m_localHash == 0) {
+            long localHash = hash(hash(HASH_OFFSET, m_id), m_typeName);
+            for (Entry<String, List<String>> attribute : m_simpleAttributes.entrySet()) {
+                long attributeHash = hash(HASH_OFFSET, attribute.getKey());
+                for (String value : attribute.getValue()) {
+                    attributeHash = hash(attributeHash, value);
+                }
+                // sum up the attribute hashes to be independent of the map order 
+                localHash += attributeHash;
+            }
+            // avoid the marker value for not computed hashes
+            m_localHash = localHash != 0 ? localHash : 1;
+        }
+        long result = m_localHash;
+        for (Entry<String, List<Entity>> attribute : m_entityAttributes.entrySet()) {
+            long attributeHash = hash(HASH_OFFSET, attribute.getKey());
+            for (Entity value : attribute.getValue()) {
+                // parent links are not serialized, they are needed to reset the cached hash on changes
+                value.m_parent = this;
+                attributeHash = mix(attributeHash, value.getContentHash());
+            }
+            result += attributeHash;
+        }
+        m_contentHash = result != 0 ? result : 1;
+        return m_contentHash;
+    }
+
+    /**
+     * Returns a version token identifying the current content, derived from the content hash.<p>
+     * 
+     * The server stores saved entities under this version, so after a successful save 
+     * the client may use the version of the saved entity as the base version of the next save.<p>
+     * 
+     * @return the content version
+     * 
+     * @see #getContentHash()
+     */
+    public String getContentVersion() {
+
+        return Long.toString(getContentHash(), 36);
     }
 
     /**
      * Returns this or a child entity with the given id.<p>
      * Will return <code>null</code> if no entity with the given id is present.<p>
      * 
+     * The lookup uses an id index kept up to date by the root entity, so entity ids are expected to be unique within a content.<p>
+     * 
      * @param entityId the entity id
      * 
      * @return the entity
      */
     public Entity getEntityById(String entityId) {
 
-        Entity result = null;
-        if (m_id.equals(entityId)) {
-            result = this;
-        } else {
-            for (List<Entity> children : m_entityAttributes.values()) {
-                for (Entity child : children) {
-                    result = child.getEntityById(entityId);
-                    if (result != null) {
-                        break;
-                    }
-                }
-                if (result != null) {
-                    break;
-                }
+        Entity root = getRootEntity();
+        if (root.m_entityIndex == null) {
+            root.m_entityIndex = new HashMap<String, Entity>();
+            root.addToIndex(root);
+        }
+        Entity result = root.m_entityIndex.get(entityId);
+        if ((result != null) && (root != this)) {
+            // make sure the result is nested within this entity
+            Entity ancestor = result;
+            while ((ancestor != null) && (ancestor != this)) {
+                ancestor = ancestor.m_parent;
+            }
+            if (ancestor == null) {
+                result = null;
             }
         }
         return result;
@@ -322,6 +539,44 @@ public class Entity implements I_Entity, Serializable {
         return m_id;
     }
 
+    /**
+     * Returns the entity holding this entity as an attribute value.<p>
+     * 
+     * @return the parent entity, <code>null</code> for root entities
+     */
+    public Entity getParent() {
+
+        return m_parent;
+    }
+
+    /**
+     * Returns the root entity, this entity is nested in.<p>
+     * 
+     * @return the root entity, this entity itself if it has no parent
+     */
+    public Entity getRootEntity() {
+
+        Entity result = this;
+        while (result.m_parent != null) {
+            result = result.m_parent;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the simple value of the given attribute at the given index.<p>
+     * 
+     * @param attributeName the attribute name
+     * @param index the value index
+     * 
+     * @return the value or <code>null</code>, if the value does not exist
+     */
+    public String getSimpleValue(String attributeName, int index) {
+
+        List<String> values = m_simpleAttributes.get(attributeName);
+        return (values != null) && (index < values.size()) ? values.get(index) : null;
+    }
+
     /**
      * @see com.alkacon.vie.shared.I_Entity#getTypeName()
      */
@@ -330,6 +585,36 @@ public class Entity implements I_Entity, Serializable {
         return m_typeName;
     }
 
+    /**
+     * Returns the number of values of the given attribute.<p>
+     * 
+     * @param attributeName the attribute name
+     * 
+     * @return the number of values, <code>0</code> if the attribute does not exist
+     */
+    public int getValueCount(String attributeName) {
+
+        List<String> simpleValues = m_simpleAttributes.get(attributeName);
+        if (simpleValues != null) {
+            return simpleValues.size();
+        }
+        List<Entity> entityValues = m_entityAttributes.get(attributeName);
+        return entityValues != null ? entityValues.size() : 0;
+    }
+
+    /**
+     * Returns the version of the stored entity this entity is based on.<p>
+     * 
+     * Set on entities loaded from the server and on entities sent to be saved, 
+     * allowing the server to detect and merge concurrent changes.<p>
+     * 
+     * @return the base version, <code>null</code> if unknown
+     */
+    public String getVersion() {
+
+        return m_version;
+    }
+
     /**
      * @see com.alkacon.vie.shared.I_Entity#hasAttribute(java.lang.String)
      */
@@ -344,7 +629,12 @@ public class Entity implements I_Entity, Serializable {
     public void insertAttributeValue(String attributeName, I_Entity value, int index) {
 
         if (m_entityAttributes.containsKey(attributeName)) {
+            if (!(value instanceof Entity)) {
+                value = transformToSerializableEntity(value);
+            }
+            onAttributeChange(attributeName);
             m_entityAttributes.get(attributeName).add(index, (Entity)value);
+            adoptValue((Entity)value);
         } else {
             setAttributeValue(attributeName, value);
         }
@@ -355,6 +645,7 @@ public class Entity implements I_Entity, Serializable {
      */
     public void insertAttributeValue(String attributeName, String value, int index) {
 
+        onAttributeChange(attributeName);
         if (m_simpleAttributes.containsKey(attributeName)) {
             m_simpleAttributes.get(attributeName).add(index, value);
         } else {
@@ -375,8 +666,9 @@ public class Entity implements I_Entity, Serializable {
      */
     public void removeAttributeSilent(String attributeName) {
 
+        onAttributeChange(attributeName);
         m_simpleAttributes.remove(attributeName);
-        m_entityAttributes.remove(attributeName);
+        releaseValues(m_entityAttributes.remove(attributeName));
     }
 
     /**
@@ -384,6 +676,7 @@ public class Entity implements I_Entity, Serializable {
      */
     public void removeAttributeValue(String attributeName, int index) {
 
+        onAttributeChange(attributeName);
         if (m_simpleAttributes.containsKey(attributeName)) {
             List<String> values = m_simpleAttributes.get(attributeName);
             if ((values.size() == 1) && (index == 0)) {
@@ -396,7 +689,7 @@ public class Entity implements I_Entity, Serializable {
             if ((values.size() == 1) && (index == 0)) {
                 removeAttribute(attributeName);
             } else {
-                values.remove(index);
+                releaseValue(values.remove(index));
             }
         }
 
@@ -408,13 +701,15 @@ public class Entity implements I_Entity, Serializable {
     public void setAttributeValue(String attributeName, I_Entity value) {
 
         // make sure there is no simple attribute value set
+        onAttributeChange(attributeName);
         m_simpleAttributes.remove(attributeName);
         if (!(value instanceof Entity)) {
             value = transformToSerializableEntity(value);
         }
         List<Entity> values = new ArrayList<Entity>();
         values.add((Entity)value);
-        m_entityAttributes.put(attributeName, values);
+        releaseValues(m_entityAttributes.put(attributeName, values));
+        adoptValue((Entity)value);
     }
 
     /**
@@ -429,6 +724,7 @@ public class Entity implements I_Entity, Serializable {
             // ensure serializable entity
             value = transformToSerializableEntity(value);
         }
+        onAttributeChange(attributeName);
         if (!m_entityAttributes.containsKey(attributeName)) {
             if (index != 0) {
                 throw new IndexOutOfBoundsException();
@@ -438,8 +734,9 @@ public class Entity implements I_Entity, Serializable {
                 m_entityAttributes.put(attributeName, values);
             }
         } else {
-            m_entityAttributes.get(attributeName).add(index, (Entity)value);
+            releaseValue(m_entityAttributes.get(attributeName).set(index, (Entity)value));
         }
+        adoptValue((Entity)value);
     }
 
     /**
@@ -447,7 +744,8 @@ public class Entity implements I_Entity, Serializable {
      */
     public void setAttributeValue(String attributeName, String value) {
 
-        m_entityAttributes.remove(attributeName);
+        onAttributeChange(attributeName);
+        releaseValues(m_entityAttributes.remove(attributeName));
         List<String> values = new ArrayList<String>();
         values.add(value);
         m_simpleAttributes.put(attributeName, values);
@@ -461,6 +759,7 @@ public class Entity implements I_Entity, Serializable {
         if (m_entityAttributes.containsKey(attributeName)) {
             throw new RuntimeException("Attribute already exists with a simple type value.");
         }
+        onAttributeChange(attributeName);
         if (!m_simpleAttributes.containsKey(attributeName)) {
             if (index != 0) {
                 throw new IndexOutOfBoundsException();
@@ -470,10 +769,20 @@ public class Entity implements I_Entity, Serializable {
                 m_simpleAttributes.put(attributeName, values);
             }
         } else {
-            m_simpleAttributes.get(attributeName).add(index, value);
+            m_simpleAttributes.get(attributeName).set(index, value);
         }
     }
 
+    /**
+     * Sets the version of the stored entity this entity is based on.<p>
+     * 
+     * @param version the base version
+     */
+    public void setVersion(String version) {
+
+        m_version = version;
+    }
+
     /**
      * @see com.alkacon.vie.shared.I_Entity#toJSON()
      */
@@ -482,4 +791,135 @@ public class Entity implements I_Entity, Serializable {
         // TODO: Auto-generated method stub
         return null;
     }
+
+    /**
+     * Adds the given entity and its nested entities to the entity index of this root entity and links the nested entities to their parents.<p>
+     * 
+     * @param entity the entity to add
+     */
+    private void addToIndex(Entity entity) {
+
+        m_entityIndex.put(entity.m_id, entity);
+        for (List<Entity> values : entity.m_entityAttributes.values()) {
+            for (Entity value : values) {
+                // parent links are not serialized, so they are restored here
+                value.m_parent = entity;
+                value.m_entityIndex = null;
+                addToIndex(value);
+            }
+        }
+    }
+
+    /**
+     * Links the given new attribute value to this entity and adds it to the entity index of the root entity.<p>
+     * 
+     * @param value the new attribute value
+     */
+    private void adoptValue(Entity value) {
+
+        if ((value.m_parent != null) && (value.m_parent != this)) {
+            // the value is moved from another parent
+            Entity previousRoot = value.m_parent.getRootEntity();
+            if (previousRoot.m_entityIndex != null) {
+                previousRoot.removeFromIndex(value);
+            }
+        }
+        value.m_parent = this;
+        value.m_entityIndex = null;
+        Entity root = getRootEntity();
+        if (root.m_entityIndex != null) {
+            root.addToIndex(value);
+        }
+    }
+
+    /**
+     * Creates a deep copy of this entity.<p>
+     * 
+     * @param entityId the id of the copy
+     * @param keepIds <code>true</code> to keep the ids of the nested entities, <code>false</code> to leave them unset
+     * 
+     * @return the copy
+     */
+    private Entity copy(String entityId, boolean keepIds) {
+
+        Entity result = new Entity(entityId, getTypeName());
+        for (Entry<String, List<String>> attribute : m_simpleAttributes.entrySet()) {
+            result.m_simpleAttributes.put(attribute.getKey(), new ArrayList<String>(attribute.getValue()));
+        }
+        for (Entry<String, List<Entity>> attribute : m_entityAttributes.entrySet()) {
+            List<Entity> values = new ArrayList<Entity>(attribute.getValue().size());
+            for (Entity value : attribute.getValue()) {
+                Entity copy = value.copy(keepIds ? value.m_id : null, keepIds);
+                copy.m_parent = result;
+                values.add(copy);
+            }
+            result.m_entityAttributes.put(attribute.getKey(), values);
+        }
+        return result;
+    }
+
+    /**
+     * Resets the cached data of the given attribute after a change.<p>
+     * 
+     * @param attributeName the attribute name
+     */
+    private void onAttributeChange(String attributeName) {
+
+        m_localHash = 0;
+        // a cached subtree hash implies cached hashes of all nested entities, so stop at the first reset ancestor
+        for (Entity entity = this; (entity != null) && (entity.m_contentHash != 0); entity = entity.m_parent) {
+            entity.m_contentHash = 0;
+        }
+        m_attributeList = null;
+        if (m_attributeViews != null) {
+            m_attributeViews.remove(attributeName);
+        }
+    }
+
+    /**
+     * Unlinks the given removed attribute value from this entity and removes it from the entity index of the root entity.<p>
+     * 
+     * @param value the removed attribute value
+     */
+    private void releaseValue(Entity value) {
+
+        Entity root = getRootEntity();
+        if (root.m_entityIndex != null) {
+            root.removeFromIndex(value);
+        }
+        if (value.m_parent == this) {
+            value.m_parent = null;
+        }
+    }
+
+    /**
+     * Unlinks the given removed attribute values from this entity.<p>
+     * 
+     * @param values the removed attribute values, may be <code>null</code>
+     */
+    private void releaseValues(List<Entity> values) {
+
+        if (values != null) {
+            for (Entity value : values) {
+                releaseValue(value);
+            }
+        }
+    }
+
+    /**
+     * Removes the given entity and its nested entities from the entity index of this root entity.<p>
+     * 
+     * @param entity the entity to remove
+     */
+    private void removeFromIndex(Entity entity) {
+
+        if (m_entityIndex.get(entity.m_id) == entity) {
+            m_entityIndex.remove(entity.m_id);
+        }
+        for (List<Entity> values : entity.m_entityAttributes.values()) {
+            for (Entity value : values) {
+                removeFromIndex(value);
+            }
+        }
+    }
 }
@@ -28,7 +28,6 @@ import com.alkacon.vie.shared.I_Entity;
 import com.alkacon.vie.shared.I_EntityAttribute;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -107,11 +106,11 @@ public class EntityAttribute implements I_EntityAttribute, Serializable {
     /**
      * @see com.alkacon.vie.shared.I_EntityAttribute#getComplexValues()
      */
+    @SuppressWarnings("unchecked")
     public List<I_Entity> getComplexValues() {
 
-        List<I_Entity> result = new ArrayList<I_Entity>();
-        result.addAll(m_entityValues);
-        return Collections.unmodifiableList(result);
+        // the values list is unmodifiable, so it is safe to use it as a list of the super type
+        return (List<I_Entity>)(List<?>)m_entityValues;
     }
 
     /**
@@ -127,7 +126,8 @@ public class EntityAttribute implements I_EntityAttribute, Serializable {
      */
     public List<String> getSimpleValues() {
 
-        return Collections.unmodifiableList(m_simpleValues);
+        // the values list is already unmodifiable
+        return m_simpleValues;
     }
 
     /**
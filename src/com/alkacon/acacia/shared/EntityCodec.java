@@ -0,0 +1,961 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.shared;
+
+import com.alkacon.acacia.shared.PatchOperation.OperationType;
+import com.alkacon.vie.shared.I_EntityAttribute;
+import com.alkacon.vie.shared.I_Type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Compact string encoding of entities, content definitions, entity patches and validation results, used for RPC and storage.<p>
+ * 
+ * Names like attribute names, type names and entity ids are written once to a string table at the start of the payload
+ * and referenced by their table index afterwards. Numbers are written in base 36 terminated by a comma,
+ * strings are prefixed with their length, so they need no escaping.<p>
+ */
+public final class EntityCodec {
+
+    /**
+     * Reads encoded data.<p>
+     * 
+     * The data may come from a client, so every count and length is checked against the remaining input
+     * and all decoding failures result in an {@link IllegalArgumentException}.<p>
+     */
+    static final class Reader {
+
+        /** The encoded data. */
+        private String m_data;
+
+        /** The current read position. */
+        private int m_position;
+
+        /** The string table. */
+        private String[] m_table;
+
+        /**
+         * Constructor.<p>
+         * 
+         * @param data the encoded data
+         */
+        Reader(String data) {
+
+            if (data == null) {
+                throw new IllegalArgumentException("No encoded data.");
+            }
+            m_data = data;
+        }
+
+        /**
+         * Returns if there is data left to read.<p>
+         * 
+         * @return <code>true</code> if there is data left to read
+         */
+        boolean hasMore() {
+
+            return m_position < m_data.length();
+        }
+
+        /**
+         * Reads a boolean.<p>
+         * 
+         * @return the boolean
+         */
+        boolean readBoolean() {
+
+            return readInt() != 0;
+        }
+
+        /**
+         * Reads a count.<p>
+         * 
+         * Every counted item takes at least one character, so counts exceeding the remaining input are rejected 
+         * before anything is allocated for them.<p>
+         * 
+         * @return the count
+         */
+        int readCount() {
+
+            int count = readOptionalCount();
+            if (count < 0) {
+                throw new IllegalArgumentException("Invalid count " + count + " before position " + m_position + ".");
+            }
+            return count;
+        }
+
+        /**
+         * Reads the format version and the string table.<p>
+         */
+        void readHeader() {
+
+            int version = readInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported encoding version " + version + ".");
+            }
+            m_table = new String[readCount()];
+            for (int i = 0; i < m_table.length; i++) {
+                m_table[i] = readValue();
+            }
+        }
+
+        /**
+         * Reads an integer.<p>
+         * 
+         * @return the integer
+         */
+        int readInt() {
+
+            int end = m_data.indexOf(INT_END, m_position);
+            if (end < 0) {
+                throw new IllegalArgumentException("Unexpected end of data at position " + m_position + ".");
+            }
+            int result;
+            try {
+                result = Integer.parseInt(m_data.substring(m_position, end), RADIX);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid integer at position " + m_position + ".", e);
+            }
+            m_position = end + 1;
+            return result;
+        }
+
+        /**
+         * Reads a name from the string table.<p>
+         * 
+         * @return the name
+         */
+        String readName() {
+
+            int index = readInt();
+            if ((index < 0) || (index >= m_table.length)) {
+                throw new IllegalArgumentException("Invalid name index "
+                    + index
+                    + " before position "
+                    + m_position
+                    + ".");
+            }
+            return m_table[index];
+        }
+
+        /**
+         * Reads a count, -1 standing for <code>null</code>.<p>
+         * 
+         * @return the count
+         * 
+         * @see #readCount()
+         */
+        int readOptionalCount() {
+
+            int count = readInt();
+            if ((count < -1) || (count > (m_data.length() - m_position))) {
+                throw new IllegalArgumentException("Invalid count " + count + " before position " + m_position + ".");
+            }
+            return count;
+        }
+
+        /**
+         * Reads a length prefixed string.<p>
+         * 
+         * @return the string
+         */
+        String readValue() {
+
+            int length = readOptionalCount();
+            if (length < 0) {
+                return null;
+            }
+            String result = m_data.substring(m_position, m_position + length);
+            m_position += length;
+            return result;
+        }
+    }
+
+    /**
+     * Writes encoded data.<p>
+     */
+    static final class Writer {
+
+        /** The encoded data following the string table. */
+        private StringBuilder m_body = new StringBuilder();
+
+        /** The string table indexes by name. */
+        private Map<String, Integer> m_indexes = new HashMap<String, Integer>();
+
+        /** The string table. */
+        private List<String> m_table = new ArrayList<String>();
+
+        /**
+         * Returns the encoded data including the string table.<p>
+         * 
+         * @return the encoded data
+         */
+        String getResult() {
+
+            StringBuilder result = new StringBuilder(m_body.length() + (m_table.size() * 16));
+            appendInt(result, VERSION);
+            appendInt(result, m_table.size());
+            for (String name : m_table) {
+                appendValue(result, name);
+            }
+            result.append(m_body);
+            return result.toString();
+        }
+
+        /**
+         * Writes a boolean.<p>
+         * 
+         * @param value the boolean
+         */
+        void writeBoolean(boolean value) {
+
+            appendInt(m_body, value ? 1 : 0);
+        }
+
+        /**
+         * Writes an integer.<p>
+         * 
+         * @param value the integer
+         */
+        void writeInt(int value) {
+
+            appendInt(m_body, value);
+        }
+
+        /**
+         * Writes a name as reference to the string table.<p>
+         * 
+         * @param name the name
+         */
+        void writeName(String name) {
+
+            Integer index = m_indexes.get(name);
+            if (index == null) {
+                index = new Integer(m_table.size());
+                m_table.add(name);
+                m_indexes.put(name, index);
+            }
+            appendInt(m_body, index.intValue());
+        }
+
+        /**
+         * Writes a length prefixed string.<p>
+         * 
+         * @param value the string
+         */
+        void writeValue(String value) {
+
+            appendValue(m_body, value);
+        }
+    }
+
+    /** The integer terminator. */
+    static final char INT_END = ',';
+
+    /** The radix used for integers. */
+    static final int RADIX = 36;
+
+    /** The format version. */
+    static final int VERSION = 1;
+
+    /**
+     * Hidden constructor.<p>
+     */
+    private EntityCodec() {
+
+        // nothing to do
+    }
+
+    /**
+     * Appends an entity patch to an edit journal.<p>
+     * 
+     * @param journal the journal
+     * @param patch the patch
+     * 
+     * @return the journal including the patch
+     * 
+     * @see #encodeJournal(String, EntityPatch)
+     */
+    public static String appendJournal(String journal, EntityPatch patch) {
+
+        StringBuilder buffer = new StringBuilder(journal);
+        appendValue(buffer, encode(patch));
+        return buffer.toString();
+    }
+
+    /**
+     * Decodes a content definition.<p>
+     * 
+     * @param data the encoded data
+     * 
+     * @return the content definition
+     * 
+     * @throws IllegalArgumentException if the data is not a valid encoded content definition
+     */
+    public static ContentDefinition decodeContentDefinition(String data) {
+
+        return readContentDefinition(createReader(data));
+    }
+
+    /**
+     * Decodes an entity.<p>
+     * 
+     * @param data the encoded data
+     * 
+     * @return the entity
+     * 
+     * @throws IllegalArgumentException if the data is not a valid encoded entity
+     */
+    public static Entity decodeEntity(String data) {
+
+        return readRootEntity(createReader(data));
+    }
+
+    /**
+     * Decodes an entity patch.<p>
+     * 
+     * @param data the encoded data
+     * 
+     * @return the entity patch
+     * 
+     * @throws IllegalArgumentException if the data is not a valid encoded entity patch
+     */
+    public static EntityPatch decodeEntityPatch(String data) {
+
+        return readEntityPatch(createReader(data));
+    }
+
+    /**
+     * Replays an edit journal.<p>
+     * 
+     * The patches are applied to the last snapshot preceding them, patches without a preceding snapshot are ignored. 
+     * A damaged journal, e.g. by a write interrupted by closing the browser, results in a runtime exception.<p>
+     * 
+     * @param journal the journal
+     * 
+     * @return the entity including the journaled changes, its version being the version the changes are based on, 
+     *         <code>null</code> if the journal holds no snapshot
+     * 
+     * @see #encodeJournal(String, EntityPatch)
+     */
+    public static Entity decodeJournal(String journal) {
+
+        List<String> entries = readJournalEntries(journal);
+        Entity result = null;
+        for (int i = 1; i < entries.size(); i++) {
+            EntityPatch patch = decodeEntityPatch(entries.get(i));
+            if (patch.isComplete()) {
+                result = patch.getEntity();
+            } else if (result != null) {
+                for (PatchOperation operation : patch.getOperations()) {
+                    operation.apply(result);
+                }
+            }
+        }
+        if (result != null) {
+            result.setVersion(entries.get(0));
+        }
+        return result;
+    }
+
+    /**
+     * Decodes a validation result.<p>
+     * 
+     * @param data the encoded data
+     * 
+     * @return the validation result
+     * 
+     * @throws IllegalArgumentException if the data is not a valid encoded validation result
+     */
+    public static ValidationResult decodeValidationResult(String data) {
+
+        Reader reader = createReader(data);
+        Map<String, Map<AttributePath, String>> errors = readMessages(reader);
+        Map<String, Map<AttributePath, String>> warnings = readMessages(reader);
+        Set<String> conflicts = null;
+        int count = reader.readCount();
+        if (count > 0) {
+            conflicts = new HashSet<String>();
+            for (int i = 0; i < count; i++) {
+                conflicts.add(reader.readName());
+            }
+        }
+        return new ValidationResult(errors, warnings, conflicts);
+    }
+
+    /**
+     * Encodes a content definition.<p>
+     * 
+     * @param definition the content definition
+     * 
+     * @return the encoded data
+     */
+    public static String encode(ContentDefinition definition) {
+
+        Writer writer = new Writer();
+        writeContentDefinition(writer, definition);
+        return writer.getResult();
+    }
+
+    /**
+     * Encodes an entity.<p>
+     * 
+     * @param entity the entity
+     * 
+     * @return the encoded data
+     */
+    public static String encode(Entity entity) {
+
+        Writer writer = new Writer();
+        writeRootEntity(writer, entity);
+        return writer.getResult();
+    }
+
+    /**
+     * Encodes an entity patch.<p>
+     * 
+     * @param patch the entity patch
+     * 
+     * @return the encoded data
+     */
+    public static String encode(EntityPatch patch) {
+
+        Writer writer = new Writer();
+        writeEntityPatch(writer, patch);
+        return writer.getResult();
+    }
+
+    /**
+     * Encodes a validation result.<p>
+     * 
+     * @param result the validation result
+     * 
+     * @return the encoded data
+     */
+    public static String encode(ValidationResult result) {
+
+        Writer writer = new Writer();
+        writeMessages(writer, result.getErrors());
+        writeMessages(writer, result.getWarnings());
+        writer.writeInt(result.getConflicts().size());
+        for (String entityId : result.getConflicts()) {
+            writer.writeName(entityId);
+        }
+        return writer.getResult();
+    }
+
+    /**
+     * Starts a new edit journal with a snapshot of the entity.<p>
+     * 
+     * The journal holds the version the journaled changes are based on, a complete snapshot of the entity 
+     * and the patches appended since, each entry prefixed with its length.<p>
+     * 
+     * @param baseVersion the version the changes are based on, <code>null</code> for new entities
+     * @param snapshot the complete patch holding the snapshot
+     * 
+     * @return the journal
+     * 
+     * @see #appendJournal(String, EntityPatch)
+     * @see #decodeJournal(String)
+     */
+    public static String encodeJournal(String baseVersion, EntityPatch snapshot) {
+
+        if (!snapshot.isComplete()) {
+            throw new IllegalArgumentException("A journal has to start with a complete snapshot.");
+        }
+        StringBuilder buffer = new StringBuilder();
+        appendValue(buffer, baseVersion);
+        appendValue(buffer, encode(snapshot));
+        return buffer.toString();
+    }
+
+    /**
+     * Appends an integer.<p>
+     * 
+     * @param buffer the buffer to append to
+     * @param value the integer
+     */
+    static void appendInt(StringBuilder buffer, int value) {
+
+        buffer.append(Integer.toString(value, RADIX)).append(INT_END);
+    }
+
+    /**
+     * Appends a length prefixed string.<p>
+     * 
+     * @param buffer the buffer to append to
+     * @param value the string, may be <code>null</code>
+     */
+    static void appendValue(StringBuilder buffer, String value) {
+
+        if (value == null) {
+            appendInt(buffer, -1);
+        } else {
+            appendInt(buffer, value.length());
+            buffer.append(value);
+        }
+    }
+
+    /**
+     * Creates a reader for the encoded data and reads its header.<p>
+     * 
+     * @param data the encoded data
+     * 
+     * @return the reader
+     */
+    private static Reader createReader(String data) {
+
+        Reader reader = new Reader(data);
+        reader.readHeader();
+        return reader;
+    }
+
+    /**
+     * Reads a content definition.<p>
+     * 
+     * @param reader the reader
+     * 
+     * @return the content definition
+     */
+    private static ContentDefinition readContentDefinition(Reader reader) {
+
+        Entity entity = reader.readBoolean() ? readRootEntity(reader) : null;
+        Map<String, AttributeConfiguration> configurations = null;
+        int count = reader.readOptionalCount();
+        if (count >= 0) {
+            configurations = new HashMap<String, AttributeConfiguration>();
+            for (int i = 0; i < count; i++) {
+                String attributeName = reader.readName();
+                AttributeConfiguration configuration = new AttributeConfiguration(
+                    reader.readValue(),
+                    reader.readValue(),
+                    reader.readName(),
+                    reader.readValue(),
+                    reader.readValue(),
+                    reader.readName());
+                configuration.setValidation(reader.readValue(), reader.readValue());
+                configuration.setServerValidation(reader.readBoolean());
+                configurations.put(attributeName, configuration);
+            }
+        }
+        Map<String, I_Type> types = null;
+        count = reader.readOptionalCount();
+        if (count >= 0) {
+            types = new HashMap<String, I_Type>();
+            for (int i = 0; i < count; i++) {
+                String key = reader.readName();
+                Type type = new Type(reader.readName());
+                type.setChoiceMaxOccurrence(reader.readInt());
+                int attributeCount = reader.readCount();
+                for (int j = 0; j < attributeCount; j++) {
+                    type.addAttribute(reader.readName(), reader.readName(), reader.readInt(), reader.readInt());
+                }
+                types.put(key, type);
+            }
+        }
+        List<TabInfo> tabInfos = null;
+        count = reader.readOptionalCount();
+        if (count >= 0) {
+            tabInfos = new ArrayList<TabInfo>();
+            for (int i = 0; i < count; i++) {
+                tabInfos.add(new TabInfo(reader.readValue(), reader.readName(), reader.readName(), reader.readBoolean()));
+            }
+        }
+        boolean groupOptionalFields = reader.readBoolean();
+        String locale = reader.readName();
+        ContentDefinition result = new ContentDefinition(
+            entity,
+            configurations,
+            types,
+            tabInfos,
+            groupOptionalFields,
+            locale);
+        count = reader.readCount();
+        if (count > 0) {
+            List<String> pendingAttributes = new ArrayList<String>();
+            for (int i = 0; i < count; i++) {
+                pendingAttributes.add(reader.readName());
+            }
+            result.setPendingAttributes(pendingAttributes);
+        }
+        result.setSchemaVersion(reader.readName());
+        return result;
+    }
+
+    /**
+     * Reads an entity.<p>
+     * 
+     * @param reader the reader
+     * 
+     * @return the entity
+     */
+    private static Entity readEntity(Reader reader) {
+
+        Entity entity = new Entity(reader.readName(), reader.readName());
+        int attributeCount = reader.readCount();
+        for (int i = 0; i < attributeCount; i++) {
+            String attributeName = reader.readName();
+            boolean isSimple = reader.readBoolean();
+            int valueCount = reader.readCount();
+            for (int j = 0; j < valueCount; j++) {
+                if (isSimple) {
+                    entity.addAttributeValue(attributeName, reader.readValue());
+                } else {
+                    entity.addAttributeValue(attributeName, readEntity(reader));
+                }
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * Reads an entity patch.<p>
+     * 
+     * @param reader the reader
+     * 
+     * @return the entity patch
+     */
+    private static EntityPatch readEntityPatch(Reader reader) {
+
+        String entityId = reader.readName();
+        if (reader.readBoolean()) {
+            Entity entity = readRootEntity(reader);
+            return new EntityPatch(entity, reader.readName());
+        }
+        String baseVersion = reader.readName();
+        String version = reader.readName();
+        int count = reader.readCount();
+        List<PatchOperation> operations = new ArrayList<PatchOperation>(count);
+        for (int i = 0; i < count; i++) {
+            String typeName = reader.readName();
+            if (typeName == null) {
+                throw new IllegalArgumentException("Missing patch operation type.");
+            }
+            OperationType type = OperationType.valueOf(typeName);
+            String operationEntityId = reader.readName();
+            String attributeName = reader.readName();
+            int index = reader.readInt();
+            int targetIndex = reader.readInt();
+            List<String> simpleValues = null;
+            int valueCount = reader.readOptionalCount();
+            if (valueCount >= 0) {
+                simpleValues = new ArrayList<String>(valueCount);
+                for (int j = 0; j < valueCount; j++) {
+                    simpleValues.add(reader.readValue());
+                }
+            }
+            List<Entity> entityValues = null;
+            valueCount = reader.readOptionalCount();
+            if (valueCount >= 0) {
+                entityValues = new ArrayList<Entity>(valueCount);
+                for (int j = 0; j < valueCount; j++) {
+                    entityValues.add(readEntity(reader));
+                }
+            }
+            switch (type) {
+                case insert:
+                    if ((simpleValues != null) && !simpleValues.isEmpty()) {
+                        operations.add(PatchOperation.createInsert(
+                            operationEntityId,
+                            attributeName,
+                            index,
+                            simpleValues.get(0)));
+                    } else if ((entityValues != null) && !entityValues.isEmpty()) {
+                        operations.add(PatchOperation.createInsert(
+                            operationEntityId,
+                            attributeName,
+                            index,
+                            entityValues.get(0)));
+                    } else {
+                        throw new IllegalArgumentException("Missing value for the insert operation " + i + ".");
+                    }
+                    break;
+                case move:
+                    operations.add(PatchOperation.createMove(operationEntityId, attributeName, index, targetIndex));
+                    break;
+                case remove:
+                    operations.add(PatchOperation.createRemove(operationEntityId, attributeName, index));
+                    break;
+                case replace:
+                    operations.add(PatchOperation.createReplace(
+                        operationEntityId,
+                        attributeName,
+                        simpleValues,
+                        entityValues));
+                    break;
+                case set:
+                default:
+                    if ((simpleValues == null) || simpleValues.isEmpty()) {
+                        throw new IllegalArgumentException("Missing value for the set operation " + i + ".");
+                    }
+                    operations.add(PatchOperation.createSet(operationEntityId, attributeName, index, simpleValues.get(0)));
+            }
+        }
+        return new EntityPatch(entityId, baseVersion, version, operations);
+    }
+
+    /**
+     * Splits an edit journal into its entries.<p>
+     * 
+     * @param journal the journal
+     * 
+     * @return the entries
+     */
+    private static List<String> readJournalEntries(String journal) {
+
+        List<String> result = new ArrayList<String>();
+        Reader reader = new Reader(journal);
+        while (reader.hasMore()) {
+            result.add(reader.readValue());
+        }
+        return result;
+    }
+
+    /**
+     * Reads validation messages.<p>
+     * 
+     * @param reader the reader
+     * 
+     * @return the messages by entity id and attribute path
+     */
+    private static Map<String, Map<AttributePath, String>> readMessages(Reader reader) {
+
+        int count = reader.readOptionalCount();
+        if (count < 0) {
+            return null;
+        }
+        Map<String, Map<AttributePath, String>> result = new HashMap<String, Map<AttributePath, String>>();
+        for (int i = 0; i < count; i++) {
+            String entityId = reader.readName();
+            int messageCount = reader.readCount();
+            Map<AttributePath, String> messages = new LinkedHashMap<AttributePath, String>();
+            for (int j = 0; j < messageCount; j++) {
+                String[] elements = new String[reader.readCount()];
+                for (int k = 0; k < elements.length; k++) {
+                    elements[k] = reader.readName();
+                }
+                messages.put(AttributePath.valueOf(elements), reader.readValue());
+            }
+            result.put(entityId, messages);
+        }
+        return result;
+    }
+
+    /**
+     * Reads a root entity including its version.<p>
+     * 
+     * @param reader the reader
+     * 
+     * @return the entity
+     */
+    private static Entity readRootEntity(Reader reader) {
+
+        String version = reader.readValue();
+        Entity entity = readEntity(reader);
+        entity.setVersion(version);
+        return entity;
+    }
+
+    /**
+     * Writes a content definition.<p>
+     * 
+     * @param writer the writer
+     * @param definition the content definition
+     */
+    private static void writeContentDefinition(Writer writer, ContentDefinition definition) {
+
+        writer.writeBoolean(definition.getEntity() != null);
+        if (definition.getEntity() != null) {
+            writeRootEntity(writer, definition.getEntity());
+        }
+        Map<String, AttributeConfiguration> configurations = definition.getConfigurations();
+        writer.writeInt(configurations != null ? configurations.size() : -1);
+        if (configurations != null) {
+            for (Entry<String, AttributeConfiguration> entry : configurations.entrySet()) {
+                AttributeConfiguration configuration = entry.getValue();
+                writer.writeName(entry.getKey());
+                writer.writeValue(configuration.getLabel());
+                writer.writeValue(configuration.getHelp());
+                writer.writeName(configuration.getWidgetName());
+                writer.writeValue(configuration.getWidgetConfig());
+                writer.writeValue(configuration.getDefaultValue());
+                writer.writeName(configuration.getDisplayType());
+                writer.writeValue(configuration.getValidationRule());
+                writer.writeValue(configuration.getValidationError());
+                writer.writeBoolean(configuration.isServerValidation());
+            }
+        }
+        Map<String, I_Type> types = definition.getTypes();
+        writer.writeInt(types != null ? types.size() : -1);
+        if (types != null) {
+            for (Entry<String, I_Type> entry : types.entrySet()) {
+                I_Type type = entry.getValue();
+                writer.writeName(entry.getKey());
+                writer.writeName(type.getId());
+                writer.writeInt(type.getChoiceMaxOccurrence());
+                List<String> attributeNames = type.getAttributeNames();
+                writer.writeInt(attributeNames.size());
+                for (String attributeName : attributeNames) {
+                    writer.writeName(attributeName);
+                    writer.writeName(type.getAttributeTypeName(attributeName));
+                    writer.writeInt(type.getAttributeMinOccurrence(attributeName));
+                    writer.writeInt(type.getAttributeMaxOccurrence(attributeName));
+                }
+            }
+        }
+        List<TabInfo> tabInfos = definition.getTabInfos();
+        writer.writeInt(tabInfos != null ? tabInfos.size() : -1);
+        if (tabInfos != null) {
+            for (TabInfo tabInfo : tabInfos) {
+                writer.writeValue(tabInfo.getTabName());
+                writer.writeName(tabInfo.getTabId());
+                writer.writeName(tabInfo.getStartName());
+                writer.writeBoolean(tabInfo.isCollapsed());
+            }
+        }
+        writer.writeBoolean(definition.isGroupOptionalFields());
+        writer.writeName(definition.getLocale());
+        List<String> pendingAttributes = definition.getPendingAttributes();
+        writer.writeInt(pendingAttributes.size());
+        for (String attributeName : pendingAttributes) {
+            writer.writeName(attributeName);
+        }
+        writer.writeName(definition.getSchemaVersion());
+    }
+
+    /**
+     * Writes an entity.<p>
+     * 
+     * @param writer the writer
+     * @param entity the entity
+     */
+    private static void writeEntity(Writer writer, Entity entity) {
+
+        writer.writeName(entity.getId());
+        writer.writeName(entity.getTypeName());
+        List<I_EntityAttribute> attributes = entity.getAttributes();
+        writer.writeInt(attributes.size());
+        for (I_EntityAttribute attribute : attributes) {
+            String attributeName = attribute.getAttributeName();
+            writer.writeName(attributeName);
+            writer.writeBoolean(attribute.isSimpleValue());
+            int valueCount = entity.getValueCount(attributeName);
+            writer.writeInt(valueCount);
+            for (int i = 0; i < valueCount; i++) {
+                if (attribute.isSimpleValue()) {
+                    writer.writeValue(entity.getSimpleValue(attributeName, i));
+                } else {
+                    writeEntity(writer, entity.getComplexValue(attributeName, i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes an entity patch.<p>
+     * 
+     * @param writer the writer
+     * @param patch the entity patch
+     */
+    private static void writeEntityPatch(Writer writer, EntityPatch patch) {
+
+        writer.writeName(patch.getEntityId());
+        writer.writeBoolean(patch.isComplete());
+        if (patch.isComplete()) {
+            writeRootEntity(writer, patch.getEntity());
+            writer.writeName(patch.getVersion());
+            return;
+        }
+        writer.writeName(patch.getBaseVersion());
+        writer.writeName(patch.getVersion());
+        writer.writeInt(patch.getOperations().size());
+        for (PatchOperation operation : patch.getOperations()) {
+            writer.writeName(operation.getType().name());
+            writer.writeName(operation.getEntityId());
+            writer.writeName(operation.getAttributeName());
+            writer.writeInt(operation.getIndex());
+            writer.writeInt(operation.getTargetIndex());
+            List<String> simpleValues = operation.getSimpleValues();
+            writer.writeInt(simpleValues != null ? simpleValues.size() : -1);
+            if (simpleValues != null) {
+                for (String value : simpleValues) {
+                    writer.writeValue(value);
+                }
+            }
+            List<Entity> entityValues = operation.getEntityValues();
+            writer.writeInt(entityValues != null ? entityValues.size() : -1);
+            if (entityValues != null) {
+                for (Entity value : entityValues) {
+                    writeEntity(writer, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes validation messages.<p>
+     * 
+     * @param writer the writer
+     * @param messages the messages by entity id and attribute path, may be <code>null</code>
+     */
+    private static void writeMessages(Writer writer, Map<String, Map<AttributePath, String>> messages) {
+
+        writer.writeInt(messages != null ? messages.size() : -1);
+        if (messages != null) {
+            for (Entry<String, Map<AttributePath, String>> entry : messages.entrySet()) {
+                writer.writeName(entry.getKey());
+                writer.writeInt(entry.getValue().size());
+                for (Entry<AttributePath, String> message : entry.getValue().entrySet()) {
+                    AttributePath path = message.getKey();
+                    writer.writeInt(path.getElementCount());
+                    for (int i = 0; i < path.getElementCount(); i++) {
+                        writer.writeName(path.getElement(i));
+                    }
+                    writer.writeValue(message.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a root entity including its version.<p>
+     * 
+     * @param writer the writer
+     * @param entity the entity
+     */
+    private static void writeRootEntity(Writer writer, Entity entity) {
+
+        writer.writeValue(entity.getVersion());
+        writeEntity(writer, entity);
+    }
+}
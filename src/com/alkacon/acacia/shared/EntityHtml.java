@@ -25,15 +25,21 @@
 package com.alkacon.acacia.shared;
 
 import java.io.Serializable;
+import java.util.List;
 
 /**
  * The entity HTML representation including validation data.<p>
+ * 
+ * Contains either the HTML of the complete entity or the HTML fragments of a single attribute.<p>
  */
 public class EntityHtml implements Serializable {
 
     /** The serial version id. */
     private static final long serialVersionUID = 8744574711101111191L;
 
+    /** The HTML fragments, one for each attribute value element. */
+    private List<String> m_fragments;
+
     /** The HTML representation. */
     private String m_htmlContent;
 
@@ -52,6 +58,18 @@ public class EntityHtml implements Serializable {
         m_validationResult = validationResult;
     }
 
+    /**
+     * Constructor.<p>
+     * 
+     * @param fragments the HTML fragments, one for each attribute value element
+     * @param validationResult the validation result
+     */
+    public EntityHtml(List<String> fragments, ValidationResult validationResult) {
+
+        m_fragments = fragments;
+        m_validationResult = validationResult;
+    }
+
     /**
      * Constructor needed for serialization.<p>
      */
@@ -59,6 +77,16 @@ public class EntityHtml implements Serializable {
 
     }
 
+    /**
+     * Returns the HTML fragments, one for each attribute value element in document order.<p>
+     * 
+     * @return the HTML fragments, <code>null</code> if this contains the complete entity HTML
+     */
+    public List<String> getFragments() {
+
+        return m_fragments;
+    }
+
     /**
      * Returns the HTML representation.<p>
      * 
@@ -0,0 +1,182 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.alkacon.acacia.shared;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A set of changes to an entity, relative to a previously saved version of the entity.<p>
+ * 
+ * A patch without base version carries the complete entity instead of operations.
+ * It is used for the first save of an entity or when the server reports a version conflict.<p>
+ */
+public class EntityPatch implements Serializable {
+
+    /** The serial version id. */
+    private static final long serialVersionUID = 5210383468215938106L;
+
+    /** The version the operations are based on. */
+    private String m_baseVersion;
+
+    /** The complete entity, only set if there is no base version. */
+    private Entity m_entity;
+
+    /** The entity id. */
+    private String m_entityId;
+
+    /** The operations. */
+    private List<PatchOperation> m_operations;
+
+    /** The version of the entity after applying this patch. */
+    private String m_version;
+
+    /**
+     * Constructor for patches carrying the complete entity.<p>
+     * 
+     * @param entity the complete entity
+     * @param version the version of the entity
+     */
+    public EntityPatch(Entity entity, String version) {
+
+        m_entityId = entity.getId();
+        m_entity = entity;
+        m_version = version;
+    }
+
+    /**
+     * Constructor.<p>
+     * 
+     * @param entityId the entity id
+     * @param baseVersion the version the operations are based on
+     * @param version the version of the entity after applying this patch
+     * @param operations the operations
+     */
+    public EntityPatch(String entityId, String baseVersion, String version, List<PatchOperation> operations) {
+
+        m_entityId = entityId;
+        m_baseVersion = baseVersion;
+        m_version = version;
+        m_operations = operations;
+    }
+
+    /**
+     * Constructor needed for serialization.<p>
+     */
+    protected EntityPatch() {
+
+        // nothing to do
+    }
+
+    /**
+     * Applies this patch to the given entity and returns the resulting entity.<p>
+     * 
+     * The given entity is changed in place, unless this patch carries the complete entity.<p>
+     * 
+     * @param base the entity in the base version, may be <code>null</code> if this patch carries the complete entity
+     * @param baseVersion the version of the given entity
+     * 
+     * @return the resulting entity
+     * 
+     * @throws VersionConflictException if the given entity version does not match the base version of this patch
+     */
+    public Entity apply(Entity base, String baseVersion) throws VersionConflictException {
+
+        if (isComplete()) {
+            return m_entity;
+        }
+        if ((base == null) || !m_baseVersion.equals(baseVersion)) {
+            throw new VersionConflictException(m_entityId, m_baseVersion, baseVersion);
+        }
+        try {
+            for (PatchOperation operation : m_operations) {
+                operation.apply(base);
+            }
+        } catch (IllegalStateException e) {
+            throw new VersionConflictException(m_entityId, m_baseVersion, baseVersion);
+        }
+        return base;
+    }
+
+    /**
+     * Returns the version the operations are based on.<p>
+     * 
+     * @return the base version, <code>null</code> if this patch carries the complete entity
+     */
+    public String getBaseVersion() {
+
+        return m_baseVersion;
+    }
+
+    /**
+     * Returns the complete entity.<p>
+     * 
+     * @return the complete entity, <code>null</code> if this patch carries operations
+     */
+    public Entity getEntity() {
+
+        return m_entity;
+    }
+
+    /**
+     * Returns the entity id.<p>
+     * 
+     * @return the entity id
+     */
+    public String getEntityId() {
+
+        return m_entityId;
+    }
+
+    /**
+     * Returns the operations.<p>
+     * 
+     * @return the operations
+     */
+    public List<PatchOperation> getOperations() {
+
+        return m_operations;
+    }
+
+    /**
+     * Returns the version of the entity after applying this patch.<p>
+     * 
+     * @return the version
+     */
+    public String getVersion() {
+
+        return m_version;
+    }
+
+    /**
+     * Returns if this patch carries the complete entity.<p>
+     * 
+     * @return <code>true</code> if this patch carries the complete entity
+     */
+    public boolean isComplete() {
+
+        return m_entity != null;
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.shared;
+
+import com.alkacon.vie.shared.I_Entity;
+import com.alkacon.vie.shared.I_EntityAttribute;
+import com.alkacon.vie.shared.I_Type;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gwt.regexp.shared.RegExp;
+
+/**
+ * Validates entities against the structural constraints of their types and the validation rules of the attribute configurations.<p>
+ * 
+ * Checks the minimum and maximum occurrence of attribute values, the maximum occurrence of choices, 
+ * required simple values not being empty and simple values matching the regular expression of the attribute configuration.
+ * Runs on the client and the server, rules needing server side data are flagged with 
+ * {@link AttributeConfiguration#isServerValidation()}.<p>
+ * 
+ * The error paths use the full attribute names with the value index, like the paths of the server side validation.<p>
+ */
+public class EntityValidator {
+
+    /** The attribute configurations by attribute name. */
+    private Map<String, AttributeConfiguration> m_configurations;
+
+    /** The compiled validation rules by regular expression. */
+    private Map<String, RegExp> m_rules;
+
+    /** Cached server validation requirement by type name. */
+    private Map<String, Boolean> m_serverValidation;
+
+    /** The types by type name. */
+    private Map<String, I_Type> m_types;
+
+    /**
+     * Constructor.<p>
+     * 
+     * @param types the types by type name
+     * @param configurations the attribute configurations by attribute name, may be <code>null</code>
+     */
+    public EntityValidator(Map<String, I_Type> types, Map<String, AttributeConfiguration> configurations) {
+
+        m_types = new HashMap<String, I_Type>();
+        m_configurations = new HashMap<String, AttributeConfiguration>();
+        m_rules = new HashMap<String, RegExp>();
+        m_serverValidation = new HashMap<String, Boolean>();
+        addSchema(types, configurations);
+    }
+
+    /**
+     * Adds further types and attribute configurations, e.g. of another content definition.<p>
+     * 
+     * @param types the types by type name
+     * @param configurations the attribute configurations by attribute name, may be <code>null</code>
+     */
+    public void addSchema(Map<String, I_Type> types, Map<String, AttributeConfiguration> configurations) {
+
+        m_types.putAll(types);
+        if (configurations != null) {
+            m_configurations.putAll(configurations);
+        }
+        m_serverValidation.clear();
+    }
+
+    /**
+     * Returns if entities of the given type have attributes with validation rules only the server can evaluate.<p>
+     * 
+     * Unknown types always require the server validation.<p>
+     * 
+     * @param typeName the type name
+     * 
+     * @return <code>true</code> if the server validation is required
+     */
+    public boolean isServerValidationRequired(String typeName) {
+
+        Boolean result = m_serverValidation.get(typeName);
+        if (result == null) {
+            // mark the type while it is checked, to stop on recursive type definitions
+            m_serverValidation.put(typeName, Boolean.FALSE);
+            result = Boolean.valueOf(checkServerValidation(typeName));
+            m_serverValidation.put(typeName, result);
+        }
+        return result.booleanValue();
+    }
+
+    /**
+     * Validates the given entity.<p>
+     * 
+     * @param entity the entity
+     * 
+     * @return the validation result, containing the errors of the entity and all nested entities keyed by the given entity id
+     */
+    public ValidationResult validate(I_Entity entity) {
+
+        Map<AttributePath, String> errors = new LinkedHashMap<AttributePath, String>();
+        validateEntity(entity, new ArrayList<String>(), errors);
+        Map<String, Map<AttributePath, String>> entityErrors = new HashMap<String, Map<AttributePath, String>>();
+        if (!errors.isEmpty()) {
+            entityErrors.put(entity.getId(), errors);
+        }
+        return new ValidationResult(entityErrors, new HashMap<String, Map<AttributePath, String>>());
+    }
+
+    /**
+     * Returns the error message for a violated constraint.<p>
+     * 
+     * Override to provide localized messages.<p>
+     * 
+     * @param constraint the violated constraint, one of <code>min</code>, <code>max</code>, <code>choice</code> and <code>required</code>
+     * @param limit the occurrence limit
+     * 
+     * @return the error message
+     */
+    protected String getMessage(String constraint, int limit) {
+
+        if ("min".equals(constraint)) {
+            return "At least " + limit + " values required.";
+        } else if ("max".equals(constraint)) {
+            return "At most " + limit + " values allowed.";
+        } else if ("choice".equals(constraint)) {
+            return "At most " + limit + " choices allowed.";
+        }
+        return "Value required.";
+    }
+
+    /**
+     * Adds an error for the given attribute value.<p>
+     * 
+     * @param errors the errors to add to
+     * @param prefix the path elements of the entity holding the attribute
+     * @param attributeName the attribute name
+     * @param index the value index
+     * @param message the error message
+     */
+    private void addError(
+        Map<AttributePath, String> errors,
+        List<String> prefix,
+        String attributeName,
+        int index,
+        String message) {
+
+        String[] elements = prefix.toArray(new String[prefix.size() + 1]);
+        elements[prefix.size()] = attributeName + "[" + index + "]";
+        AttributePath path = AttributePath.valueOf(elements);
+        if (!errors.containsKey(path)) {
+            errors.put(path, message);
+        }
+    }
+
+    /**
+     * Checks if entities of the given type have attributes with validation rules only the server can evaluate.<p>
+     * 
+     * @param typeName the type name
+     * 
+     * @return <code>true</code> if the server validation is required
+     */
+    private boolean checkServerValidation(String typeName) {
+
+        I_Type type = m_types.get(typeName);
+        if (type == null) {
+            return true;
+        }
+        for (String attributeName : type.getAttributeNames()) {
+            AttributeConfiguration configuration = m_configurations.get(attributeName);
+            if (((configuration != null) && configuration.isServerValidation())
+                || isServerValidationRequired(type.getAttributeTypeName(attributeName))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the compiled validation rule matching complete values.<p>
+     * 
+     * @param rule the regular expression
+     * 
+     * @return the compiled rule
+     */
+    private RegExp getRule(String rule) {
+
+        RegExp result = m_rules.get(rule);
+        if (result == null) {
+            result = RegExp.compile("^(?:" + rule + ")$");
+            m_rules.put(rule, result);
+        }
+        return result;
+    }
+
+    /**
+     * Validates the values of an attribute.<p>
+     * 
+     * @param entity the entity holding the attribute
+     * @param type the entity type
+     * @param attributeName the attribute name
+     * @param prefix the path elements of the entity
+     * @param errors the errors to add to
+     */
+    private void validateAttribute(
+        I_Entity entity,
+        I_Type type,
+        String attributeName,
+        List<String> prefix,
+        Map<AttributePath, String> errors) {
+
+        I_EntityAttribute attribute = entity.getAttribute(attributeName);
+        int count = attribute != null ? attribute.getValueCount() : 0;
+        int min = type.getAttributeMinOccurrence(attributeName);
+        int max = type.getAttributeMaxOccurrence(attributeName);
+        if (count < min) {
+            addError(errors, prefix, attributeName, count, getMessage("min", min));
+        } else if (count > max) {
+            addError(errors, prefix, attributeName, max, getMessage("max", max));
+        }
+        if (attribute == null) {
+            return;
+        }
+        if (attribute.isSimpleValue()) {
+            AttributeConfiguration configuration = m_configurations.get(attributeName);
+            String rule = configuration != null ? configuration.getValidationRule() : null;
+            List<String> values = attribute.getSimpleValues();
+            for (int i = 0; i < values.size(); i++) {
+                String value = values.get(i);
+                if ((i < min) && ((value == null) || (value.length() == 0))) {
+                    addError(errors, prefix, attributeName, i, getMessage("required", min));
+                } else if ((rule != null) && !getRule(rule).test(value != null ? value : "")) {
+                    addError(errors, prefix, attributeName, i, configuration.getValidationError());
+                }
+            }
+        } else {
+            List<I_Entity> values = attribute.getComplexValues();
+            for (int i = 0; i < values.size(); i++) {
+                prefix.add(attributeName + "[" + i + "]");
+                validateEntity(values.get(i), prefix, errors);
+                prefix.remove(prefix.size() - 1);
+            }
+        }
+    }
+
+    /**
+     * Validates the value of a choice.<p>
+     * 
+     * @param attribute the chosen attribute
+     * @param choiceIndex the choice index
+     * @param prefix the path elements of the entity holding the choices
+     * @param errors the errors to add to
+     */
+    private void validateChoice(
+        I_EntityAttribute attribute,
+        int choiceIndex,
+        List<String> prefix,
+        Map<AttributePath, String> errors) {
+
+        String attributeName = attribute.getAttributeName();
+        if (attribute.isSimpleValue()) {
+            AttributeConfiguration configuration = m_configurations.get(attributeName);
+            String value = attribute.getSimpleValue();
+            if ((configuration != null)
+                && (configuration.getValidationRule() != null)
+                && !getRule(configuration.getValidationRule()).test(value != null ? value : "")) {
+                addError(errors, prefix, attributeName, choiceIndex, configuration.getValidationError());
+            }
+        } else {
+            prefix.add(attributeName + "[" + choiceIndex + "]");
+            validateEntity(attribute.getComplexValue(), prefix, errors);
+            prefix.remove(prefix.size() - 1);
+        }
+    }
+
+    /**
+     * Validates an entity and its nested entities.<p>
+     * 
+     * @param entity the entity
+     * @param prefix the path elements of the entity
+     * @param errors the errors to add to
+     */
+    private void validateEntity(I_Entity entity, List<String> prefix, Map<AttributePath, String> errors) {
+
+        I_Type type = m_types.get(entity.getTypeName());
+        if (type == null) {
+            return;
+        }
+        if (type.isChoice()) {
+            I_EntityAttribute choices = entity.getAttribute(Type.CHOICE_ATTRIBUTE_NAME);
+            if (choices == null) {
+                return;
+            }
+            List<I_Entity> values = choices.getComplexValues();
+            if (!prefix.isEmpty() && (values.size() > type.getChoiceMaxOccurrence())) {
+                String last = prefix.remove(prefix.size() - 1);
+                addError(
+                    errors,
+                    prefix,
+                    ContentDefinition.removeIndex(last),
+                    ContentDefinition.extractIndex(last),
+                    getMessage("choice", type.getChoiceMaxOccurrence()));
+                prefix.add(last);
+            }
+            for (int i = 0; i < values.size(); i++) {
+                // each choice holds a single attribute, addressed by its name and the choice index
+                for (I_EntityAttribute choiceAttribute : values.get(i).getAttributes()) {
+                    validateChoice(choiceAttribute, i, prefix, errors);
+                }
+            }
+        } else {
+            for (String attributeName : type.getAttributeNames()) {
+                validateAttribute(entity, type, attributeName, prefix, errors);
+            }
+        }
+    }
+}
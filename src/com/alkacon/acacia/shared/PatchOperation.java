@@ -0,0 +1,349 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.alkacon.acacia.shared;
+
+import com.alkacon.vie.shared.I_Entity;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single change operation of an entity patch, addressing one attribute of the root entity or one of its nested entities.<p>
+ */
+public class PatchOperation implements Serializable {
+
+    /** The operation types. */
+    public enum OperationType {
+
+        /** Insert a value. */
+        insert,
+
+        /** Move a value to another position. */
+        move,
+
+        /** Remove a value. */
+        remove,
+
+        /** Replace all values of the attribute. */
+        replace,
+
+        /** Set a simple value. */
+        set
+    }
+
+    /** The serial version id. */
+    private static final long serialVersionUID = -2207480237826542170L;
+
+    /** The attribute name. */
+    private String m_attributeName;
+
+    /** The id of the entity holding the attribute. */
+    private String m_entityId;
+
+    /** The entity values. */
+    private List<Entity> m_entityValues;
+
+    /** The value index. */
+    private int m_index;
+
+    /** The simple values. */
+    private List<String> m_simpleValues;
+
+    /** The target index of move operations. */
+    private int m_targetIndex;
+
+    /** The operation type. */
+    private OperationType m_type;
+
+    /**
+     * Constructor.<p>
+     * 
+     * @param type the operation type
+     * @param entityId the id of the entity holding the attribute
+     * @param attributeName the attribute name
+     * @param index the value index
+     */
+    private PatchOperation(OperationType type, String entityId, String attributeName, int index) {
+
+        m_type = type;
+        m_entityId = entityId;
+        m_attributeName = attributeName;
+        m_index = index;
+    }
+
+    /**
+     * Constructor needed for serialization.<p>
+     */
+    protected PatchOperation() {
+
+        // nothing to do
+    }
+
+    /**
+     * Creates an operation inserting a nested entity value.<p>
+     * 
+     * @param entityId the id of the entity holding the attribute
+     * @param attributeName the attribute name
+     * @param index the value index
+     * @param value the value
+     * 
+     * @return the operation
+     */
+    public static PatchOperation createInsert(String entityId, String attributeName, int index, Entity value) {
+
+        PatchOperation result = new PatchOperation(OperationType.insert, entityId, attributeName, index);
+        result.m_entityValues = new ArrayList<Entity>();
+        result.m_entityValues.add(value);
+        return result;
+    }
+
+    /**
+     * Creates an operation inserting a simple value.<p>
+     * 
+     * @param entityId the id of the entity holding the attribute
+     * @param attributeName the attribute name
+     * @param index the value index
+     * @param value the value
+     * 
+     * @return the operation
+     */
+    public static PatchOperation createInsert(String entityId, String attributeName, int index, String value) {
+
+        PatchOperation result = new PatchOperation(OperationType.insert, entityId, attributeName, index);
+        result.m_simpleValues = new ArrayList<String>();
+        result.m_simpleValues.add(value);
+        return result;
+    }
+
+    /**
+     * Creates an operation moving a value.<p>
+     * 
+     * @param entityId the id of the entity holding the attribute
+     * @param attributeName the attribute name
+     * @param index the current value index
+     * @param targetIndex the target index
+     * 
+     * @return the operation
+     */
+    public static PatchOperation createMove(String entityId, String attributeName, int index, int targetIndex) {
+
+        PatchOperation result = new PatchOperation(OperationType.move, entityId, attributeName, index);
+        result.m_targetIndex = targetIndex;
+        return result;
+    }
+
+    /**
+     * Creates an operation removing a value.<p>
+     * 
+     * @param entityId the id of the entity holding the attribute
+     * @param attributeName the attribute name
+     * @param index the value index
+     * 
+     * @return the operation
+     */
+    public static PatchOperation createRemove(String entityId, String attributeName, int index) {
+
+        return new PatchOperation(OperationType.remove, entityId, attributeName, index);
+    }
+
+    /**
+     * Creates an operation replacing all values of an attribute.<p>
+     * 
+     * @param entityId the id of the entity holding the attribute
+     * @param attributeName the attribute name
+     * @param simpleValues the simple values, <code>null</code> for complex attributes
+     * @param entityValues the entity values, <code>null</code> for simple attributes
+     * 
+     * @return the operation
+     */
+    public static PatchOperation createReplace(
+        String entityId,
+        String attributeName,
+        List<String> simpleValues,
+        List<Entity> entityValues) {
+
+        PatchOperation result = new PatchOperation(OperationType.replace, entityId, attributeName, 0);
+        result.m_simpleValues = simpleValues;
+        result.m_entityValues = entityValues;
+        return result;
+    }
+
+    /**
+     * Creates an operation setting a simple value.<p>
+     * 
+     * @param entityId the id of the entity holding the attribute
+     * @param attributeName the attribute name
+     * @param index the value index
+     * @param value the value
+     * 
+     * @return the operation
+     */
+    public static PatchOperation createSet(String entityId, String attributeName, int index, String value) {
+
+        PatchOperation result = new PatchOperation(OperationType.set, entityId, attributeName, index);
+        result.m_simpleValues = new ArrayList<String>();
+        result.m_simpleValues.add(value);
+        return result;
+    }
+
+    /**
+     * Applies this operation to the given root entity.<p>
+     * 
+     * @param root the root entity
+     * 
+     * @throws IllegalStateException if the addressed entity does not exist or the operation does not match its state
+     */
+    public void apply(Entity root) throws IllegalStateException {
+
+        Entity entity = root.getEntityById(m_entityId);
+        if (entity == null) {
+            throw new IllegalStateException("Entity " + m_entityId + " not found.");
+        }
+        try {
+            switch (m_type) {
+                case insert:
+                    if (m_entityValues != null) {
+                        entity.insertAttributeValue(m_attributeName, m_entityValues.get(0), m_index);
+                    } else {
+                        entity.insertAttributeValue(m_attributeName, m_simpleValues.get(0), m_index);
+                    }
+                    break;
+                case move:
+                    I_Entity moved = null;
+                    String movedValue = null;
+                    if (entity.getAttribute(m_attributeName).isComplexValue()) {
+                        moved = entity.getAttribute(m_attributeName).getComplexValues().get(m_index);
+                    } else {
+                        movedValue = entity.getAttribute(m_attributeName).getSimpleValues().get(m_index);
+                    }
+                    entity.removeAttributeValue(m_attributeName, m_index);
+                    if (moved != null) {
+                        entity.insertAttributeValue(m_attributeName, moved, m_targetIndex);
+                    } else {
+                        entity.insertAttributeValue(m_attributeName, movedValue, m_targetIndex);
+                    }
+                    break;
+                case remove:
+                    entity.removeAttributeValue(m_attributeName, m_index);
+                    break;
+                case replace:
+                    entity.removeAttributeSilent(m_attributeName);
+                    if (m_entityValues != null) {
+                        for (Entity value : m_entityValues) {
+                            entity.addAttributeValue(m_attributeName, value);
+                        }
+                    } else if (m_simpleValues != null) {
+                        for (String value : m_simpleValues) {
+                            entity.addAttributeValue(m_attributeName, value);
+                        }
+                    }
+                    break;
+                case set:
+                    entity.setAttributeValue(m_attributeName, m_simpleValues.get(0), m_index);
+                    break;
+                default:
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Unable to apply "
+                + m_type
+                + " to attribute "
+                + m_attributeName
+                + " of entity "
+                + m_entityId
+                + ".", e);
+        }
+    }
+
+    /**
+     * Returns the attribute name.<p>
+     * 
+     * @return the attribute name
+     */
+    public String getAttributeName() {
+
+        return m_attributeName;
+    }
+
+    /**
+     * Returns the id of the entity holding the attribute.<p>
+     * 
+     * @return the entity id
+     */
+    public String getEntityId() {
+
+        return m_entityId;
+    }
+
+    /**
+     * Returns the entity values of insert or replace operations.<p>
+     * 
+     * @return the entity values
+     */
+    public List<Entity> getEntityValues() {
+
+        return m_entityValues;
+    }
+
+    /**
+     * Returns the value index.<p>
+     * 
+     * @return the value index
+     */
+    public int getIndex() {
+
+        return m_index;
+    }
+
+    /**
+     * Returns the simple values of insert, replace or set operations.<p>
+     * 
+     * @return the simple values
+     */
+    public List<String> getSimpleValues() {
+
+        return m_simpleValues;
+    }
+
+    /**
+     * Returns the target index of move operations.<p>
+     * 
+     * @return the target index
+     */
+    public int getTargetIndex() {
+
+        return m_targetIndex;
+    }
+
+    /**
+     * Returns the operation type.<p>
+     * 
+     * @return the operation type
+     */
+    public OperationType getType() {
+
+        return m_type;
+    }
+}
@@ -0,0 +1,1014 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.alkacon.acacia.shared;
+
+import com.alkacon.vie.shared.I_Entity;
+import com.alkacon.vie.shared.I_EntityAttribute;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Persistent entity implementation using structural sharing.<p>
+ *
+ * The entity data is kept in immutable nodes. Modifying an entity only copies the nodes on the path
+ * from the modified entity up to the root entity, all other nodes are shared with previously taken snapshots.
+ * The attribute maps and value lists of the nodes are persistent as well, so each copied node only copies 
+ * the path to the changed attribute value within them.
+ * Taking a {@link #snapshot()} is therefore a constant time operation, while setting or appending a value 
+ * costs O(depth * log(values)). Inserting or removing values before the end of a list rebuilds that list.<p>
+ *
+ * Nested entities returned by {@link #getAttribute(String)} are live handles, changes to them are reflected in the parent.
+ * Other than in {@link Entity}, {@link #setAttributeValue(String, String, int)} replaces the value at the given index
+ * as stated by the {@link I_Entity} contract.<p>
+ */
+public class PersistentEntity implements I_Entity, Serializable {
+
+    /**
+     * The immutable entity data node.<p>
+     */
+    static final class Node implements Serializable {
+
+        /** The serial version id. */
+        private static final long serialVersionUID = 4516290263587105772L;
+
+        /** The entity attribute values. */
+        PersistentMap<PersistentList<Node>> m_entityAttributes;
+
+        /** The cached hash code, nodes are immutable so it never changes. */
+        private transient int m_hashCode;
+
+        /** The entity id. */
+        String m_id;
+
+        /** The simple attribute values. */
+        PersistentMap<PersistentList<String>> m_simpleAttributes;
+
+        /** The type name. */
+        String m_typeName;
+
+        /**
+         * Constructor.<p>
+         *
+         * @param id the entity id
+         * @param typeName the type name
+         * @param simpleAttributes the simple attribute values
+         * @param entityAttributes the entity attribute values
+         */
+        Node(
+            String id,
+            String typeName,
+            PersistentMap<PersistentList<String>> simpleAttributes,
+            PersistentMap<PersistentList<Node>> entityAttributes) {
+
+            m_id = id;
+            m_typeName = typeName;
+            m_simpleAttributes = simpleAttributes;
+            m_entityAttributes = entityAttributes;
+        }
+
+        /**
+         * Constructor. For serialization only.<p>
+         */
+        Node() {
+
+            // nothing to do
+        }
+
+        /**
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj) {
+
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Node)) {
+                return false;
+            }
+            Node test = (Node)obj;
+            if ((m_hashCode != 0) && (test.m_hashCode != 0) && (m_hashCode != test.m_hashCode)) {
+                return false;
+            }
+            // the entity id is not part of the content, same as with Entity#equals
+            return m_simpleAttributes.equals(test.m_simpleAttributes)
+                && m_entityAttributes.equals(test.m_entityAttributes);
+        }
+
+        /**
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+
+            if (m_hashCode == 0) {
+                m_hashCode = m_simpleAttributes.hashCode() + (31 * m_entityAttributes.hashCode());
+            }
+            return m_hashCode;
+        }
+
+        /**
+         * Returns a copy of this node with the given entity values set for the attribute.<p>
+         * Any simple values of the attribute will be removed.<p>
+         *
+         * @param attributeName the attribute name
+         * @param values the values, <code>null</code> to remove the attribute
+         *
+         * @return the new node
+         */
+        Node withEntityValues(String attributeName, PersistentList<Node> values) {
+
+            return new Node(
+                m_id,
+                m_typeName,
+                m_simpleAttributes.minus(attributeName),
+                values == null ? m_entityAttributes.minus(attributeName) : m_entityAttributes.with(
+                    attributeName,
+                    values));
+        }
+
+        /**
+         * Returns a copy of this node with the given simple values set for the attribute.<p>
+         * Any entity values of the attribute will be removed.<p>
+         *
+         * @param attributeName the attribute name
+         * @param values the values, <code>null</code> to remove the attribute
+         *
+         * @return the new node
+         */
+        Node withSimpleValues(String attributeName, PersistentList<String> values) {
+
+            return new Node(
+                m_id,
+                m_typeName,
+                values == null ? m_simpleAttributes.minus(attributeName) : m_simpleAttributes.with(
+                    attributeName,
+                    values),
+                m_entityAttributes.minus(attributeName));
+        }
+    }
+
+    /**
+     * Attribute view on the current state of an entity.<p>
+     */
+    private static class Attribute implements I_EntityAttribute {
+
+        /** The nested entity handles. */
+        private List<I_Entity> m_entityValues;
+
+        /** The attribute name. */
+        private String m_name;
+
+        /** The simple values. */
+        private List<String> m_simpleValues;
+
+        /**
+         * Constructor.<p>
+         *
+         * @param name the attribute name
+         * @param simpleValues the simple values
+         * @param entityValues the nested entity handles
+         */
+        Attribute(String name, List<String> simpleValues, List<I_Entity> entityValues) {
+
+            m_name = name;
+            m_simpleValues = simpleValues;
+            m_entityValues = entityValues;
+        }
+
+        /**
+         * @see com.alkacon.vie.shared.I_EntityAttribute#getAttributeName()
+         */
+        public String getAttributeName() {
+
+            return m_name;
+        }
+
+        /**
+         * @see com.alkacon.vie.shared.I_EntityAttribute#getComplexValue()
+         */
+        public I_Entity getComplexValue() {
+
+            return m_entityValues.get(0);
+        }
+
+        /**
+         * @see com.alkacon.vie.shared.I_EntityAttribute#getComplexValues()
+         */
+        public List<I_Entity> getComplexValues() {
+
+            return m_entityValues;
+        }
+
+        /**
+         * @see com.alkacon.vie.shared.I_EntityAttribute#getSimpleValue()
+         */
+        public String getSimpleValue() {
+
+            return m_simpleValues.get(0);
+        }
+
+        /**
+         * @see com.alkacon.vie.shared.I_EntityAttribute#getSimpleValues()
+         */
+        public List<String> getSimpleValues() {
+
+            return m_simpleValues;
+        }
+
+        /**
+         * @see com.alkacon.vie.shared.I_EntityAttribute#getValueCount()
+         */
+        public int getValueCount() {
+
+            return isComplexValue() ? m_entityValues.size() : m_simpleValues.size();
+        }
+
+        /**
+         * @see com.alkacon.vie.shared.I_EntityAttribute#isComplexValue()
+         */
+        public boolean isComplexValue() {
+
+            return m_entityValues != null;
+        }
+
+        /**
+         * @see com.alkacon.vie.shared.I_EntityAttribute#isSimpleValue()
+         */
+        public boolean isSimpleValue() {
+
+            return m_simpleValues != null;
+        }
+
+        /**
+         * @see com.alkacon.vie.shared.I_EntityAttribute#isSingleValue()
+         */
+        public boolean isSingleValue() {
+
+            return getValueCount() == 1;
+        }
+    }
+
+    /** The serial version id. */
+    private static final long serialVersionUID = -2416407826937455196L;
+
+    /** The number of generic ids created, to keep the ids unique within the same millisecond. */
+    private static int m_genericIdCount;
+
+    /** The attribute name within the parent entity, only set for nested entities. */
+    private transient String m_attributeName;
+
+    /** The nested entity handles by attribute name, aligned with the node values. */
+    private transient Map<String, List<PersistentEntity>> m_childHandles;
+
+    /** The nested entity handles by entity id, built lazily by {@link #getEntityById(String)}. */
+    private transient Map<String, PersistentEntity> m_handlesById;
+
+    /** The value index within the parent entity, only set for nested entities. */
+    private transient int m_index;
+
+    /** The current data node. */
+    private Node m_node;
+
+    /** The parent entity, <code>null</code> for root entities. */
+    private transient PersistentEntity m_parent;
+
+    /**
+     * Constructor.<p>
+     *
+     * @param id the entity id/URI
+     * @param typeName the entity type name
+     */
+    public PersistentEntity(String id, String typeName) {
+
+        this(new Node(
+            id,
+            typeName,
+            PersistentMap.<PersistentList<String>> empty(),
+            PersistentMap.<PersistentList<Node>> empty()));
+    }
+
+    /**
+     * Constructor. For serialization only.<p>
+     */
+    protected PersistentEntity() {
+
+        // nothing to do
+    }
+
+    /**
+     * Constructor.<p>
+     *
+     * @param node the data node
+     */
+    private PersistentEntity(Node node) {
+
+        m_node = node;
+    }
+
+    /**
+     * Creates a persistent copy of the given entity.<p>
+     * This will copy the complete entity tree once, all following snapshots will share the data.<p>
+     *
+     * @param entity the entity
+     *
+     * @return the persistent entity
+     */
+    public static PersistentEntity create(I_Entity entity) {
+
+        if (entity instanceof PersistentEntity) {
+            return ((PersistentEntity)entity).snapshot();
+        }
+        return new PersistentEntity(createNode(entity));
+    }
+
+    /**
+     * Copies the given node and its nested nodes, giving the nested nodes new generic ids.<p>
+     *
+     * @param node the node to copy
+     * @param entityId the id of the copy, <code>null</code> to use a generic id
+     *
+     * @return the copy
+     */
+    private static Node copyNode(Node node, String entityId) {
+
+        PersistentMap<PersistentList<Node>> entityAttributes = node.m_entityAttributes;
+        for (Entry<String, PersistentList<Node>> attribute : node.m_entityAttributes.entrySet()) {
+            List<Node> values = new ArrayList<Node>(attribute.getValue().size());
+            for (Node value : attribute.getValue()) {
+                values.add(copyNode(value, null));
+            }
+            entityAttributes = entityAttributes.with(attribute.getKey(), PersistentList.valueOf(values));
+        }
+        return new Node(
+            entityId != null ? entityId : createGenericId(node.m_typeName),
+            node.m_typeName,
+            node.m_simpleAttributes,
+            entityAttributes);
+    }
+
+    /**
+     * Creates a generic entity id, like VIE does for new entities without id.<p>
+     *
+     * @param typeName the entity type name
+     *
+     * @return the entity id
+     */
+    private static String createGenericId(String typeName) {
+
+        m_genericIdCount++;
+        return typeName + "/" + System.currentTimeMillis() + "#" + m_genericIdCount;
+    }
+
+    /**
+     * Creates the data node for the given entity.<p>
+     *
+     * @param entity the entity
+     *
+     * @return the data node
+     */
+    private static Node createNode(I_Entity entity) {
+
+        if (entity instanceof PersistentEntity) {
+            return ((PersistentEntity)entity).m_node;
+        }
+        PersistentMap<PersistentList<String>> simpleAttributes = PersistentMap.empty();
+        PersistentMap<PersistentList<Node>> entityAttributes = PersistentMap.empty();
+        for (I_EntityAttribute attribute : entity.getAttributes()) {
+            if (attribute.isSimpleValue()) {
+                simpleAttributes = simpleAttributes.with(
+                    attribute.getAttributeName(),
+                    PersistentList.valueOf(attribute.getSimpleValues()));
+            } else {
+                List<Node> values = new ArrayList<Node>();
+                for (I_Entity value : attribute.getComplexValues()) {
+                    values.add(createNode(value));
+                }
+                entityAttributes = entityAttributes.with(attribute.getAttributeName(), PersistentList.valueOf(values));
+            }
+        }
+        return new Node(entity.getId(), entity.getTypeName(), simpleAttributes, entityAttributes);
+    }
+
+    /**
+     * Creates a serializable entity from the given node.<p>
+     *
+     * @param node the data node
+     *
+     * @return the serializable entity
+     */
+    private static Entity toEntity(Node node) {
+
+        Entity result = new Entity(node.m_id, node.m_typeName);
+        for (Entry<String, PersistentList<String>> attribute : node.m_simpleAttributes.entrySet()) {
+            for (String value : attribute.getValue()) {
+                result.addAttributeValue(attribute.getKey(), value);
+            }
+        }
+        for (Entry<String, PersistentList<Node>> attribute : node.m_entityAttributes.entrySet()) {
+            for (Node value : attribute.getValue()) {
+                result.addAttributeValue(attribute.getKey(), toEntity(value));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @see com.alkacon.vie.shared.I_Entity#addAttributeValue(java.lang.String, com.alkacon.vie.shared.I_Entity)
+     */
+    public void addAttributeValue(String attributeName, I_Entity value) {
+
+        if (m_node.m_simpleAttributes.containsKey(attributeName)) {
+            throw new RuntimeException("Attribute already exists with a simple type value.");
+        }
+        List<Node> values = m_node.m_entityAttributes.get(attributeName);
+        insertEntityValue(attributeName, value, values != null ? values.size() : 0);
+    }
+
+    /**
+     * @see com.alkacon.vie.shared.I_Entity#addAttributeValue(java.lang.String, java.lang.String)
+     */
+    public void addAttributeValue(String attributeName, String value) {
+
+        if (m_node.m_entityAttributes.containsKey(attributeName)) {
+            throw new RuntimeException("Attribute already exists with a entity type value.");
+        }
+        PersistentList<String> values = m_node.m_simpleAttributes.get(attributeName);
+        if (values == null) {
+            values = PersistentList.empty();
+        }
+        updateNode(m_node.withSimpleValues(attributeName, values.plus(value)));
+    }
+
+    /**
+     * Creates a copy of this entity with the given id.<p>
+     * The nested entities of the copy get new generic ids, the simple values are shared with this entity.<p>
+     *
+     * @see com.alkacon.vie.shared.I_Entity#createDeepCopy(java.lang.String)
+     */
+    public PersistentEntity createDeepCopy(String entityId) {
+
+        return new PersistentEntity(copyNode(m_node, entityId));
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+
+        return (obj instanceof PersistentEntity) && m_node.equals(((PersistentEntity)obj).m_node);
+    }
+
+    /**
+     * @see com.alkacon.vie.shared.I_Entity#getAttribute(java.lang.String)
+     */
+    public I_EntityAttribute getAttribute(String attributeName) {
+
+        List<String> simpleValues = m_node.m_simpleAttributes.get(attributeName);
+        if (simpleValues != null) {
+            return new Attribute(attributeName, simpleValues, null);
+        }
+        List<Node> entityValues = m_node.m_entityAttributes.get(attributeName);
+        if (entityValues != null) {
+            List<I_Entity> handles = new ArrayList<I_Entity>(entityValues.size());
+            for (int i = 0; i < entityValues.size(); i++) {
+                handles.add(getChild(attributeName, i));
+            }
+            return new Attribute(attributeName, null, Collections.unmodifiableList(handles));
+        }
+        return null;
+    }
+
+    /**
+     * @see com.alkacon.vie.shared.I_Entity#getAttributes()
+     */
+    public List<I_EntityAttribute> getAttributes() {
+
+        List<I_EntityAttribute> result = new ArrayList<I_EntityAttribute>();
+        for (String name : m_node.m_simpleAttributes.keySet()) {
+            result.add(getAttribute(name));
+        }
+        for (String name : m_node.m_entityAttributes.keySet()) {
+            result.add(getAttribute(name));
+        }
+        return result;
+    }
+
+    /**
+     * Returns this or a nested entity with the given id.<p>
+     * Will return <code>null</code> if no entity with the given id is present.<p>
+     *
+     * The nested entity handles are indexed by id, so repeated lookups cost O(depth) to verify the indexed handle
+     * is still attached to this entity. The index is rebuilt with a single walk of the tree
+     * whenever a lookup misses.<p>
+     *
+     * @param entityId the entity id
+     *
+     * @return the entity
+     */
+    public PersistentEntity getEntityById(String entityId) {
+
+        if ((entityId == null) ? (m_node.m_id == null) : entityId.equals(m_node.m_id)) {
+            return this;
+        }
+        if (m_handlesById != null) {
+            PersistentEntity handle = m_handlesById.get(entityId);
+            if ((handle != null) && handle.isIndexedIn(this, entityId)) {
+                return handle;
+            }
+        }
+        m_handlesById = new HashMap<String, PersistentEntity>();
+        indexChildren(this);
+        return m_handlesById.get(entityId);
+    }
+
+    /**
+     * @see com.alkacon.vie.shared.I_Entity#getId()
+     */
+    public String getId() {
+
+        return m_node.m_id;
+    }
+
+    /**
+     * Returns the parent entity or <code>null</code> if this is a root entity.<p>
+     *
+     * @return the parent entity
+     */
+    public PersistentEntity getParent() {
+
+        return m_parent;
+    }
+
+    /**
+     * @see com.alkacon.vie.shared.I_Entity#getTypeName()
+     */
+    public String getTypeName() {
+
+        return m_node.m_typeName;
+    }
+
+    /**
+     * @see com.alkacon.vie.shared.I_Entity#hasAttribute(java.lang.String)
+     */
+    public boolean hasAttribute(String attributeName) {
+
+        return m_node.m_simpleAttributes.containsKey(attributeName)
+            || m_node.m_entityAttributes.containsKey(attributeName);
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+
+        return m_node.hashCode();
+    }
+
+    /**
+     * @see com.alkacon.vie.shared.I_Entity#insertAttributeValue(java.lang.String, com.alkacon.vie.shared.I_Entity, int)
+     */
+    public void insertAttributeValue(String attributeName, I_Entity value, int index) {
+
+        if (m_node.m_entityAttributes.containsKey(attributeName)) {
+            insertEntityValue(attributeName, value, index);
+        } else {
+            setAttributeValue(attributeName, value);
+        }
+    }
+
+    /**
+     * @see com.alkacon.vie.shared.I_Entity#insertAttributeValue(java.lang.String, java.lang.String, int)
+     */
+    public void insertAttributeValue(String attributeName, String value, int index) {
+
+        PersistentList<String> current = m_node.m_simpleAttributes.get(attributeName);
+        if (current != null) {
+            updateNode(m_node.withSimpleValues(attributeName, current.plus(index, value)));
+        } else {
+            setAttributeValue(attributeName, value);
+        }
+    }
+
+    /**
+     * Returns if this entity shares its complete data with the given entity.<p>
+     * This is a constant time check, a <code>false</code> result does not imply the entities differ in content.<p>
+     *
+     * @param entity the entity to compare with
+     *
+     * @return <code>true</code> if both entities share the same data
+     */
+    public boolean isSameState(PersistentEntity entity) {
+
+        return (entity != null) && (entity.m_node == m_node);
+    }
+
+    /**
+     * @see com.alkacon.vie.shared.I_Entity#removeAttribute(java.lang.String)
+     */
+    public void removeAttribute(String attributeName) {
+
+        removeAttributeSilent(attributeName);
+    }
+
+    /**
+     * @see com.alkacon.vie.shared.I_Entity#removeAttributeSilent(java.lang.String)
+     */
+    public void removeAttributeSilent(String attributeName) {
+
+        if (m_node.m_simpleAttributes.containsKey(attributeName)) {
+            updateNode(m_node.withSimpleValues(attributeName, null));
+        } else if (m_node.m_entityAttributes.containsKey(attributeName)) {
+            detachChildren(attributeName);
+            updateNode(m_node.withEntityValues(attributeName, null));
+        }
+    }
+
+    /**
+     * @see com.alkacon.vie.shared.I_Entity#removeAttributeValue(java.lang.String, int)
+     */
+    public void removeAttributeValue(String attributeName, int index) {
+
+        if (m_node.m_simpleAttributes.containsKey(attributeName)) {
+            PersistentList<String> values = m_node.m_simpleAttributes.get(attributeName);
+            if ((values.size() == 1) && (index == 0)) {
+                removeAttribute(attributeName);
+            } else {
+                updateNode(m_node.withSimpleValues(attributeName, values.minus(index)));
+            }
+        } else if (m_node.m_entityAttributes.containsKey(attributeName)) {
+            PersistentList<Node> values = m_node.m_entityAttributes.get(attributeName);
+            if ((values.size() == 1) && (index == 0)) {
+                removeAttribute(attributeName);
+            } else {
+                values = values.minus(index);
+                List<PersistentEntity> handles = getChildHandles(attributeName);
+                PersistentEntity removed = handles.remove(index);
+                if (removed != null) {
+                    removed.detach();
+                }
+                renumberChildren(attributeName, index);
+                updateNode(m_node.withEntityValues(attributeName, values));
+            }
+        }
+    }
+
+    /**
+     * @see com.alkacon.vie.shared.I_Entity#setAttributeValue(java.lang.String, com.alkacon.vie.shared.I_Entity)
+     */
+    public void setAttributeValue(String attributeName, I_Entity value) {
+
+        if (m_node.m_entityAttributes.containsKey(attributeName)) {
+            detachChildren(attributeName);
+        }
+        updateNode(m_node.withEntityValues(attributeName, PersistentList.<Node> empty()));
+        insertEntityValue(attributeName, value, 0);
+    }
+
+    /**
+     * @see com.alkacon.vie.shared.I_Entity#setAttributeValue(java.lang.String, com.alkacon.vie.shared.I_Entity, int)
+     */
+    public void setAttributeValue(String attributeName, I_Entity value, int index) {
+
+        if (m_node.m_simpleAttributes.containsKey(attributeName)) {
+            throw new RuntimeException("Attribute already exists with a simple type value.");
+        }
+        List<Node> current = m_node.m_entityAttributes.get(attributeName);
+        if (current == null) {
+            if (index != 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            setAttributeValue(attributeName, value);
+        } else {
+            if (index >= current.size()) {
+                throw new IndexOutOfBoundsException();
+            }
+            removeAttributeValue(attributeName, index);
+            if (m_node.m_entityAttributes.containsKey(attributeName)) {
+                insertEntityValue(attributeName, value, index);
+            } else {
+                setAttributeValue(attributeName, value);
+            }
+        }
+    }
+
+    /**
+     * Replaces all values of the given attribute with the given nested entities.<p>
+     * The entity values are shared, not adopted. Passing <code>null</code> or an empty list removes the attribute.<p>
+     *
+     * @param attributeName the attribute name
+     * @param values the nested entities
+     */
+    public void setEntityValues(String attributeName, List<? extends I_Entity> values) {
+
+        if (m_node.m_entityAttributes.containsKey(attributeName)) {
+            detachChildren(attributeName);
+        }
+        if ((values == null) || values.isEmpty()) {
+            removeAttributeSilent(attributeName);
+        } else {
+            List<Node> nodes = new ArrayList<Node>(values.size());
+            for (I_Entity value : values) {
+                nodes.add(createNode(value));
+            }
+            updateNode(m_node.withEntityValues(attributeName, PersistentList.valueOf(nodes)));
+        }
+    }
+
+    /**
+     * Replaces all values of the given attribute with the given simple values.<p>
+     * Passing <code>null</code> or an empty list removes the attribute.<p>
+     *
+     * @param attributeName the attribute name
+     * @param values the simple values
+     */
+    public void setSimpleValues(String attributeName, List<String> values) {
+
+        if (m_node.m_entityAttributes.containsKey(attributeName)) {
+            detachChildren(attributeName);
+        }
+        if ((values == null) || values.isEmpty()) {
+            removeAttributeSilent(attributeName);
+        } else {
+            updateNode(m_node.withSimpleValues(attributeName, PersistentList.valueOf(values)));
+        }
+    }
+
+    /**
+     * @see com.alkacon.vie.shared.I_Entity#setAttributeValue(java.lang.String, java.lang.String)
+     */
+    public void setAttributeValue(String attributeName, String value) {
+
+        if (m_node.m_entityAttributes.containsKey(attributeName)) {
+            detachChildren(attributeName);
+        }
+        updateNode(m_node.withSimpleValues(attributeName, PersistentList.<String> empty().plus(value)));
+    }
+
+    /**
+     * @see com.alkacon.vie.shared.I_Entity#setAttributeValue(java.lang.String, java.lang.String, int)
+     */
+    public void setAttributeValue(String attributeName, String value, int index) {
+
+        if (m_node.m_entityAttributes.containsKey(attributeName)) {
+            throw new RuntimeException("Attribute already exists with a entity type value.");
+        }
+        PersistentList<String> current = m_node.m_simpleAttributes.get(attributeName);
+        if (current == null) {
+            if (index != 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            setAttributeValue(attributeName, value);
+        } else {
+            updateNode(m_node.withSimpleValues(attributeName, current.with(index, value)));
+        }
+    }
+
+    /**
+     * Returns an immutable snapshot of the current entity state.<p>
+     * The snapshot shares all data with this entity, so this is a constant time operation.
+     * Changes to this entity will not affect the snapshot and vice versa.<p>
+     *
+     * @return the snapshot
+     */
+    public PersistentEntity snapshot() {
+
+        return new PersistentEntity(m_node);
+    }
+
+    /**
+     * Returns a serializable entity of the current state.<p>
+     *
+     * @return the serializable entity
+     */
+    public Entity toEntity() {
+
+        return toEntity(m_node);
+    }
+
+    /**
+     * @see com.alkacon.vie.shared.I_Entity#toJSON()
+     */
+    public String toJSON() {
+
+        // JSON serialization is not supported
+        return null;
+    }
+
+    /**
+     * Called by a nested entity handle after its data node was replaced.<p>
+     *
+     * @param attributeName the attribute name
+     * @param index the value index
+     * @param childNode the new child node
+     */
+    void childChanged(String attributeName, int index, Node childNode) {
+
+        updateNode(m_node.withEntityValues(attributeName, m_node.m_entityAttributes.get(attributeName).with(
+            index,
+            childNode)));
+    }
+
+    /**
+     * Detaches this handle from its parent, turning it into a root entity with the current data.<p>
+     */
+    private void detach() {
+
+        m_parent = null;
+        m_attributeName = null;
+        m_index = 0;
+    }
+
+    /**
+     * Detaches all nested entity handles of the given attribute.<p>
+     *
+     * @param attributeName the attribute name
+     */
+    private void detachChildren(String attributeName) {
+
+        if (m_childHandles != null) {
+            List<PersistentEntity> handles = m_childHandles.remove(attributeName);
+            if (handles != null) {
+                for (PersistentEntity handle : handles) {
+                    if (handle != null) {
+                        handle.detach();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the handle for the nested entity at the given position.<p>
+     *
+     * @param attributeName the attribute name
+     * @param index the value index
+     *
+     * @return the nested entity handle
+     */
+    private PersistentEntity getChild(String attributeName, int index) {
+
+        List<PersistentEntity> handles = getChildHandles(attributeName);
+        PersistentEntity handle = handles.get(index);
+        if (handle == null) {
+            handle = new PersistentEntity(m_node.m_entityAttributes.get(attributeName).get(index));
+            handle.m_parent = this;
+            handle.m_attributeName = attributeName;
+            handle.m_index = index;
+            handles.set(index, handle);
+        }
+        return handle;
+    }
+
+    /**
+     * Returns the nested entity handle list of the given attribute, aligned with the node values.<p>
+     *
+     * @param attributeName the attribute name
+     *
+     * @return the handle list
+     */
+    private List<PersistentEntity> getChildHandles(String attributeName) {
+
+        if (m_childHandles == null) {
+            m_childHandles = new HashMap<String, List<PersistentEntity>>();
+        }
+        List<PersistentEntity> handles = m_childHandles.get(attributeName);
+        if (handles == null) {
+            handles = new ArrayList<PersistentEntity>();
+            m_childHandles.put(attributeName, handles);
+        }
+        List<Node> values = m_node.m_entityAttributes.get(attributeName);
+        int size = values != null ? values.size() : 0;
+        while (handles.size() < size) {
+            handles.add(null);
+        }
+        return handles;
+    }
+
+    /**
+     * Adds the handles of all entities nested within the given entity to the id index.<p>
+     * The first handle found for an id wins, same as with a depth first search.<p>
+     *
+     * @param entity the entity to index
+     */
+    private void indexChildren(PersistentEntity entity) {
+
+        for (Entry<String, PersistentList<Node>> attribute : entity.m_node.m_entityAttributes.entrySet()) {
+            for (int i = 0; i < attribute.getValue().size(); i++) {
+                PersistentEntity child = entity.getChild(attribute.getKey(), i);
+                if (!m_handlesById.containsKey(child.m_node.m_id)) {
+                    m_handlesById.put(child.m_node.m_id, child);
+                }
+                indexChildren(child);
+            }
+        }
+    }
+
+    /**
+     * Inserts an entity value at the given index.<p>
+     * Detached persistent entities will be adopted as live nested entities, all other values are copied.<p>
+     *
+     * @param attributeName the attribute name
+     * @param value the value
+     * @param index the value index
+     */
+    private void insertEntityValue(String attributeName, I_Entity value, int index) {
+
+        PersistentList<Node> values = m_node.m_entityAttributes.get(attributeName);
+        if (values == null) {
+            values = PersistentList.empty();
+        }
+        values = values.plus(index, createNode(value));
+        List<PersistentEntity> handles = getChildHandles(attributeName);
+        PersistentEntity adopted = null;
+        if ((value instanceof PersistentEntity) && (((PersistentEntity)value).m_parent == null) && (value != this)) {
+            adopted = (PersistentEntity)value;
+            adopted.m_parent = this;
+            adopted.m_attributeName = attributeName;
+            adopted.m_index = index;
+        }
+        handles.add(index, adopted);
+        renumberChildren(attributeName, index);
+        updateNode(m_node.withEntityValues(attributeName, values));
+    }
+
+    /**
+     * Returns if this handle still has the given id and is still attached below the given root.<p>
+     *
+     * @param root the entity holding the id index
+     * @param entityId the indexed entity id
+     *
+     * @return <code>true</code> if the indexed handle is still valid
+     */
+    private boolean isIndexedIn(PersistentEntity root, String entityId) {
+
+        if ((entityId == null) ? (m_node.m_id != null) : !entityId.equals(m_node.m_id)) {
+            return false;
+        }
+        PersistentEntity parent = m_parent;
+        while ((parent != null) && (parent != root)) {
+            parent = parent.m_parent;
+        }
+        return parent == root;
+    }
+
+    /**
+     * Updates the value indexes of the nested entity handles of the given attribute.<p>
+     *
+     * @param attributeName the attribute name
+     * @param startIndex the first index to update
+     */
+    private void renumberChildren(String attributeName, int startIndex) {
+
+        List<PersistentEntity> handles = m_childHandles.get(attributeName);
+        for (int i = startIndex; i < handles.size(); i++) {
+            PersistentEntity handle = handles.get(i);
+            if (handle != null) {
+                handle.m_index = i;
+            }
+        }
+    }
+
+    /**
+     * Replaces the data node and propagates the change to the parent entity.<p>
+     *
+     * @param node the new data node
+     */
+    private void updateNode(Node node) {
+
+        m_node = node;
+        if (m_parent != null) {
+            m_parent.childChanged(m_attributeName, m_index, node);
+        }
+    }
+}
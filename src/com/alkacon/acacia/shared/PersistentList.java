@@ -0,0 +1,303 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.shared;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list sharing its structure with the lists it was derived from.<p>
+ * 
+ * The values are kept in a tree of arrays with 32 slots each. Replacing a value or appending a value 
+ * only copies the arrays on the path to the value, so these are O(log n) operations and all other arrays are shared.
+ * Inserting or removing values before the end of the list rebuilds the list.<p>
+ * 
+ * @param <T> the value type
+ */
+final class PersistentList<T> extends AbstractList<T> implements RandomAccess, Serializable {
+
+    /** The number of index bits per tree level. */
+    private static final int BITS = 5;
+
+    /** The empty list. */
+    private static final PersistentList<?> EMPTY = new PersistentList<Object>(new Object[0], 0, 0);
+
+    /** The mask of the index bits of a tree level. */
+    private static final int MASK = (1 << BITS) - 1;
+
+    /** The serial version id. */
+    private static final long serialVersionUID = -3215466127021758466L;
+
+    /** The root array. */
+    private Object[] m_root;
+
+    /** The index shift of the root level, 0 if the root array holds the values. */
+    private int m_shift;
+
+    /** The list size. */
+    private int m_size;
+
+    /**
+     * Constructor.<p>
+     * 
+     * @param root the root array
+     * @param shift the index shift of the root level
+     * @param size the list size
+     */
+    private PersistentList(Object[] root, int shift, int size) {
+
+        m_root = root;
+        m_shift = shift;
+        m_size = size;
+    }
+
+    /**
+     * Returns the empty list.<p>
+     * 
+     * @param <T> the value type
+     * 
+     * @return the empty list
+     */
+    @SuppressWarnings("unchecked")
+    static <T> PersistentList<T> empty() {
+
+        return (PersistentList<T>)EMPTY;
+    }
+
+    /**
+     * Returns a persistent list with the given values.<p>
+     * 
+     * @param <T> the value type
+     * @param values the values, persistent lists are returned as they are
+     * 
+     * @return the persistent list
+     */
+    @SuppressWarnings("unchecked")
+    static <T> PersistentList<T> valueOf(List<? extends T> values) {
+
+        if (values instanceof PersistentList) {
+            return (PersistentList<T>)values;
+        }
+        int size = values.size();
+        if (size == 0) {
+            return empty();
+        }
+        // fill the leaf arrays, then group them level by level until a single root is left
+        Object[] level = group(values.toArray(), size);
+        int shift = 0;
+        while (level.length > 1) {
+            level = group(level, level.length);
+            shift += BITS;
+        }
+        return new PersistentList<T>((Object[])level[0], shift, size);
+    }
+
+    /**
+     * Appends a value to the given array, copying the arrays on the path.<p>
+     * 
+     * @param node the array
+     * @param shift the index shift of the array level
+     * @param index the index of the appended value
+     * @param value the value
+     * 
+     * @return the new array
+     */
+    private static Object[] append(Object[] node, int shift, int index, Object value) {
+
+        int slot = (index >>> shift) & MASK;
+        Object[] result = copy(node, Math.max(node.length, slot + 1));
+        if (shift == 0) {
+            result[slot] = value;
+        } else if (slot < node.length) {
+            result[slot] = append((Object[])node[slot], shift - BITS, index, value);
+        } else {
+            result[slot] = createPath(shift - BITS, value);
+        }
+        return result;
+    }
+
+    /**
+     * Copies the given array.<p>
+     * 
+     * @param array the array
+     * @param length the length of the copy, at least the length of the array
+     * 
+     * @return the copy
+     */
+    private static Object[] copy(Object[] array, int length) {
+
+        Object[] result = new Object[length];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    /**
+     * Creates the arrays from the given level down to a leaf array holding the value.<p>
+     * 
+     * @param shift the index shift of the level
+     * @param value the value
+     * 
+     * @return the array of the given level
+     */
+    private static Object[] createPath(int shift, Object value) {
+
+        return new Object[] {shift == 0 ? value : createPath(shift - BITS, value)};
+    }
+
+    /**
+     * Groups the given items into arrays of 32 items.<p>
+     * 
+     * @param items the items
+     * @param count the number of items to group
+     * 
+     * @return the arrays
+     */
+    private static Object[] group(Object[] items, int count) {
+
+        Object[] result = new Object[((count - 1) >>> BITS) + 1];
+        for (int i = 0; i < result.length; i++) {
+            int start = i << BITS;
+            Object[] array = new Object[Math.min(MASK + 1, count - start)];
+            System.arraycopy(items, start, array, 0, array.length);
+            result[i] = array;
+        }
+        return result;
+    }
+
+    /**
+     * Replaces a value in the given array, copying the arrays on the path.<p>
+     * 
+     * @param node the array
+     * @param shift the index shift of the array level
+     * @param index the index of the value
+     * @param value the value
+     * 
+     * @return the new array
+     */
+    private static Object[] replace(Object[] node, int shift, int index, Object value) {
+
+        int slot = (index >>> shift) & MASK;
+        Object[] result = copy(node, node.length);
+        result[slot] = shift == 0 ? value : replace((Object[])node[slot], shift - BITS, index, value);
+        return result;
+    }
+
+    /**
+     * @see java.util.AbstractList#get(int)
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public T get(int index) {
+
+        if ((index < 0) || (index >= m_size)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + m_size);
+        }
+        Object[] node = m_root;
+        for (int shift = m_shift; shift > 0; shift -= BITS) {
+            node = (Object[])node[(index >>> shift) & MASK];
+        }
+        return (T)node[index & MASK];
+    }
+
+    /**
+     * @see java.util.AbstractCollection#size()
+     */
+    @Override
+    public int size() {
+
+        return m_size;
+    }
+
+    /**
+     * Returns a list without the value at the given index.<p>
+     * 
+     * @param index the index
+     * 
+     * @return the new list
+     */
+    PersistentList<T> minus(int index) {
+
+        List<T> values = new ArrayList<T>(this);
+        values.remove(index);
+        return valueOf(values);
+    }
+
+    /**
+     * Returns a list with the given value inserted at the given index.<p>
+     * 
+     * @param index the index
+     * @param value the value
+     * 
+     * @return the new list
+     */
+    PersistentList<T> plus(int index, T value) {
+
+        if (index == m_size) {
+            return plus(value);
+        }
+        List<T> values = new ArrayList<T>(this);
+        values.add(index, value);
+        return valueOf(values);
+    }
+
+    /**
+     * Returns a list with the given value appended.<p>
+     * 
+     * @param value the value
+     * 
+     * @return the new list
+     */
+    PersistentList<T> plus(T value) {
+
+        if (m_size == (1 << (m_shift + BITS))) {
+            // the tree is full, so it grows by a level
+            return new PersistentList<T>(
+                new Object[] {m_root, createPath(m_shift, value)},
+                m_shift + BITS,
+                m_size + 1);
+        }
+        return new PersistentList<T>(append(m_root, m_shift, m_size, value), m_shift, m_size + 1);
+    }
+
+    /**
+     * Returns a list with the value at the given index replaced.<p>
+     * 
+     * @param index the index
+     * @param value the new value
+     * 
+     * @return the new list
+     */
+    PersistentList<T> with(int index, T value) {
+
+        if ((index < 0) || (index >= m_size)) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + m_size);
+        }
+        return new PersistentList<T>(replace(m_root, m_shift, index, value), m_shift, m_size);
+    }
+}
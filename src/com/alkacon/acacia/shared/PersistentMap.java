@@ -0,0 +1,488 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.shared;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable map by string keys sharing its structure with the maps it was derived from.<p>
+ * 
+ * The entries are kept in a hash trie with 32 slots per level. Adding, replacing or removing an entry 
+ * only copies the nodes on the path to the entry, all other nodes are shared.<p>
+ * 
+ * @param <V> the value type
+ */
+final class PersistentMap<V> extends AbstractMap<String, V> implements Serializable {
+
+    /**
+     * Immutable map entry.<p>
+     * 
+     * @param <V> the value type
+     */
+    private static final class MapEntry<V> implements Map.Entry<String, V> {
+
+        /** The key. */
+        private String m_key;
+
+        /** The value. */
+        private V m_value;
+
+        /**
+         * Constructor.<p>
+         * 
+         * @param key the key
+         * @param value the value
+         */
+        MapEntry(String key, V value) {
+
+            m_key = key;
+            m_value = value;
+        }
+
+        /**
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj) {
+
+            if (!(obj instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>)obj;
+            return m_key.equals(entry.getKey())
+                && ((m_value == null) ? (entry.getValue() == null) : m_value.equals(entry.getValue()));
+        }
+
+        /**
+         * @see java.util.Map.Entry#getKey()
+         */
+        public String getKey() {
+
+            return m_key;
+        }
+
+        /**
+         * @see java.util.Map.Entry#getValue()
+         */
+        public V getValue() {
+
+            return m_value;
+        }
+
+        /**
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+
+            return m_key.hashCode() ^ ((m_value == null) ? 0 : m_value.hashCode());
+        }
+
+        /**
+         * @see java.util.Map.Entry#setValue(java.lang.Object)
+         */
+        public V setValue(V value) {
+
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Trie node.<p>
+     * 
+     * The slots hold key value pairs, a <code>null</code> key marking a nested node as value.
+     * Nodes below the last hash level hold the colliding keys without bitmap.<p>
+     */
+    private static final class Node implements Serializable {
+
+        /** The serial version id. */
+        private static final long serialVersionUID = 5720376187716125233L;
+
+        /** The bitmap of the used hash slots. */
+        int m_bitmap;
+
+        /** The key value pairs. */
+        Object[] m_slots;
+
+        /**
+         * Constructor.<p>
+         * 
+         * @param bitmap the bitmap of the used hash slots
+         * @param slots the key value pairs
+         */
+        Node(int bitmap, Object[] slots) {
+
+            m_bitmap = bitmap;
+            m_slots = slots;
+        }
+    }
+
+    /** The number of hash bits per trie level. */
+    private static final int BITS = 5;
+
+    /** The empty map. */
+    private static final PersistentMap<?> EMPTY = new PersistentMap<Object>(new Node(0, new Object[0]), 0);
+
+    /** The mask of the hash bits of a trie level. */
+    private static final int MASK = (1 << BITS) - 1;
+
+    /** The hash shift of the last trie level using hash bits. */
+    private static final int MAX_SHIFT = 30;
+
+    /** The result of a lookup for a missing key. */
+    private static final Object NONE = new Object();
+
+    /** The serial version id. */
+    private static final long serialVersionUID = -5316364624426040417L;
+
+    /** The root node. */
+    private Node m_root;
+
+    /** The number of entries. */
+    private int m_size;
+
+    /**
+     * Constructor.<p>
+     * 
+     * @param root the root node
+     * @param size the number of entries
+     */
+    private PersistentMap(Node root, int size) {
+
+        m_root = root;
+        m_size = size;
+    }
+
+    /**
+     * Returns the empty map.<p>
+     * 
+     * @param <V> the value type
+     * 
+     * @return the empty map
+     */
+    @SuppressWarnings("unchecked")
+    static <V> PersistentMap<V> empty() {
+
+        return (PersistentMap<V>)EMPTY;
+    }
+
+    /**
+     * Returns a copy of the given slots with a key value pair inserted.<p>
+     * 
+     * @param slots the slots
+     * @param position the position of the key
+     * @param key the key
+     * @param value the value
+     * 
+     * @return the new slots
+     */
+    private static Object[] insert(Object[] slots, int position, Object key, Object value) {
+
+        Object[] result = new Object[slots.length + 2];
+        System.arraycopy(slots, 0, result, 0, position);
+        result[position] = key;
+        result[position + 1] = value;
+        System.arraycopy(slots, position, result, position + 2, slots.length - position);
+        return result;
+    }
+
+    /**
+     * Returns the slot position of the given hash within a node.<p>
+     * 
+     * @param node the node
+     * @param bit the hash bit of the slot
+     * 
+     * @return the position of the key
+     */
+    private static int position(Node node, int bit) {
+
+        return 2 * Integer.bitCount(node.m_bitmap & (bit - 1));
+    }
+
+    /**
+     * Returns a copy of the given slots without the key value pair at the given position.<p>
+     * 
+     * @param slots the slots
+     * @param position the position of the key
+     * 
+     * @return the new slots
+     */
+    private static Object[] remove(Object[] slots, int position) {
+
+        Object[] result = new Object[slots.length - 2];
+        System.arraycopy(slots, 0, result, 0, position);
+        System.arraycopy(slots, position + 2, result, position, result.length - position);
+        return result;
+    }
+
+    /**
+     * Returns a copy of the given slots with the value at the given position replaced.<p>
+     * 
+     * @param slots the slots
+     * @param position the position of the value
+     * @param value the value
+     * 
+     * @return the new slots
+     */
+    private static Object[] replace(Object[] slots, int position, Object value) {
+
+        Object[] result = new Object[slots.length];
+        System.arraycopy(slots, 0, result, 0, slots.length);
+        result[position] = value;
+        return result;
+    }
+
+    /**
+     * @see java.util.AbstractMap#containsKey(java.lang.Object)
+     */
+    @Override
+    public boolean containsKey(Object key) {
+
+        return (key instanceof String) && (lookup((String)key) != NONE);
+    }
+
+    /**
+     * @see java.util.AbstractMap#entrySet()
+     */
+    @Override
+    public Set<Map.Entry<String, V>> entrySet() {
+
+        return new AbstractSet<Map.Entry<String, V>>() {
+
+            @Override
+            public Iterator<Map.Entry<String, V>> iterator() {
+
+                List<Map.Entry<String, V>> entries = new ArrayList<Map.Entry<String, V>>(m_size);
+                collect(m_root, entries);
+                return entries.iterator();
+            }
+
+            @Override
+            public int size() {
+
+                return m_size;
+            }
+        };
+    }
+
+    /**
+     * @see java.util.AbstractMap#get(java.lang.Object)
+     */
+    @Override
+    public V get(Object key) {
+
+        Object value = (key instanceof String) ? lookup((String)key) : NONE;
+        return value != NONE ? value(value) : null;
+    }
+
+    /**
+     * @see java.util.AbstractMap#size()
+     */
+    @Override
+    public int size() {
+
+        return m_size;
+    }
+
+    /**
+     * Returns a map with the given key removed.<p>
+     * 
+     * @param key the key
+     * 
+     * @return the new map, this map if it has no such key
+     */
+    PersistentMap<V> minus(String key) {
+
+        Node root = remove(m_root, 0, key.hashCode(), key);
+        return root == m_root ? this : new PersistentMap<V>(root, m_size - 1);
+    }
+
+    /**
+     * Returns a map with the given value set for the key.<p>
+     * 
+     * @param key the key
+     * @param value the value
+     * 
+     * @return the new map
+     */
+    PersistentMap<V> with(String key, V value) {
+
+        int size = containsKey(key) ? m_size : m_size + 1;
+        return new PersistentMap<V>(put(m_root, 0, key.hashCode(), key, value), size);
+    }
+
+    /**
+     * Adds the entries of the given node and its nested nodes to the list.<p>
+     * 
+     * @param node the node
+     * @param entries the list to add to
+     */
+    private void collect(Node node, List<Map.Entry<String, V>> entries) {
+
+        for (int i = 0; i < node.m_slots.length; i += 2) {
+            if (node.m_slots[i] != null) {
+                entries.add(new MapEntry<V>((String)node.m_slots[i], value(node.m_slots[i + 1])));
+            } else {
+                collect((Node)node.m_slots[i + 1], entries);
+            }
+        }
+    }
+
+    /**
+     * Returns the value of the given key.<p>
+     * 
+     * @param key the key
+     * 
+     * @return the value, {@link #NONE} if there is no such key
+     */
+    private Object lookup(String key) {
+
+        Node node = m_root;
+        int hash = key.hashCode();
+        for (int shift = 0; shift <= MAX_SHIFT; shift += BITS) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((node.m_bitmap & bit) == 0) {
+                return NONE;
+            }
+            int position = position(node, bit);
+            Object slotKey = node.m_slots[position];
+            if (slotKey != null) {
+                return key.equals(slotKey) ? node.m_slots[position + 1] : NONE;
+            }
+            node = (Node)node.m_slots[position + 1];
+        }
+        for (int i = 0; i < node.m_slots.length; i += 2) {
+            if (key.equals(node.m_slots[i])) {
+                return node.m_slots[i + 1];
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns a node with the given value set for the key, copying the nodes on the path.<p>
+     * 
+     * @param node the node
+     * @param shift the hash shift of the node level
+     * @param hash the key hash
+     * @param key the key
+     * @param value the value
+     * 
+     * @return the new node
+     */
+    private Node put(Node node, int shift, int hash, String key, Object value) {
+
+        if (shift > MAX_SHIFT) {
+            for (int i = 0; i < node.m_slots.length; i += 2) {
+                if (key.equals(node.m_slots[i])) {
+                    return new Node(0, replace(node.m_slots, i + 1, value));
+                }
+            }
+            return new Node(0, insert(node.m_slots, node.m_slots.length, key, value));
+        }
+        int bit = 1 << ((hash >>> shift) & MASK);
+        int position = position(node, bit);
+        if ((node.m_bitmap & bit) == 0) {
+            return new Node(node.m_bitmap | bit, insert(node.m_slots, position, key, value));
+        }
+        Object slotKey = node.m_slots[position];
+        Object slotValue = node.m_slots[position + 1];
+        Node nested;
+        if (slotKey == null) {
+            nested = put((Node)slotValue, shift + BITS, hash, key, value);
+        } else if (key.equals(slotKey)) {
+            return new Node(node.m_bitmap, replace(node.m_slots, position + 1, value));
+        } else {
+            // two keys share the hash bits of this level, so they move to a nested node
+            nested = put(new Node(0, new Object[0]), shift + BITS, slotKey.hashCode(), (String)slotKey, slotValue);
+            nested = put(nested, shift + BITS, hash, key, value);
+        }
+        Object[] slots = replace(node.m_slots, position, null);
+        slots[position + 1] = nested;
+        return new Node(node.m_bitmap, slots);
+    }
+
+    /**
+     * Returns a node without the given key, copying the nodes on the path.<p>
+     * 
+     * @param node the node
+     * @param shift the hash shift of the node level
+     * @param hash the key hash
+     * @param key the key
+     * 
+     * @return the new node, the given node if it does not hold the key
+     */
+    private Node remove(Node node, int shift, int hash, String key) {
+
+        if (shift > MAX_SHIFT) {
+            for (int i = 0; i < node.m_slots.length; i += 2) {
+                if (key.equals(node.m_slots[i])) {
+                    return new Node(0, remove(node.m_slots, i));
+                }
+            }
+            return node;
+        }
+        int bit = 1 << ((hash >>> shift) & MASK);
+        if ((node.m_bitmap & bit) == 0) {
+            return node;
+        }
+        int position = position(node, bit);
+        Object slotKey = node.m_slots[position];
+        if (slotKey == null) {
+            Node nested = (Node)node.m_slots[position + 1];
+            Node result = remove(nested, shift + BITS, hash, key);
+            if (result == nested) {
+                return node;
+            }
+            if (result.m_slots.length > 0) {
+                return new Node(node.m_bitmap, replace(node.m_slots, position + 1, result));
+            }
+        } else if (!key.equals(slotKey)) {
+            return node;
+        }
+        return new Node(node.m_bitmap & ~bit, remove(node.m_slots, position));
+    }
+
+    /**
+     * Casts a slot value to the value type.<p>
+     * 
+     * @param value the slot value
+     * 
+     * @return the value
+     */
+    @SuppressWarnings("unchecked")
+    private V value(Object value) {
+
+        return (V)value;
+    }
+}
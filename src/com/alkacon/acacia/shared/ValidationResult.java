@@ -24,7 +24,11 @@
 
 package com.alkacon.acacia.shared;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import com.google.gwt.user.client.rpc.IsSerializable;
 
@@ -33,11 +37,14 @@ import com.google.gwt.user.client.rpc.IsSerializable;
  */
 public class ValidationResult implements IsSerializable {
 
+    /** The ids of the entities not saved because of concurrent changes. */
+    private Set<String> m_conflicts;
+
     /** The error messages by entity and attribute. */
-    private Map<String, Map<String[], String>> m_errors;
+    private Map<String, Map<AttributePath, String>> m_errors;
 
     /** The warning messages by entity and attribute. */
-    private Map<String, Map<String[], String>> m_warnings;
+    private Map<String, Map<AttributePath, String>> m_warnings;
 
     /**
      * Constructor.<p>
@@ -45,12 +52,28 @@ public class ValidationResult implements IsSerializable {
      * @param errors the error messages by entity and attribute
      * @param warnings the warning messages by entity and attribute
      */
-    public ValidationResult(Map<String, Map<String[], String>> errors, Map<String, Map<String[], String>> warnings) {
+    public ValidationResult(Map<String, Map<AttributePath, String>> errors, Map<String, Map<AttributePath, String>> warnings) {
 
         m_errors = errors;
         m_warnings = warnings;
     }
 
+    /**
+     * Constructor.<p>
+     * 
+     * @param errors the error messages by entity and attribute
+     * @param warnings the warning messages by entity and attribute
+     * @param conflicts the ids of the entities not saved because of concurrent changes
+     */
+    public ValidationResult(
+        Map<String, Map<AttributePath, String>> errors,
+        Map<String, Map<AttributePath, String>> warnings,
+        Set<String> conflicts) {
+
+        this(errors, warnings);
+        m_conflicts = conflicts;
+    }
+
     /**
      * Constructor. For serialization only.<p>
      */
@@ -59,12 +82,66 @@ public class ValidationResult implements IsSerializable {
         // nothing to do
     }
 
+    /**
+     * Creates a validation result from messages keyed by attribute path element arrays.<p>
+     * 
+     * This is the replacement for the former constructor taking <code>String[]</code> keyed maps, 
+     * which can not be overloaded because of the identical erasure.
+     * The paths are converted using {@link AttributePath#valueOf(String[])}.<p>
+     * 
+     * @param errors the error messages by entity and attribute path elements
+     * @param warnings the warning messages by entity and attribute path elements
+     * 
+     * @return the validation result
+     */
+    public static ValidationResult create(
+        Map<String, Map<String[], String>> errors,
+        Map<String, Map<String[], String>> warnings) {
+
+        return new ValidationResult(toAttributePaths(errors), toAttributePaths(warnings));
+    }
+
+    /**
+     * Converts messages keyed by attribute path element arrays to messages keyed by attribute paths.<p>
+     * 
+     * @param messages the messages by entity and attribute path elements, may be <code>null</code>
+     * 
+     * @return the messages by entity and attribute path
+     */
+    private static Map<String, Map<AttributePath, String>> toAttributePaths(Map<String, Map<String[], String>> messages) {
+
+        if (messages == null) {
+            return null;
+        }
+        Map<String, Map<AttributePath, String>> result = new HashMap<String, Map<AttributePath, String>>();
+        for (Entry<String, Map<String[], String>> entityMessages : messages.entrySet()) {
+            Map<AttributePath, String> converted = new HashMap<AttributePath, String>();
+            for (Entry<String[], String> message : entityMessages.getValue().entrySet()) {
+                converted.put(AttributePath.valueOf(message.getKey()), message.getValue());
+            }
+            result.put(entityMessages.getKey(), converted);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the ids of the entities not saved because of concurrent changes.<p>
+     * 
+     * The conflicting attributes of these entities are reported as errors.<p>
+     * 
+     * @return the entity ids
+     */
+    public Set<String> getConflicts() {
+
+        return m_conflicts != null ? m_conflicts : Collections.<String> emptySet();
+    }
+
     /**
      * Returns all error messages by entity id and attribute.<p>
      * 
      * @return the error messages by entity id and attribute
      */
-    public Map<String, Map<String[], String>> getErrors() {
+    public Map<String, Map<AttributePath, String>> getErrors() {
 
         return m_errors;
     }
@@ -76,7 +153,7 @@ public class ValidationResult implements IsSerializable {
      * 
      * @return the error messages for the given entity
      */
-    public Map<String[], String> getErrors(String entityId) {
+    public Map<AttributePath, String> getErrors(String entityId) {
 
         return m_errors != null ? m_errors.get(entityId) : null;
     }
@@ -86,7 +163,7 @@ public class ValidationResult implements IsSerializable {
      * 
      * @return the warning messages by entity id and attribute
      */
-    public Map<String, Map<String[], String>> getWarnings() {
+    public Map<String, Map<AttributePath, String>> getWarnings() {
 
         return m_warnings;
     }
@@ -98,11 +175,33 @@ public class ValidationResult implements IsSerializable {
      * 
      * @return the warning messages for the given entity
      */
-    public Map<String[], String> getWarnings(String entityId) {
+    public Map<AttributePath, String> getWarnings(String entityId) {
 
         return m_warnings != null ? m_warnings.get(entityId) : null;
     }
 
+    /**
+     * Returns if there are any conflicts.<p>
+     * 
+     * @return <code>true</code> if there are any conflicts
+     */
+    public boolean hasConflicts() {
+
+        return (m_conflicts != null) && !m_conflicts.isEmpty();
+    }
+
+    /**
+     * Returns if the entity of the given id was not saved because of concurrent changes.<p>
+     * 
+     * @param entityId the entity id
+     * 
+     * @return <code>true</code> if the entity of the given id has conflicts
+     */
+    public boolean hasConflicts(String entityId) {
+
+        return (m_conflicts != null) && m_conflicts.contains(entityId);
+    }
+
     /**
      * Returns if there are any errors.<p>
      * 
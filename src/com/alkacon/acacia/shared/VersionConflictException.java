@@ -0,0 +1,70 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.alkacon.acacia.shared;
+
+/**
+ * Thrown by the content service if an entity patch does not match the version stored on the server.<p>
+ * 
+ * The client should resend the complete entity in this case.<p>
+ */
+public class VersionConflictException extends Exception {
+
+    /** The serial version id. */
+    private static final long serialVersionUID = -4406127938296043405L;
+
+    /** The entity id. */
+    private String m_entityId;
+
+    /**
+     * Constructor.<p>
+     * 
+     * @param entityId the entity id
+     * @param expectedVersion the version the client expected
+     * @param actualVersion the version stored on the server
+     */
+    public VersionConflictException(String entityId, String expectedVersion, String actualVersion) {
+
+        super("Version conflict for entity " + entityId + ", expected " + expectedVersion + " but was " + actualVersion);
+        m_entityId = entityId;
+    }
+
+    /**
+     * Constructor needed for serialization.<p>
+     */
+    protected VersionConflictException() {
+
+        // nothing to do
+    }
+
+    /**
+     * Returns the entity id.<p>
+     * 
+     * @return the entity id
+     */
+    public String getEntityId() {
+
+        return m_entityId;
+    }
+}
@@ -27,9 +27,11 @@ package com.alkacon.acacia.shared.rpc;
 import com.alkacon.acacia.shared.ContentDefinition;
 import com.alkacon.acacia.shared.Entity;
 import com.alkacon.acacia.shared.EntityHtml;
+import com.alkacon.acacia.shared.EntityPatch;
 import com.alkacon.acacia.shared.ValidationResult;
 
 import java.util.List;
+import java.util.Map;
 
 import com.google.gwt.user.client.rpc.RemoteService;
 
@@ -51,10 +53,65 @@ public interface I_ContentService extends RemoteService {
      */
     ContentDefinition loadContentDefinition(String entityId) throws Exception;
 
+    /**
+     * Loads the content definition for a given entity, leaving out the types and attribute configurations already held by the client.<p>
+     * 
+     * @param entityId the entity id/URI
+     * @param schemaVersions the schema versions held by the client by entity type name
+     * 
+     * @return the content type definition
+     * 
+     * @throws Exception if something goes wrong processing the request
+     * 
+     * @see com.alkacon.acacia.shared.ContentDefinition#omitKnownSchema(Map)
+     */
+    ContentDefinition loadContentDefinition(String entityId, Map<String, String> schemaVersions) throws Exception;
+
+    /**
+     * Loads the values of the given attributes of an entity.<p>
+     * 
+     * Used to load the pending attributes of a content definition returned by {@link #loadInitialContentDefinition(String)}.
+     * The returned entity only contains the requested attributes, nested entities have to keep their ids.<p>
+     * 
+     * @param entityId the entity id/URI
+     * @param attributeNames the attribute names
+     * 
+     * @return the entity containing the requested attribute values
+     * 
+     * @throws Exception if something goes wrong processing the request
+     * 
+     * @see com.alkacon.acacia.shared.Entity#createSubset(java.util.Collection)
+     */
+    Entity loadEntityAttributes(String entityId, List<String> attributeNames) throws Exception;
+
+    /**
+     * Loads the content definition for a given entity for the initial display.<p>
+     * 
+     * The types, configurations and tab informations are complete, the entity may only contain the values of the attributes 
+     * displayed first. The attributes left out are listed in {@link ContentDefinition#getPendingAttributes()}.
+     * Types and configurations already held by the client are left out.<p>
+     * 
+     * @param entityId the entity id/URI
+     * @param schemaVersions the schema versions held by the client by entity type name
+     * 
+     * @return the content type definition
+     * 
+     * @throws Exception if something goes wrong processing the request
+     * 
+     * @see com.alkacon.acacia.shared.ContentDefinition#createInitialDefinition()
+     * @see com.alkacon.acacia.shared.ContentDefinition#omitKnownSchema(Map)
+     */
+    ContentDefinition loadInitialContentDefinition(String entityId, Map<String, String> schemaVersions)
+    throws Exception;
+
     /**
      * Saves the given entities and returns a validation result in case of invalid entities.<p>
      * Invalid entities will not be saved.<p>
      * 
+     * Entities carrying a base version are merged with changes saved concurrently since that version. 
+     * Entities changed concurrently in the same attributes will not be saved and are reported as conflicts. 
+     * After a successful save, the content version of the saved entity is the base version of the next save.<p>
+     * 
      * @param entities the entities to save
      * 
      * @return the validation result in case of invalid entities
@@ -67,6 +124,9 @@ public interface I_ContentService extends RemoteService {
      * Saves the given entity and returns a validation result in case of invalid entities.<p>
      * Invalid entities will not be saved.<p>
      * 
+     * Entities carrying a base version are merged with changes saved concurrently since that version, 
+     * see {@link #saveEntities(List)}.<p>
+     * 
      * @param entity the entity to save
      * 
      * @return the validation result in case of invalid entities
@@ -75,6 +135,43 @@ public interface I_ContentService extends RemoteService {
      */
     ValidationResult saveEntity(Entity entity) throws Exception;
 
+    /**
+     * Sends a chunk of a batch save.<p>
+     * 
+     * The chunks of a batch may be sent concurrently and in any order. They are staged on the server 
+     * and the batch is applied once all chunks are received, so an interrupted batch saves nothing. 
+     * Each entity is saved like in {@link #saveEntities(List)}, entities which can not be saved 
+     * are reported by the validation result without affecting the other entities of the batch.<p>
+     * 
+     * @param batchId the batch id, unique for each batch
+     * @param chunkIndex the chunk index
+     * @param chunkCount the number of chunks of the batch
+     * @param entities the entities of the chunk
+     * 
+     * @return the validation result of the batch for the request completing the batch, <code>null</code> for all others
+     * 
+     * @throws Exception if the chunk does not match the batch or too many batches are pending
+     */
+    ValidationResult saveEntityChunk(String batchId, int chunkIndex, int chunkCount, List<Entity> entities)
+    throws Exception;
+
+    /**
+     * Applies the given patches to the stored entities and saves them. Returns a validation result in case of invalid entities.<p>
+     * Invalid entities will not be saved.<p>
+     * 
+     * Patches without base version carry the complete entity. All other patches are applied to their base version, 
+     * both are merged with concurrent changes like in {@link #saveEntities(List)}.
+     * Entities with patches based on a version the server no longer knows are listed in the conflicts 
+     * of the result without errors, the client has to send them completely.<p>
+     * 
+     * @param patches the entity patches
+     * 
+     * @return the validation result in case of invalid entities
+     * 
+     * @throws Exception if something goes wrong processing the request
+     */
+    ValidationResult saveEntityPatches(List<EntityPatch> patches) throws Exception;
+
     /**
      * Retrieves the updated entity HTML representation.<p>
      * The entity data will be validated but not persisted on the server.<p>
@@ -89,6 +186,33 @@ public interface I_ContentService extends RemoteService {
      */
     EntityHtml updateEntityHtml(Entity entity, String contextUri, String htmlContextInfo) throws Exception;
 
+    /**
+     * Retrieves the updated HTML of the elements representing the values of a single attribute.<p>
+     * The entity data will be validated but not persisted on the server.<p>
+     * 
+     * The server keeps the last rendered version of each entity, patches are applied to that version. 
+     * Patches without base version carry the complete entity.
+     * Only the RDFa annotated elements of the given attribute of the given entity need to be rendered, 
+     * the result contains one HTML fragment for each of these elements in document order.<p>
+     * 
+     * @param patch the patch of the root entity
+     * @param entityId the id of the entity holding the attribute, may be a nested entity
+     * @param attributeName the attribute name
+     * @param contextUri the context URI
+     * @param htmlContextInfo information about the HTML context
+     * 
+     * @return the HTML fragments including the validation result
+     * 
+     * @throws com.alkacon.acacia.shared.VersionConflictException if the patch base version does not match the last rendered version
+     * @throws Exception if something goes wrong processing the request
+     */
+    EntityHtml updateEntityHtmlFragment(
+        EntityPatch patch,
+        String entityId,
+        String attributeName,
+        String contextUri,
+        String htmlContextInfo) throws Exception;
+
     /**
      * Validates the given entities and returns maps of error and warning messages in case of invalid attributes.<p>
      * 
@@ -99,4 +223,21 @@ public interface I_ContentService extends RemoteService {
      * @throws Exception if something goes wrong processing the request
      */
     ValidationResult validateEntities(List<Entity> changedEntities) throws Exception;
+
+    /**
+     * Validates the entity resulting from the given patch and returns maps of error and warning messages in case of invalid attributes.<p>
+     * 
+     * The server keeps the last validated version of each entity, patches are applied to that version. 
+     * Patches without base version carry the complete entity.
+     * Only the attributes affected by the patch operations need to be revalidated, 
+     * but the returned result has to cover the complete entity.<p>
+     * 
+     * @param patch the entity patch
+     * 
+     * @return the validation result
+     * 
+     * @throws com.alkacon.acacia.shared.VersionConflictException if the patch base version does not match the last validated version
+     * @throws Exception if something goes wrong processing the request
+     */
+    ValidationResult validateEntityPatch(EntityPatch patch) throws Exception;
 }
@@ -27,9 +27,11 @@ package com.alkacon.acacia.shared.rpc;
 import com.alkacon.acacia.shared.ContentDefinition;
 import com.alkacon.acacia.shared.Entity;
 import com.alkacon.acacia.shared.EntityHtml;
+import com.alkacon.acacia.shared.EntityPatch;
 import com.alkacon.acacia.shared.ValidationResult;
 
 import java.util.List;
+import java.util.Map;
 
 import com.google.gwt.user.client.rpc.AsyncCallback;
 
@@ -48,6 +50,39 @@ public interface I_ContentServiceAsync {
      */
     void loadContentDefinition(String entityId, AsyncCallback<ContentDefinition> callback);
 
+    /**
+     * Loads the content definition for a given entity, leaving out the types and attribute configurations already held by the client.<p>
+     * 
+     * @param entityId the entity id/URI
+     * @param schemaVersions the schema versions held by the client by entity type name
+     * @param callback the asynchronous callback
+     */
+    void loadContentDefinition(
+        String entityId,
+        Map<String, String> schemaVersions,
+        AsyncCallback<ContentDefinition> callback);
+
+    /**
+     * Loads the values of the given attributes of an entity.<p>
+     * 
+     * @param entityId the entity id/URI
+     * @param attributeNames the attribute names
+     * @param callback the asynchronous callback
+     */
+    void loadEntityAttributes(String entityId, List<String> attributeNames, AsyncCallback<Entity> callback);
+
+    /**
+     * Loads the content definition for a given entity for the initial display.<p>
+     * 
+     * @param entityId the entity id/URI
+     * @param schemaVersions the schema versions held by the client by entity type name
+     * @param callback the asynchronous callback
+     */
+    void loadInitialContentDefinition(
+        String entityId,
+        Map<String, String> schemaVersions,
+        AsyncCallback<ContentDefinition> callback);
+
     /**
      * Saves the given entities and returns a validation result in case of invalid entities.<p>
      * 
@@ -64,6 +99,30 @@ public interface I_ContentServiceAsync {
      */
     void saveEntity(Entity entity, AsyncCallback<ValidationResult> callback);
 
+    /**
+     * Sends a chunk of a batch save. The batch is applied once all chunks are received.<p>
+     * 
+     * @param batchId the batch id, unique for each batch
+     * @param chunkIndex the chunk index
+     * @param chunkCount the number of chunks of the batch
+     * @param entities the entities of the chunk
+     * @param callback the asynchronous callback
+     */
+    void saveEntityChunk(
+        String batchId,
+        int chunkIndex,
+        int chunkCount,
+        List<Entity> entities,
+        AsyncCallback<ValidationResult> callback);
+
+    /**
+     * Applies the given patches to the stored entities and saves them. Returns a validation result in case of invalid entities.<p>
+     * 
+     * @param patches the entity patches
+     * @param callback the asynchronous callback
+     */
+    void saveEntityPatches(List<EntityPatch> patches, AsyncCallback<ValidationResult> callback);
+
     /**
      * Retrieves the updated entity HTML representation.<p>
      * The entity data will be validated but not persisted on the server.<p>
@@ -75,6 +134,25 @@ public interface I_ContentServiceAsync {
      */
     void updateEntityHtml(Entity entity, String contextUri, String htmlContextInfo, AsyncCallback<EntityHtml> callback);
 
+    /**
+     * Retrieves the updated HTML of the elements representing the values of a single attribute.<p>
+     * The entity data will be validated but not persisted on the server.<p>
+     * 
+     * @param patch the patch of the root entity
+     * @param entityId the id of the entity holding the attribute, may be a nested entity
+     * @param attributeName the attribute name
+     * @param contextUri the context URI
+     * @param htmlContextInfo information about the HTML context
+     * @param callback the asynchronous callback
+     */
+    void updateEntityHtmlFragment(
+        EntityPatch patch,
+        String entityId,
+        String attributeName,
+        String contextUri,
+        String htmlContextInfo,
+        AsyncCallback<EntityHtml> callback);
+
     /**
      * Validates the given entities and returns maps of error and warning messages in case of invalid attributes.<p>
      * 
@@ -82,4 +160,12 @@ public interface I_ContentServiceAsync {
      * @param callback the asynchronous callback
      */
     void validateEntities(List<Entity> changedEntities, AsyncCallback<ValidationResult> callback);
+
+    /**
+     * Validates the entity resulting from the given patch and returns maps of error and warning messages in case of invalid attributes.<p>
+     * 
+     * @param patch the entity patch
+     * @param callback the asynchronous callback
+     */
+    void validateEntityPatch(EntityPatch patch, AsyncCallback<ValidationResult> callback);
 }
@@ -0,0 +1,197 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.alkacon.acacia.client;
+
+import com.alkacon.acacia.shared.ContentDefinition;
+import com.alkacon.acacia.shared.Entity;
+import com.alkacon.acacia.shared.EntityHtml;
+import com.alkacon.acacia.shared.EntityPatch;
+import com.alkacon.acacia.shared.ValidationResult;
+import com.alkacon.acacia.shared.rpc.I_ContentServiceAsync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Content service stub for the client tests.<p>
+ * 
+ * The save and validation requests are recorded without being answered, 
+ * so the tests can answer them through the recorded callbacks in any order.
+ * Loading requests are not expected by the client tests and fail the test.<p>
+ */
+public class ContentServiceStub implements I_ContentServiceAsync {
+
+    /** The callbacks of the recorded requests, in the order of the requests. */
+    List<AsyncCallback<ValidationResult>> m_callbacks = new ArrayList<AsyncCallback<ValidationResult>>();
+
+    /** The chunk indexes sent with the recorded chunk requests. */
+    List<Integer> m_chunkIndexes = new ArrayList<Integer>();
+
+    /** The entities sent with the recorded requests. */
+    List<List<Entity>> m_entities = new ArrayList<List<Entity>>();
+
+    /** The patches sent with the recorded patch validation requests. */
+    List<EntityPatch> m_patches = new ArrayList<EntityPatch>();
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentServiceAsync#loadContentDefinition(java.lang.String, com.google.gwt.user.client.rpc.AsyncCallback)
+     */
+    public void loadContentDefinition(String entityId, AsyncCallback<ContentDefinition> callback) {
+
+        failUnexpected("loadContentDefinition");
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentServiceAsync#loadContentDefinition(java.lang.String, java.util.Map, com.google.gwt.user.client.rpc.AsyncCallback)
+     */
+    public void loadContentDefinition(
+        String entityId,
+        Map<String, String> schemaVersions,
+        AsyncCallback<ContentDefinition> callback) {
+
+        failUnexpected("loadContentDefinition");
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentServiceAsync#loadEntityAttributes(java.lang.String, java.util.List, com.google.gwt.user.client.rpc.AsyncCallback)
+     */
+    public void loadEntityAttributes(String entityId, List<String> attributeNames, AsyncCallback<Entity> callback) {
+
+        failUnexpected("loadEntityAttributes");
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentServiceAsync#loadInitialContentDefinition(java.lang.String, java.util.Map, com.google.gwt.user.client.rpc.AsyncCallback)
+     */
+    public void loadInitialContentDefinition(
+        String entityId,
+        Map<String, String> schemaVersions,
+        AsyncCallback<ContentDefinition> callback) {
+
+        failUnexpected("loadInitialContentDefinition");
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentServiceAsync#saveEntities(java.util.List, com.google.gwt.user.client.rpc.AsyncCallback)
+     */
+    public void saveEntities(List<Entity> entities, AsyncCallback<ValidationResult> callback) {
+
+        m_entities.add(entities);
+        m_callbacks.add(callback);
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentServiceAsync#saveEntity(com.alkacon.acacia.shared.Entity, com.google.gwt.user.client.rpc.AsyncCallback)
+     */
+    public void saveEntity(Entity entity, AsyncCallback<ValidationResult> callback) {
+
+        List<Entity> entities = new ArrayList<Entity>();
+        entities.add(entity);
+        saveEntities(entities, callback);
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentServiceAsync#saveEntityChunk(java.lang.String, int, int, java.util.List, com.google.gwt.user.client.rpc.AsyncCallback)
+     */
+    public void saveEntityChunk(
+        String batchId,
+        int chunkIndex,
+        int chunkCount,
+        List<Entity> entities,
+        AsyncCallback<ValidationResult> callback) {
+
+        m_chunkIndexes.add(new Integer(chunkIndex));
+        m_entities.add(entities);
+        m_callbacks.add(callback);
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentServiceAsync#saveEntityPatches(java.util.List, com.google.gwt.user.client.rpc.AsyncCallback)
+     */
+    public void saveEntityPatches(List<EntityPatch> patches, AsyncCallback<ValidationResult> callback) {
+
+        m_patches.addAll(patches);
+        m_callbacks.add(callback);
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentServiceAsync#updateEntityHtml(com.alkacon.acacia.shared.Entity, java.lang.String, java.lang.String, com.google.gwt.user.client.rpc.AsyncCallback)
+     */
+    public void updateEntityHtml(
+        Entity entity,
+        String contextUri,
+        String htmlContextInfo,
+        AsyncCallback<EntityHtml> callback) {
+
+        failUnexpected("updateEntityHtml");
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentServiceAsync#updateEntityHtmlFragment(com.alkacon.acacia.shared.EntityPatch, java.lang.String, java.lang.String, java.lang.String, java.lang.String, com.google.gwt.user.client.rpc.AsyncCallback)
+     */
+    public void updateEntityHtmlFragment(
+        EntityPatch patch,
+        String entityId,
+        String attributeName,
+        String contextUri,
+        String htmlContextInfo,
+        AsyncCallback<EntityHtml> callback) {
+
+        failUnexpected("updateEntityHtmlFragment");
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentServiceAsync#validateEntities(java.util.List, com.google.gwt.user.client.rpc.AsyncCallback)
+     */
+    public void validateEntities(List<Entity> changedEntities, AsyncCallback<ValidationResult> callback) {
+
+        m_entities.add(changedEntities);
+        m_callbacks.add(callback);
+    }
+
+    /**
+     * @see com.alkacon.acacia.shared.rpc.I_ContentServiceAsync#validateEntityPatch(com.alkacon.acacia.shared.EntityPatch, com.google.gwt.user.client.rpc.AsyncCallback)
+     */
+    public void validateEntityPatch(EntityPatch patch, AsyncCallback<ValidationResult> callback) {
+
+        m_patches.add(patch);
+        m_callbacks.add(callback);
+    }
+
+    /**
+     * Fails the running test for a request the stub does not expect.<p>
+     * 
+     * @param methodName the name of the called service method
+     */
+    private void failUnexpected(String methodName) {
+
+        Assert.fail("Unexpected call of " + methodName + " on the content service stub.");
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.alkacon.acacia.client;
+
+import com.alkacon.acacia.shared.EntityFixtures;
+import com.alkacon.acacia.shared.ValidationResult;
+import com.alkacon.vie.client.Vie;
+import com.alkacon.vie.shared.I_Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gwt.junit.client.GWTTestCase;
+import com.google.gwt.user.client.rpc.AsyncCallback;
+
+/**
+ * Tests saving entities in chunks.<p>
+ */
+public class TestBatchSaveHandler extends GWTTestCase {
+
+    /** The number of entities saved. */
+    private static final int ENTITY_COUNT = 12;
+
+    /** The failure passed to the batch callback. */
+    Throwable m_failure;
+
+    /** The progress reported by the handler. */
+    List<Integer> m_progress;
+
+    /** The result passed to the batch callback. */
+    ValidationResult m_result;
+
+    /** The content service stub. */
+    private ContentServiceStub m_service;
+
+    /**
+     * @see com.google.gwt.junit.client.GWTTestCase#getModuleName()
+     */
+    @Override
+    public String getModuleName() {
+
+        return "com.alkacon.acacia.Acacia";
+    }
+
+    /**
+     * Tests the chunks are sent and accounted for in any order of the responses.<p>
+     */
+    public void testChunkAccounting() {
+
+        BatchSaveHandler handler = createHandler();
+        handler.start();
+        assertEquals(
+            "Only the maximum number of pending chunks should be sent at once.",
+            Arrays.asList(new Integer[] {new Integer(0), new Integer(1)}),
+            m_service.m_chunkIndexes);
+        assertEquals(BatchSaveHandler.CHUNK_SIZE, m_service.m_entities.get(0).size());
+
+        // the server answers the second chunk first
+        m_service.m_callbacks.get(1).onSuccess(null);
+        assertEquals(3, m_service.m_chunkIndexes.size());
+        assertEquals(new Integer(2), m_service.m_chunkIndexes.get(2));
+        assertEquals("The last chunk should hold the remaining entities.", 2, m_service.m_entities.get(2).size());
+        m_service.m_callbacks.get(0).onSuccess(null);
+        assertNull("The batch should not be completed before all chunks are received.", m_result);
+
+        ValidationResult result = new ValidationResult(null, null);
+        m_service.m_callbacks.get(2).onSuccess(result);
+        assertSame(result, m_result);
+        assertEquals(
+            Arrays.asList(new Integer[] {new Integer(5), new Integer(10), new Integer(ENTITY_COUNT)}),
+            m_progress);
+        assertEquals(ENTITY_COUNT, handler.getContentVersions().size());
+        assertEquals(3, m_service.m_callbacks.size());
+    }
+
+    /**
+     * Tests a failed chunk fails the batch once and stops sending further chunks.<p>
+     */
+    public void testChunkFailure() {
+
+        createHandler().start();
+        RuntimeException failure = new RuntimeException("failed");
+        m_service.m_callbacks.get(0).onFailure(failure);
+        m_service.m_callbacks.get(1).onFailure(new RuntimeException("failed again"));
+        m_service.m_callbacks.get(1).onSuccess(null);
+        assertSame(failure, m_failure);
+        assertNull(m_result);
+        assertTrue(m_progress.isEmpty());
+        assertEquals("No further chunks should be sent once a chunk failed.", 2, m_service.m_callbacks.size());
+    }
+
+    /**
+     * @see com.google.gwt.junit.client.GWTTestCase#gwtSetUp()
+     */
+    @Override
+    protected void gwtSetUp() {
+
+        Map<String, I_Type> types = EntityFixtures.createTypes();
+        Vie.getInstance().registerTypes(types.get(EntityFixtures.TYPE_ROOT), types);
+        m_service = new ContentServiceStub();
+        m_progress = new ArrayList<Integer>();
+        m_result = null;
+        m_failure = null;
+    }
+
+    /**
+     * @see com.google.gwt.junit.client.GWTTestCase#gwtTearDown()
+     */
+    @Override
+    protected void gwtTearDown() {
+
+        Vie.getInstance().clearEntities();
+    }
+
+    /**
+     * Registers the entities to save and creates the batch save handler.<p>
+     * 
+     * @return the batch save handler
+     */
+    private BatchSaveHandler createHandler() {
+
+        List<String> entityIds = new ArrayList<String>();
+        for (int i = 0; i < ENTITY_COUNT; i++) {
+            entityIds.add(Vie.getInstance().createEntity("batch-" + i, EntityFixtures.TYPE_ROOT).getId());
+        }
+        return new BatchSaveHandler(
+            m_service,
+            Vie.getInstance(),
+            entityIds,
+            new HashMap<String, String>(),
+            new I_SaveProgressHandler() {
+
+                public void onProgress(int sentCount, int totalCount) {
+
+                    assertEquals(ENTITY_COUNT, totalCount);
+                    m_progress.add(new Integer(sentCount));
+                }
+            },
+            new AsyncCallback<ValidationResult>() {
+
+                public void onFailure(Throwable caught) {
+
+                    m_failure = caught;
+                }
+
+                public void onSuccess(ValidationResult result) {
+
+                    m_result = result;
+                }
+            });
+    }
+}
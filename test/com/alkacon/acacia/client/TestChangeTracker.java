@@ -0,0 +1,150 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.alkacon.acacia.client;
+
+import com.alkacon.acacia.shared.Entity;
+import com.alkacon.acacia.shared.EntityFixtures;
+import com.alkacon.acacia.shared.EntityPatch;
+import com.alkacon.acacia.shared.PatchOperation;
+import com.alkacon.vie.client.Vie;
+import com.alkacon.vie.shared.I_Entity;
+import com.alkacon.vie.shared.I_Type;
+
+import java.util.Map;
+
+import com.google.gwt.junit.client.GWTTestCase;
+
+/**
+ * Tests the change tracker.<p>
+ */
+public class TestChangeTracker extends GWTTestCase {
+
+    /**
+     * @see com.google.gwt.junit.client.GWTTestCase#getModuleName()
+     */
+    @Override
+    public String getModuleName() {
+
+        return "com.alkacon.acacia.Acacia";
+    }
+
+    /**
+     * Tests that each consumer receives the changes since its own last patch.<p>
+     * 
+     * @throws Exception if applying a patch fails
+     */
+    public void testConsumerReset() throws Exception {
+
+        I_Entity entity = Vie.getInstance().registerEntity(EntityFixtures.createEntity());
+        ChangeTracker tracker = ChangeTracker.getInstance();
+        tracker.initialize(entity);
+        EntityPatch saved = tracker.createPatch(ChangeTracker.CONSUMER_SAVE, entity);
+        assertTrue("The first patch should carry the complete entity.", saved.isComplete());
+        tracker.createPatch(ChangeTracker.CONSUMER_VALIDATION, entity);
+
+        entity.setAttributeValue(EntityFixtures.ATTR_TITLE, "c", 0);
+        tracker.recordValueChange("root", EntityFixtures.ATTR_TITLE, 0, "c");
+        entity.setAttributeValue(EntityFixtures.ATTR_TITLE, "changed", 0);
+        tracker.recordValueChange("root", EntityFixtures.ATTR_TITLE, 0, "changed");
+        EntityPatch patch = tracker.createPatch(ChangeTracker.CONSUMER_SAVE, entity);
+        assertFalse(patch.isComplete());
+        assertEquals(saved.getVersion(), patch.getBaseVersion());
+        assertEquals("Consecutive changes of a value should be merged.", 1, patch.getOperations().size());
+        assertEquals(Entity.serializeEntity(entity), patch.apply(saved.getEntity(), saved.getVersion()));
+        assertFalse(tracker.hasChanges(ChangeTracker.CONSUMER_SAVE, "root"));
+        assertTrue(
+            "A patch should only reset the changes of its own consumer.",
+            tracker.hasChanges(ChangeTracker.CONSUMER_VALIDATION, "root"));
+        assertEquals(1, tracker.createPatch(ChangeTracker.CONSUMER_VALIDATION, entity).getOperations().size());
+
+        // further patches are chained on the version of the last patch
+        entity.setAttributeValue(EntityFixtures.ATTR_TITLE, "changed again", 0);
+        tracker.recordValueChange("root", EntityFixtures.ATTR_TITLE, 0, "changed again");
+        assertEquals(patch.getVersion(), tracker.createPatch(ChangeTracker.CONSUMER_SAVE, entity).getBaseVersion());
+
+        // the patch following a failed one carries the complete entity
+        tracker.onPatchFailed(ChangeTracker.CONSUMER_SAVE, "root");
+        assertTrue(tracker.hasChanges(ChangeTracker.CONSUMER_SAVE, "root"));
+        patch = tracker.createPatch(ChangeTracker.CONSUMER_SAVE, entity);
+        assertTrue(patch.isComplete());
+        assertEquals(Entity.serializeEntity(entity), patch.getEntity());
+    }
+
+    /**
+     * Tests the operations of an incremental patch.<p>
+     * 
+     * @throws Exception if applying a patch fails
+     */
+    public void testPatchOperations() throws Exception {
+
+        I_Entity entity = Vie.getInstance().registerEntity(EntityFixtures.createEntity());
+        ChangeTracker tracker = ChangeTracker.getInstance();
+        tracker.initialize(entity);
+        EntityPatch saved = tracker.createPatch(ChangeTracker.CONSUMER_SAVE, entity);
+
+        I_Entity child = Vie.getInstance().createEntity("child-3", EntityFixtures.TYPE_CHILD);
+        child.addAttributeValue(EntityFixtures.ATTR_TITLE, "new child");
+        entity.insertAttributeValue(EntityFixtures.ATTR_NESTED, child, 1);
+        tracker.recordInsert("root", EntityFixtures.ATTR_NESTED, 1, child);
+        entity.removeAttributeValue(EntityFixtures.ATTR_NESTED, 0);
+        tracker.recordRemove("root", EntityFixtures.ATTR_NESTED, 0);
+        // the inserted child is sent with its current values, so its own changes need no operations
+        child.setAttributeValue(EntityFixtures.ATTR_TITLE, "changed child", 0);
+        tracker.recordValueChange("child-3", EntityFixtures.ATTR_TITLE, 0, "changed child");
+        // a changed attribute is replaced with its current values, covering the earlier operations on it
+        I_Entity last = Vie.getInstance().getEntity("child-2");
+        last.setAttributeValue(EntityFixtures.ATTR_TITLE, "changed last", 0);
+        tracker.recordValueChange("child-2", EntityFixtures.ATTR_TITLE, 0, "changed last");
+        tracker.markAttributeChanged("child-2", EntityFixtures.ATTR_TITLE);
+
+        EntityPatch patch = tracker.createPatch(ChangeTracker.CONSUMER_SAVE, entity);
+        assertEquals(3, patch.getOperations().size());
+        assertEquals(PatchOperation.OperationType.replace, patch.getOperations().get(0).getType());
+        assertEquals(PatchOperation.OperationType.insert, patch.getOperations().get(1).getType());
+        assertEquals(PatchOperation.OperationType.remove, patch.getOperations().get(2).getType());
+        assertEquals(Entity.serializeEntity(entity), patch.apply(saved.getEntity(), saved.getVersion()));
+    }
+
+    /**
+     * @see com.google.gwt.junit.client.GWTTestCase#gwtSetUp()
+     */
+    @Override
+    protected void gwtSetUp() {
+
+        Map<String, I_Type> types = EntityFixtures.createTypes();
+        Vie.getInstance().registerTypes(types.get(EntityFixtures.TYPE_ROOT), types);
+        ChangeTracker.getInstance().clear();
+    }
+
+    /**
+     * @see com.google.gwt.junit.client.GWTTestCase#gwtTearDown()
+     */
+    @Override
+    protected void gwtTearDown() {
+
+        ChangeTracker.getInstance().clear();
+        Vie.getInstance().clearEntities();
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.alkacon.acacia.client;
+
+import com.alkacon.acacia.client.UndoRedoHandler.ChangeType;
+import com.alkacon.acacia.client.UndoRedoHandler.UndoRedoState;
+import com.alkacon.acacia.shared.EntityFixtures;
+import com.alkacon.vie.client.Vie;
+import com.alkacon.vie.shared.I_Entity;
+import com.alkacon.vie.shared.I_Type;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.google.gwt.event.logical.shared.ValueChangeEvent;
+import com.google.gwt.event.logical.shared.ValueChangeHandler;
+import com.google.gwt.event.shared.HandlerRegistration;
+import com.google.gwt.junit.client.GWTTestCase;
+
+/**
+ * Tests the undo redo handler.<p>
+ */
+public class TestUndoRedoHandler extends GWTTestCase {
+
+    /**
+     * Editor recording the re-rendered content instead of rendering it.<p>
+     */
+    private static class EditorStub extends EditorBase {
+
+        /** The last re-rendered content. */
+        I_Entity m_content;
+
+        /**
+         * Constructor.<p>
+         */
+        EditorStub() {
+
+            super(null, new WidgetService());
+        }
+
+        /**
+         * @see com.alkacon.acacia.client.EditorBase#rerenderForm(com.alkacon.vie.shared.I_Entity)
+         */
+        @Override
+        public void rerenderForm(I_Entity newContent) {
+
+            m_content = newContent;
+        }
+    }
+
+    /** The edited entity. */
+    private I_Entity m_entity;
+
+    /** The handler registration of the state listener. */
+    private HandlerRegistration m_registration;
+
+    /** The last fired undo redo state. */
+    UndoRedoState m_state;
+
+    /**
+     * @see com.google.gwt.junit.client.GWTTestCase#getModuleName()
+     */
+    @Override
+    public String getModuleName() {
+
+        return "com.alkacon.acacia.Acacia";
+    }
+
+    /**
+     * Tests that consecutive changes of the same value are merged into one undo step.<p>
+     */
+    public void testCoalescing() {
+
+        UndoRedoHandler handler = UndoRedoHandler.getInstance();
+        handler.setCoalescingInterval(60000);
+        handler.initialize(m_entity, new EditorStub(), new RootHandler());
+        changeTitle("root", "c");
+        changeTitle("root", "ch");
+        changeTitle("root", "changed");
+        assertEquals("Changes of the same value should be merged.", 1, m_state.getHistorySize());
+        changeTitle("child-1", "changed child");
+        assertEquals("Changes of another value should not be merged.", 2, m_state.getHistorySize());
+        changeTitle("root", "changed again");
+        assertEquals("Only changes following each other should be merged.", 3, m_state.getHistorySize());
+        handler.undo();
+        assertTrue(m_state.hasRedo());
+        changeTitle("root", "after undo");
+        assertFalse("A new change should drop the redo steps.", m_state.hasRedo());
+        assertEquals("A change following an undo should not be merged.", 3, m_state.getHistorySize());
+
+        handler.setCoalescingInterval(-1);
+        changeTitle("root", "not merged");
+        assertEquals("Changes outside of the coalescing interval should not be merged.", 4, m_state.getHistorySize());
+    }
+
+    /**
+     * Tests undoing and redoing the insertion and removal of single simple values.<p>
+     */
+    public void testInsertAndRemove() {
+
+        UndoRedoHandler handler = UndoRedoHandler.getInstance();
+        EditorStub editor = new EditorStub();
+        handler.setCoalescingInterval(-1);
+        handler.initialize(m_entity, editor, new RootHandler());
+        m_entity.insertAttributeValue(EntityFixtures.ATTR_TITLE, "inserted", 0);
+        handler.addChange("root", EntityFixtures.ATTR_TITLE, 0, ChangeType.add);
+        m_entity.removeAttributeValue(EntityFixtures.ATTR_TITLE, 1);
+        handler.addChange("root", EntityFixtures.ATTR_TITLE, 1, ChangeType.remove);
+        assertEquals(2, m_state.getHistorySize());
+
+        handler.undo();
+        assertEquals(
+            Arrays.asList("inserted", "root title"),
+            editor.m_content.getAttribute(EntityFixtures.ATTR_TITLE).getSimpleValues());
+        handler.undo();
+        assertEquals(
+            Arrays.asList("root title"),
+            editor.m_content.getAttribute(EntityFixtures.ATTR_TITLE).getSimpleValues());
+        handler.redo();
+        handler.redo();
+        assertEquals(
+            Arrays.asList("inserted"),
+            editor.m_content.getAttribute(EntityFixtures.ATTR_TITLE).getSimpleValues());
+    }
+
+    /**
+     * Tests that the history is trimmed to its limits and the remaining steps can still be undone.<p>
+     */
+    public void testTrimming() {
+
+        UndoRedoHandler handler = UndoRedoHandler.getInstance();
+        EditorStub editor = new EditorStub();
+        handler.setCoalescingInterval(-1);
+        handler.initialize(m_entity, editor, new RootHandler());
+        handler.setHistoryLimits(3, Long.MAX_VALUE);
+        for (int i = 0; i < 5; i++) {
+            changeTitle("root", "title " + i);
+        }
+        assertEquals(3, m_state.getHistorySize());
+        for (int i = 0; i < 3; i++) {
+            handler.undo();
+        }
+        assertFalse(m_state.hasUndo());
+        assertEquals(
+            "Undoing all remaining steps should restore the state before the oldest remaining step.",
+            "title 1",
+            editor.m_content.getAttribute(EntityFixtures.ATTR_TITLE).getSimpleValue());
+        handler.redo();
+        assertEquals("title 2", editor.m_content.getAttribute(EntityFixtures.ATTR_TITLE).getSimpleValue());
+
+        // the byte limit keeps at least the latest step
+        handler.setHistoryLimits(100, 1);
+        assertEquals(1, m_state.getHistorySize());
+        changeTitle("root", "title 5");
+        assertEquals(1, m_state.getHistorySize());
+        assertTrue(m_state.getHistoryBytes() > 0);
+    }
+
+    /**
+     * @see com.google.gwt.junit.client.GWTTestCase#gwtSetUp()
+     */
+    @Override
+    protected void gwtSetUp() {
+
+        Map<String, I_Type> types = EntityFixtures.createTypes();
+        Vie.getInstance().registerTypes(types.get(EntityFixtures.TYPE_ROOT), types);
+        m_entity = Vie.getInstance().registerEntity(EntityFixtures.createEntity());
+        m_state = null;
+        m_registration = UndoRedoHandler.getInstance().addValueChangeHandler(new ValueChangeHandler<UndoRedoState>() {
+
+            public void onValueChange(ValueChangeEvent<UndoRedoState> event) {
+
+                m_state = event.getValue();
+            }
+        });
+        UndoRedoHandler.getInstance().setHistoryLimits(500, Long.MAX_VALUE);
+    }
+
+    /**
+     * @see com.google.gwt.junit.client.GWTTestCase#gwtTearDown()
+     */
+    @Override
+    protected void gwtTearDown() {
+
+        m_registration.removeHandler();
+        UndoRedoHandler.getInstance().clear();
+        Vie.getInstance().clearEntities();
+    }
+
+    /**
+     * Changes the title of the given entity and records the change.<p>
+     * 
+     * @param entityId the entity id
+     * @param title the new title
+     */
+    private void changeTitle(String entityId, String title) {
+
+        Vie.getInstance().getEntity(entityId).setAttributeValue(EntityFixtures.ATTR_TITLE, title, 0);
+        UndoRedoHandler.getInstance().addChange(entityId, EntityFixtures.ATTR_TITLE, 0, ChangeType.value);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.alkacon.acacia.client;
+
+import com.alkacon.acacia.shared.AttributePath;
+import com.alkacon.acacia.shared.EntityFixtures;
+import com.alkacon.acacia.shared.ValidationResult;
+import com.alkacon.acacia.shared.VersionConflictException;
+import com.alkacon.vie.client.Vie;
+import com.alkacon.vie.shared.I_Entity;
+import com.alkacon.vie.shared.I_Type;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gwt.event.logical.shared.ValueChangeEvent;
+import com.google.gwt.event.logical.shared.ValueChangeHandler;
+import com.google.gwt.junit.client.GWTTestCase;
+
+/**
+ * Tests the sequencing of validation requests.<p>
+ * 
+ * The validation timer is bypassed by calling {@link ValidationHandler#validateDirtyEntities()} directly.<p>
+ */
+public class TestValidationHandler extends GWTTestCase {
+
+    /** The validation contexts fired by the handler. */
+    List<ValidationContext> m_contexts;
+
+    /** The edited entity. */
+    private I_Entity m_entity;
+
+    /** The validation handler. */
+    private ValidationHandler m_handler;
+
+    /** The content service stub. */
+    private ContentServiceStub m_service;
+
+    /**
+     * @see com.google.gwt.junit.client.GWTTestCase#getModuleName()
+     */
+    @Override
+    public String getModuleName() {
+
+        return "com.alkacon.acacia.Acacia";
+    }
+
+    /**
+     * Tests that a failed incremental validation is repeated with the complete entity.<p>
+     */
+    public void testIncrementalRetry() {
+
+        m_handler.setIncrementalValidation(true);
+        ChangeTracker.getInstance().initialize(m_entity);
+        m_handler.validate(m_entity);
+        assertTrue(m_service.m_patches.get(0).isComplete());
+        m_service.m_callbacks.get(0).onSuccess(createResult(false));
+        assertEquals(1, m_contexts.size());
+
+        m_entity.setAttributeValue(EntityFixtures.ATTR_TITLE, "changed", 0);
+        ChangeTracker.getInstance().recordValueChange("root", EntityFixtures.ATTR_TITLE, 0, "changed");
+        m_handler.validate(m_entity);
+        assertFalse(m_service.m_patches.get(1).isComplete());
+        m_service.m_callbacks.get(1).onFailure(new VersionConflictException("root", "v1", null));
+        assertEquals(
+            "The server state is unknown, so the complete entity should be sent.",
+            3,
+            m_service.m_callbacks.size());
+        assertTrue(m_service.m_patches.get(2).isComplete());
+        m_service.m_callbacks.get(2).onSuccess(createResult(true));
+        assertEquals(2, m_contexts.size());
+        assertTrue(m_contexts.get(1).getInvalidEntityIds().contains("root"));
+    }
+
+    /**
+     * Tests that responses to cancelled requests are dropped.<p>
+     */
+    public void testSequence() {
+
+        m_handler.validate(m_entity);
+        assertEquals(1, m_service.m_callbacks.size());
+        // pausing the validation cancels the running request
+        m_handler.setPaused(true, m_entity);
+        m_service.m_callbacks.get(0).onSuccess(createResult(true));
+        assertTrue("The response to a cancelled request should be dropped.", m_contexts.isEmpty());
+
+        m_handler.setPaused(false, m_entity);
+        m_handler.validateDirtyEntities();
+        assertEquals(2, m_service.m_callbacks.size());
+        m_service.m_callbacks.get(1).onSuccess(createResult(false));
+        assertEquals(1, m_contexts.size());
+        assertTrue(m_contexts.get(0).getValidEntityIds().contains("root"));
+    }
+
+    /**
+     * Tests that changes made while a request is running are validated once it returns.<p>
+     */
+    public void testTrailingValidation() {
+
+        m_handler.validate(m_entity);
+        m_handler.validate(m_entity);
+        assertEquals("Only one request should be running at a time.", 1, m_service.m_callbacks.size());
+        m_service.m_callbacks.get(0).onSuccess(createResult(true));
+        assertTrue("The result for an entity changed in the meantime should be dropped.", m_contexts.isEmpty());
+
+        m_handler.validateDirtyEntities();
+        assertEquals("The changes made in the meantime should be validated.", 2, m_service.m_callbacks.size());
+        m_service.m_callbacks.get(1).onSuccess(createResult(false));
+        assertEquals(1, m_contexts.size());
+        m_handler.validateDirtyEntities();
+        assertEquals("There should be nothing left to validate.", 2, m_service.m_callbacks.size());
+    }
+
+    /**
+     * @see com.google.gwt.junit.client.GWTTestCase#gwtSetUp()
+     */
+    @Override
+    protected void gwtSetUp() {
+
+        Map<String, I_Type> types = EntityFixtures.createTypes();
+        Vie.getInstance().registerTypes(types.get(EntityFixtures.TYPE_ROOT), types);
+        ChangeTracker.getInstance().clear();
+        m_entity = Vie.getInstance().registerEntity(EntityFixtures.createEntity());
+        m_service = new ContentServiceStub();
+        m_contexts = new ArrayList<ValidationContext>();
+        m_handler = new ValidationHandler();
+        m_handler.setContentService(m_service);
+        m_handler.setRootHandler(new RootHandler());
+        m_handler.registerEntity(m_entity);
+        m_handler.addValueChangeHandler(new ValueChangeHandler<ValidationContext>() {
+
+            public void onValueChange(ValueChangeEvent<ValidationContext> event) {
+
+                m_contexts.add(event.getValue());
+            }
+        });
+    }
+
+    /**
+     * @see com.google.gwt.junit.client.GWTTestCase#gwtTearDown()
+     */
+    @Override
+    protected void gwtTearDown() {
+
+        m_handler.destroy();
+        ChangeTracker.getInstance().clear();
+        Vie.getInstance().clearEntities();
+    }
+
+    /**
+     * Creates a validation result for the edited entity.<p>
+     * 
+     * @param invalid <code>true</code> to report an error for the title
+     * 
+     * @return the validation result
+     */
+    private ValidationResult createResult(boolean invalid) {
+
+        Map<String, Map<AttributePath, String>> errors = new HashMap<String, Map<AttributePath, String>>();
+        if (invalid) {
+            errors.put("root", Collections.singletonMap(
+                AttributePath.valueOf(EntityFixtures.ATTR_TITLE + "[0]"),
+                "Invalid title"));
+        }
+        return new ValidationResult(errors, null);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.server;
+
+import com.alkacon.acacia.shared.EntityFixtures;
+import com.alkacon.acacia.shared.EntityPatch;
+import com.alkacon.acacia.shared.PatchOperation;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Drives the content service with many simulated editors, each editing its own entity.<p>
+ * 
+ * Every editor changes a value, validates the patch, saves every fifth change and reloads its content every twentieth change, 
+ * like the client with incremental validation and saving enabled. The service is called directly, 
+ * so the numbers cover the service and the store without the RPC serialization.<p>
+ * 
+ * Run with <code>java com.alkacon.acacia.server.ContentServiceLoadTest [editors] [seconds] [store directory]</code>.<p>
+ */
+public final class ContentServiceLoadTest {
+
+    /**
+     * A simulated editor.<p>
+     */
+    private static final class Editor implements Runnable {
+
+        /** The latch counted down when done. */
+        private CountDownLatch m_done;
+
+        /** The end time. */
+        private long m_end;
+
+        /** The entity id. */
+        private String m_entityId;
+
+        /** The service. */
+        private ContentServiceServlet m_service;
+
+        /**
+         * Constructor.<p>
+         * 
+         * @param service the service
+         * @param entityId the entity id
+         * @param end the end time
+         * @param done the latch counted down when done
+         */
+        Editor(ContentServiceServlet service, String entityId, long end, CountDownLatch done) {
+
+            m_service = service;
+            m_entityId = entityId;
+            m_end = end;
+            m_done = done;
+        }
+
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        public void run() {
+
+            try {
+                String savedVersion = m_entityId + "-0";
+                m_service.saveEntityPatches(Collections.singletonList(new EntityPatch(
+                    EntityFixtures.createParagraphEntity(m_entityId, PARAGRAPHS),
+                    savedVersion)));
+                String validatedVersion = null;
+                List<PatchOperation> unsaved = new ArrayList<PatchOperation>();
+                int change = 0;
+                while (System.currentTimeMillis() < m_end) {
+                    change++;
+                    String version = m_entityId + "-" + change;
+                    PatchOperation operation = PatchOperation.createSet(
+                        m_entityId + "-paragraph-" + (change % PARAGRAPHS),
+                        SimpleSchemaProvider.ATTR_TITLE,
+                        0,
+                        "change " + change);
+                    long start = System.nanoTime();
+                    m_service.validateEntityPatch(validatedVersion == null ? new EntityPatch(
+                        m_service.loadContentDefinition(m_entityId).getEntity(),
+                        version) : new EntityPatch(
+                        m_entityId,
+                        validatedVersion,
+                        version,
+                        Collections.singletonList(operation)));
+                    record(VALIDATE, start);
+                    validatedVersion = version;
+                    unsaved.add(operation);
+                    if ((change % 5) == 0) {
+                        start = System.nanoTime();
+                        m_service.saveEntityPatches(Collections.singletonList(new EntityPatch(
+                            m_entityId,
+                            savedVersion,
+                            version,
+                            unsaved)));
+                        record(SAVE, start);
+                        savedVersion = version;
+                        unsaved = new ArrayList<PatchOperation>();
+                        // saving drops the validated version on the server
+                        validatedVersion = null;
+                    }
+                    if ((change % 20) == 0) {
+                        start = System.nanoTime();
+                        m_service.loadContentDefinition(m_entityId);
+                        record(LOAD, start);
+                    }
+                }
+            } catch (Exception e) {
+                FIRST_ERROR.compareAndSet(null, e);
+                ERRORS.incrementAndGet();
+            } finally {
+                m_done.countDown();
+            }
+        }
+    }
+
+    /** The error count. */
+    static final AtomicLong ERRORS = new AtomicLong();
+
+    /** The first error, reported once all editors are done. */
+    static final AtomicReference<Exception> FIRST_ERROR = new AtomicReference<Exception>();
+
+    /** The index of the load statistics. */
+    static final int LOAD = 0;
+
+    /** The number of paragraphs per entity. */
+    static final int PARAGRAPHS = 5;
+
+    /** The index of the save statistics. */
+    static final int SAVE = 1;
+
+    /** The index of the validation statistics. */
+    static final int VALIDATE = 2;
+
+    /** The request counts by statistics index. */
+    private static final AtomicLong[] COUNTS = {new AtomicLong(), new AtomicLong(), new AtomicLong()};
+
+    /** The statistics names. */
+    private static final String[] NAMES = {"load", "save", "validate"};
+
+    /** The accumulated request durations in nanoseconds by statistics index. */
+    private static final AtomicLong[] TIMES = {new AtomicLong(), new AtomicLong(), new AtomicLong()};
+
+    /**
+     * Hidden constructor.<p>
+     */
+    private ContentServiceLoadTest() {
+
+        // nothing to do
+    }
+
+    /**
+     * Runs the load test.<p>
+     * 
+     * @param args the optional number of editors, duration in seconds and store directory
+     * 
+     * @throws Exception if something goes wrong or an editor failed
+     */
+    public static void main(String[] args) throws Exception {
+
+        int editors = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        I_EntityStore store = args.length > 2 ? new FileEntityStore(new File(args[2])) : new MemoryEntityStore();
+        ContentServiceServlet service = new ContentServiceServlet(store, new SimpleSchemaProvider());
+        System.out.println(editors + " editors, " + seconds + " seconds, " + store.getClass().getSimpleName());
+        long end = System.currentTimeMillis() + (seconds * 1000L);
+        CountDownLatch done = new CountDownLatch(editors);
+        for (int i = 0; i < editors; i++) {
+            new Thread(new Editor(service, "entity-" + i, end, done)).start();
+        }
+        done.await();
+        long total = 0;
+        for (int i = 0; i < NAMES.length; i++) {
+            long count = COUNTS[i].get();
+            total += count;
+            System.out.println(NAMES[i]
+                + ": "
+                + count
+                + " requests, "
+                + (count > 0 ? (TIMES[i].get() / count / 1000) : 0)
+                + " us average");
+        }
+        System.out.println("throughput: " + (total / seconds) + " requests/s, errors: " + ERRORS.get());
+        if (FIRST_ERROR.get() != null) {
+            throw new IllegalStateException(ERRORS.get() + " editors failed", FIRST_ERROR.get());
+        }
+    }
+
+    /**
+     * Records the duration of a request.<p>
+     * 
+     * @param index the statistics index
+     * @param start the start time in nanoseconds
+     */
+    static void record(int index, long start) {
+
+        TIMES[index].addAndGet(System.nanoTime() - start);
+        COUNTS[index].incrementAndGet();
+    }
+}
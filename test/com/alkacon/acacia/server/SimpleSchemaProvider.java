@@ -0,0 +1,90 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.server;
+
+import com.alkacon.acacia.shared.AttributeConfiguration;
+import com.alkacon.acacia.shared.ContentDefinition;
+import com.alkacon.acacia.shared.EntityFixtures;
+import com.alkacon.acacia.shared.TabInfo;
+import com.alkacon.acacia.shared.Type;
+import com.alkacon.vie.shared.I_Type;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Schema provider for the server tests, with a root type holding a required title and up to five nested paragraphs.<p>
+ */
+public class SimpleSchemaProvider implements I_SchemaProvider {
+
+    /** The nested paragraph attribute name. */
+    public static final String ATTR_PARAGRAPH = EntityFixtures.ATTR_PARAGRAPH;
+
+    /** The title attribute name. */
+    public static final String ATTR_TITLE = EntityFixtures.ATTR_TITLE;
+
+    /** The root type name. */
+    public static final String TYPE_ROOT = EntityFixtures.TYPE_ROOT;
+
+    /** The schema. */
+    private ContentDefinition m_schema;
+
+    /**
+     * Constructor.<p>
+     */
+    public SimpleSchemaProvider() {
+
+        Type string = new Type("cms:string");
+        Type paragraph = new Type(EntityFixtures.TYPE_PARAGRAPH);
+        paragraph.addAttribute(ATTR_TITLE, string.getId(), 0, 1);
+        Type root = new Type(TYPE_ROOT);
+        root.addAttribute(ATTR_TITLE, string.getId(), 1, 1);
+        root.addAttribute(ATTR_PARAGRAPH, paragraph.getId(), 0, 5);
+        Map<String, I_Type> types = new HashMap<String, I_Type>();
+        types.put(string.getId(), string);
+        types.put(paragraph.getId(), paragraph);
+        types.put(root.getId(), root);
+        m_schema = new ContentDefinition(
+            null,
+            new HashMap<String, AttributeConfiguration>(),
+            types,
+            Collections.<TabInfo> emptyList(),
+            false,
+            "en");
+    }
+
+    /**
+     * @see com.alkacon.acacia.server.I_SchemaProvider#getSchema(java.lang.String)
+     */
+    public ContentDefinition getSchema(String entityTypeName) throws Exception {
+
+        if (!TYPE_ROOT.equals(entityTypeName)) {
+            throw new Exception("Unknown type " + entityTypeName);
+        }
+        return m_schema;
+    }
+}
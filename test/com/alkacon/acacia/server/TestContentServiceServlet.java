@@ -0,0 +1,255 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.server;
+
+import com.alkacon.acacia.shared.AttributePath;
+import com.alkacon.acacia.shared.Entity;
+import com.alkacon.acacia.shared.EntityFixtures;
+import com.alkacon.acacia.shared.EntityPatch;
+import com.alkacon.acacia.shared.PatchOperation;
+import com.alkacon.acacia.shared.ValidationResult;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the reference content service implementation and the entity stores.<p>
+ */
+public class TestContentServiceServlet extends TestCase {
+
+    /**
+     * Tests saving a batch in chunks received out of order.<p>
+     * 
+     * @throws Exception if something goes wrong
+     */
+    public void testBatchSave() throws Exception {
+
+        ContentServiceServlet service = new ContentServiceServlet(new MemoryEntityStore(), new SimpleSchemaProvider());
+        Entity other = new Entity("other", SimpleSchemaProvider.TYPE_ROOT);
+        other.addAttributeValue(SimpleSchemaProvider.ATTR_TITLE, "other title");
+        Entity invalid = new Entity("invalid", SimpleSchemaProvider.TYPE_ROOT);
+        assertNull(service.saveEntityChunk("batch", 1, 2, Arrays.asList(invalid, other)));
+        try {
+            service.loadContentDefinition("other");
+            fail("Incomplete batches should not be applied.");
+        } catch (Exception e) {
+            // expected
+        }
+        ValidationResult result = service.saveEntityChunk(
+            "batch",
+            0,
+            2,
+            Collections.singletonList(EntityFixtures.createParagraphEntity(3)));
+        assertNotNull("The chunk completing the batch should return the result.", result);
+        assertTrue(result.hasErrors("invalid"));
+        assertFalse(result.hasErrors("root"));
+        assertEquals("other title", service.loadContentDefinition("other").getEntity().getAttribute(
+            SimpleSchemaProvider.ATTR_TITLE).getSimpleValue());
+        assertEquals(EntityFixtures.createParagraphEntity(3), service.loadContentDefinition("root").getEntity());
+        try {
+            service.saveEntityChunk("invalid-chunk", 2, 2, Collections.<Entity> emptyList());
+            fail("The chunk index is out of range.");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests writing and reading entities with the file store.<p>
+     * 
+     * @throws Exception if something goes wrong
+     */
+    public void testFileStore() throws Exception {
+
+        File directory = File.createTempFile("entities", "");
+        directory.delete();
+        FileEntityStore store = new FileEntityStore(directory);
+        try {
+            Entity entity = EntityFixtures.createParagraphEntity(3);
+            assertTrue(store.write(new StoredEntity(entity, "v1"), null));
+            StoredEntity stored = store.read("root");
+            assertEquals(entity, stored.getEntity());
+            assertEquals("v1", stored.getVersion());
+            assertFalse("The expected version does not match.", store.write(new StoredEntity(entity, "v2"), null));
+            assertTrue(store.write(new StoredEntity(entity, "v2"), "v1"));
+            assertEquals("v2", store.read("root").getVersion());
+            assertEquals("v1", store.readVersion("root", "v1").getVersion());
+            assertNull(store.read("http://missing/id"));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    /**
+     * Tests merging concurrent saves of the same entity.<p>
+     * 
+     * @throws Exception if something goes wrong
+     */
+    public void testConcurrentSaves() throws Exception {
+
+        ContentServiceServlet service = new ContentServiceServlet(new MemoryEntityStore(), new SimpleSchemaProvider());
+        service.saveEntity(EntityFixtures.createParagraphEntity(3));
+        Entity first = service.loadContentDefinition("root").getEntity();
+        Entity second = service.loadContentDefinition("root").getEntity();
+        assertNotNull(first.getVersion());
+        first.setAttributeValue(SimpleSchemaProvider.ATTR_TITLE, "first title");
+        second.getComplexValue(SimpleSchemaProvider.ATTR_PARAGRAPH, 1).setAttributeValue(
+            SimpleSchemaProvider.ATTR_TITLE,
+            "second paragraph");
+        assertFalse(service.saveEntity(first).hasConflicts());
+        assertFalse("Changes of different attributes should be merged.", service.saveEntity(second).hasConflicts());
+        Entity merged = service.loadContentDefinition("root").getEntity();
+        assertEquals("first title", merged.getAttribute(SimpleSchemaProvider.ATTR_TITLE).getSimpleValue());
+        assertEquals("second paragraph", merged.getEntityById("paragraph-1").getAttribute(
+            SimpleSchemaProvider.ATTR_TITLE).getSimpleValue());
+        // the next save of the first editor is based on the version it saved, so the merged paragraph is kept
+        first.setVersion(first.getContentVersion());
+        first.getComplexValue(SimpleSchemaProvider.ATTR_PARAGRAPH, 0).setAttributeValue(
+            SimpleSchemaProvider.ATTR_TITLE,
+            "first paragraph");
+        assertFalse(service.saveEntity(first).hasConflicts());
+        merged = service.loadContentDefinition("root").getEntity();
+        assertEquals("first paragraph", merged.getEntityById("paragraph-0").getAttribute(
+            SimpleSchemaProvider.ATTR_TITLE).getSimpleValue());
+        assertEquals("second paragraph", merged.getEntityById("paragraph-1").getAttribute(
+            SimpleSchemaProvider.ATTR_TITLE).getSimpleValue());
+        // both editors changing the same value conflict
+        second.setVersion(second.getContentVersion());
+        second.setAttributeValue(SimpleSchemaProvider.ATTR_TITLE, "second title");
+        ValidationResult result = service.saveEntity(second);
+        assertTrue(result.hasConflicts("root"));
+        assertTrue(result.getErrors("root").containsKey(AttributePath.valueOf(SimpleSchemaProvider.ATTR_TITLE + "[0]")));
+        assertEquals("first title", service.loadContentDefinition("root").getEntity().getAttribute(
+            SimpleSchemaProvider.ATTR_TITLE).getSimpleValue());
+    }
+
+    /**
+     * Tests that invalid entities are not saved.<p>
+     * 
+     * @throws Exception if something goes wrong
+     */
+    public void testInvalidEntity() throws Exception {
+
+        ContentServiceServlet service = new ContentServiceServlet(new MemoryEntityStore(), new SimpleSchemaProvider());
+        ValidationResult result = service.saveEntity(new Entity("root", SimpleSchemaProvider.TYPE_ROOT));
+        assertTrue(result.hasErrors("root"));
+        try {
+            service.loadContentDefinition("root");
+            fail("The invalid entity should not have been saved.");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests saving entity patches.<p>
+     * 
+     * @throws Exception if something goes wrong
+     */
+    public void testPatches() throws Exception {
+
+        ContentServiceServlet service = new ContentServiceServlet(new MemoryEntityStore(), new SimpleSchemaProvider());
+        assertFalse(service.saveEntityPatches(
+            Collections.singletonList(new EntityPatch(EntityFixtures.createParagraphEntity(3), "v1"))).hasErrors());
+        EntityPatch patch = new EntityPatch("root", "v1", "v2", Collections.singletonList(PatchOperation.createSet(
+            "root",
+            SimpleSchemaProvider.ATTR_TITLE,
+            0,
+            "changed")));
+        assertFalse(service.saveEntityPatches(Collections.singletonList(patch)).hasErrors());
+        assertEquals(
+            "changed",
+            service.loadContentDefinition("root").getEntity().getAttribute(SimpleSchemaProvider.ATTR_TITLE).getSimpleValue());
+        ValidationResult result = service.saveEntityPatches(Collections.singletonList(patch));
+        assertFalse("Sending a patch again should be idempotent.", result.hasConflicts());
+
+        // a concurrent change of another attribute is merged
+        Entity concurrent = EntityFixtures.createParagraphEntity(3);
+        concurrent.setVersion("v2");
+        concurrent.setAttributeValue(SimpleSchemaProvider.ATTR_TITLE, "changed", 0);
+        concurrent.getEntityById("paragraph-0").setAttributeValue(SimpleSchemaProvider.ATTR_TITLE, "concurrent", 0);
+        assertFalse(service.saveEntity(concurrent).hasErrors());
+        patch = new EntityPatch("root", "v2", "v3", Collections.singletonList(PatchOperation.createSet(
+            "paragraph-1",
+            SimpleSchemaProvider.ATTR_TITLE,
+            0,
+            "patched")));
+        result = service.saveEntityPatches(Arrays.asList(
+            new EntityPatch("unknown", "v0", "v1", Collections.<PatchOperation> emptyList()),
+            patch));
+        assertTrue("Patches with unknown base versions should be reported as conflicts.", result.hasConflicts("unknown"));
+        assertFalse(result.hasErrors("unknown"));
+        assertFalse(result.hasConflicts("root"));
+        Entity saved = service.loadContentDefinition("root").getEntity();
+        assertEquals("concurrent", saved.getEntityById("paragraph-0").getAttribute(SimpleSchemaProvider.ATTR_TITLE).getSimpleValue());
+        assertEquals("patched", saved.getEntityById("paragraph-1").getAttribute(SimpleSchemaProvider.ATTR_TITLE).getSimpleValue());
+    }
+
+    /**
+     * Tests the default RDFa rendering of entities and attribute fragments.<p>
+     * 
+     * @throws Exception if something goes wrong
+     */
+    public void testRenderHtml() throws Exception {
+
+        ContentServiceServlet service = new ContentServiceServlet(new MemoryEntityStore(), new SimpleSchemaProvider());
+        Entity entity = EntityFixtures.createParagraphEntity(3);
+        entity.setAttributeValue(SimpleSchemaProvider.ATTR_TITLE, "<b>&</b>", 0);
+        String html = service.updateEntityHtml(entity, "/", null).getHtmlContent();
+        assertTrue(html.startsWith("<div about=\"root\" typeof=\"cms:root\">"));
+        assertTrue(html.contains("<div property=\"http:opencms/title\">&lt;b&gt;&amp;&lt;/b&gt;</div>"));
+        assertTrue(html.contains("<div about=\"paragraph-2\" typeof=\"cms:paragraph\">"));
+
+        EntityPatch patch = new EntityPatch(EntityFixtures.createParagraphEntity(3), "v1");
+        assertEquals(
+            3,
+            service.updateEntityHtmlFragment(patch, "root", SimpleSchemaProvider.ATTR_PARAGRAPH, "/", null).getFragments().size());
+        patch = new EntityPatch("root", "v1", "v2", Collections.<PatchOperation> emptyList());
+        assertEquals(
+            Collections.singletonList("<div property=\"http:opencms/title\">paragraph 1</div>"),
+            service.updateEntityHtmlFragment(patch, "paragraph-1", SimpleSchemaProvider.ATTR_TITLE, "/", null).getFragments());
+    }
+
+    /**
+     * Deletes a directory including its content.<p>
+     * 
+     * @param directory the directory
+     */
+    private void delete(File directory) {
+
+        for (File file : directory.listFiles()) {
+            if (file.isDirectory()) {
+                delete(file);
+            } else {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
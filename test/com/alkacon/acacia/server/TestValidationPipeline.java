@@ -0,0 +1,212 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.server;
+
+import com.alkacon.acacia.shared.AttributePath;
+import com.alkacon.acacia.shared.Entity;
+import com.alkacon.acacia.shared.EntityFixtures;
+import com.alkacon.acacia.shared.ValidationResult;
+import com.alkacon.vie.shared.I_Type;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the server side validation pipeline.<p>
+ */
+public class TestValidationPipeline extends TestCase {
+
+    /**
+     * Validator rejecting the value 'invalid' and warning about values shorter than three characters.<p>
+     */
+    private static class TitleValidator implements I_AttributeValidator {
+
+        /** The number of validated values. */
+        AtomicInteger m_count = new AtomicInteger();
+
+        /** The warning flag. */
+        private boolean m_warning;
+
+        /**
+         * Constructor.<p>
+         * 
+         * @param warning <code>true</code> for the warning validator
+         */
+        TitleValidator(boolean warning) {
+
+            m_warning = warning;
+        }
+
+        /**
+         * @see com.alkacon.acacia.server.I_AttributeValidator#isWarning()
+         */
+        public boolean isWarning() {
+
+            return m_warning;
+        }
+
+        /**
+         * @see com.alkacon.acacia.server.I_AttributeValidator#validate(com.alkacon.acacia.shared.Entity, java.lang.String, java.lang.String)
+         */
+        public String validate(Entity entity, String attributeName, String value) {
+
+            m_count.incrementAndGet();
+            if (m_warning) {
+                return value.length() < 3 ? "short" : null;
+            }
+            return "invalid".equals(value) ? "invalid" : null;
+        }
+    }
+
+    /** The error validator. */
+    private TitleValidator m_errorValidator;
+
+    /** The validator provider. */
+    private I_ValidatorProvider m_provider;
+
+    /** The warning validator. */
+    private TitleValidator m_warningValidator;
+
+    /**
+     * Tests that unchanged entities are not validated again.<p>
+     * 
+     * @throws Exception if something goes wrong
+     */
+    public void testMemoization() throws Exception {
+
+        ValidationPipeline pipeline = new ValidationPipeline(m_provider, null);
+        Map<String, I_Type> types = getTypes();
+        Entity entity = EntityFixtures.createParagraphEntity(3);
+        pipeline.validate(entity, types);
+        assertEquals(4, m_errorValidator.m_count.get());
+        pipeline.validate(entity, types);
+        assertEquals("Unchanged entities should not be validated again.", 4, m_errorValidator.m_count.get());
+        entity.getAttribute(SimpleSchemaProvider.ATTR_PARAGRAPH).getComplexValues().get(1).setAttributeValue(
+            SimpleSchemaProvider.ATTR_TITLE,
+            "invalid",
+            0);
+        ValidationResult result = pipeline.validate(entity, types);
+        assertEquals("Only the changed paragraph and the root should be validated.", 6, m_errorValidator.m_count.get());
+        assertTrue(result.hasErrors("root"));
+        pipeline.validate(EntityFixtures.createParagraphEntity("other", 3), types);
+        assertEquals("Equal entities with other ids should be validated again.", 10, m_errorValidator.m_count.get());
+    }
+
+    /**
+     * Tests the error and warning messages.<p>
+     * 
+     * @throws Exception if something goes wrong
+     */
+    public void testMessages() throws Exception {
+
+        ValidationPipeline pipeline = new ValidationPipeline(m_provider, null);
+        Entity entity = EntityFixtures.createParagraphEntity(2);
+        entity.setAttributeValue(SimpleSchemaProvider.ATTR_TITLE, "ok", 0);
+        entity.getAttribute(SimpleSchemaProvider.ATTR_PARAGRAPH).getComplexValues().get(1).setAttributeValue(
+            SimpleSchemaProvider.ATTR_TITLE,
+            "invalid",
+            0);
+        ValidationResult result = pipeline.validate(entity, getTypes());
+        assertEquals(
+            "invalid",
+            result.getErrors("root").get(
+                AttributePath.valueOf(
+                    SimpleSchemaProvider.ATTR_PARAGRAPH + "[1]",
+                    SimpleSchemaProvider.ATTR_TITLE + "[0]")));
+        assertEquals(1, result.getErrors("root").size());
+        assertEquals(
+            "short",
+            result.getWarnings("root").get(AttributePath.valueOf(SimpleSchemaProvider.ATTR_TITLE + "[0]")));
+    }
+
+    /**
+     * Tests that the parallel evaluation yields the same messages as the sequential one.<p>
+     * 
+     * @throws Exception if something goes wrong
+     */
+    public void testParallel() throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Entity entity = EntityFixtures.createParagraphEntity(5);
+            for (int i = 0; i < 5; i += 2) {
+                entity.getAttribute(SimpleSchemaProvider.ATTR_PARAGRAPH).getComplexValues().get(i).setAttributeValue(
+                    SimpleSchemaProvider.ATTR_TITLE,
+                    "invalid",
+                    0);
+            }
+            ValidationResult parallel = new ValidationPipeline(m_provider, executor).validate(entity, getTypes());
+            ValidationResult sequential = new ValidationPipeline(m_provider, null).validate(entity, getTypes());
+            assertEquals(3, parallel.getErrors("root").size());
+            assertEquals(sequential.getErrors("root"), parallel.getErrors("root"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @see junit.framework.TestCase#setUp()
+     */
+    @Override
+    protected void setUp() throws Exception {
+
+        super.setUp();
+        m_errorValidator = new TitleValidator(false);
+        m_warningValidator = new TitleValidator(true);
+        m_provider = new I_ValidatorProvider() {
+
+            public List<I_AttributeValidator> getValidators(String typeName, String attributeName) {
+
+                if (!SimpleSchemaProvider.ATTR_TITLE.equals(attributeName)) {
+                    return Collections.emptyList();
+                }
+                List<I_AttributeValidator> result = new ArrayList<I_AttributeValidator>();
+                result.add(m_errorValidator);
+                result.add(m_warningValidator);
+                return result;
+            }
+        };
+    }
+
+    /**
+     * Returns the test types.<p>
+     * 
+     * @return the types by type name
+     * 
+     * @throws Exception if something goes wrong
+     */
+    private Map<String, I_Type> getTypes() throws Exception {
+
+        return new SimpleSchemaProvider().getSchema(SimpleSchemaProvider.TYPE_ROOT).getTypes();
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.shared;
+
+import com.alkacon.vie.shared.I_Entity;
+import com.alkacon.vie.shared.I_EntityAttribute;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Micro benchmark of the attribute access on deep serializable entities, reporting time and allocated bytes per operation.<p>
+ * 
+ * Run with <code>java com.alkacon.acacia.shared.EntityBenchmark [iterations]</code>. 
+ * The allocation figures require a JVM providing <code>com.sun.management.ThreadMXBean</code>.<p>
+ */
+public final class EntityBenchmark {
+
+    /** The number of nested entities per complex attribute. */
+    private static final int FAN_OUT = 4;
+
+    /** The nesting depth of the test entity. */
+    private static final int DEPTH = 4;
+
+    /** The number of simple attributes per entity. */
+    private static final int SIMPLE_ATTRIBUTES = 5;
+
+    /** The type name used for all test entities. */
+    private static final String TYPE = "cms:type";
+
+    /** The name of the nested entity attribute. */
+    private static final String NESTED = TYPE + "/Nested";
+
+    /** The names of the simple attributes. */
+    private static final String[] SIMPLE_NAMES = new String[SIMPLE_ATTRIBUTES];
+
+    /** Prevents the JIT from removing the benchmarked code. */
+    private static long m_sink;
+
+    static {
+        for (int i = 0; i < SIMPLE_ATTRIBUTES; i++) {
+            SIMPLE_NAMES[i] = TYPE + "/Simple" + i;
+        }
+    }
+
+    /**
+     * Hidden constructor.<p>
+     */
+    private EntityBenchmark() {
+
+        // nothing to do
+    }
+
+    /**
+     * Runs the benchmark.<p>
+     * 
+     * @param args the optional number of measured iterations
+     */
+    public static void main(String[] args) {
+
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        Entity entity = createEntity("root", DEPTH);
+        final AttributePath path = AttributePath.parse("Nested[4]/Nested[3]/Nested[2]/Nested[1]/Simple4[1]");
+        run("attribute views", entity, iterations, new Operation() {
+
+            public long execute(Entity root) {
+
+                return traverseViews(root);
+            }
+        });
+        run("direct accessors", entity, iterations, new Operation() {
+
+            public long execute(Entity root) {
+
+                return traverseDirect(root);
+            }
+        });
+        run("value for path", entity, iterations * 100, new Operation() {
+
+            public long execute(Entity root) {
+
+                return Entity.getValueForPath(root, path).length();
+            }
+        });
+        System.out.println("(sink " + m_sink + ")");
+    }
+
+    /**
+     * Creates a test entity of the given depth.<p>
+     * 
+     * @param id the entity id
+     * @param depth the nesting depth
+     * 
+     * @return the entity
+     */
+    static Entity createEntity(String id, int depth) {
+
+        Entity entity = new Entity(id, TYPE);
+        for (int i = 0; i < SIMPLE_ATTRIBUTES; i++) {
+            entity.addAttributeValue(SIMPLE_NAMES[i], id + " value " + i);
+        }
+        if (depth > 0) {
+            for (int i = 0; i < FAN_OUT; i++) {
+                entity.addAttributeValue(NESTED, createEntity(id + "/" + i, depth - 1));
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread, <code>-1</code> if not supported.<p>
+     * 
+     * @return the allocated bytes
+     */
+    private static long getAllocatedBytes() {
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Measures the given operation after a warm up phase and prints the results.<p>
+     * 
+     * @param name the operation name
+     * @param entity the entity to operate on
+     * @param iterations the number of measured iterations
+     * @param operation the operation
+     */
+    private static void run(String name, Entity entity, int iterations, Operation operation) {
+
+        for (int i = 0; i < iterations; i++) {
+            m_sink += operation.execute(entity);
+        }
+        long bytes = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            m_sink += operation.execute(entity);
+        }
+        long time = System.nanoTime() - start;
+        bytes = getAllocatedBytes() - bytes;
+        System.out.println(name + ": " + (time / iterations) + " ns/op, " + (bytes / iterations) + " bytes/op");
+    }
+
+    /**
+     * Reads all values using the direct accessors.<p>
+     * 
+     * @param entity the entity
+     * 
+     * @return the summed up value lengths
+     */
+    private static long traverseDirect(Entity entity) {
+
+        long result = 0;
+        for (int i = 0; i < SIMPLE_ATTRIBUTES; i++) {
+            result += entity.getSimpleValue(SIMPLE_NAMES[i], 0).length();
+        }
+        for (int i = 0; i < entity.getValueCount(NESTED); i++) {
+            result += traverseDirect(entity.getComplexValue(NESTED, i));
+        }
+        return result;
+    }
+
+    /**
+     * Reads all values using the attribute views.<p>
+     * 
+     * @param entity the entity
+     * 
+     * @return the summed up value lengths
+     */
+    private static long traverseViews(I_Entity entity) {
+
+        long result = 0;
+        for (I_EntityAttribute attribute : entity.getAttributes()) {
+            if (attribute.isSimpleValue()) {
+                for (String value : attribute.getSimpleValues()) {
+                    result += value.length();
+                }
+            } else {
+                for (I_Entity value : attribute.getComplexValues()) {
+                    result += traverseViews(value);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A benchmarked operation.<p>
+     */
+    private interface Operation {
+
+        /**
+         * Executes the operation.<p>
+         * 
+         * @param entity the entity to operate on
+         * 
+         * @return a result to consume
+         */
+        long execute(Entity entity);
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.shared;
+
+import com.google.gwt.user.client.rpc.SerializationException;
+import com.google.gwt.user.server.rpc.SerializationPolicy;
+import com.google.gwt.user.server.rpc.impl.ServerSerializationStreamWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Compares payload size and (de)serialization time of the compact entity encoding with the GWT-RPC 
+ * stream and the java serialization of a content with about 5,000 entities.<p>
+ * 
+ * Run with <code>java com.alkacon.acacia.shared.EntityCodecBenchmark [iterations]</code>.<p>
+ */
+public final class EntityCodecBenchmark {
+
+    /**
+     * A serialization policy allowing all types.<p>
+     */
+    private static final class PermissivePolicy extends SerializationPolicy {
+
+        /**
+         * @see com.google.gwt.user.server.rpc.SerializationPolicy#shouldDeserializeFields(java.lang.Class)
+         */
+        @Override
+        public boolean shouldDeserializeFields(Class<?> clazz) {
+
+            return true;
+        }
+
+        /**
+         * @see com.google.gwt.user.server.rpc.SerializationPolicy#shouldSerializeFields(java.lang.Class)
+         */
+        @Override
+        public boolean shouldSerializeFields(Class<?> clazz) {
+
+            return true;
+        }
+
+        /**
+         * @see com.google.gwt.user.server.rpc.SerializationPolicy#validateDeserialize(java.lang.Class)
+         */
+        @Override
+        public void validateDeserialize(Class<?> clazz) {
+
+            // all types are allowed
+        }
+
+        /**
+         * @see com.google.gwt.user.server.rpc.SerializationPolicy#validateSerialize(java.lang.Class)
+         */
+        @Override
+        public void validateSerialize(Class<?> clazz) {
+
+            // all types are allowed
+        }
+    }
+
+    /** The nesting depth of the test entity. */
+    private static final int DEPTH = 4;
+
+    /** The number of nested entities per complex attribute. */
+    private static final int FAN_OUT = 8;
+
+    /** The number of simple attributes per entity. */
+    private static final int SIMPLE_ATTRIBUTES = 5;
+
+    /** The type name used for all test entities. */
+    private static final String TYPE = "http://opencms.org/types/OpenCmsArticle";
+
+    /** The name of the nested entity attribute. */
+    private static final String NESTED = TYPE + "/Paragraph";
+
+    /** The names of the simple attributes. */
+    private static final String[] SIMPLE_NAMES = new String[SIMPLE_ATTRIBUTES];
+
+    /** Prevents the JIT from removing the benchmarked code. */
+    private static long m_sink;
+
+    static {
+        for (int i = 0; i < SIMPLE_ATTRIBUTES; i++) {
+            SIMPLE_NAMES[i] = TYPE + "/Field" + i;
+        }
+    }
+
+    /**
+     * Hidden constructor.<p>
+     */
+    private EntityCodecBenchmark() {
+
+        // nothing to do
+    }
+
+    /**
+     * Runs the benchmark.<p>
+     * 
+     * @param args the optional number of measured iterations
+     * 
+     * @throws Exception if something goes wrong
+     */
+    public static void main(String[] args) throws Exception {
+
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        final Entity entity = createEntity("root", DEPTH);
+        System.out.println("entities: " + countEntities(entity));
+        final String encoded = EntityCodec.encode(entity);
+        final byte[] serialized = serialize(entity);
+        System.out.println("codec payload: " + encoded.length() + " chars");
+        System.out.println("gwt-rpc payload: " + writeRpc(entity).length() + " chars");
+        System.out.println("java serialization payload: " + serialized.length + " bytes");
+        run("codec encode", iterations, new Operation() {
+
+            public long execute() {
+
+                return EntityCodec.encode(entity).length();
+            }
+        });
+        run("codec decode", iterations, new Operation() {
+
+            public long execute() {
+
+                return EntityCodec.decodeEntity(encoded).getValueCount(NESTED);
+            }
+        });
+        run("gwt-rpc write", iterations, new Operation() {
+
+            public long execute() throws Exception {
+
+                return writeRpc(entity).length();
+            }
+        });
+        run("java serialization write", iterations, new Operation() {
+
+            public long execute() throws Exception {
+
+                return serialize(entity).length;
+            }
+        });
+        run("java serialization read", iterations, new Operation() {
+
+            public long execute() throws Exception {
+
+                ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+                return ((Entity)in.readObject()).getValueCount(NESTED);
+            }
+        });
+        System.out.println("(sink " + m_sink + ")");
+    }
+
+    /**
+     * Counts the entities of the given tree.<p>
+     * 
+     * @param entity the root entity
+     * 
+     * @return the number of entities
+     */
+    private static int countEntities(Entity entity) {
+
+        int result = 1;
+        for (int i = 0; i < entity.getValueCount(NESTED); i++) {
+            result += countEntities(entity.getComplexValue(NESTED, i));
+        }
+        return result;
+    }
+
+    /**
+     * Creates a test entity of the given depth.<p>
+     * 
+     * @param id the entity id
+     * @param depth the nesting depth
+     * 
+     * @return the entity
+     */
+    private static Entity createEntity(String id, int depth) {
+
+        Entity entity = new Entity(id, TYPE);
+        for (int i = 0; i < SIMPLE_ATTRIBUTES; i++) {
+            entity.addAttributeValue(SIMPLE_NAMES[i], "Some text of " + id + ", field " + i);
+        }
+        if (depth > 0) {
+            for (int i = 0; i < FAN_OUT; i++) {
+                entity.addAttributeValue(NESTED, createEntity(id + "/" + i, depth - 1));
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * Measures the given operation after a warm up phase and prints the results.<p>
+     * 
+     * @param name the operation name
+     * @param iterations the number of measured iterations
+     * @param operation the operation
+     * 
+     * @throws Exception if the operation fails
+     */
+    private static void run(String name, int iterations, Operation operation) throws Exception {
+
+        for (int i = 0; i < iterations; i++) {
+            m_sink += operation.execute();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            m_sink += operation.execute();
+        }
+        long time = System.nanoTime() - start;
+        System.out.println(name + ": " + (time / iterations / 1000) + " us/op");
+    }
+
+    /**
+     * Serializes the given entity using java serialization.<p>
+     * 
+     * @param entity the entity
+     * 
+     * @return the serialized data
+     * 
+     * @throws IOException if writing fails
+     */
+    private static byte[] serialize(Entity entity) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(entity);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the given entity to a GWT-RPC response stream.<p>
+     * 
+     * @param entity the entity
+     * 
+     * @return the stream content
+     * 
+     * @throws SerializationException if writing fails
+     */
+    private static String writeRpc(Entity entity) throws SerializationException {
+
+        ServerSerializationStreamWriter writer = new ServerSerializationStreamWriter(new PermissivePolicy());
+        writer.prepareToWrite();
+        writer.serializeValue(entity, Entity.class);
+        return writer.toString();
+    }
+
+    /**
+     * A benchmarked operation.<p>
+     */
+    private interface Operation {
+
+        /**
+         * Executes the operation.<p>
+         * 
+         * @return some result value
+         * 
+         * @throws Exception if the operation fails
+         */
+        long execute() throws Exception;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.alkacon.acacia.shared;
+
+import com.alkacon.vie.shared.I_Type;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Test entities shared by the entity, codec and content service tests.<p>
+ * 
+ * All fixtures consist of a root entity with a title and a list of nested entities, each with a title of its own.<p>
+ */
+public final class EntityFixtures {
+
+    /** The complex attribute name of the nested children. */
+    public static final String ATTR_NESTED = "http:opencms/nested";
+
+    /** The complex attribute name of the nested paragraphs. */
+    public static final String ATTR_PARAGRAPH = "http:opencms/paragraph";
+
+    /** The simple title attribute name. */
+    public static final String ATTR_TITLE = "http:opencms/title";
+
+    /** The nested child type name. */
+    public static final String TYPE_CHILD = "cms:child";
+
+    /** The nested paragraph type name. */
+    public static final String TYPE_PARAGRAPH = "cms:paragraph";
+
+    /** The root type name. */
+    public static final String TYPE_ROOT = "cms:root";
+
+    /** The simple type name. */
+    public static final String TYPE_STRING = "cms:string";
+
+    /**
+     * Hidden constructor.<p>
+     */
+    private EntityFixtures() {
+
+        // fixtures only
+    }
+
+    /**
+     * Creates the root entity 'root' with the nested children 'child-0' to 'child-2'.<p>
+     * 
+     * The children are titled 'child 0' to 'child 2'.<p>
+     * 
+     * @return the test entity
+     */
+    public static Entity createEntity() {
+
+        return createEntity("root", ATTR_NESTED, TYPE_CHILD, "child", 3);
+    }
+
+    /**
+     * Creates the root entity 'root' with the nested paragraphs 'paragraph-0' to 'paragraph-n'.<p>
+     * 
+     * The paragraphs are titled 'paragraph 0' to 'paragraph n'.<p>
+     * 
+     * @param paragraphCount the number of nested paragraphs
+     * 
+     * @return the test entity
+     */
+    public static Entity createParagraphEntity(int paragraphCount) {
+
+        return createEntity("root", ATTR_PARAGRAPH, TYPE_PARAGRAPH, "paragraph", paragraphCount);
+    }
+
+    /**
+     * Creates a root entity with paragraphs whose ids start with the entity id, like '[entityId]-paragraph-0'.<p>
+     * 
+     * @param entityId the root entity id
+     * @param paragraphCount the number of nested paragraphs
+     * 
+     * @return the test entity
+     */
+    public static Entity createParagraphEntity(String entityId, int paragraphCount) {
+
+        return createEntity(entityId, ATTR_PARAGRAPH, TYPE_PARAGRAPH, entityId + "-paragraph", paragraphCount);
+    }
+
+    /**
+     * Creates the types of the entity returned by {@link #createEntity()}.<p>
+     * 
+     * The root type has a required title and up to five nested children, each with an optional title.<p>
+     * 
+     * @return the types by type name
+     */
+    public static Map<String, I_Type> createTypes() {
+
+        Type string = new Type(TYPE_STRING);
+        Type child = new Type(TYPE_CHILD);
+        child.addAttribute(ATTR_TITLE, TYPE_STRING, 0, 1);
+        Type root = new Type(TYPE_ROOT);
+        root.addAttribute(ATTR_TITLE, TYPE_STRING, 1, 1);
+        root.addAttribute(ATTR_NESTED, TYPE_CHILD, 0, 5);
+        Map<String, I_Type> result = new HashMap<String, I_Type>();
+        result.put(string.getId(), string);
+        result.put(child.getId(), child);
+        result.put(root.getId(), root);
+        return result;
+    }
+
+    /**
+     * Creates a root entity with the given nested entities.<p>
+     * 
+     * @param entityId the root entity id
+     * @param nestedAttribute the complex attribute name
+     * @param nestedType the nested entity type name
+     * @param nestedName the nested entity id and title prefix
+     * @param nestedCount the number of nested entities
+     * 
+     * @return the test entity
+     */
+    private static Entity createEntity(
+        String entityId,
+        String nestedAttribute,
+        String nestedType,
+        String nestedName,
+        int nestedCount) {
+
+        Entity entity = new Entity(entityId, TYPE_ROOT);
+        entity.addAttributeValue(ATTR_TITLE, "root title");
+        for (int i = 0; i < nestedCount; i++) {
+            Entity child = new Entity(nestedName + "-" + i, nestedType);
+            child.addAttributeValue(ATTR_TITLE, nestedName + " " + i);
+            entity.addAttributeValue(nestedAttribute, child);
+        }
+        return entity;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.alkacon.acacia.shared;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the attribute path value type.<p>
+ */
+public class TestAttributePath extends TestCase {
+
+    /**
+     * Tests map lookups with paths created from different arrays.<p>
+     */
+    public void testLookup() {
+
+        Map<AttributePath, String> errors = new HashMap<AttributePath, String>();
+        errors.put(AttributePath.valueOf(new String[] {"Paragraph[2]", "Title[1]"}), "error");
+        AttributePath path = AttributePath.valueOf(new String[] {"Paragraph[2]", "Title[1]"});
+        assertEquals("error", errors.get(path));
+        assertSame(path, AttributePath.parse("Paragraph[2]/Title[1]"));
+        assertEquals("Paragraph[2]/Title[1]", path.toString());
+    }
+
+    /**
+     * Tests that paths of attribute names containing separator or escape characters survive a string round trip.<p>
+     */
+    public void testEscaping() {
+
+        AttributePath path = AttributePath.valueOf(new String[] {"http:opencms/paragraph[2]", "http:opencms/title[1]"});
+        assertEquals("http:opencms\\/paragraph[2]/http:opencms\\/title[1]", path.toString());
+        assertSame(path, AttributePath.parse(path.toString()));
+        AttributePath escaped = AttributePath.valueOf(new String[] {"back\\slash", "", "end/"});
+        assertSame(escaped, AttributePath.parse(escaped.toString()));
+    }
+
+    /**
+     * Tests that recently used paths stay interned when the pool exceeds its maximum size.<p>
+     */
+    public void testPoolEviction() {
+
+        AttributePath recent = AttributePath.valueOf(new String[] {"Recent[1]"});
+        for (int i = 0; i < 30000; i++) {
+            AttributePath.valueOf(new String[] {"Other[" + i + "]"});
+            if ((i % 1000) == 0) {
+                assertSame(recent, AttributePath.valueOf(new String[] {"Recent[1]"}));
+            }
+        }
+        assertSame(recent, AttributePath.valueOf(new String[] {"Recent[1]"}));
+    }
+
+    /**
+     * Tests that deserialized paths restore their hash code, attribute names and value indexes.<p>
+     * 
+     * @throws Exception if the serialization fails
+     */
+    public void testSerialization() throws Exception {
+
+        AttributePath path = AttributePath.parse("Paragraph[2]/Title");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(path);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        AttributePath copy = (AttributePath)in.readObject();
+        in.close();
+        assertEquals(path, copy);
+        assertEquals(path.hashCode(), copy.hashCode());
+        assertEquals("Paragraph", copy.getName(0));
+        assertEquals(2, copy.getIndex(0));
+        assertEquals("Title", copy.getName(1));
+    }
+
+    /**
+     * Tests the parsed attribute names and value indexes.<p>
+     */
+    public void testNamesAndIndexes() {
+
+        AttributePath path = AttributePath.parse("Paragraph[2]/Title");
+        assertEquals("Paragraph", path.getName(0));
+        assertEquals(2, path.getIndex(0));
+        assertEquals("Title", path.getName(1));
+        assertEquals(0, path.getIndex(1));
+    }
+
+    /**
+     * Tests the prefix paths.<p>
+     */
+    public void testPrefix() {
+
+        AttributePath path = AttributePath.parse("Paragraph[2]/Link[3]/Title[1]");
+        assertSame(AttributePath.parse("Paragraph[2]"), path.getPrefix(1));
+        assertEquals("Paragraph[2]/Link[3]", path.getPrefix(2).toString());
+        assertSame(path, path.getPrefix(3));
+    }
+
+    /**
+     * Tests creating validation results from messages keyed by path element arrays.<p>
+     */
+    public void testValidationResultFromArrays() {
+
+        Map<String[], String> messages = new HashMap<String[], String>();
+        messages.put(new String[] {"Paragraph[2]", "Title[1]"}, "error");
+        Map<String, Map<String[], String>> errors = new HashMap<String, Map<String[], String>>();
+        errors.put("root", messages);
+        ValidationResult result = ValidationResult.create(errors, null);
+        assertEquals("error", result.getErrors("root").get(AttributePath.parse("Paragraph[2]/Title[1]")));
+        assertFalse(result.hasWarnings());
+    }
+
+    /**
+     * Tests reading values by path.<p>
+     */
+    public void testValueForPath() {
+
+        Entity entity = new Entity("root", "cms:root");
+        Entity child = new Entity("child", "cms:child");
+        child.addAttributeValue("cms:child/Title", "first");
+        child.addAttributeValue("cms:child/Title", "second");
+        entity.addAttributeValue("cms:root/Paragraph", child);
+        assertEquals("second", Entity.getValueForPath(entity, AttributePath.parse("Paragraph[1]/Title[2]")));
+        assertNull(Entity.getValueForPath(entity, AttributePath.parse("Paragraph[1]")));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.shared;
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the serializable entity implementation.<p>
+ */
+public class TestEntity extends TestCase {
+
+    /**
+     * Tests the entity content hash.<p>
+     */
+    public void testContentHash() {
+
+        Entity first = new Entity("root", "cms:root");
+        first.addAttributeValue("cms:root/Title", "title");
+        first.addAttributeValue("cms:root/Text", "text");
+        Entity second = new Entity("root", "cms:root");
+        second.addAttributeValue("cms:root/Text", "text");
+        second.addAttributeValue("cms:root/Title", "title");
+        assertEquals("The hash should not depend on the attribute order.", first.getContentHash(), second.getContentHash());
+
+        long hash = first.getContentHash();
+        first.setAttributeValue("cms:root/Title", "changed", 0);
+        assertFalse(hash == first.getContentHash());
+        first.setAttributeValue("cms:root/Title", "title", 0);
+        assertEquals("The hash should be stable for equal states.", hash, first.getContentHash());
+
+        Entity child = new Entity("child", "cms:child");
+        child.addAttributeValue("cms:child/Title", "child");
+        first.addAttributeValue("cms:root/Paragraph", child);
+        hash = first.getContentHash();
+        child.setAttributeValue("cms:child/Title", "changed", 0);
+        assertFalse("Nested changes should change the hash.", hash == first.getContentHash());
+    }
+
+    /**
+     * Tests that the cached subtree hashes are reset up to the root when a deeply nested entity changes.<p>
+     */
+    public void testCachedContentHash() {
+
+        Entity root = createNestedEntity();
+        long hash = root.getContentHash();
+        Entity nested = root.getEntityById("nested");
+        nested.setAttributeValue("cms:child/Title", "changed", 0);
+        assertFalse("Deeply nested changes should change the cached hash.", hash == root.getContentHash());
+        Entity expected = createNestedEntity();
+        expected.getEntityById("nested").setAttributeValue("cms:child/Title", "changed", 0);
+        assertEquals(expected.getContentHash(), root.getContentHash());
+
+        root.getComplexValue("cms:root/Paragraph", 0).removeAttribute("cms:child/Nested");
+        assertFalse(expected.getContentHash() == root.getContentHash());
+        nested.setAttributeValue("cms:child/Title", "detached", 0);
+        assertEquals("Changes to removed entities should not affect the hash.", hash(root), root.getContentHash());
+    }
+
+    /**
+     * Tests the id preserving copy and the attribute subset.<p>
+     */
+    public void testCopy() {
+
+        Entity root = createNestedEntity();
+        root.setVersion("v1");
+        root.addAttributeValue("cms:root/Title", "title");
+        Entity copy = root.createCopy();
+        assertEquals(root, copy);
+        assertEquals("v1", copy.getVersion());
+        Entity copiedNested = copy.getEntityById("nested");
+        assertNotSame(root.getEntityById("nested"), copiedNested);
+        assertSame(copy, copiedNested.getRootEntity());
+        copiedNested.setAttributeValue("cms:child/Title", "changed", 0);
+        Entity nested = root.getEntityById("nested");
+        assertEquals("Changing the copy should not change the original.", "nested", nested.getSimpleValue(
+            "cms:child/Title",
+            0));
+
+        Entity subset = root.createSubset(Collections.singletonList("cms:root/Paragraph"));
+        assertFalse(subset.hasAttribute("cms:root/Title"));
+        assertEquals("v1", subset.getVersion());
+        assertEquals(nested, subset.getEntityById("nested"));
+        assertNotSame(nested, subset.getEntityById("nested"));
+    }
+
+    /**
+     * Tests the entity id index and the parent links.<p>
+     */
+    public void testEntityIndex() {
+
+        Entity root = new Entity("root", "cms:root");
+        Entity first = new Entity("first", "cms:child");
+        Entity nested = new Entity("nested", "cms:child");
+        first.addAttributeValue("cms:child/Nested", nested);
+        root.addAttributeValue("cms:root/Paragraph", first);
+        assertSame(nested, root.getEntityById("nested"));
+        assertSame(first, nested.getParent());
+        assertSame(root, nested.getRootEntity());
+
+        // changes after the index has been built
+        Entity second = new Entity("second", "cms:child");
+        root.insertAttributeValue("cms:root/Paragraph", second, 0);
+        assertSame(second, root.getEntityById("second"));
+        assertNull("Lookups on nested entities should be limited to their content.", first.getEntityById("second"));
+        root.removeAttributeValue("cms:root/Paragraph", 1);
+        assertNull(root.getEntityById("nested"));
+        assertNull(first.getParent());
+        root.setAttributeValue("cms:root/Paragraph", first, 0);
+        assertSame(nested, root.getEntityById("nested"));
+        assertNull(root.getEntityById("second"));
+
+        Entity copy = root.createDeepCopy("copy");
+        Entity copiedFirst = copy.getComplexValue("cms:root/Paragraph", 0);
+        assertSame(copy, copiedFirst.getParent());
+        assertSame(copy, copiedFirst.getComplexValue("cms:child/Nested", 0).getRootEntity());
+        assertSame(copy, copy.getEntityById("copy"));
+    }
+
+    /**
+     * Creates an entity with two levels of nested entities.<p>
+     * 
+     * @return the entity
+     */
+    private Entity createNestedEntity() {
+
+        Entity root = new Entity("root", "cms:root");
+        Entity first = new Entity("first", "cms:child");
+        Entity nested = new Entity("nested", "cms:child");
+        nested.addAttributeValue("cms:child/Title", "nested");
+        first.addAttributeValue("cms:child/Nested", nested);
+        root.addAttributeValue("cms:root/Paragraph", first);
+        return root;
+    }
+
+    /**
+     * Returns the content hash of a fresh copy of the given entity, not using any cached hashes.<p>
+     * 
+     * @param entity the entity
+     * 
+     * @return the content hash
+     */
+    private long hash(Entity entity) {
+
+        return Entity.serializeEntity(entity).getContentHash();
+    }
+}
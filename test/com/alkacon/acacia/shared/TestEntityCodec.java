@@ -0,0 +1,329 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.shared;
+
+import com.alkacon.vie.shared.I_Type;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the compact entity encoding.<p>
+ */
+public class TestEntityCodec extends TestCase {
+
+    /**
+     * Tests encoding and decoding a content definition.<p>
+     */
+    public void testContentDefinition() {
+
+        Type type = new Type(EntityFixtures.TYPE_ROOT);
+        type.addAttribute(EntityFixtures.ATTR_TITLE, "cms:string", 1, 1);
+        type.addAttribute(EntityFixtures.ATTR_NESTED, EntityFixtures.TYPE_CHILD, 0, 5);
+        type.setChoiceMaxOccurrence(2);
+        Map<String, I_Type> types = new HashMap<String, I_Type>();
+        types.put(type.getId(), type);
+        Map<String, AttributeConfiguration> configurations = new HashMap<String, AttributeConfiguration>();
+        configurations.put(
+            EntityFixtures.ATTR_TITLE,
+            new AttributeConfiguration("Title", null, "string", "", "default", "wide"));
+        List<TabInfo> tabInfos = new ArrayList<TabInfo>();
+        tabInfos.add(new TabInfo("General", "general", "title", true));
+        ContentDefinition definition = new ContentDefinition(
+            EntityFixtures.createEntity(),
+            configurations,
+            types,
+            tabInfos,
+            true,
+            "en");
+        ContentDefinition decoded = EntityCodec.decodeContentDefinition(EntityCodec.encode(definition));
+        assertEquals(definition.getEntity(), decoded.getEntity());
+        assertEquals("en", decoded.getLocale());
+        assertTrue(decoded.isGroupOptionalFields());
+        I_Type decodedType = decoded.getTypes().get(EntityFixtures.TYPE_ROOT);
+        assertEquals(type.getAttributeNames(), decodedType.getAttributeNames());
+        assertEquals(5, decodedType.getAttributeMaxOccurrence(EntityFixtures.ATTR_NESTED));
+        assertEquals(2, decodedType.getChoiceMaxOccurrence());
+        AttributeConfiguration configuration = decoded.getConfigurations().get(EntityFixtures.ATTR_TITLE);
+        assertEquals("Title", configuration.getLabel());
+        assertNull(configuration.getHelp());
+        assertEquals("", configuration.getWidgetConfig());
+        assertEquals("wide", configuration.getDisplayType());
+        assertEquals("general", decoded.getTabInfos().get(0).getTabId());
+        assertTrue(decoded.getTabInfos().get(0).isCollapsed());
+    }
+
+    /**
+     * Tests the content definition for the initial display only contains the values of the first tab.<p>
+     */
+    public void testInitialDefinition() {
+
+        Type type = new Type(EntityFixtures.TYPE_ROOT);
+        type.addAttribute(EntityFixtures.ATTR_TITLE, "cms:string", 1, 1);
+        type.addAttribute(EntityFixtures.ATTR_NESTED, EntityFixtures.TYPE_CHILD, 0, 5);
+        Map<String, I_Type> types = new HashMap<String, I_Type>();
+        types.put(type.getId(), type);
+        List<TabInfo> tabInfos = new ArrayList<TabInfo>();
+        tabInfos.add(new TabInfo("General", "general", "title", false));
+        tabInfos.add(new TabInfo("Nested", "nested", "nested", false));
+        Entity entity = EntityFixtures.createEntity();
+        ContentDefinition initial = new ContentDefinition(
+            entity,
+            new HashMap<String, AttributeConfiguration>(),
+            types,
+            tabInfos,
+            false,
+            "en").createInitialDefinition();
+        assertEquals(Collections.singletonList(EntityFixtures.ATTR_NESTED), initial.getPendingAttributes());
+        assertFalse(initial.getEntity().hasAttribute(EntityFixtures.ATTR_NESTED));
+        assertEquals("root title", initial.getEntity().getSimpleValue(EntityFixtures.ATTR_TITLE, 0));
+        ContentDefinition decoded = EntityCodec.decodeContentDefinition(EntityCodec.encode(initial));
+        assertEquals(initial.getPendingAttributes(), decoded.getPendingAttributes());
+        // the pending values are loaded as subset keeping the nested entity ids
+        Entity subset = entity.createSubset(initial.getPendingAttributes());
+        assertFalse(subset.hasAttribute(EntityFixtures.ATTR_TITLE));
+        assertEquals(entity.getComplexValue(EntityFixtures.ATTR_NESTED, 2), subset.getEntityById("child-2"));
+    }
+
+    /**
+     * Tests encoding and decoding an entity.<p>
+     */
+    public void testEntity() {
+
+        Entity entity = EntityFixtures.createEntity();
+        // titles containing the separators of the encoding
+        for (int i = 0; i < 3; i++) {
+            entity.getEntityById("child-" + i).setAttributeValue(
+                EntityFixtures.ATTR_TITLE,
+                "a, b:\n" + (i + 1) + ",",
+                0);
+        }
+        entity.setVersion(entity.getContentVersion());
+        String encoded = EntityCodec.encode(entity);
+        Entity decoded = EntityCodec.decodeEntity(encoded);
+        assertEquals(entity, decoded);
+        assertEquals(entity.getVersion(), decoded.getVersion());
+        assertEquals(entity.getContentVersion(), decoded.getContentVersion());
+        assertEquals("a, b:\n3,", decoded.getEntityById("child-2").getSimpleValue(EntityFixtures.ATTR_TITLE, 0));
+        // attribute names are written once to the string table
+        assertEquals(encoded.indexOf(EntityFixtures.ATTR_TITLE), encoded.lastIndexOf(EntityFixtures.ATTR_TITLE));
+    }
+
+    /**
+     * Tests encoding and decoding entity patches.<p>
+     * 
+     * @throws Exception if applying a patch fails
+     */
+    public void testEntityPatch() throws Exception {
+
+        EntityPatch complete = EntityCodec.decodeEntityPatch(EntityCodec.encode(new EntityPatch(
+            EntityFixtures.createEntity(),
+            "v1")));
+        assertTrue(complete.isComplete());
+        assertEquals(EntityFixtures.createEntity(), complete.getEntity());
+        assertEquals("v1", complete.getVersion());
+        List<PatchOperation> operations = new ArrayList<PatchOperation>();
+        operations.add(PatchOperation.createSet("root", EntityFixtures.ATTR_TITLE, 0, "changed"));
+        operations.add(PatchOperation.createRemove("root", EntityFixtures.ATTR_NESTED, 0));
+        operations.add(PatchOperation.createMove("root", EntityFixtures.ATTR_NESTED, 1, 0));
+        Entity child = new Entity("child-3", EntityFixtures.TYPE_CHILD);
+        child.addAttributeValue(EntityFixtures.ATTR_TITLE, "inserted");
+        operations.add(PatchOperation.createInsert("root", EntityFixtures.ATTR_NESTED, 2, child));
+        operations.add(PatchOperation.createReplace(
+            "child-1",
+            EntityFixtures.ATTR_TITLE,
+            Collections.singletonList("replaced"),
+            null));
+        EntityPatch patch = new EntityPatch("root", "v1", "v2", operations);
+        EntityPatch decoded = EntityCodec.decodeEntityPatch(EntityCodec.encode(patch));
+        assertFalse(decoded.isComplete());
+        assertEquals("v1", decoded.getBaseVersion());
+        assertEquals("v2", decoded.getVersion());
+        assertEquals(
+            patch.apply(EntityFixtures.createEntity(), "v1"),
+            decoded.apply(EntityFixtures.createEntity(), "v1"));
+    }
+
+    /**
+     * Tests decoding invalid data fails with an illegal argument exception.<p>
+     */
+    public void testInvalidData() {
+
+        String encoded = EntityCodec.encode(EntityFixtures.createEntity());
+        for (int i = 0; i < encoded.length(); i++) {
+            assertInvalidEntity(encoded.substring(0, i));
+        }
+        assertInvalidEntity(null);
+        // a string table larger than the data
+        assertInvalidEntity("1,zzzzzz,");
+        // an invalid number
+        assertInvalidEntity("1,0,!,");
+        // a name index outside the string table
+        assertInvalidEntity("1,0,-1,5,");
+
+        List<PatchOperation> operations = new ArrayList<PatchOperation>();
+        operations.add(PatchOperation.createReplace(
+            "root",
+            EntityFixtures.ATTR_TITLE,
+            Collections.<String> emptyList(),
+            null));
+        String replace = EntityCodec.encode(new EntityPatch("root", "v1", "v2", operations));
+        for (String type : new String[] {"6,insert", "3,set"}) {
+            try {
+                EntityCodec.decodeEntityPatch(replace.replace("7,replace", type));
+                fail("Decoding an operation without a value should fail.");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Tests replaying an edit journal.<p>
+     */
+    public void testJournal() {
+
+        String journal = EntityCodec.encodeJournal("v1", new EntityPatch(EntityFixtures.createEntity(), "v2"));
+        journal = EntityCodec.appendJournal(journal, new EntityPatch("root", "v2", "v3", Collections.singletonList(
+            PatchOperation.createSet("child-1", EntityFixtures.ATTR_TITLE, 0, "changed"))));
+        journal = EntityCodec.appendJournal(journal, new EntityPatch("root", "v3", "v4", Collections.singletonList(
+            PatchOperation.createRemove("root", EntityFixtures.ATTR_NESTED, 0))));
+        Entity expected = EntityFixtures.createEntity();
+        expected.getEntityById("child-1").setAttributeValue(EntityFixtures.ATTR_TITLE, "changed", 0);
+        expected.removeAttributeValue(EntityFixtures.ATTR_NESTED, 0);
+        Entity restored = EntityCodec.decodeJournal(journal);
+        assertEquals(expected, restored);
+        assertEquals("The restored entity should be based on the journal base version.", "v1", restored.getVersion());
+
+        // a later snapshot replaces the changes journaled before
+        Entity snapshot = EntityFixtures.createEntity();
+        snapshot.setAttributeValue(EntityFixtures.ATTR_TITLE, "snapshot", 0);
+        journal = EntityCodec.appendJournal(journal, new EntityPatch(snapshot, "v5"));
+        assertEquals(snapshot, EntityCodec.decodeJournal(journal));
+
+        // new entities have no base version
+        restored = EntityCodec.decodeJournal(EntityCodec.encodeJournal(null, new EntityPatch(snapshot, "v1")));
+        assertEquals(snapshot, restored);
+        assertNull(restored.getVersion());
+
+        try {
+            EntityCodec.decodeJournal(journal.substring(0, journal.length() - 5));
+            fail("Replaying a truncated journal should fail.");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        try {
+            EntityCodec.encodeJournal(
+                "v1",
+                new EntityPatch("root", "v1", "v2", Collections.<PatchOperation> emptyList()));
+            fail("Journals should start with a complete snapshot.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests leaving out a schema already known to the client.<p>
+     */
+    public void testSchemaVersion() {
+
+        Type type = new Type(EntityFixtures.TYPE_ROOT);
+        type.addAttribute(EntityFixtures.ATTR_TITLE, "cms:string", 1, 1);
+        Map<String, I_Type> types = new HashMap<String, I_Type>();
+        types.put(type.getId(), type);
+        Map<String, AttributeConfiguration> configurations = new HashMap<String, AttributeConfiguration>();
+        configurations.put(
+            EntityFixtures.ATTR_TITLE,
+            new AttributeConfiguration("Title", null, "string", "", "default", "wide"));
+        ContentDefinition definition = new ContentDefinition(
+            EntityFixtures.createEntity(),
+            configurations,
+            types,
+            null,
+            false,
+            "en");
+        ContentDefinition first = definition.omitKnownSchema(new HashMap<String, String>());
+        assertFalse(first.isSchemaOmitted());
+        String version = first.getSchemaVersion();
+        assertNotNull(version);
+        ContentDefinition second = definition.omitKnownSchema(Collections.singletonMap(
+            EntityFixtures.TYPE_ROOT,
+            version));
+        assertTrue(second.isSchemaOmitted());
+        ContentDefinition decoded = EntityCodec.decodeContentDefinition(EntityCodec.encode(second));
+        assertTrue(decoded.isSchemaOmitted());
+        assertEquals(version, decoded.getSchemaVersion());
+        assertEquals(definition.getEntity(), decoded.getEntity());
+        // any change of the configurations results in a new version
+        configurations.put(
+            EntityFixtures.ATTR_TITLE,
+            new AttributeConfiguration("Title", null, "string", "", "default", "column"));
+        assertFalse(version.equals(ContentDefinition.computeSchemaVersion(types, configurations)));
+    }
+
+    /**
+     * Tests encoding and decoding a validation result.<p>
+     */
+    public void testValidationResult() {
+
+        Map<String, Map<AttributePath, String>> errors = new HashMap<String, Map<AttributePath, String>>();
+        Map<AttributePath, String> messages = new HashMap<AttributePath, String>();
+        messages.put(AttributePath.parse("title[1]"), "Required");
+        messages.put(AttributePath.parse("nested[2]/title[1]"), "Too long");
+        errors.put("root", messages);
+        ValidationResult decoded = EntityCodec.decodeValidationResult(EntityCodec.encode(new ValidationResult(
+            errors,
+            null)));
+        assertEquals(messages, decoded.getErrors("root"));
+        assertFalse(decoded.hasWarnings());
+        assertFalse(decoded.hasConflicts());
+        decoded = EntityCodec.decodeValidationResult(EntityCodec.encode(new ValidationResult(
+            errors,
+            null,
+            Collections.singleton("root"))));
+        assertTrue(decoded.hasConflicts("root"));
+    }
+
+    /**
+     * Asserts decoding the given data as entity fails with an illegal argument exception.<p>
+     * 
+     * @param data the data
+     */
+    private void assertInvalidEntity(String data) {
+
+        try {
+            EntityCodec.decodeEntity(data);
+            fail("Decoding invalid data should fail: " + data);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
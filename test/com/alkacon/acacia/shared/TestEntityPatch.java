@@ -0,0 +1,88 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.alkacon.acacia.shared;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests applying entity patches.<p>
+ */
+public class TestEntityPatch extends TestCase {
+
+    /**
+     * Tests applying operations to a stored entity.<p>
+     * 
+     * @throws Exception if the test fails
+     */
+    public void testApply() throws Exception {
+
+        Entity expected = EntityFixtures.createEntity();
+        expected.setAttributeValue(EntityFixtures.ATTR_TITLE, "changed", 0);
+        expected.getEntityById("child-2").setAttributeValue(EntityFixtures.ATTR_TITLE, "changed child", 0);
+        Entity child = new Entity("child-3", EntityFixtures.TYPE_CHILD);
+        child.addAttributeValue(EntityFixtures.ATTR_TITLE, "new child");
+        expected.insertAttributeValue(EntityFixtures.ATTR_NESTED, child, 1);
+        Entity moved = expected.getEntityById("child-0");
+        expected.removeAttributeValue(EntityFixtures.ATTR_NESTED, 0);
+        expected.insertAttributeValue(EntityFixtures.ATTR_NESTED, moved, 2);
+        expected.removeAttributeValue(EntityFixtures.ATTR_NESTED, 3);
+
+        List<PatchOperation> operations = new ArrayList<PatchOperation>();
+        operations.add(PatchOperation.createSet("root", EntityFixtures.ATTR_TITLE, 0, "changed"));
+        operations.add(PatchOperation.createSet("child-2", EntityFixtures.ATTR_TITLE, 0, "changed child"));
+        operations.add(PatchOperation.createInsert("root", EntityFixtures.ATTR_NESTED, 1, child));
+        operations.add(PatchOperation.createMove("root", EntityFixtures.ATTR_NESTED, 0, 2));
+        operations.add(PatchOperation.createRemove("root", EntityFixtures.ATTR_NESTED, 3));
+        EntityPatch patch = new EntityPatch("root", "v1", "v2", operations);
+        assertEquals(expected, patch.apply(EntityFixtures.createEntity(), "v1"));
+    }
+
+    /**
+     * Tests that a patch is rejected if the base version does not match.<p>
+     */
+    public void testConflict() {
+
+        EntityPatch patch = new EntityPatch("root", "v1", "v2", Arrays.asList(PatchOperation.createRemove(
+            "child-5",
+            EntityFixtures.ATTR_TITLE,
+            0)));
+        try {
+            patch.apply(EntityFixtures.createEntity(), "v0");
+            fail("The version conflict should have been detected.");
+        } catch (VersionConflictException e) {
+            // expected
+        }
+        try {
+            patch.apply(EntityFixtures.createEntity(), "v1");
+            fail("The missing entity should have been detected.");
+        } catch (VersionConflictException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+
+package com.alkacon.acacia.shared;
+
+import com.alkacon.vie.shared.I_Type;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the client side entity validation.<p>
+ */
+public class TestEntityValidator extends TestCase {
+
+    /** The complex attribute name. */
+    private static final String ATTR_NESTED = "http:opencms/nested";
+
+    /** The simple attribute name with a validation rule. */
+    private static final String ATTR_NUMBER = "http:opencms/number";
+
+    /** The simple attribute name. */
+    private static final String ATTR_TITLE = "http:opencms/title";
+
+    /** The attribute configurations. */
+    private Map<String, AttributeConfiguration> m_configurations;
+
+    /** The types. */
+    private Map<String, I_Type> m_types;
+
+    /**
+     * Tests the minimum and maximum occurrence checks.<p>
+     */
+    public void testOccurrence() {
+
+        EntityValidator validator = new EntityValidator(m_types, m_configurations);
+        Entity entity = new Entity("root", "cms:root");
+        ValidationResult result = validator.validate(entity);
+        assertTrue(result.hasErrors("root"));
+        assertTrue(result.getErrors("root").containsKey(AttributePath.valueOf(ATTR_TITLE + "[0]")));
+        entity.addAttributeValue(ATTR_TITLE, "title");
+        for (int i = 0; i < 3; i++) {
+            Entity child = new Entity("child-" + i, "cms:child");
+            child.addAttributeValue(ATTR_NUMBER, String.valueOf(i));
+            entity.addAttributeValue(ATTR_NESTED, child);
+        }
+        result = validator.validate(entity);
+        assertEquals(1, result.getErrors("root").size());
+        assertTrue(result.getErrors("root").containsKey(AttributePath.valueOf(ATTR_NESTED + "[2]")));
+        entity.removeAttributeValue(ATTR_NESTED, 2);
+        assertFalse(validator.validate(entity).hasErrors("root"));
+    }
+
+    /**
+     * Tests empty required values and the regular expression rules.<p>
+     */
+    public void testRules() {
+
+        EntityValidator validator = new EntityValidator(m_types, m_configurations);
+        Entity entity = new Entity("root", "cms:root");
+        entity.addAttributeValue(ATTR_TITLE, "");
+        Entity child = new Entity("child-0", "cms:child");
+        child.addAttributeValue(ATTR_NUMBER, "not a number");
+        entity.addAttributeValue(ATTR_NESTED, child);
+        Map<AttributePath, String> errors = validator.validate(entity).getErrors("root");
+        assertEquals(2, errors.size());
+        assertEquals("Value required.", errors.get(AttributePath.valueOf(ATTR_TITLE + "[0]")));
+        assertEquals(
+            "Only digits allowed.",
+            errors.get(AttributePath.valueOf(new String[] {ATTR_NESTED + "[0]", ATTR_NUMBER + "[0]"})));
+        child.setAttributeValue(ATTR_NUMBER, "42");
+        entity.setAttributeValue(ATTR_TITLE, "title");
+        assertFalse(validator.validate(entity).hasErrors("root"));
+    }
+
+    /**
+     * Tests the detection of rules requiring the server side validation.<p>
+     */
+    public void testServerValidation() {
+
+        EntityValidator validator = new EntityValidator(m_types, m_configurations);
+        assertFalse(validator.isServerValidationRequired("cms:root"));
+        assertTrue(validator.isServerValidationRequired("cms:unknown"));
+        AttributeConfiguration config = new AttributeConfiguration("number", null, "string", null, null, null);
+        config.setServerValidation(true);
+        Map<String, AttributeConfiguration> configurations = new HashMap<String, AttributeConfiguration>();
+        configurations.put(ATTR_NUMBER, config);
+        validator.addSchema(new HashMap<String, I_Type>(), configurations);
+        assertTrue(validator.isServerValidationRequired("cms:child"));
+        assertTrue(validator.isServerValidationRequired("cms:root"));
+    }
+
+    /**
+     * @see junit.framework.TestCase#setUp()
+     */
+    @Override
+    protected void setUp() {
+
+        m_types = new HashMap<String, I_Type>();
+        Type string = new Type("cms:string");
+        Type child = new Type("cms:child");
+        child.addAttribute(ATTR_NUMBER, string.getId(), 1, 1);
+        Type root = new Type("cms:root");
+        root.addAttribute(ATTR_TITLE, string.getId(), 1, 1);
+        root.addAttribute(ATTR_NESTED, child.getId(), 0, 2);
+        m_types.put(string.getId(), string);
+        m_types.put(child.getId(), child);
+        m_types.put(root.getId(), root);
+        m_configurations = new HashMap<String, AttributeConfiguration>();
+        AttributeConfiguration config = new AttributeConfiguration("number", null, "string", null, null, null);
+        config.setValidation("[0-9]+", "Only digits allowed.");
+        m_configurations.put(ATTR_NUMBER, config);
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * This library is part of the Acacia Editor -
+ * an open source inline and form based content editor for GWT.
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package com.alkacon.acacia.shared;
+
+import com.alkacon.vie.shared.I_Entity;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the persistent entity implementation.<p>
+ */
+public class TestPersistentEntity extends TestCase {
+
+    /**
+     * Tests that adopted entities stay live after being added to a parent.<p>
+     */
+    public void testAdoption() {
+
+        PersistentEntity persistent = new PersistentEntity("root", EntityFixtures.TYPE_ROOT);
+        PersistentEntity child = new PersistentEntity("child", EntityFixtures.TYPE_CHILD);
+        persistent.addAttributeValue(EntityFixtures.ATTR_NESTED, child);
+        child.addAttributeValue(EntityFixtures.ATTR_TITLE, "added later");
+        assertEquals(
+            "added later",
+            persistent.getEntityById("child").getAttribute(EntityFixtures.ATTR_TITLE).getSimpleValue());
+        persistent.removeAttribute(EntityFixtures.ATTR_NESTED);
+        child.setAttributeValue(EntityFixtures.ATTR_TITLE, "detached");
+        assertFalse(persistent.hasAttribute(EntityFixtures.ATTR_NESTED));
+    }
+
+    /**
+     * Tests the conversion from and to serializable entities.<p>
+     */
+    public void testConversion() {
+
+        Entity entity = EntityFixtures.createEntity();
+        PersistentEntity persistent = PersistentEntity.create(entity);
+        assertEquals("The converted entity should equal the original.", entity, persistent.toEntity());
+        assertEquals("root title", persistent.getAttribute(EntityFixtures.ATTR_TITLE).getSimpleValue());
+        assertEquals("child-1", persistent.getEntityById("child-1").getId());
+    }
+
+    /**
+     * Tests that deep copies get new ids for the nested entities.<p>
+     */
+    public void testDeepCopy() {
+
+        PersistentEntity persistent = PersistentEntity.create(EntityFixtures.createEntity());
+        PersistentEntity copy = persistent.createDeepCopy("copy");
+        assertEquals("copy", copy.getId());
+        assertEquals(persistent.toEntity(), copy.toEntity());
+        Set<String> ids = new HashSet<String>();
+        for (I_Entity child : copy.getAttribute(EntityFixtures.ATTR_NESTED).getComplexValues()) {
+            assertNull("The nested copies should have new ids.", persistent.getEntityById(child.getId()));
+            assertTrue("The nested ids should be unique.", ids.add(child.getId()));
+        }
+        assertNotNull(persistent.createDeepCopy(null).getId());
+    }
+
+    /**
+     * Tests value lists and attribute maps growing beyond a single trie level.<p>
+     */
+    public void testLargeValueLists() {
+
+        PersistentEntity persistent = new PersistentEntity("root", EntityFixtures.TYPE_ROOT);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 1100; i++) {
+            persistent.addAttributeValue(EntityFixtures.ATTR_TITLE, "value " + i);
+            expected.add("value " + i);
+        }
+        PersistentEntity snapshot = persistent.snapshot();
+        persistent.setAttributeValue(EntityFixtures.ATTR_TITLE, "changed", 1050);
+        expected.set(1050, "changed");
+        persistent.insertAttributeValue(EntityFixtures.ATTR_TITLE, "inserted", 33);
+        expected.add(33, "inserted");
+        persistent.removeAttributeValue(EntityFixtures.ATTR_TITLE, 1024);
+        expected.remove(1024);
+        assertEquals(expected, persistent.getAttribute(EntityFixtures.ATTR_TITLE).getSimpleValues());
+        assertEquals("value 1050", snapshot.getAttribute(EntityFixtures.ATTR_TITLE).getSimpleValues().get(1050));
+
+        // the names have equal hash codes
+        persistent.addAttributeValue("Aa", "first");
+        persistent.addAttributeValue("BB", "second");
+        persistent.removeAttribute(EntityFixtures.ATTR_TITLE);
+        assertEquals("first", persistent.getAttribute("Aa").getSimpleValue());
+        assertEquals("second", persistent.getAttribute("BB").getSimpleValue());
+        persistent.removeAttribute("Aa");
+        assertFalse(persistent.hasAttribute("Aa"));
+        assertEquals("second", persistent.getAttribute("BB").getSimpleValue());
+        assertEquals(1, persistent.getAttributes().size());
+    }
+
+    /**
+     * Tests that changes to nested entity handles are propagated to the root while snapshots stay unchanged.<p>
+     */
+    public void testNestedChange() {
+
+        PersistentEntity persistent = PersistentEntity.create(EntityFixtures.createEntity());
+        PersistentEntity snapshot = persistent.snapshot();
+        I_Entity child = persistent.getAttribute(EntityFixtures.ATTR_NESTED).getComplexValues().get(1);
+        child.setAttributeValue(EntityFixtures.ATTR_TITLE, "changed", 0);
+        assertEquals(
+            "changed",
+            persistent.getEntityById("child-1").getAttribute(EntityFixtures.ATTR_TITLE).getSimpleValue());
+        assertEquals(
+            "child 1",
+            snapshot.getEntityById("child-1").getAttribute(EntityFixtures.ATTR_TITLE).getSimpleValue());
+        assertFalse(persistent.equals(snapshot));
+        // the untouched sibling should still be shared
+        assertTrue(persistent.getEntityById("child-0").isSameState(snapshot.getEntityById("child-0")));
+    }
+
+    /**
+     * Tests that the id lookup stays correct while the nested entities are moved, removed and replaced.<p>
+     */
+    public void testEntityByIdIndex() {
+
+        PersistentEntity persistent = PersistentEntity.create(EntityFixtures.createEntity());
+        PersistentEntity child = persistent.getEntityById("child-2");
+        assertSame(child, persistent.getEntityById("child-2"));
+        persistent.removeAttributeValue(EntityFixtures.ATTR_NESTED, 0);
+        assertSame(child, persistent.getEntityById("child-2"));
+        assertNull(persistent.getEntityById("child-0"));
+        persistent.removeAttributeValue(EntityFixtures.ATTR_NESTED, 1);
+        assertNull(persistent.getEntityById("child-2"));
+        PersistentEntity replacement = new PersistentEntity("child-2", EntityFixtures.TYPE_CHILD);
+        persistent.insertAttributeValue(EntityFixtures.ATTR_NESTED, replacement, 0);
+        assertSame(replacement, persistent.getEntityById("child-2"));
+        assertEquals(
+            "child 1",
+            persistent.getEntityById("child-1").getAttribute(EntityFixtures.ATTR_TITLE).getSimpleValue());
+    }
+
+    /**
+     * Tests that nested entity handles follow index changes of their parent.<p>
+     */
+    public void testNestedHandleIndex() {
+
+        PersistentEntity persistent = PersistentEntity.create(EntityFixtures.createEntity());
+        I_Entity last = persistent.getAttribute(EntityFixtures.ATTR_NESTED).getComplexValues().get(2);
+        persistent.removeAttributeValue(EntityFixtures.ATTR_NESTED, 0);
+        persistent.insertAttributeValue(
+            EntityFixtures.ATTR_NESTED,
+            new PersistentEntity("new", EntityFixtures.TYPE_CHILD),
+            0);
+        persistent.insertAttributeValue(
+            EntityFixtures.ATTR_NESTED,
+            new PersistentEntity("new2", EntityFixtures.TYPE_CHILD),
+            0);
+        last.setAttributeValue(EntityFixtures.ATTR_TITLE, "changed last", 0);
+        assertEquals(
+            "changed last",
+            persistent.getAttribute(EntityFixtures.ATTR_NESTED).getComplexValues().get(3).getAttribute(
+                EntityFixtures.ATTR_TITLE).getSimpleValue());
+    }
+}